@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.file;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A mutable index of values associated with absolute paths, using the same notion of hierarchy as {@link DefaultFileHierarchySet}: a path overlaps
+ * another path when it is the same path, an ancestor or a descendant of it. The cost of queries and updates is proportional to the depth of the path,
+ * not to the number of paths in the index.
+ *
+ * <p>This class is not thread-safe.</p>
+ */
+public class FileHierarchyIndex<T> {
+    private final Node<T> root = new Node<T>();
+
+    /**
+     * Associates the given value with the given path.
+     */
+    public void put(String path, T value) {
+        Node<T> node = root;
+        node.subtreeSize++;
+        for (String segment : segments(path)) {
+            node = node.getOrCreateChild(segment);
+            node.subtreeSize++;
+        }
+        node.values.add(value);
+    }
+
+    /**
+     * Removes one association of the given value with the given path.
+     *
+     * @return true if the association was present.
+     */
+    public boolean remove(String path, T value) {
+        List<String> segments = segments(path);
+        List<Node<T>> nodes = new ArrayList<Node<T>>(segments.size() + 1);
+        Node<T> node = root;
+        nodes.add(node);
+        for (String segment : segments) {
+            node = node.children.get(segment);
+            if (node == null) {
+                return false;
+            }
+            nodes.add(node);
+        }
+        if (!node.values.remove(value)) {
+            return false;
+        }
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            Node<T> current = nodes.get(i);
+            current.subtreeSize--;
+            if (i > 0 && current.subtreeSize == 0) {
+                nodes.get(i - 1).children.remove(segments.get(i - 1));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns some value associated with a path that overlaps the given path, or null when there is none.
+     */
+    @Nullable
+    public T findFirstOverlapping(String path) {
+        Node<T> node = root;
+        for (String segment : segments(path)) {
+            if (!node.values.isEmpty()) {
+                // An ancestor of the path
+                return node.values.get(0);
+            }
+            node = node.children.get(segment);
+            if (node == null) {
+                return null;
+            }
+        }
+        // The path itself or one of its descendants
+        return node.subtreeSize == 0 ? null : node.firstValueInSubtree();
+    }
+
+    /**
+     * Returns all values associated with paths that overlap the given path.
+     */
+    public Collection<T> getOverlapping(String path) {
+        List<T> result = Lists.newArrayList();
+        Node<T> node = root;
+        for (String segment : segments(path)) {
+            result.addAll(node.values);
+            node = node.children.get(segment);
+            if (node == null) {
+                return result;
+            }
+        }
+        node.collectSubtree(result);
+        return result;
+    }
+
+    public boolean isEmpty() {
+        return root.subtreeSize == 0;
+    }
+
+    public void clear() {
+        root.children.clear();
+        root.values.clear();
+        root.subtreeSize = 0;
+    }
+
+    private static List<String> segments(String path) {
+        List<String> segments = new ArrayList<String>();
+        int start = 0;
+        int length = path.length();
+        if (length > 0 && path.charAt(length - 1) == File.separatorChar) {
+            length--;
+        }
+        for (int pos = 0; pos < length; pos++) {
+            if (path.charAt(pos) == File.separatorChar) {
+                segments.add(path.substring(start, pos));
+                start = pos + 1;
+            }
+        }
+        segments.add(path.substring(start, length));
+        return segments;
+    }
+
+    private static class Node<T> {
+        private final Map<String, Node<T>> children = Maps.newHashMap();
+        private final List<T> values = new ArrayList<T>(1);
+        // The number of values associated with this node and its descendants
+        private int subtreeSize;
+
+        Node<T> getOrCreateChild(String segment) {
+            Node<T> child = children.get(segment);
+            if (child == null) {
+                child = new Node<T>();
+                children.put(segment, child);
+            }
+            return child;
+        }
+
+        T firstValueInSubtree() {
+            if (!values.isEmpty()) {
+                return values.get(0);
+            }
+            for (Node<T> child : children.values()) {
+                if (child.subtreeSize > 0) {
+                    return child.firstValueInSubtree();
+                }
+            }
+            throw new IllegalStateException("No value in subtree.");
+        }
+
+        void collectSubtree(Collection<T> result) {
+            result.addAll(values);
+            for (Node<T> child : children.values()) {
+                child.collectSubtree(result);
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.file
+
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+class FileHierarchyIndexTest extends Specification {
+    @Rule TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+
+    def index = new FileHierarchyIndex<String>()
+
+    def "empty index does not overlap any path"() {
+        expect:
+        index.isEmpty()
+        index.findFirstOverlapping(tmpDir.file("any").path) == null
+        index.getOverlapping(tmpDir.file("any").path).empty
+    }
+
+    def "finds values of the same path, ancestors and descendants"() {
+        def parent = tmpDir.createDir()
+        def dir = parent.file("dir")
+        index.put(dir.path, "dir")
+
+        expect:
+        index.findFirstOverlapping(dir.path) == "dir"
+        index.findFirstOverlapping(dir.file("child").path) == "dir"
+        index.findFirstOverlapping(parent.path) == "dir"
+        index.findFirstOverlapping(parent.file("dir2").path) == null
+        index.findFirstOverlapping(parent.file("d").path) == null
+        index.findFirstOverlapping(parent.file("other/dir").path) == null
+    }
+
+    def "collects all overlapping values"() {
+        def parent = tmpDir.createDir()
+        index.put(parent.path, "parent")
+        index.put(parent.file("common/dir1").path, "dir1")
+        index.put(parent.file("common/dir2").path, "dir2")
+        index.put(parent.file("common/dir2").path, "dir2-again")
+        index.put(parent.file("other").path, "other")
+
+        expect:
+        index.getOverlapping(parent.file("common").path) as Set == ["parent", "dir1", "dir2", "dir2-again"] as Set
+        index.getOverlapping(parent.file("common/dir2/child").path) as Set == ["parent", "dir2", "dir2-again"] as Set
+        index.getOverlapping(parent.parentFile.path) as Set == ["parent", "dir1", "dir2", "dir2-again", "other"] as Set
+    }
+
+    def "removes values"() {
+        def parent = tmpDir.createDir()
+        def dir1 = parent.file("dir1")
+        def dir2 = dir1.file("dir2")
+        index.put(dir1.path, "dir1")
+        index.put(dir2.path, "dir2")
+
+        when:
+        def removed = index.remove(dir2.path, "dir2")
+
+        then:
+        removed
+        index.getOverlapping(dir2.path) == ["dir1"]
+        !index.remove(dir2.path, "dir2")
+        !index.remove(parent.file("unknown").path, "dir1")
+
+        when:
+        index.remove(dir1.path, "dir1")
+
+        then:
+        index.isEmpty()
+        index.findFirstOverlapping(parent.path) == null
+    }
+
+    def "can clear index"() {
+        index.put(tmpDir.file("dir").path, "dir")
+
+        when:
+        index.clear()
+
+        then:
+        index.isEmpty()
+        index.findFirstOverlapping(tmpDir.file("dir").path) == null
+    }
+}
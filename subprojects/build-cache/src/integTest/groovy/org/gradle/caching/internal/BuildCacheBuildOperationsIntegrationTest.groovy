@@ -85,6 +85,13 @@ class BuildCacheBuildOperationsIntegrationTest extends AbstractIntegrationSpec i
                     ${isLocal ? storeBody ?: "" : ""}
                 }
     
+                void markRecentlyUsed(Collection<BuildCacheKey> keys) {
+                }
+
+                File getCacheDir() {
+                    return null
+                }
+
                 void allocateTempFile(BuildCacheKey key, Action<? super File> action) {
                     new $DefaultBuildCacheTempFileStore.name(new File("${TextUtil.normaliseFileSeparators(file("tmp").absolutePath)}")).allocateTempFile(key, action)
                 } 
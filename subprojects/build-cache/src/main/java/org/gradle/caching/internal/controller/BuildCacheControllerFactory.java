@@ -28,11 +28,14 @@ import org.gradle.caching.configuration.internal.BuildCacheConfigurationInternal
 import org.gradle.caching.internal.FinalizeBuildCacheConfigurationBuildOperationType;
 import org.gradle.caching.internal.controller.service.BuildCacheServiceRole;
 import org.gradle.caching.internal.controller.service.BuildCacheServicesConfiguration;
+import org.gradle.caching.local.internal.InMemoryBuildCacheEntries;
 import org.gradle.internal.Cast;
+import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.operations.BuildOperationContext;
 import org.gradle.internal.operations.BuildOperationExecutor;
 import org.gradle.internal.operations.CallableBuildOperation;
 import org.gradle.internal.progress.BuildOperationDescriptor;
+import org.gradle.internal.progress.BuildOperationState;
 import org.gradle.internal.reflect.Instantiator;
 import org.gradle.util.Path;
 import org.slf4j.Logger;
@@ -43,11 +46,35 @@ import java.io.File;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public final class BuildCacheControllerFactory {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(BuildCacheControllerFactory.class);
 
+    /**
+     * Uploads entries to the remote build cache in the background instead of during task execution.
+     */
+    public static final String ASYNC_REMOTE_STORE_PROPERTY = "org.gradle.caching.remote.async";
+
+    /**
+     * The number of entries that may wait for upload before remote stores happen during task execution again.
+     */
+    public static final String REMOTE_STORE_QUEUE_SIZE_PROPERTY = "org.gradle.caching.remote.async.queueSize";
+
+    /**
+     * The number of seconds to wait for pending uploads at the end of the build.
+     */
+    public static final String REMOTE_STORE_DRAIN_TIMEOUT_PROPERTY = "org.gradle.caching.remote.async.drainTimeout";
+
+    /**
+     * Keeps recently used local build cache entries in memory for the later builds of the daemon. See {@link InMemoryBuildCacheEntries}.
+     */
+    public static final String IN_MEMORY_PROPERTY = "org.gradle.caching.local.inMemory";
+
+    private static final int DEFAULT_REMOTE_STORE_QUEUE_SIZE = 16;
+    private static final int DEFAULT_REMOTE_STORE_DRAIN_TIMEOUT = 60;
+
     public enum BuildCacheMode {
         ENABLED, DISABLED
     }
@@ -58,13 +85,16 @@ public final class BuildCacheControllerFactory {
 
     public static BuildCacheController create(
         final BuildOperationExecutor buildOperationExecutor,
+        @Nullable final BuildOperationState buildOperation,
+        final ExecutorFactory executorFactory,
         final Path buildIdentityPath,
         final File gradleUserHomeDir,
         final BuildCacheConfigurationInternal buildCacheConfiguration,
         final BuildCacheMode buildCacheState,
         final RemoteAccessMode remoteAccessMode,
         final boolean logStackTraces,
-        final Instantiator instantiator
+        final Instantiator instantiator,
+        final InMemoryBuildCacheEntries inMemoryEntries
     ) {
         return buildOperationExecutor.call(new CallableBuildOperation<BuildCacheController>() {
             @Override
@@ -110,11 +140,17 @@ public final class BuildCacheControllerFactory {
                         remote, remoteDescribedService == null ? null : remoteDescribedService.service
                     );
 
+                    boolean asyncRemoteStore = Boolean.getBoolean(ASYNC_REMOTE_STORE_PROPERTY);
                     return new DefaultBuildCacheController(
                         config,
                         buildOperationExecutor,
+                        buildOperation,
+                        executorFactory,
                         gradleUserHomeDir,
-                        logStackTraces
+                        logStackTraces,
+                        asyncRemoteStore ? Integer.getInteger(REMOTE_STORE_QUEUE_SIZE_PROPERTY, DEFAULT_REMOTE_STORE_QUEUE_SIZE) : 0,
+                        TimeUnit.SECONDS.toMillis(Integer.getInteger(REMOTE_STORE_DRAIN_TIMEOUT_PROPERTY, DEFAULT_REMOTE_STORE_DRAIN_TIMEOUT)),
+                        Boolean.getBoolean(IN_MEMORY_PROPERTY) ? inMemoryEntries : null
                     );
                 }
             }
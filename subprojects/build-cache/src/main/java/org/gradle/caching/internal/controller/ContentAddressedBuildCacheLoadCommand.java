@@ -0,0 +1,36 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller;
+
+import org.gradle.caching.local.internal.ContentAddressedLocalBuildCache.BlobSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A load command that can also restore an entry from the manifest and blobs of a content-addressed local build cache.
+ */
+public interface ContentAddressedBuildCacheLoadCommand<T> extends BuildCacheLoadCommand<T> {
+
+    /**
+     * Called at-most-once, instead of {@link #load(InputStream)}, to restore the entry from its manifest.
+     *
+     * The manifest stream will be closed by the caller.
+     */
+    Result<T> loadManifest(InputStream manifest, BlobSource blobs) throws IOException;
+
+}
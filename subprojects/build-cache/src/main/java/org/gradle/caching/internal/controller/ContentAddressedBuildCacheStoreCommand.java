@@ -0,0 +1,36 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller;
+
+import org.gradle.caching.local.internal.ContentAddressedLocalBuildCache.BlobSink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A store command that can also store an entry as a manifest and blobs in a content-addressed local build cache.
+ */
+public interface ContentAddressedBuildCacheStoreCommand extends BuildCacheStoreCommand {
+
+    /**
+     * Writes the manifest of the entry, adding the contents of its files to the given blobs.
+     *
+     * The manifest stream will be closed by the caller.
+     */
+    Result storeManifest(OutputStream manifest, BlobSink blobs) throws IOException;
+
+}
@@ -17,6 +17,9 @@
 package org.gradle.caching.internal.controller;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.gradle.api.Action;
 import org.gradle.api.GradleException;
@@ -39,25 +42,41 @@ import org.gradle.caching.internal.controller.service.NullLocalBuildCacheService
 import org.gradle.caching.internal.controller.service.OpFiringBuildCacheServiceHandle;
 import org.gradle.caching.internal.controller.service.StoreTarget;
 import org.gradle.caching.local.internal.BuildCacheTempFileStore;
+import org.gradle.caching.local.internal.ContentAddressedLocalBuildCache;
+import org.gradle.caching.local.internal.ContentAddressedLocalBuildCache.BlobSink;
+import org.gradle.caching.local.internal.ContentAddressedLocalBuildCache.BlobSource;
 import org.gradle.caching.local.internal.DefaultBuildCacheTempFileStore;
+import org.gradle.caching.local.internal.InMemoryBuildCacheEntries;
 import org.gradle.caching.local.internal.LocalBuildCacheService;
+import org.gradle.internal.Factory;
 import org.gradle.internal.UncheckedException;
 import org.gradle.internal.concurrent.CompositeStoppable;
+import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.operations.BuildOperationContext;
 import org.gradle.internal.operations.BuildOperationExecutor;
 import org.gradle.internal.operations.RunnableBuildOperation;
 import org.gradle.internal.progress.BuildOperationDescriptor;
+import org.gradle.internal.progress.BuildOperationState;
+import org.gradle.util.GFileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class DefaultBuildCacheController implements BuildCacheController {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(DefaultBuildCacheController.class);
+
     @VisibleForTesting
     final BuildCacheServiceHandle legacyLocal;
 
@@ -67,16 +86,39 @@ public class DefaultBuildCacheController implements BuildCacheController {
     @VisibleForTesting
     final LocalBuildCacheServiceHandle local;
 
+    @VisibleForTesting
+    @Nullable
+    final RemoteBuildCacheStoreQueue remoteStoreQueue;
+
+    @VisibleForTesting
+    @Nullable
+    final InMemoryBuildCacheEntries inMemoryEntries;
+
+    // Set when the local cache can keep entries as manifests, which are then used instead of archives for commands that support them
+    @VisibleForTesting
+    @Nullable
+    final ContentAddressedLocalBuildCache contentAddressedLocal;
+
     private final BuildCacheTempFileStore tmp;
+    private final File localCacheDir;
     private final BuildOperationExecutor buildOperationExecutor;
+    private final InMemoryBuildCacheEntries.Statistics initialInMemoryStatistics;
+
+    // Entries loaded from memory during this build, marked as recently used in the local cache once the build is complete
+    private final ConcurrentMap<String, BuildCacheKey> inMemoryHits = new ConcurrentHashMap<String, BuildCacheKey>();
 
     private boolean closed;
 
     public DefaultBuildCacheController(
         BuildCacheServicesConfiguration config,
         BuildOperationExecutor buildOperationExecutor,
+        @Nullable BuildOperationState buildOperation,
+        ExecutorFactory executorFactory,
         File gradleUserHomeDir,
-        boolean logStackTraces
+        boolean logStackTraces,
+        int remoteStoreQueueSize,
+        long remoteStoreDrainTimeoutMillis,
+        @Nullable InMemoryBuildCacheEntries inMemoryEntries
     ) {
         this.buildOperationExecutor = buildOperationExecutor;
 
@@ -84,14 +126,30 @@ public class DefaultBuildCacheController implements BuildCacheController {
             LocalBuildCacheService castLocal = (LocalBuildCacheService) config.local;
             this.local = toHandle(castLocal, config.localPush);
             this.tmp = castLocal;
+            this.localCacheDir = castLocal.getCacheDir();
             this.legacyLocal = NullBuildCacheServiceHandle.INSTANCE;
+            this.contentAddressedLocal = castLocal instanceof ContentAddressedLocalBuildCache ? (ContentAddressedLocalBuildCache) castLocal : null;
         } else {
             this.local = NullLocalBuildCacheServiceHandle.INSTANCE;
             this.legacyLocal = toHandle(config.local, config.localPush, BuildCacheServiceRole.LOCAL, buildOperationExecutor, logStackTraces);
             this.tmp = new DefaultBuildCacheTempFileStore(new File(gradleUserHomeDir, "build-cache-tmp"), BuildCacheTempFileStore.PARTIAL_FILE_SUFFIX);
+            this.localCacheDir = null;
+            this.contentAddressedLocal = null;
         }
 
         this.remote = toHandle(config.remote, config.remotePush, BuildCacheServiceRole.REMOTE, buildOperationExecutor, logStackTraces);
+
+        if (remoteStoreQueueSize > 0 && remote.canStore()) {
+            File queueDir = new File(gradleUserHomeDir, "build-cache-tmp");
+            GFileUtils.mkdirs(queueDir);
+            this.remoteStoreQueue = new RemoteBuildCacheStoreQueue(remote, buildOperationExecutor, buildOperation, executorFactory, queueDir, remoteStoreQueueSize, remoteStoreDrainTimeoutMillis);
+        } else {
+            this.remoteStoreQueue = null;
+        }
+
+        // Entries are only kept in memory in front of a local build cache
+        this.inMemoryEntries = local.canLoad() ? inMemoryEntries : null;
+        this.initialInMemoryStatistics = this.inMemoryEntries == null ? null : this.inMemoryEntries.getStatistics();
     }
 
     @Nullable
@@ -100,13 +158,24 @@ public class DefaultBuildCacheController implements BuildCacheController {
         final Unpack<T> unpack = new Unpack<T>(command);
 
         if (local.canLoad()) {
-            try {
-                local.load(command.getKey(), unpack);
-            } catch (Exception e) {
-                throw new GradleException("Build cache entry " + command.getKey() + " from local build cache is invalid", e);
+            byte[] inMemoryContent = inMemoryEntries == null ? null : inMemoryEntries.get(localCacheDir, command.getKey());
+            if (inMemoryContent != null) {
+                try {
+                    unpack.unpack(inMemoryContent);
+                } catch (Exception e) {
+                    inMemoryEntries.remove(localCacheDir, command.getKey());
+                    throw new GradleException("Build cache entry " + command.getKey() + " from local build cache is invalid", e);
+                }
+                // Keep the entry from being cleaned up as unused, as if it had been loaded from the local cache
+                inMemoryHits.put(command.getKey().getHashCode(), command.getKey());
+                return unpack.result.getMetadata();
+            }
+
+            if (contentAddressedLocal != null && command instanceof ContentAddressedBuildCacheLoadCommand && loadManifestLocally(command.getKey(), unpack)) {
+                return unpack.result.getMetadata();
             }
 
-            if (unpack.result != null) {
+            if (loadLocally(command, unpack)) {
                 return unpack.result.getMetadata();
             }
         }
@@ -150,6 +219,28 @@ public class DefaultBuildCacheController implements BuildCacheController {
         }
     }
 
+    private <T> boolean loadLocally(BuildCacheLoadCommand<T> command, Unpack<T> unpack) {
+        try {
+            local.load(command.getKey(), unpack);
+        } catch (Exception e) {
+            throw new GradleException("Build cache entry " + command.getKey() + " from local build cache is invalid", e);
+        }
+        return unpack.result != null;
+    }
+
+    private <T> boolean loadManifestLocally(BuildCacheKey key, final Unpack<T> unpack) {
+        try {
+            return contentAddressedLocal.loadManifest(key, new ContentAddressedLocalBuildCache.ManifestReader() {
+                @Override
+                public void read(InputStream manifest, long size, BlobSource blobs) {
+                    unpack.unpackManifest(manifest, size, blobs);
+                }
+            });
+        } catch (Exception e) {
+            throw new GradleException("Build cache entry " + key + " from local build cache is invalid", e);
+        }
+    }
+
     private class Unpack<T> implements Action<File> {
         private final BuildCacheLoadCommand<T> command;
 
@@ -161,47 +252,110 @@ public class DefaultBuildCacheController implements BuildCacheController {
 
         @Override
         public void execute(final File file) {
-            buildOperationExecutor.run(new RunnableBuildOperation() {
+            if (inMemoryEntries != null && inMemoryEntries.accepts(file.length())) {
+                // Read the entry only once to unpack it and to keep it in memory
+                byte[] content;
+                try {
+                    content = Files.toByteArray(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                unpack(content);
+                inMemoryEntries.put(localCacheDir, command.getKey(), content);
+                return;
+            }
+
+            unpack(file.length(), new Factory<InputStream>() {
                 @Override
-                public void run(BuildOperationContext context) {
-                    InputStream input;
+                public InputStream create() {
                     try {
-                        input = new FileInputStream(file);
+                        return new FileInputStream(file);
                     } catch (FileNotFoundException e) {
                         throw new UncheckedIOException(e);
                     }
+                }
+            });
+        }
 
+        private void unpack(final byte[] content) {
+            unpack(content.length, new Factory<InputStream>() {
+                @Override
+                public InputStream create() {
+                    return new ByteArrayInputStream(content);
+                }
+            });
+        }
+
+        private void unpack(final long size, final Factory<InputStream> inputFactory) {
+            buildOperationExecutor.run(new UnpackOperation(size) {
+                @Override
+                BuildCacheLoadCommand.Result<T> load() throws IOException {
+                    InputStream input = inputFactory.create();
                     try {
-                        result = command.load(input);
-                    } catch (IOException e) {
-                        throw new UncheckedIOException(e);
+                        return command.load(input);
                     } finally {
                         IOUtils.closeQuietly(input);
                     }
-
-                    context.setResult(new UnpackOperationResult(
-                        result.getArtifactEntryCount()
-                    ));
                 }
+            });
+        }
 
+        /**
+         * Restores the entry from its manifest, the size of the manifest is reported as the size of the archive.
+         */
+        private void unpackManifest(final InputStream manifest, final long size, final BlobSource blobs) {
+            buildOperationExecutor.run(new UnpackOperation(size) {
                 @Override
-                public BuildOperationDescriptor.Builder description() {
-                    return BuildOperationDescriptor.displayName("Unpack build cache entry " + command.getKey())
-                        .details(new UnpackOperationDetails(command.getKey(), file.length()))
-                        .progressDisplayName("Unpacking build cache entry");
+                BuildCacheLoadCommand.Result<T> load() throws IOException {
+                    return ((ContentAddressedBuildCacheLoadCommand<T>) command).loadManifest(manifest, blobs);
                 }
             });
         }
 
+        private abstract class UnpackOperation implements RunnableBuildOperation {
+            private final long size;
+
+            UnpackOperation(long size) {
+                this.size = size;
+            }
+
+            abstract BuildCacheLoadCommand.Result<T> load() throws IOException;
+
+            @Override
+            public void run(BuildOperationContext context) {
+                try {
+                    result = load();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                context.setResult(new UnpackOperationResult(
+                    result.getArtifactEntryCount()
+                ));
+            }
+
+            @Override
+            public BuildOperationDescriptor.Builder description() {
+                return BuildOperationDescriptor.displayName("Unpack build cache entry " + command.getKey())
+                    .details(new UnpackOperationDetails(command.getKey(), size))
+                    .progressDisplayName("Unpacking build cache entry");
+            }
+        }
+
     }
 
     @Override
     public void store(final BuildCacheStoreCommand command) {
-        boolean anyStore = local.canStore() || legacyLocal.canStore() || remote.canStore();
-        if (!anyStore) {
-            return;
+        // When an archive is packed for another cache anyway, the local cache keeps that archive rather than packing the outputs again as a manifest
+        boolean archiveNeeded = legacyLocal.canStore() || remote.canStore();
+        if (!archiveNeeded && contentAddressedLocal != null && local.canStore() && command instanceof ContentAddressedBuildCacheStoreCommand) {
+            storeManifestLocally((ContentAddressedBuildCacheStoreCommand) command);
+        } else if (archiveNeeded || local.canStore()) {
+            storeArchive(command, local.canStore());
         }
+    }
 
+    private void storeArchive(BuildCacheStoreCommand command, final boolean storeLocally) {
         final BuildCacheKey key = command.getKey();
         final Pack pack = new Pack(command);
 
@@ -215,16 +369,54 @@ public class DefaultBuildCacheController implements BuildCacheController {
                 }
 
                 if (remote.canStore()) {
-                    remote.store(key, new StoreTarget(file));
+                    if (remoteStoreQueue != null) {
+                        remoteStoreQueue.store(key, file, storeLocally);
+                    } else {
+                        remote.store(key, new StoreTarget(file));
+                    }
                 }
 
-                if (local.canStore()) {
+                if (storeLocally) {
+                    if (inMemoryEntries != null) {
+                        inMemoryEntries.put(localCacheDir, key, file);
+                    }
                     local.store(key, file);
                 }
             }
         });
     }
 
+    private void storeManifestLocally(final ContentAddressedBuildCacheStoreCommand command) {
+        contentAddressedLocal.storeManifest(command.getKey(), new ContentAddressedLocalBuildCache.ManifestWriter() {
+            @Override
+            public void write(final OutputStream manifest, final BlobSink blobs) {
+                buildOperationExecutor.run(new RunnableBuildOperation() {
+                    @Override
+                    public void run(BuildOperationContext context) {
+                        try {
+                            // The size of the manifest is reported as the size of the archive
+                            CountingOutputStream output = new CountingOutputStream(manifest);
+                            BuildCacheStoreCommand.Result result = command.storeManifest(output, blobs);
+                            context.setResult(new PackOperationResult(
+                                result.getArtifactEntryCount(),
+                                output.getCount()
+                            ));
+                        } catch (IOException e) {
+                            throw UncheckedException.throwAsUncheckedException(e);
+                        }
+                    }
+
+                    @Override
+                    public BuildOperationDescriptor.Builder description() {
+                        return BuildOperationDescriptor.displayName("Pack build cache entry " + command.getKey())
+                            .details(new PackOperationDetails(command.getKey()))
+                            .progressDisplayName("Packing build cache entry");
+                    }
+                });
+            }
+        });
+    }
+
     private class Pack implements Action<File> {
 
         private final BuildCacheStoreCommand command;
@@ -263,7 +455,29 @@ public class DefaultBuildCacheController implements BuildCacheController {
     public void close() {
         if (!closed) {
             closed = true;
-            CompositeStoppable.stoppable(legacyLocal, local, remote).stop();
+            try {
+                if (!inMemoryHits.isEmpty()) {
+                    // Mark all entries at once, so that the local cache is locked once rather than on every hit
+                    local.markRecentlyUsed(inMemoryHits.values());
+                }
+            } finally {
+                CompositeStoppable.stoppable(remoteStoreQueue, legacyLocal, local, remote).stop();
+            }
+            if (inMemoryEntries != null) {
+                logInMemoryStatistics(inMemoryEntries);
+            }
+        }
+    }
+
+    private void logInMemoryStatistics(InMemoryBuildCacheEntries inMemoryEntries) {
+        if (LOGGER.isInfoEnabled()) {
+            InMemoryBuildCacheEntries.Statistics statistics = inMemoryEntries.getStatistics();
+            long hits = statistics.getHits() - initialInMemoryStatistics.getHits();
+            long misses = statistics.getMisses() - initialInMemoryStatistics.getMisses();
+            long requests = hits + misses;
+            LOGGER.info("In-memory build cache: {} hits, {} misses ({}% hit rate), keeping {} entries ({} of {}).",
+                hits, misses, requests == 0 ? 0 : hits * 100 / requests, statistics.getEntries(),
+                FileUtils.byteCountToDisplaySize(statistics.getSize()), FileUtils.byteCountToDisplaySize(inMemoryEntries.getMaxSize()));
         }
     }
 
@@ -0,0 +1,438 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.caching.BuildCacheKey;
+import org.gradle.caching.internal.controller.service.BuildCacheServiceHandle;
+import org.gradle.caching.internal.controller.service.StoreTarget;
+import org.gradle.caching.internal.operations.BuildCacheRemoteStoreQueueDrainBuildOperationType;
+import org.gradle.caching.internal.operations.BuildCacheRemoteStoreQueueUploadBuildOperationType;
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.concurrent.ExecutorFactory;
+import org.gradle.internal.concurrent.ManagedExecutor;
+import org.gradle.internal.operations.BuildOperationContext;
+import org.gradle.internal.operations.BuildOperationExecutor;
+import org.gradle.internal.operations.RunnableBuildOperation;
+import org.gradle.internal.progress.BuildOperationDescriptor;
+import org.gradle.internal.progress.BuildOperationState;
+import org.gradle.util.GFileUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Uploads entries to the remote build cache on a background thread, so that a slow remote store
+ * does not hold up the task that produced the entry, nor the tasks that depend on it.
+ *
+ * The queue is bounded. When it is full, the entry is stored on the calling thread instead,
+ * which slows producers down to the rate the remote cache can accept entries at.
+ * The packed file is only valid while the entry is being stored, so queued entries are moved or copied
+ * to a file owned by the queue, which is deleted once uploaded.
+ *
+ * Closing the queue waits for the pending uploads to finish, up to the configured timeout.
+ * Entries that have not been uploaded by then are discarded.
+ *
+ * Uploads run on the queue's thread, after the task that queued the entry has usually finished. They are
+ * children of the given parent operation, which lasts as long as the build.
+ *
+ * The directory is shared with other builds. Queued files left behind by a process that was killed
+ * are deleted when a queue is created, once they are old enough not to belong to a running build.
+ */
+class RemoteBuildCacheStoreQueue implements Closeable {
+
+    private static final Logger LOGGER = Logging.getLogger(RemoteBuildCacheStoreQueue.class);
+
+    private static final String QUEUED_FILE_SUFFIX = ".upload";
+    private static final long STALE_FILE_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final PendingStore STOP = new PendingStore(null, null, 0);
+
+    private final BuildCacheServiceHandle remote;
+    private final BuildOperationExecutor buildOperationExecutor;
+    private final BuildOperationState parentOperation;
+    private final ExecutorFactory executorFactory;
+    private final File dir;
+    private final long drainTimeoutMillis;
+
+    private final BlockingQueue<PendingStore> queue;
+    private final CountDownLatch workerFinished = new CountDownLatch(1);
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicInteger synchronousCount = new AtomicInteger();
+
+    // Only updated by the worker
+    private volatile int uploadedCount;
+    private volatile long totalUploadTime;
+    private volatile long maxUploadTime;
+
+    // Guarded by this
+    private ManagedExecutor executor;
+    private boolean closed;
+
+    RemoteBuildCacheStoreQueue(BuildCacheServiceHandle remote, BuildOperationExecutor buildOperationExecutor, BuildOperationState parentOperation, ExecutorFactory executorFactory, File dir, int capacity, long drainTimeoutMillis) {
+        this.remote = remote;
+        this.buildOperationExecutor = buildOperationExecutor;
+        this.parentOperation = parentOperation;
+        this.executorFactory = executorFactory;
+        this.dir = dir;
+        this.drainTimeoutMillis = drainTimeoutMillis;
+        this.queue = new ArrayBlockingQueue<PendingStore>(capacity);
+        deleteStaleFiles();
+    }
+
+    private void deleteStaleFiles() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long staleBefore = System.currentTimeMillis() - STALE_FILE_AGE_MILLIS;
+        for (File file : files) {
+            if (file.getName().endsWith(QUEUED_FILE_SUFFIX) && file.lastModified() < staleBefore) {
+                LOGGER.debug("Deleting stale queued build cache entry {}", file);
+                GFileUtils.deleteQuietly(file);
+            }
+        }
+    }
+
+    /**
+     * Queues the given packed entry for upload.
+     *
+     * @param retainFile whether the caller still needs the packed file after this method returns, in which case it is copied instead of moved.
+     */
+    public void store(BuildCacheKey key, File file, boolean retainFile) {
+        if (queue.remainingCapacity() == 0) {
+            storeNow(key, file);
+            return;
+        }
+
+        File queuedFile = takeOver(key, file, retainFile);
+        PendingStore store = new PendingStore(key, queuedFile, System.currentTimeMillis());
+        if (!enqueue(store)) {
+            try {
+                storeNow(key, queuedFile);
+            } finally {
+                GFileUtils.deleteQuietly(queuedFile);
+            }
+        }
+    }
+
+    private synchronized boolean enqueue(PendingStore store) {
+        if (closed || !queue.offer(store)) {
+            return false;
+        }
+        recordQueueDepth(outstanding.incrementAndGet());
+        if (executor == null) {
+            executor = executorFactory.create("Remote build cache uploads", 1);
+            executor.execute(new Worker());
+        }
+        return true;
+    }
+
+    private void storeNow(BuildCacheKey key, File file) {
+        synchronousCount.incrementAndGet();
+        remote.store(key, new StoreTarget(file));
+    }
+
+    private File takeOver(BuildCacheKey key, File file, boolean retainFile) {
+        File queuedFile;
+        try {
+            queuedFile = File.createTempFile(key.getHashCode(), QUEUED_FILE_SUFFIX, dir);
+        } catch (IOException e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
+        if (retainFile) {
+            GFileUtils.copyFile(file, queuedFile);
+        } else {
+            GFileUtils.deleteQuietly(queuedFile);
+            GFileUtils.moveFile(file, queuedFile);
+        }
+        return queuedFile;
+    }
+
+    private void recordQueueDepth(int depth) {
+        int max = maxQueueDepth.get();
+        while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+            max = maxQueueDepth.get();
+        }
+    }
+
+    private void upload(final PendingStore store) {
+        final int queueDepth = queue.size();
+        final long queuedTime = System.currentTimeMillis() - store.queuedAt;
+        try {
+            buildOperationExecutor.run(new RunnableBuildOperation() {
+                @Override
+                public void run(BuildOperationContext context) {
+                    StoreTarget storeTarget = new StoreTarget(store.file);
+                    long start = System.currentTimeMillis();
+                    if (remote.canStore()) {
+                        remote.store(store.key, storeTarget);
+                    }
+                    recordUpload(System.currentTimeMillis() - start);
+                    context.setResult(storeTarget.isStored() ? UploadResult.STORED : UploadResult.NOT_STORED);
+                }
+
+                @Override
+                public BuildOperationDescriptor.Builder description() {
+                    return BuildOperationDescriptor.displayName("Upload queued entry " + store.key.getHashCode() + " to remote build cache")
+                        .details(new UploadDetails(store.key, store.file.length(), queueDepth, queuedTime))
+                        .progressDisplayName("Uploading to remote build cache")
+                        .parent(parentOperation);
+                }
+            });
+        } finally {
+            GFileUtils.deleteQuietly(store.file);
+            outstanding.decrementAndGet();
+        }
+    }
+
+    private void recordUpload(long uploadTime) {
+        uploadedCount++;
+        totalUploadTime += uploadTime;
+        if (uploadTime > maxUploadTime) {
+            maxUploadTime = uploadTime;
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (executor == null) {
+                return;
+            }
+        }
+
+        buildOperationExecutor.run(new RunnableBuildOperation() {
+            @Override
+            public void run(BuildOperationContext context) {
+                int abandonedCount = drain();
+                context.setResult(new DrainResult(uploadedCount, synchronousCount.get(), abandonedCount, maxQueueDepth.get(), totalUploadTime, maxUploadTime));
+            }
+
+            @Override
+            public BuildOperationDescriptor.Builder description() {
+                return BuildOperationDescriptor.displayName("Drain remote build cache store queue")
+                    .details(new DrainDetails(outstanding.get(), drainTimeoutMillis))
+                    .progressDisplayName("Waiting for remote build cache uploads");
+            }
+        });
+    }
+
+    private int drain() {
+        long deadline = System.currentTimeMillis() + drainTimeoutMillis;
+        boolean finished;
+        try {
+            finished = queue.offer(STOP, drainTimeoutMillis, TimeUnit.MILLISECONDS)
+                && workerFinished.await(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
+
+        if (finished) {
+            executor.stop();
+            return 0;
+        }
+
+        int abandonedCount = outstanding.get();
+        discardQueued();
+        executor.shutdownNow();
+        LOGGER.warn("Timed out after {}ms waiting for uploads to the remote build cache, {} entries were not stored.", drainTimeoutMillis, abandonedCount);
+        return abandonedCount;
+    }
+
+    private int discardQueued() {
+        List<PendingStore> discarded = new ArrayList<PendingStore>();
+        queue.drainTo(discarded);
+        int discardedCount = 0;
+        for (PendingStore store : discarded) {
+            if (store != STOP) {
+                GFileUtils.deleteQuietly(store.file);
+                outstanding.decrementAndGet();
+                discardedCount++;
+            }
+        }
+        return discardedCount;
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    PendingStore store = queue.take();
+                    if (store == STOP) {
+                        return;
+                    }
+                    upload(store);
+                }
+            } catch (InterruptedException e) {
+                // Draining timed out and has already discarded the queued entries, or the worker was stopped some other way
+                int discardedCount = discardQueued();
+                if (discardedCount > 0) {
+                    LOGGER.warn("Uploads to the remote build cache were interrupted, {} queued entries were not stored.", discardedCount);
+                }
+                Thread.currentThread().interrupt();
+            } finally {
+                workerFinished.countDown();
+            }
+        }
+    }
+
+    private static class PendingStore {
+        private final BuildCacheKey key;
+        private final File file;
+        private final long queuedAt;
+
+        private PendingStore(BuildCacheKey key, File file, long queuedAt) {
+            this.key = key;
+            this.file = file;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    private static class UploadDetails implements BuildCacheRemoteStoreQueueUploadBuildOperationType.Details {
+        private final BuildCacheKey key;
+        private final long archiveSize;
+        private final int queueDepth;
+        private final long queuedTime;
+
+        private UploadDetails(BuildCacheKey key, long archiveSize, int queueDepth, long queuedTime) {
+            this.key = key;
+            this.archiveSize = archiveSize;
+            this.queueDepth = queueDepth;
+            this.queuedTime = queuedTime;
+        }
+
+        @Override
+        public String getCacheKey() {
+            return key.getHashCode();
+        }
+
+        @Override
+        public long getArchiveSize() {
+            return archiveSize;
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        @Override
+        public long getQueuedTime() {
+            return queuedTime;
+        }
+    }
+
+    private static class UploadResult implements BuildCacheRemoteStoreQueueUploadBuildOperationType.Result {
+        private static final UploadResult STORED = new UploadResult(true);
+        private static final UploadResult NOT_STORED = new UploadResult(false);
+
+        private final boolean stored;
+
+        private UploadResult(boolean stored) {
+            this.stored = stored;
+        }
+
+        @Override
+        public boolean isStored() {
+            return stored;
+        }
+    }
+
+    private static class DrainDetails implements BuildCacheRemoteStoreQueueDrainBuildOperationType.Details {
+        private final int pendingCount;
+        private final long timeout;
+
+        private DrainDetails(int pendingCount, long timeout) {
+            this.pendingCount = pendingCount;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public int getPendingCount() {
+            return pendingCount;
+        }
+
+        @Override
+        public long getTimeout() {
+            return timeout;
+        }
+    }
+
+    private static class DrainResult implements BuildCacheRemoteStoreQueueDrainBuildOperationType.Result {
+        private final int uploadedCount;
+        private final int synchronousCount;
+        private final int abandonedCount;
+        private final int maxQueueDepth;
+        private final long totalUploadTime;
+        private final long maxUploadTime;
+
+        private DrainResult(int uploadedCount, int synchronousCount, int abandonedCount, int maxQueueDepth, long totalUploadTime, long maxUploadTime) {
+            this.uploadedCount = uploadedCount;
+            this.synchronousCount = synchronousCount;
+            this.abandonedCount = abandonedCount;
+            this.maxQueueDepth = maxQueueDepth;
+            this.totalUploadTime = totalUploadTime;
+            this.maxUploadTime = maxUploadTime;
+        }
+
+        @Override
+        public int getUploadedCount() {
+            return uploadedCount;
+        }
+
+        @Override
+        public int getSynchronousCount() {
+            return synchronousCount;
+        }
+
+        @Override
+        public int getAbandonedCount() {
+            return abandonedCount;
+        }
+
+        @Override
+        public int getMaxQueueDepth() {
+            return maxQueueDepth;
+        }
+
+        @Override
+        public long getTotalUploadTime() {
+            return totalUploadTime;
+        }
+
+        @Override
+        public long getMaxUploadTime() {
+            return maxUploadTime;
+        }
+    }
+}
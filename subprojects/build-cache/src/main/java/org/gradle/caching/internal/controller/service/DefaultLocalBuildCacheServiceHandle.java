@@ -22,6 +22,7 @@ import org.gradle.caching.local.internal.LocalBuildCacheService;
 
 import javax.annotation.Nullable;
 import java.io.File;
+import java.util.Collection;
 
 public class DefaultLocalBuildCacheServiceHandle implements LocalBuildCacheServiceHandle {
 
@@ -49,6 +50,11 @@ public class DefaultLocalBuildCacheServiceHandle implements LocalBuildCacheServi
         service.load(key, reader);
     }
 
+    @Override
+    public void markRecentlyUsed(Collection<BuildCacheKey> keys) {
+        service.markRecentlyUsed(keys);
+    }
+
     @Override
     public boolean canStore() {
         return pushEnabled;
@@ -24,6 +24,7 @@ import org.gradle.caching.local.internal.LocalBuildCacheService;
 import javax.annotation.Nullable;
 import java.io.Closeable;
 import java.io.File;
+import java.util.Collection;
 
 public interface LocalBuildCacheServiceHandle extends Closeable {
 
@@ -36,6 +37,8 @@ public interface LocalBuildCacheServiceHandle extends Closeable {
     // TODO: what if this errors?
     void load(BuildCacheKey key, Action<? super File> reader);
 
+    void markRecentlyUsed(Collection<BuildCacheKey> keys);
+
     boolean canStore();
 
     // TODO: what if this errors?
@@ -22,6 +22,7 @@ import org.gradle.caching.local.internal.LocalBuildCacheService;
 
 import javax.annotation.Nullable;
 import java.io.File;
+import java.util.Collection;
 
 public class NullLocalBuildCacheServiceHandle implements LocalBuildCacheServiceHandle {
 
@@ -46,6 +47,11 @@ public class NullLocalBuildCacheServiceHandle implements LocalBuildCacheServiceH
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public void markRecentlyUsed(Collection<BuildCacheKey> keys) {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public boolean canStore() {
         return false;
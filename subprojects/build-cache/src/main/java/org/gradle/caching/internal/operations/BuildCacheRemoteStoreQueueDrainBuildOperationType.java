@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.operations;
+
+import org.gradle.internal.operations.BuildOperationType;
+
+/**
+ * Waiting at the end of the build for queued remote build cache stores to be uploaded.
+ *
+ * The result summarises the queue over the whole build.
+ */
+public final class BuildCacheRemoteStoreQueueDrainBuildOperationType implements BuildOperationType<BuildCacheRemoteStoreQueueDrainBuildOperationType.Details, BuildCacheRemoteStoreQueueDrainBuildOperationType.Result> {
+
+    public interface Details {
+
+        /**
+         * The number of entries waiting to be uploaded when draining started, including an upload in progress.
+         */
+        int getPendingCount();
+
+        /**
+         * The maximum time in milliseconds to wait for pending uploads.
+         */
+        long getTimeout();
+
+    }
+
+    public interface Result {
+
+        /**
+         * The number of entries uploaded in the background.
+         */
+        int getUploadedCount();
+
+        /**
+         * The number of entries stored on the task's thread because the queue was full.
+         */
+        int getSynchronousCount();
+
+        /**
+         * The number of entries discarded because draining timed out.
+         */
+        int getAbandonedCount();
+
+        /**
+         * The largest number of entries that were pending upload at the same time, including an upload in progress.
+         */
+        int getMaxQueueDepth();
+
+        /**
+         * The accumulated time in milliseconds spent uploading entries in the background.
+         */
+        long getTotalUploadTime();
+
+        /**
+         * The longest time in milliseconds spent uploading a single entry in the background.
+         */
+        long getMaxUploadTime();
+
+    }
+
+    private BuildCacheRemoteStoreQueueDrainBuildOperationType() {
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.operations;
+
+import org.gradle.internal.operations.BuildOperationType;
+
+/**
+ * The background upload of an entry that was queued for storing in the remote build cache.
+ *
+ * The duration of the operation is the upload latency of the entry.
+ * The upload itself is a child {@link BuildCacheRemoteStoreBuildOperationType} operation.
+ */
+public final class BuildCacheRemoteStoreQueueUploadBuildOperationType implements BuildOperationType<BuildCacheRemoteStoreQueueUploadBuildOperationType.Details, BuildCacheRemoteStoreQueueUploadBuildOperationType.Result> {
+
+    public interface Details {
+
+        /**
+         * The cache key.
+         */
+        String getCacheKey();
+
+        /**
+         * The number of bytes of the queued cache artifact.
+         */
+        long getArchiveSize();
+
+        /**
+         * The number of entries still waiting in the queue when this entry was taken for upload.
+         */
+        int getQueueDepth();
+
+        /**
+         * The time in milliseconds the entry spent waiting in the queue.
+         */
+        long getQueuedTime();
+
+    }
+
+    public interface Result {
+
+        boolean isStored();
+
+    }
+
+    private BuildCacheRemoteStoreQueueUploadBuildOperationType() {
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal;
+
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.Action;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.PersistentCache;
+import org.gradle.internal.resource.local.LocallyAvailableResource;
+import org.gradle.internal.resource.local.PathKeyFileStore;
+import org.gradle.util.GFileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Keeps the entries of a directory build cache in least recently used order, so that the cache can be shrunk to its
+ * target size after every store without listing the cache directory.
+ *
+ * <p>The index is persisted as a journal of stores, accesses and removals that every process appends to. Before
+ * appending a record a process replays what other processes appended since it last looked, and switches to the new
+ * journal when another process has replaced it. The journal is compacted when it grows much larger than the number
+ * of entries, and is rebuilt from the cache directory when it is missing and when the cache is cleaned up periodically,
+ * which picks up entries written by other Gradle versions.</p>
+ *
+ * <p>Recording stores and accesses must happen while holding the cache lock, as both may evict entries or compact the journal.</p>
+ */
+public class BuildCacheAccessIndex implements Closeable {
+    public static final String JOURNAL_FILE_NAME = "access-index.journal";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BuildCacheAccessIndex.class);
+    private static final int JOURNAL_VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final byte STORED = 1;
+    private static final byte ACCESSED = 2;
+    private static final byte REMOVED = 3;
+    private static final int MIN_RECORDS_FOR_COMPACTION = 1000;
+
+    private final File baseDir;
+    private final File journalFile;
+    private final PathKeyFileStore fileStore;
+    private final long targetSize;
+    private final String partialFileSuffix;
+    private final String failedFileSuffix;
+    private final Random random = new Random();
+
+    // Entry sizes in access order, the least recently used entry comes first
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long totalSize;
+    private long generation;
+    private long readOffset;
+    private long records;
+    private boolean opened;
+
+    private long hits;
+    private long misses;
+    private long evictedEntries;
+    private long evictedBytes;
+
+    public BuildCacheAccessIndex(File baseDir, PathKeyFileStore fileStore, long targetSize, String partialFileSuffix, String failedFileSuffix) {
+        this.baseDir = baseDir;
+        this.journalFile = new File(baseDir, JOURNAL_FILE_NAME);
+        this.fileStore = fileStore;
+        this.targetSize = targetSize;
+        this.partialFileSuffix = partialFileSuffix;
+        this.failedFileSuffix = failedFileSuffix;
+    }
+
+    /**
+     * Records that an entry was loaded from the cache.
+     */
+    public synchronized void hit(String key, long size) {
+        hits++;
+        open();
+        refresh();
+        put(key, size);
+        append(ACCESSED, key, size);
+        compactIfNecessary();
+    }
+
+    public synchronized void miss() {
+        misses++;
+    }
+
+    /**
+     * Records that an entry was stored and evicts the least recently used entries until the cache fits its target size.
+     */
+    public synchronized void stored(String key, long size) {
+        open();
+        refresh();
+        put(key, size);
+        append(STORED, key, size);
+        evict(key);
+        compactIfNecessary();
+    }
+
+    /**
+     * Rebuilds the index from the contents of the cache directory and evicts entries until the cache fits its target size.
+     */
+    public synchronized void rebuild() {
+        entries.clear();
+        totalSize = 0;
+        File[] files = baseDir.listFiles();
+        if (files != null) {
+            // Read the timestamps once, as they can change while sorting and break the comparator's contract
+            final Map<File, Long> lastModified = new HashMap<File, Long>(files.length);
+            for (File file : files) {
+                lastModified.put(file, file.lastModified());
+            }
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File left, File right) {
+                    long leftModified = lastModified.get(left);
+                    long rightModified = lastModified.get(right);
+                    return leftModified < rightModified ? -1 : leftModified == rightModified ? 0 : 1;
+                }
+            });
+            for (File file : files) {
+                if (file.isFile() && isEntry(file.getName())) {
+                    put(file.getName(), file.length());
+                }
+            }
+        }
+        writeJournal();
+        opened = true;
+        evict(null);
+    }
+
+    public Action<PersistentCache> getCleanupAction() {
+        return new Action<PersistentCache>() {
+            @Override
+            public void execute(PersistentCache persistentCache) {
+                rebuild();
+            }
+        };
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictedEntries() {
+        return evictedEntries;
+    }
+
+    public synchronized long getEvictedBytes() {
+        return evictedBytes;
+    }
+
+    public synchronized long getTotalSize() {
+        open();
+        return totalSize;
+    }
+
+    @Override
+    public synchronized void close() {
+        long requests = hits + misses;
+        if (requests > 0 || evictedEntries > 0) {
+            LOGGER.info("Build cache in {}: {} hits, {} misses ({}% hit rate), evicted {} entries ({}).",
+                baseDir, hits, misses, requests == 0 ? 0 : hits * 100 / requests, evictedEntries, FileUtils.byteCountToDisplaySize(evictedBytes));
+        }
+    }
+
+    private boolean isEntry(String name) {
+        return !(name.equals(JOURNAL_FILE_NAME)
+            || name.endsWith(".properties")
+            || name.endsWith(".lock")
+            || name.endsWith(partialFileSuffix)
+            || name.endsWith(failedFileSuffix));
+    }
+
+    private void open() {
+        if (opened) {
+            return;
+        }
+        if (journalFile.isFile()) {
+            opened = true;
+            refresh();
+        } else {
+            rebuild();
+        }
+    }
+
+    private void compactIfNecessary() {
+        if (records > Math.max(MIN_RECORDS_FOR_COMPACTION, 2L * entries.size())) {
+            writeJournal();
+        }
+    }
+
+    private void evict(String retainedKey) {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalSize > targetSize && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            String key = entry.getKey();
+            if (key.equals(retainedKey)) {
+                continue;
+            }
+            long size = entry.getValue();
+            iterator.remove();
+            totalSize -= size;
+            LocallyAvailableResource resource = fileStore.get(key);
+            if (resource != null && resource.getFile().delete()) {
+                evictedEntries++;
+                evictedBytes += size;
+            }
+            append(REMOVED, key, 0);
+        }
+    }
+
+    private void put(String key, long size) {
+        Long previousSize = entries.put(key, size);
+        if (previousSize != null) {
+            totalSize -= previousSize;
+        }
+        totalSize += size;
+    }
+
+    private void remove(String key) {
+        Long size = entries.remove(key);
+        if (size != null) {
+            totalSize -= size;
+        }
+    }
+
+    /**
+     * Replays the records other processes appended to the journal since it was last read.
+     */
+    private void refresh() {
+        try {
+            FileInputStream input = new FileInputStream(journalFile);
+            try {
+                DataInputStream header = new DataInputStream(input);
+                if (header.readInt() != JOURNAL_VERSION) {
+                    throw new IOException("Unsupported build cache access index version in " + journalFile);
+                }
+                long journalGeneration = header.readLong();
+                if (journalGeneration != generation) {
+                    // The journal was compacted by another process
+                    entries.clear();
+                    totalSize = 0;
+                    records = 0;
+                    generation = journalGeneration;
+                    readOffset = HEADER_SIZE;
+                }
+                input.getChannel().position(readOffset);
+                DataInputStream data = new DataInputStream(new BufferedInputStream(input));
+                while (true) {
+                    int length;
+                    byte type;
+                    String key;
+                    long size;
+                    try {
+                        length = data.readUnsignedShort();
+                        type = data.readByte();
+                        key = data.readUTF();
+                        size = data.readLong();
+                    } catch (EOFException e) {
+                        // A record that is still being written
+                        break;
+                    }
+                    readOffset += 2 + length;
+                    records++;
+                    if (type == REMOVED) {
+                        remove(key);
+                    } else {
+                        put(key, size);
+                    }
+                }
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Could not read build cache access index {}, rebuilding it.", journalFile, e);
+            rebuild();
+        }
+    }
+
+    /**
+     * Appends a record to the journal. The record is applied to the index again when the journal is next replayed, as it
+     * may have been preceded by records of other processes.
+     *
+     * <p>The journal is closed again after each record, so that it is not held open while another process replaces it.</p>
+     */
+    private void append(byte type, String key, long size) {
+        try {
+            byte[] record = encode(type, key, size);
+            FileOutputStream output = new FileOutputStream(journalFile, true);
+            try {
+                // A single write per record, so that records appended by several processes do not interleave
+                output.write(record);
+            } finally {
+                output.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] encode(byte type, String key, long size) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+        DataOutputStream data = new DataOutputStream(buffer);
+        data.writeShort(0);
+        data.writeByte(type);
+        data.writeUTF(key);
+        data.writeLong(size);
+        byte[] record = buffer.toByteArray();
+        int length = record.length - 2;
+        record[0] = (byte) (length >>> 8);
+        record[1] = (byte) length;
+        return record;
+    }
+
+    private void writeJournal() {
+        File tempFile = new File(baseDir, JOURNAL_FILE_NAME + partialFileSuffix);
+        generation = random.nextLong();
+        try {
+            long length = HEADER_SIZE;
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                output.writeInt(JOURNAL_VERSION);
+                output.writeLong(generation);
+                for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                    byte[] record = encode(STORED, entry.getKey(), entry.getValue());
+                    output.write(record);
+                    length += record.length;
+                }
+            } finally {
+                output.close();
+            }
+            readOffset = length;
+            records = entries.size();
+            GFileUtils.deleteQuietly(journalFile);
+            if (!tempFile.renameTo(journalFile)) {
+                throw new IOException("Could not replace " + journalFile);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            GFileUtils.deleteQuietly(tempFile);
+        }
+    }
+}
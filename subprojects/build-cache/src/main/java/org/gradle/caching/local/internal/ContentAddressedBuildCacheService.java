@@ -0,0 +1,274 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import org.apache.commons.io.IOUtils;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.PersistentCache;
+import org.gradle.caching.BuildCacheKey;
+import org.gradle.internal.Factory;
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.resource.local.PathKeyFileStore;
+import org.gradle.util.GFileUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A directory build cache that can also keep entries as a manifest plus the contents of their files, stored once per content hash.
+ *
+ * <p>An entry is described by a {@code <key>.manifest} file, which starts with the hashes of the blobs the entry refers to. Each blob is a
+ * {@code <hash>.blob} file, that is only written when the cache does not hold it yet. Blobs are written to partial files first, and are only
+ * moved into place together with the manifest, so a failed store leaves nothing behind.</p>
+ *
+ * <p>All files are kept directly in the cache directory, so the cache is cleaned up by age like the archive layout. Loading an entry marks
+ * its manifest and blobs as recently used. A manifest that refers to a blob that was already removed is deleted and treated as a miss.</p>
+ *
+ * <p>Entries stored as archives are kept and loaded as before. These are entries loaded from a remote cache, and entries whose archive was
+ * also packed for a remote cache.</p>
+ */
+public class ContentAddressedBuildCacheService extends DirectoryBuildCacheService implements ContentAddressedLocalBuildCache {
+    public static final String MANIFEST_SUFFIX = ".manifest";
+    public static final String BLOB_SUFFIX = ".blob";
+
+    private static final int MANIFEST_VERSION = 1;
+
+    private final File baseDir;
+    private final PersistentCache persistentCache;
+    private final String failedFileSuffix;
+
+    public ContentAddressedBuildCacheService(PathKeyFileStore fileStore, PersistentCache persistentCache, BuildCacheTempFileStore tempFileStore, String failedFileSuffix) {
+        super(fileStore, persistentCache, tempFileStore, failedFileSuffix);
+        this.baseDir = persistentCache.getBaseDir();
+        this.persistentCache = persistentCache;
+        this.failedFileSuffix = failedFileSuffix;
+    }
+
+    @Override
+    public boolean loadManifest(final BuildCacheKey key, final ManifestReader reader) {
+        // We need to lock here because garbage collection can be under way in another process
+        return persistentCache.withFileLock(new Factory<Boolean>() {
+            @Override
+            public Boolean create() {
+                File manifestFile = manifestFile(key);
+                if (!manifestFile.isFile()) {
+                    return false;
+                }
+                boolean loaded;
+                try {
+                    loaded = readManifest(manifestFile, reader);
+                } catch (Exception e) {
+                    // Move the manifest out of the way in case it is permanently corrupt, the blobs are still shared with other entries
+                    File failedFile = new File(manifestFile.getAbsolutePath() + failedFileSuffix);
+                    GFileUtils.deleteQuietly(failedFile);
+                    //noinspection ResultOfMethodCallIgnored
+                    manifestFile.renameTo(failedFile);
+                    throw UncheckedException.throwAsUncheckedException(e);
+                }
+                if (!loaded) {
+                    // Some blobs have been cleaned up already
+                    GFileUtils.deleteQuietly(manifestFile);
+                }
+                return loaded;
+            }
+        });
+    }
+
+    private boolean readManifest(File manifestFile, ManifestReader reader) throws IOException {
+        long size = manifestFile.length();
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(manifestFile)));
+        try {
+            int version = input.readInt();
+            if (version != MANIFEST_VERSION) {
+                throw new IllegalStateException(String.format("Unsupported manifest version %d in %s", version, manifestFile));
+            }
+            int blobCount = input.readInt();
+            final Set<String> hashes = Sets.newHashSetWithExpectedSize(blobCount);
+            List<File> blobFiles = Lists.newArrayListWithCapacity(blobCount);
+            for (int i = 0; i < blobCount; i++) {
+                String hash = input.readUTF();
+                File blobFile = blobFile(hash);
+                if (!blobFile.isFile()) {
+                    return false;
+                }
+                hashes.add(hash);
+                blobFiles.add(blobFile);
+            }
+
+            // Mark as recently used
+            GFileUtils.touch(manifestFile);
+            for (File blobFile : blobFiles) {
+                GFileUtils.touch(blobFile);
+            }
+
+            reader.read(input, size, new BlobSource() {
+                @Override
+                public File getBlob(HashCode contentHash) {
+                    String hash = contentHash.toString();
+                    if (!hashes.contains(hash)) {
+                        throw new IllegalStateException(String.format("Blob %s is not referenced by the manifest", hash));
+                    }
+                    return blobFile(hash);
+                }
+            });
+            return true;
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    @Override
+    public void storeManifest(BuildCacheKey key, ManifestWriter writer) {
+        final StagedBlobs blobs = new StagedBlobs();
+        File tempManifestFile = null;
+        try {
+            // Manifests are small, so we keep them in memory until we know which blobs they refer to
+            ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+            writer.write(manifest, blobs);
+
+            tempManifestFile = File.createTempFile(key.getHashCode(), BuildCacheTempFileStore.PARTIAL_FILE_SUFFIX, baseDir);
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempManifestFile)));
+            try {
+                output.writeInt(MANIFEST_VERSION);
+                output.writeInt(blobs.getHashes().size());
+                for (String hash : blobs.getHashes()) {
+                    output.writeUTF(hash);
+                }
+                manifest.writeTo(output);
+            } finally {
+                output.close();
+            }
+
+            final File manifestFile = manifestFile(key);
+            final File stagedManifestFile = tempManifestFile;
+            persistentCache.useCache(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        blobs.commit();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    GFileUtils.deleteQuietly(manifestFile);
+                    moveInPlace(stagedManifestFile, manifestFile);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            blobs.discard();
+            if (tempManifestFile != null) {
+                GFileUtils.deleteQuietly(tempManifestFile);
+            }
+        }
+    }
+
+    private File manifestFile(BuildCacheKey key) {
+        return new File(baseDir, key.getHashCode() + MANIFEST_SUFFIX);
+    }
+
+    private File blobFile(String hash) {
+        return new File(baseDir, hash + BLOB_SUFFIX);
+    }
+
+    private static void moveInPlace(File source, File target) {
+        if (!source.renameTo(target) && !target.isFile()) {
+            throw new UncheckedIOException(String.format("Could not move %s to %s", source, target));
+        }
+    }
+
+    /**
+     * Collects the blobs of a manifest being stored. New blobs are written to partial files, which are moved into place on commit.
+     */
+    private class StagedBlobs implements BlobSink {
+        // The writer of every blob, so that a blob the cache held when it was added can be written after all when it has been removed since
+        private final Map<String, BlobWriter> writers = Maps.newLinkedHashMap();
+        private final Map<String, File> stagedFiles = Maps.newHashMap();
+
+        Set<String> getHashes() {
+            return writers.keySet();
+        }
+
+        @Override
+        public void putBlob(HashCode contentHash, BlobWriter writer) throws IOException {
+            String hash = contentHash.toString();
+            if (writers.containsKey(hash)) {
+                return;
+            }
+            writers.put(hash, writer);
+            if (!blobFile(hash).isFile()) {
+                stage(hash, writer);
+            }
+        }
+
+        private File stage(String hash, BlobWriter writer) throws IOException {
+            File stagedFile = File.createTempFile(hash, BuildCacheTempFileStore.PARTIAL_FILE_SUFFIX, baseDir);
+            stagedFiles.put(hash, stagedFile);
+            OutputStream output = new BufferedOutputStream(new FileOutputStream(stagedFile));
+            try {
+                writer.writeTo(output);
+            } finally {
+                output.close();
+            }
+            return stagedFile;
+        }
+
+        /**
+         * Moves the staged blobs into place, must be called while holding the cache lock so that cleanup cannot remove blobs until the manifest is in place.
+         */
+        void commit() throws IOException {
+            for (Map.Entry<String, BlobWriter> entry : writers.entrySet()) {
+                String hash = entry.getKey();
+                File blobFile = blobFile(hash);
+                if (blobFile.isFile()) {
+                    // Written by another store in the meantime, or already there, keep it from being cleaned up before the manifest
+                    GFileUtils.touch(blobFile);
+                    continue;
+                }
+                File stagedFile = stagedFiles.get(hash);
+                if (stagedFile == null) {
+                    // The cache held the blob when it was added, but it has been cleaned up since
+                    stagedFile = stage(hash, entry.getValue());
+                }
+                moveInPlace(stagedFile, blobFile);
+            }
+        }
+
+        void discard() {
+            for (File stagedFile : stagedFiles.values()) {
+                if (stagedFile.exists()) {
+                    GFileUtils.deleteQuietly(stagedFile);
+                }
+            }
+        }
+    }
+}
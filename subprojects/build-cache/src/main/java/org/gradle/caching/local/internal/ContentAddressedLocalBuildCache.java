@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal;
+
+import com.google.common.hash.HashCode;
+import org.gradle.caching.BuildCacheKey;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A local build cache that can keep an entry as a manifest plus the contents of its files, stored once per content hash.
+ *
+ * <p>The format of the manifest is up to the writer. The cache only keeps track of the blobs the manifest refers to.</p>
+ */
+public interface ContentAddressedLocalBuildCache {
+
+    /**
+     * Loads the manifest stored for the given key, if any.
+     *
+     * @return whether a manifest was found and all the blobs it refers to are still in the cache.
+     */
+    boolean loadManifest(BuildCacheKey key, ManifestReader reader);
+
+    /**
+     * Stores a manifest for the given key. Nothing is stored when the writer fails, including the blobs it has added.
+     */
+    void storeManifest(BuildCacheKey key, ManifestWriter writer);
+
+    interface ManifestReader {
+        /**
+         * Reads the manifest, which is the given number of bytes long. The blobs it refers to stay in the cache while this method runs.
+         */
+        void read(InputStream manifest, long size, BlobSource blobs) throws IOException;
+    }
+
+    interface ManifestWriter {
+        /**
+         * Writes the manifest, adding the blobs it refers to.
+         */
+        void write(OutputStream manifest, BlobSink blobs) throws IOException;
+    }
+
+    interface BlobSource {
+        /**
+         * Returns the file holding the content with the given hash. The file must not be modified.
+         */
+        File getBlob(HashCode contentHash);
+    }
+
+    interface BlobSink {
+        /**
+         * Adds the content with the given hash to the entry. The writer is only called when the cache does not hold the content,
+         * which is checked when the content is added and again when the entry is stored, after the manifest has been written.
+         */
+        void putBlob(HashCode contentHash, BlobWriter writer) throws IOException;
+    }
+
+    interface BlobWriter {
+        /**
+         * Writes content that has the hash it was added with.
+         */
+        void writeTo(OutputStream output) throws IOException;
+    }
+}
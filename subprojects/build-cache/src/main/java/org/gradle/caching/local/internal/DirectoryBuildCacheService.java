@@ -27,14 +27,17 @@ import org.gradle.caching.BuildCacheKey;
 import org.gradle.caching.BuildCacheService;
 import org.gradle.internal.Factory;
 import org.gradle.internal.UncheckedException;
+import org.gradle.internal.concurrent.CompositeStoppable;
 import org.gradle.internal.resource.local.LocallyAvailableResource;
 import org.gradle.internal.resource.local.PathKeyFileStore;
 import org.gradle.util.GFileUtils;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Collection;
 
 public class DirectoryBuildCacheService implements LocalBuildCacheService, BuildCacheService {
 
@@ -42,12 +45,18 @@ public class DirectoryBuildCacheService implements LocalBuildCacheService, Build
     private final PersistentCache persistentCache;
     private final BuildCacheTempFileStore tempFileStore;
     private final String failedFileSuffix;
+    private final BuildCacheAccessIndex accessIndex;
 
     public DirectoryBuildCacheService(PathKeyFileStore fileStore, PersistentCache persistentCache, BuildCacheTempFileStore tempFileStore, String failedFileSuffix) {
+        this(fileStore, persistentCache, tempFileStore, failedFileSuffix, null);
+    }
+
+    public DirectoryBuildCacheService(PathKeyFileStore fileStore, PersistentCache persistentCache, BuildCacheTempFileStore tempFileStore, String failedFileSuffix, @Nullable BuildCacheAccessIndex accessIndex) {
         this.fileStore = fileStore;
         this.persistentCache = persistentCache;
         this.tempFileStore = tempFileStore;
         this.failedFileSuffix = failedFileSuffix;
+        this.accessIndex = accessIndex;
     }
 
     private static class LoadAction implements Action<File> {
@@ -94,7 +103,7 @@ public class DirectoryBuildCacheService implements LocalBuildCacheService, Build
                 LocallyAvailableResource resource = fileStore.get(key.getHashCode());
                 if (resource != null) {
                     final File file = resource.getFile();
-                    GFileUtils.touch(file); // Mark as recently used
+                    markRecentlyUsed(key, file);
 
                     try {
                         reader.execute(file);
@@ -108,12 +117,37 @@ public class DirectoryBuildCacheService implements LocalBuildCacheService, Build
 
                         throw UncheckedException.throwAsUncheckedException(e);
                     }
+                } else if (accessIndex != null) {
+                    accessIndex.miss();
+                }
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void markRecentlyUsed(final Collection<BuildCacheKey> keys) {
+        persistentCache.withFileLock(new Factory<Void>() {
+            @Override
+            public Void create() {
+                for (BuildCacheKey key : keys) {
+                    LocallyAvailableResource resource = fileStore.get(key.getHashCode());
+                    if (resource != null) {
+                        markRecentlyUsed(key, resource.getFile());
+                    }
                 }
                 return null;
             }
         });
     }
 
+    private void markRecentlyUsed(BuildCacheKey key, File file) {
+        GFileUtils.touch(file);
+        if (accessIndex != null) {
+            accessIndex.hit(key.getHashCode(), file.length());
+        }
+    }
+
     @Override
     public void store(final BuildCacheKey key, final BuildCacheEntryWriter result) throws BuildCacheException {
         tempFileStore.allocateTempFile(key, new Action<File>() {
@@ -142,7 +176,11 @@ public class DirectoryBuildCacheService implements LocalBuildCacheService, Build
         persistentCache.useCache(new Runnable() {
             @Override
             public void run() {
+                long size = file.length();
                 fileStore.move(key.getHashCode(), file);
+                if (accessIndex != null) {
+                    accessIndex.stored(key.getHashCode(), size);
+                }
             }
         });
     }
@@ -152,8 +190,14 @@ public class DirectoryBuildCacheService implements LocalBuildCacheService, Build
         tempFileStore.allocateTempFile(key, action);
     }
 
+    @Override
+    public File getCacheDir() {
+        return persistentCache.getBaseDir();
+    }
+
     @Override
     public void close() {
-        persistentCache.close();
+        // Closing the cache may rebuild the index, so close the index afterwards
+        CompositeStoppable.stoppable(persistentCache, accessIndex).stop();
     }
 }
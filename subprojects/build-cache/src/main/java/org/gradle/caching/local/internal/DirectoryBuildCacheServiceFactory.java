@@ -17,6 +17,7 @@
 package org.gradle.caching.local.internal;
 
 import org.apache.commons.io.FileUtils;
+import org.gradle.api.Action;
 import org.gradle.api.UncheckedIOException;
 import org.gradle.cache.CacheBuilder;
 import org.gradle.cache.CacheRepository;
@@ -40,6 +41,17 @@ import static org.gradle.cache.internal.filelock.LockOptionsBuilder.mode;
 public class DirectoryBuildCacheServiceFactory implements BuildCacheServiceFactory<DirectoryBuildCache> {
     public static final String FAILED_READ_SUFFIX = ".failed";
 
+    /**
+     * Evicts least recently used entries after every store, based on a persistent index. See {@link BuildCacheAccessIndex}.
+     */
+    public static final String ACCESS_INDEX_PROPERTY = "org.gradle.caching.local.accessIndex";
+
+    /**
+     * Stores the outputs of tasks as a manifest plus their files by content hash, instead of as archives. See {@link ContentAddressedBuildCacheService}.
+     * The cache is then cleaned up by age, as the access index does not know about blobs.
+     */
+    public static final String CONTENT_ADDRESSED_PROPERTY = "org.gradle.caching.local.contentAddressed";
+
     private static final String BUILD_CACHE_VERSION = "1";
     private static final String BUILD_CACHE_KEY = "build-cache-" + BUILD_CACHE_VERSION;
     private static final String DIRECTORY_BUILD_CACHE_TYPE = "directory";
@@ -77,16 +89,29 @@ public class DirectoryBuildCacheServiceFactory implements BuildCacheServiceFacto
             config("targetSize", humanReadableCacheSize);
 
         PathKeyFileStore fileStore = fileStoreFactory.createFileStore(target);
+        boolean contentAddressed = Boolean.getBoolean(CONTENT_ADDRESSED_PROPERTY);
+        BuildCacheAccessIndex accessIndex = null;
+        Action<? super PersistentCache> cleanup;
+        if (Boolean.getBoolean(ACCESS_INDEX_PROPERTY) && !contentAddressed) {
+            accessIndex = new BuildCacheAccessIndex(target, fileStore, targetSizeInMB * 1024 * 1024, BuildCacheTempFileStore.PARTIAL_FILE_SUFFIX, FAILED_READ_SUFFIX);
+            cleanup = accessIndex.getCleanupAction();
+        } else {
+            cleanup = new FixedSizeOldestCacheCleanup(buildOperationExecutor, targetSizeInMB, BuildCacheTempFileStore.PARTIAL_FILE_SUFFIX);
+        }
+
         PersistentCache persistentCache = cacheRepository
             .cache(target)
-            .withCleanup(new FixedSizeOldestCacheCleanup(buildOperationExecutor, targetSizeInMB, BuildCacheTempFileStore.PARTIAL_FILE_SUFFIX))
+            .withCleanup(cleanup)
             .withDisplayName("Build cache")
             .withLockOptions(mode(None))
             .withCrossVersionCache(CacheBuilder.LockTarget.DefaultTarget)
             .open();
         BuildCacheTempFileStore tempFileStore = new DefaultBuildCacheTempFileStore(target, BuildCacheTempFileStore.PARTIAL_FILE_SUFFIX);
 
-        return new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, FAILED_READ_SUFFIX);
+        if (contentAddressed) {
+            return new ContentAddressedBuildCacheService(fileStore, persistentCache, tempFileStore, FAILED_READ_SUFFIX);
+        }
+        return new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, FAILED_READ_SUFFIX, accessIndex);
     }
 
     private static void checkDirectory(File directory) {
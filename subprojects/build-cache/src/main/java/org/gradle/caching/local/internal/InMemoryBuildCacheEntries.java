@@ -0,0 +1,201 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal;
+
+import com.google.common.base.Objects;
+import com.google.common.io.Files;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.internal.HeapProportionalCacheSizer;
+import org.gradle.caching.BuildCacheKey;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the contents of recently loaded and stored local build cache entries in memory, so that later builds run by
+ * the same daemon can load them again without reading the local build cache.
+ *
+ * <p>Entries are kept per local build cache directory, so builds using different local caches don't see each
+ * other's entries. The maximum size is shared by the entries of all directories.</p>
+ *
+ * <p>Entries are evicted in least recently used order when their total size exceeds the maximum size. Entries
+ * larger than an eighth of the maximum size are not kept, so a single large entry can't flush the others.</p>
+ */
+public class InMemoryBuildCacheEntries implements Closeable {
+    // Entry contents held in memory with the default daemon heap, so entries of up to 8 MB are kept. A larger heap keeps proportionally more
+    private static final int REFERENCE_MAX_SIZE_KB = 64 * 1024;
+
+    private final long maxSize;
+    private final long maxEntrySize;
+
+    // Entry contents in access order, the least recently used entry comes first
+    private final LinkedHashMap<EntryKey, byte[]> entries = new LinkedHashMap<EntryKey, byte[]>(16, 0.75f, true);
+    private long totalSize;
+    private long hits;
+    private long misses;
+
+    public InMemoryBuildCacheEntries(long maxSize) {
+        this.maxSize = maxSize;
+        this.maxEntrySize = maxSize / 8;
+    }
+
+    /**
+     * Creates entries with a maximum size proportional to the heap available to the daemon.
+     */
+    public static InMemoryBuildCacheEntries sizedByHeap() {
+        return new InMemoryBuildCacheEntries(new HeapProportionalCacheSizer().scaleCacheSize(REFERENCE_MAX_SIZE_KB) * 1024L);
+    }
+
+    /**
+     * Returns the contents of the entry of the given local build cache, or {@code null} when it is not kept in memory.
+     */
+    @Nullable
+    public synchronized byte[] get(@Nullable File cacheDir, BuildCacheKey key) {
+        byte[] content = entries.get(new EntryKey(cacheDir, key));
+        if (content == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return content;
+    }
+
+    /**
+     * Whether an entry of the given size would be kept in memory.
+     */
+    public boolean accepts(long size) {
+        return size <= maxEntrySize;
+    }
+
+    /**
+     * Keeps the given file as the contents of the entry if it is small enough.
+     */
+    public void put(@Nullable File cacheDir, BuildCacheKey key, File file) {
+        if (!accepts(file.length())) {
+            return;
+        }
+        byte[] content;
+        try {
+            content = Files.toByteArray(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        put(cacheDir, key, content);
+    }
+
+    public synchronized void put(@Nullable File cacheDir, BuildCacheKey key, byte[] content) {
+        if (!accepts(content.length)) {
+            return;
+        }
+        byte[] previous = entries.put(new EntryKey(cacheDir, key), content);
+        if (previous != null) {
+            totalSize -= previous.length;
+        }
+        totalSize += content.length;
+        Iterator<Map.Entry<EntryKey, byte[]>> iterator = entries.entrySet().iterator();
+        while (totalSize > maxSize && iterator.hasNext()) {
+            totalSize -= iterator.next().getValue().length;
+            iterator.remove();
+        }
+    }
+
+    public synchronized void remove(@Nullable File cacheDir, BuildCacheKey key) {
+        byte[] previous = entries.remove(new EntryKey(cacheDir, key));
+        if (previous != null) {
+            totalSize -= previous.length;
+        }
+    }
+
+    /**
+     * Discards all entries when the daemon stops.
+     */
+    @Override
+    public synchronized void close() {
+        entries.clear();
+        totalSize = 0;
+    }
+
+    public synchronized Statistics getStatistics() {
+        return new Statistics(hits, misses, entries.size(), totalSize);
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    private static class EntryKey {
+        private final File cacheDir;
+        private final String hashCode;
+
+        private EntryKey(@Nullable File cacheDir, BuildCacheKey key) {
+            this.cacheDir = cacheDir;
+            this.hashCode = key.getHashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            EntryKey other = (EntryKey) o;
+            return hashCode.equals(other.hashCode) && Objects.equal(cacheDir, other.cacheDir);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(cacheDir, hashCode);
+        }
+    }
+
+    public static class Statistics {
+        private final long hits;
+        private final long misses;
+        private final int entries;
+        private final long size;
+
+        private Statistics(long hits, long misses, int entries, long size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.entries = entries;
+            this.size = size;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public int getEntries() {
+            return entries;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+}
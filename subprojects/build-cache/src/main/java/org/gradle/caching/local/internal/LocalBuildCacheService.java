@@ -21,13 +21,24 @@ import org.gradle.caching.BuildCacheKey;
 
 import java.io.Closeable;
 import java.io.File;
+import java.util.Collection;
 
 public interface LocalBuildCacheService extends BuildCacheTempFileStore, Closeable {
 
     void load(BuildCacheKey key, Action<? super File> reader);
 
+    /**
+     * Marks the entries as recently used without reading them, for entries that were loaded from elsewhere.
+     */
+    void markRecentlyUsed(Collection<BuildCacheKey> keys);
+
     void store(BuildCacheKey key, File file);
 
+    /**
+     * The directory holding the entries of this cache.
+     */
+    File getCacheDir();
+
     @Override
     void close();
 }
@@ -28,7 +28,9 @@ import org.gradle.caching.configuration.internal.DefaultBuildCacheConfiguration
 import org.gradle.caching.configuration.internal.DefaultBuildCacheServiceRegistration
 import org.gradle.caching.internal.FinalizeBuildCacheConfigurationBuildOperationType
 import org.gradle.caching.local.DirectoryBuildCache
+import org.gradle.caching.local.internal.InMemoryBuildCacheEntries
 import org.gradle.caching.local.internal.LocalBuildCacheService
+import org.gradle.internal.concurrent.DefaultExecutorFactory
 import org.gradle.internal.operations.TestBuildOperationExecutor
 import org.gradle.internal.reflect.DirectInstantiator
 import org.gradle.testing.internal.util.Specification
@@ -55,13 +57,16 @@ class BuildCacheControllerFactoryTest extends Specification {
     private <T extends BuildCacheController> T createController(Class<T> controllerType) {
         def controller = BuildCacheControllerFactory.create(
             buildOperationExecuter,
+            buildOperationExecuter.currentOperation,
+            new DefaultExecutorFactory(),
             Path.path("test"),
             null,
             config,
             buildCacheEnabled ? ENABLED : DISABLED,
             ONLINE,
             false,
-            DirectInstantiator.INSTANCE
+            DirectInstantiator.INSTANCE,
+            new InMemoryBuildCacheEntries(1024)
         )
         assert controllerType.isInstance(controller)
         controllerType.cast(controller)
@@ -196,6 +201,16 @@ class BuildCacheControllerFactoryTest extends Specification {
 
     static class TestRemoteBuildCacheService implements BuildCacheService {
 
+        @Override
+        void markRecentlyUsed(Collection<BuildCacheKey> keys) {
+
+        }
+
+        @Override
+        File getCacheDir() {
+            return null
+        }
+
         @Override
         boolean load(BuildCacheKey key, BuildCacheEntryReader reader) throws BuildCacheException {
             return false
@@ -235,6 +250,16 @@ class BuildCacheControllerFactoryTest extends Specification {
 
         }
 
+        @Override
+        void markRecentlyUsed(Collection<BuildCacheKey> keys) {
+
+        }
+
+        @Override
+        File getCacheDir() {
+            return null
+        }
+
         @Override
         boolean load(BuildCacheKey key, BuildCacheEntryReader reader) throws BuildCacheException {
             return false
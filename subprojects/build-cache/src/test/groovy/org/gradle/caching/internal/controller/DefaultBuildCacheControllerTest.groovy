@@ -22,12 +22,20 @@ import org.gradle.caching.BuildCacheEntryWriter
 import org.gradle.caching.BuildCacheKey
 import org.gradle.caching.BuildCacheService
 import org.gradle.caching.internal.controller.service.BuildCacheServicesConfiguration
+import org.gradle.caching.internal.operations.BuildCacheArchivePackBuildOperationType
+import org.gradle.caching.internal.operations.BuildCacheArchiveUnpackBuildOperationType
+import org.gradle.caching.internal.operations.BuildCacheRemoteStoreQueueDrainBuildOperationType
+import org.gradle.caching.local.internal.ContentAddressedLocalBuildCache
+import org.gradle.caching.local.internal.InMemoryBuildCacheEntries
 import org.gradle.caching.local.internal.LocalBuildCacheService
+import org.gradle.internal.concurrent.DefaultExecutorFactory
 import org.gradle.internal.operations.TestBuildOperationExecutor
 import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
 import org.gradle.testing.internal.util.Specification
 import org.junit.Rule
 
+import java.util.concurrent.CountDownLatch
+
 class DefaultBuildCacheControllerTest extends Specification {
 
     def key = Mock(BuildCacheKey) {
@@ -78,12 +86,17 @@ class DefaultBuildCacheControllerTest extends Specification {
     }
 
     def operations = new TestBuildOperationExecutor()
+    def executorFactory = new DefaultExecutorFactory()
+    def remoteStoreQueueSize = 0
+    InMemoryBuildCacheEntries inMemoryEntries = null
 
     @Rule
     final TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
 
     interface Local extends BuildCacheService, LocalBuildCacheService {}
 
+    interface ContentAddressedLocal extends Local, ContentAddressedLocalBuildCache {}
+
     BuildCacheController getController() {
         new DefaultBuildCacheController(
             new BuildCacheServicesConfiguration(
@@ -91,8 +104,13 @@ class DefaultBuildCacheControllerTest extends Specification {
                 remote, remotePush
             ),
             operations,
+            operations.currentOperation,
+            executorFactory,
             tmpDir.file("dir"),
-            false
+            false,
+            remoteStoreQueueSize,
+            1000,
+            inMemoryEntries
         )
     }
 
@@ -337,4 +355,206 @@ class DefaultBuildCacheControllerTest extends Specification {
         }
     }
 
+    def "queues remote store and uploads it in the background"() {
+        given:
+        remoteStoreQueueSize = 4
+        def controller = getController()
+
+        when:
+        controller.store(storeCommand)
+        controller.close()
+
+        then:
+        1 * local.store(key, _)
+        1 * remote.store(key, _)
+        1 * remote.close()
+        operations.log.mostRecentResult(BuildCacheRemoteStoreQueueDrainBuildOperationType).uploadedCount == 1
+    }
+
+    def "does not queue remote stores when remote push is disabled"() {
+        given:
+        remoteStoreQueueSize = 4
+        remotePush = false
+
+        expect:
+        controller.remoteStoreQueue == null
+    }
+
+    def "loads entries from memory after loading them from the local cache"() {
+        given:
+        inMemoryEntries = new InMemoryBuildCacheEntries(1024)
+        def controller = getController()
+
+        when:
+        controller.load(loadCommand)
+        controller.load(loadCommand)
+
+        then:
+        1 * local.load(key, _) >> { BuildCacheKey key, Action<File> action ->
+            def file = tmpDir.file("file")
+            file.text = "alma"
+            action.execute(file)
+        }
+        0 * local.markRecentlyUsed(_)
+        inMemoryEntries.statistics.hits == 1
+        inMemoryEntries.statistics.misses == 1
+    }
+
+    def "marks entries loaded from memory as recently used once the build is complete"() {
+        given:
+        inMemoryEntries = new InMemoryBuildCacheEntries(1024)
+        def controller = getController()
+        controller.store(storeCommand)
+
+        when:
+        controller.load(loadCommand)
+        controller.load(loadCommand)
+
+        then:
+        0 * local.markRecentlyUsed(_)
+
+        when:
+        controller.close()
+
+        then:
+        1 * local.markRecentlyUsed({ it as List == [key] })
+        inMemoryEntries.statistics.hits == 2
+    }
+
+    def "loads stored entries from memory"() {
+        given:
+        inMemoryEntries = new InMemoryBuildCacheEntries(1024)
+        def controller = getController()
+
+        when:
+        controller.store(storeCommand)
+        controller.load(loadCommand)
+
+        then:
+        1 * local.store(key, _)
+        0 * local.load(key, _)
+        inMemoryEntries.statistics.hits == 1
+    }
+
+    def "does not keep entries in memory without a local cache"() {
+        given:
+        inMemoryEntries = new InMemoryBuildCacheEntries(1024)
+        local = null
+
+        expect:
+        controller.inMemoryEntries == null
+    }
+
+    def "stores entries as manifests in a content-addressed local cache"() {
+        given:
+        local = contentAddressedLocal()
+        remote = null
+        def storeCommand = contentAddressedStoreCommand()
+
+        when:
+        controller.store(storeCommand)
+
+        then:
+        1 * local.storeManifest(key, _) >> { BuildCacheKey key, ContentAddressedLocalBuildCache.ManifestWriter writer ->
+            writer.write(new ByteArrayOutputStream(), Stub(ContentAddressedLocalBuildCache.BlobSink))
+        }
+        0 * local.store(key, _)
+        operations.log.mostRecentResult(BuildCacheArchivePackBuildOperationType).archiveSize == 8
+    }
+
+    def "stores the archive packed for the remote cache in a content-addressed local cache"() {
+        given:
+        local = contentAddressedLocal()
+        def storeCommand = contentAddressedStoreCommand()
+
+        when:
+        controller.store(storeCommand)
+
+        then:
+        1 * remote.store(key, _)
+        1 * local.store(key, _)
+        0 * local.storeManifest(key, _)
+        operations.log.all(BuildCacheArchivePackBuildOperationType).size() == 1
+    }
+
+    def "stores archives in a content-addressed local cache for commands without manifest support"() {
+        given:
+        local = contentAddressedLocal()
+        remote = null
+
+        when:
+        controller.store(storeCommand)
+
+        then:
+        1 * local.store(key, _)
+        0 * local.storeManifest(key, _)
+    }
+
+    def "loads entries from manifests in a content-addressed local cache"() {
+        given:
+        local = contentAddressedLocal()
+        def blobs = Stub(ContentAddressedLocalBuildCache.BlobSource)
+        def loadCommand = contentAddressedLoadCommand()
+
+        when:
+        controller.load(loadCommand)
+
+        then:
+        1 * local.loadManifest(key, _) >> { BuildCacheKey key, ContentAddressedLocalBuildCache.ManifestReader reader ->
+            reader.read(new ByteArrayInputStream("manifest".bytes), 8, blobs)
+            true
+        }
+        1 * loadCommand.loadManifest(_, blobs) >> Stub(BuildCacheLoadCommand.Result)
+        0 * local.load(key, _)
+        0 * remote.load(key, _)
+        operations.log.mostRecentDetails(BuildCacheArchiveUnpackBuildOperationType).archiveSize == 8
+    }
+
+    def "loads archives from a content-addressed local cache when there is no manifest"() {
+        given:
+        local = contentAddressedLocal()
+        def loadCommand = contentAddressedLoadCommand()
+
+        when:
+        controller.load(loadCommand)
+
+        then:
+        1 * local.loadManifest(key, _) >> false
+        1 * local.load(key, _) >> { BuildCacheKey key, Action<File> action ->
+            def file = tmpDir.file("file")
+            file.text = "alma"
+            action.execute(file)
+        }
+        1 * loadCommand.load(_) >> Stub(BuildCacheLoadCommand.Result)
+        0 * loadCommand.loadManifest(_, _)
+        0 * remote.load(key, _)
+    }
+
+    private ContentAddressedLocal contentAddressedLocal() {
+        Mock(ContentAddressedLocal) {
+            allocateTempFile(_, _) >> { key, action ->
+                action.execute(tmpDir.file("file"))
+            }
+        }
+    }
+
+    private ContentAddressedBuildCacheStoreCommand contentAddressedStoreCommand() {
+        Stub(ContentAddressedBuildCacheStoreCommand) {
+            getKey() >> key
+            store(_) >> { OutputStream output ->
+                output.close()
+                Stub(BuildCacheStoreCommand.Result)
+            }
+            storeManifest(_, _) >> { OutputStream manifest, ContentAddressedLocalBuildCache.BlobSink blobs ->
+                manifest.write("manifest".bytes)
+                Stub(BuildCacheStoreCommand.Result)
+            }
+        }
+    }
+
+    private ContentAddressedBuildCacheLoadCommand contentAddressedLoadCommand() {
+        Mock(ContentAddressedBuildCacheLoadCommand) {
+            getKey() >> key
+        }
+    }
 }
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller
+
+import org.gradle.caching.BuildCacheEntryWriter
+import org.gradle.caching.BuildCacheKey
+import org.gradle.caching.BuildCacheService
+import org.gradle.caching.internal.controller.service.BaseBuildCacheServiceHandle
+import org.gradle.caching.internal.controller.service.BuildCacheServiceRole
+import org.gradle.caching.internal.operations.BuildCacheRemoteStoreQueueDrainBuildOperationType
+import org.gradle.caching.internal.operations.BuildCacheRemoteStoreQueueUploadBuildOperationType
+import org.gradle.internal.concurrent.DefaultExecutorFactory
+import org.gradle.internal.operations.TestBuildOperationExecutor
+import org.gradle.internal.progress.BuildOperationState
+import org.gradle.test.fixtures.ConcurrentTestUtil
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.gradle.testing.internal.util.Specification
+import org.junit.Rule
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class RemoteBuildCacheStoreQueueTest extends Specification {
+
+    @Rule
+    final TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+
+    def operations = new TestBuildOperationExecutor()
+    def buildOperation = Stub(BuildOperationState) {
+        getId() >> "build"
+    }
+    def executorFactory = new DefaultExecutorFactory()
+    def service = Mock(BuildCacheService)
+    def remote = new BaseBuildCacheServiceHandle(service, true, BuildCacheServiceRole.REMOTE, false)
+    def queueDir = tmpDir.createDir("queue")
+    def uploaded = new CopyOnWriteArrayList<String>()
+
+    def cleanup() {
+        executorFactory.stop()
+    }
+
+    def "uploads queued entries in the background and drains them on close"() {
+        def queue = queue(4)
+        def file = packedFile("a", "content a")
+
+        when:
+        queue.store(key("a"), file, true)
+        queue.close()
+
+        then:
+        1 * service.store(key("a"), _) >> { BuildCacheKey key, BuildCacheEntryWriter writer -> record(key, writer) }
+        uploaded == ["a:content a"]
+
+        and:
+        file.text == "content a"
+        queueDir.listFiles().length == 0
+
+        and:
+        operations.log.mostRecentDetails(BuildCacheRemoteStoreQueueUploadBuildOperationType).cacheKey == "a"
+        operations.log.mostRecentResult(BuildCacheRemoteStoreQueueUploadBuildOperationType).stored
+        with(operations.log.mostRecentResult(BuildCacheRemoteStoreQueueDrainBuildOperationType)) {
+            uploadedCount == 1
+            synchronousCount == 0
+            abandonedCount == 0
+            maxQueueDepth == 1
+        }
+    }
+
+    def "uploads are children of the given parent operation"() {
+        def queue = queue(4)
+        service.store(_, _) >> { BuildCacheKey key, BuildCacheEntryWriter writer -> record(key, writer) }
+
+        when:
+        queue.store(key("a"), packedFile("a", "content a"), false)
+        queue.store(key("b"), packedFile("b", "content b"), false)
+        queue.close()
+
+        then:
+        def uploads = operations.log.all(BuildCacheRemoteStoreQueueUploadBuildOperationType)
+        uploads.size() == 2
+        uploads.every { it.descriptor.parentId == "build" }
+    }
+
+    def "takes over the packed file when the caller does not retain it"() {
+        def queue = queue(4)
+        def file = packedFile("a", "content a")
+
+        when:
+        queue.store(key("a"), file, false)
+        queue.close()
+
+        then:
+        1 * service.store(key("a"), _) >> { BuildCacheKey key, BuildCacheEntryWriter writer -> record(key, writer) }
+        uploaded == ["a:content a"]
+        !file.exists()
+        queueDir.listFiles().length == 0
+    }
+
+    def "stores on the calling thread when the queue is full"() {
+        def queue = queue(1)
+        def uploading = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        service.store(_, _) >> { BuildCacheKey key, BuildCacheEntryWriter writer ->
+            if (key.hashCode == "a") {
+                uploading.countDown()
+                release.await()
+            }
+            record(key, writer)
+        }
+
+        when:
+        queue.store(key("a"), packedFile("a", "content a"), false)
+        uploading.await()
+        queue.store(key("b"), packedFile("b", "content b"), false)
+        queue.store(key("c"), packedFile("c", "content c"), false)
+
+        then:
+        uploaded == ["c:content c"]
+
+        when:
+        release.countDown()
+        queue.close()
+
+        then:
+        uploaded == ["c:content c", "a:content a", "b:content b"]
+        with(operations.log.mostRecentResult(BuildCacheRemoteStoreQueueDrainBuildOperationType)) {
+            uploadedCount == 2
+            synchronousCount == 1
+            abandonedCount == 0
+        }
+    }
+
+    def "discards pending entries when draining times out"() {
+        def queue = queue(4, 100)
+        def uploading = new CountDownLatch(1)
+        service.store(_, _) >> { BuildCacheKey key, BuildCacheEntryWriter writer ->
+            uploading.countDown()
+            new CountDownLatch(1).await()
+        }
+
+        when:
+        queue.store(key("a"), packedFile("a", "content a"), false)
+        uploading.await()
+        queue.store(key("b"), packedFile("b", "content b"), false)
+        queue.close()
+
+        then:
+        operations.log.mostRecentResult(BuildCacheRemoteStoreQueueDrainBuildOperationType).abandonedCount == 2
+        ConcurrentTestUtil.poll {
+            assert queueDir.listFiles().length == 0
+        }
+    }
+
+    def "does not start uploading when nothing was queued"() {
+        when:
+        queue(4).close()
+
+        then:
+        operations.log.descriptors.empty
+    }
+
+    def "deletes stale queued files left behind by earlier builds"() {
+        def stale = queueDir.file("stale.upload").createFile()
+        stale.lastModified = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2)
+        def recent = queueDir.file("recent.upload").createFile()
+        def unrelated = queueDir.file("other.tmp").createFile()
+        unrelated.lastModified = stale.lastModified()
+
+        when:
+        queue(4).close()
+
+        then:
+        !stale.exists()
+        recent.exists()
+        unrelated.exists()
+    }
+
+    private RemoteBuildCacheStoreQueue queue(int capacity, long drainTimeout = 10000) {
+        new RemoteBuildCacheStoreQueue(remote, operations, buildOperation, executorFactory, queueDir, capacity, drainTimeout)
+    }
+
+    private File packedFile(String name, String content) {
+        def file = tmpDir.file("packed/$name")
+        file.text = content
+        file
+    }
+
+    private void record(BuildCacheKey key, BuildCacheEntryWriter writer) {
+        def output = new ByteArrayOutputStream()
+        writer.writeTo(output)
+        uploaded << "${key.hashCode}:${output.toString()}".toString()
+    }
+
+    private static BuildCacheKey key(String hashCode) {
+        new TestKey(hashCode)
+    }
+
+    private static class TestKey implements BuildCacheKey {
+        private final String hash
+
+        TestKey(String hash) {
+            this.hash = hash
+        }
+
+        @Override
+        String getHashCode() {
+            hash
+        }
+
+        @Override
+        String getDisplayName() {
+            hash
+        }
+
+        @Override
+        boolean equals(Object obj) {
+            obj instanceof TestKey && obj.hash == hash
+        }
+
+        @Override
+        int hashCode() {
+            hash.hashCode()
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.tasks
+
+import com.google.common.hash.HashCode
+import com.google.common.hash.Hashing
+import com.google.common.io.Files
+import org.gradle.api.GradleException
+import org.gradle.api.internal.cache.StringInterner
+import org.gradle.api.internal.changedetection.state.DirContentSnapshot
+import org.gradle.api.internal.changedetection.state.FileContentSnapshot
+import org.gradle.api.internal.changedetection.state.FileHashSnapshot
+import org.gradle.api.internal.tasks.ResolvedTaskOutputFilePropertySpec
+import org.gradle.caching.internal.tasks.origin.TaskOutputOriginMetadata
+import org.gradle.caching.internal.tasks.origin.TaskOutputOriginReader
+import org.gradle.caching.internal.tasks.origin.TaskOutputOriginWriter
+import org.gradle.caching.local.internal.ContentAddressedLocalBuildCache.BlobSink
+import org.gradle.caching.local.internal.ContentAddressedLocalBuildCache.BlobSource
+import org.gradle.caching.local.internal.ContentAddressedLocalBuildCache.BlobWriter
+import org.gradle.internal.hash.TestFileHasher
+import org.gradle.internal.nativeplatform.filesystem.FileSystem
+import org.gradle.test.fixtures.file.CleanupTestDirectory
+import org.gradle.test.fixtures.file.TestFile
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+import static org.gradle.api.internal.tasks.CacheableTaskOutputFilePropertySpec.OutputType.DIRECTORY
+import static org.gradle.api.internal.tasks.CacheableTaskOutputFilePropertySpec.OutputType.FILE
+
+@CleanupTestDirectory
+class ManifestTaskOutputPackerTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider temporaryFolder = new TestNameTestDirectoryProvider()
+    def originMetadata = Mock(TaskOutputOriginMetadata)
+    def writeOrigin = Stub(TaskOutputOriginWriter) {
+        execute(_) >> { OutputStream output -> output.write("origin".bytes) }
+    }
+    def readOrigin = Stub(TaskOutputOriginReader) {
+        execute(_) >> { InputStream input -> assert input.text == "origin"; originMetadata }
+    }
+
+    def fileSystem = Mock(FileSystem)
+    def fileHasher = Spy(TestFileHasher)
+    def packer = new ManifestTaskOutputPacker(fileSystem, fileHasher, new StringInterner())
+    def blobDir = temporaryFolder.createDir("blobs")
+    def blobs = new TestBlobs(blobDir)
+
+    def "restores output file and directory from blobs"() {
+        def sourceFile = temporaryFolder.file("source.txt") << "file"
+        def sourceDir = temporaryFolder.createDir("source")
+        def sourceSubDir = sourceDir.createDir("subdir")
+        def sourceDataFile = sourceSubDir.file("data.txt") << "data"
+        def targetFile = temporaryFolder.file("target.txt")
+        def targetDir = temporaryFolder.file("target")
+        def manifest = new ByteArrayOutputStream()
+
+        when:
+        def packResult = packer.pack(specs(sourceFile, sourceDir), snapshots(sourceFile, sourceDir), manifest, blobs, writeOrigin)
+
+        then:
+        1 * fileSystem.getUnixMode(sourceFile) >> 0644
+        1 * fileSystem.getUnixMode(sourceDir) >> 0755
+        1 * fileSystem.getUnixMode(sourceSubDir) >> 0711
+        1 * fileSystem.getUnixMode(sourceDataFile) >> 0600
+        packResult.entries == 5
+        blobs.written == ["data", "file"]
+
+        when:
+        def unpackResult = packer.unpack(specs(targetFile, targetDir), new ByteArrayInputStream(manifest.toByteArray()), blobs, readOrigin)
+
+        then:
+        1 * fileSystem.chmod(targetFile, 0644)
+        1 * fileSystem.chmod(targetDir, 0755)
+        1 * fileSystem.chmod(targetDir.file("subdir"), 0711)
+        1 * fileSystem.chmod(targetDir.file("subdir/data.txt"), 0600)
+        0 * fileHasher._
+        targetFile.text == "file"
+        targetDir.file("subdir/data.txt").text == "data"
+        unpackResult.entries == 5
+        unpackResult.originMetadata == originMetadata
+        unpackResult.snapshots.get("file")*.path == [targetFile.absolutePath]
+        unpackResult.snapshots.get("file")[0].content.contentMd5 == md5("file")
+        unpackResult.snapshots.get("dir")*.relativePath*.pathString == ["target", "subdir", "subdir/data.txt"]
+        unpackResult.snapshots.get("dir")*.root == [true, false, false]
+        unpackResult.snapshots.get("dir")[2].content.contentMd5 == md5("data")
+    }
+
+    def "does not copy files to blobs the cache already holds"() {
+        def sourceFile = temporaryFolder.file("source.txt") << "file"
+        blobs.putBlob(md5("file"), writer("file"))
+        blobs.written.clear()
+        _ * fileSystem.getUnixMode(_) >> 0644
+
+        when:
+        packer.pack(specs(sourceFile, null), snapshots(sourceFile, null), new ByteArrayOutputStream(), blobs, writeOrigin)
+
+        then:
+        blobs.written.empty
+    }
+
+    def "fails to pack a file that changed after it was snapshotted"() {
+        def sourceFile = temporaryFolder.file("source.txt") << "file"
+        def outputSnapshots = snapshots(sourceFile, null)
+        sourceFile.text = "changed"
+        _ * fileSystem.getUnixMode(_) >> 0644
+
+        when:
+        packer.pack(specs(sourceFile, null), outputSnapshots, new ByteArrayOutputStream(), blobs, writeOrigin)
+
+        then:
+        def ex = thrown GradleException
+        ex.cause.message == "File '$sourceFile' has changed since the task was executed"
+    }
+
+    def "removes missing outputs that exist when restoring"() {
+        def sourceFile = temporaryFolder.file("missing.txt")
+        def targetFile = temporaryFolder.file("target.txt") << "existing"
+        def manifest = new ByteArrayOutputStream()
+        packer.pack(specs(sourceFile, null), snapshots(sourceFile, null), manifest, blobs, writeOrigin)
+
+        when:
+        def unpackResult = packer.unpack(specs(targetFile, null), new ByteArrayInputStream(manifest.toByteArray()), blobs, readOrigin)
+
+        then:
+        !targetFile.exists()
+        unpackResult.snapshots.get("file").empty
+    }
+
+    def "fails to restore a file from a truncated blob"() {
+        def sourceFile = temporaryFolder.file("source.txt") << "file"
+        def targetFile = temporaryFolder.file("target.txt")
+        def manifest = new ByteArrayOutputStream()
+        _ * fileSystem.getUnixMode(_) >> 0644
+        packer.pack(specs(sourceFile, null), snapshots(sourceFile, null), manifest, blobs, writeOrigin)
+        blobs.getBlob(md5("file")).text = "fi"
+
+        when:
+        packer.unpack(specs(targetFile, null), new ByteArrayInputStream(manifest.toByteArray()), blobs, readOrigin)
+
+        then:
+        def ex = thrown IllegalStateException
+        ex.message == "Cached result format error, blob ${md5("file")} should have 4 bytes, but has 2"
+    }
+
+    private static SortedSet<ResolvedTaskOutputFilePropertySpec> specs(File file, File dir) {
+        def specs = [new ResolvedTaskOutputFilePropertySpec("file", FILE, file)]
+        if (dir != null) {
+            specs << new ResolvedTaskOutputFilePropertySpec("dir", DIRECTORY, dir)
+        }
+        specs as SortedSet
+    }
+
+    private static Map<String, Map<String, FileContentSnapshot>> snapshots(File file, File dir) {
+        Map<String, FileContentSnapshot> fileSnapshots = file.exists() ? [(file.absolutePath): new FileHashSnapshot(Files.hash(file, Hashing.md5()))] : [:]
+        def result = [file: fileSnapshots]
+        if (dir != null) {
+            Map<String, FileContentSnapshot> dirSnapshots = [:]
+            dir.traverse(type: groovy.io.FileType.ANY, visitRoot: true) { File child ->
+                dirSnapshots[child.absolutePath] = child.directory ? DirContentSnapshot.INSTANCE : new FileHashSnapshot(Files.hash(child, Hashing.md5()))
+            }
+            result.dir = dirSnapshots
+        }
+        result
+    }
+
+    private static HashCode md5(String content) {
+        Hashing.md5().hashBytes(content.bytes)
+    }
+
+    private static BlobWriter writer(String content) {
+        new BlobWriter() {
+            @Override
+            void writeTo(OutputStream output) throws IOException {
+                output.write(content.bytes)
+            }
+        }
+    }
+
+    static class TestBlobs implements BlobSink, BlobSource {
+        final TestFile dir
+        final List<String> written = []
+
+        TestBlobs(TestFile dir) {
+            this.dir = dir
+        }
+
+        @Override
+        void putBlob(HashCode contentHash, BlobWriter writer) throws IOException {
+            def blob = getBlob(contentHash)
+            if (!blob.exists()) {
+                def output = new ByteArrayOutputStream()
+                writer.writeTo(output)
+                blob.bytes = output.toByteArray()
+                written << new String(output.toByteArray())
+            }
+        }
+
+        @Override
+        TestFile getBlob(HashCode contentHash) {
+            dir.file(contentHash.toString())
+        }
+    }
+}
@@ -27,6 +27,7 @@ import org.gradle.api.internal.tasks.CacheableTaskOutputFilePropertySpec.OutputT
 import org.gradle.api.internal.tasks.ResolvedTaskOutputFilePropertySpec
 import org.gradle.caching.internal.tasks.origin.TaskOutputOriginReader
 import org.gradle.caching.internal.tasks.origin.TaskOutputOriginWriter
+import org.gradle.internal.concurrent.DefaultExecutorFactory
 import org.gradle.internal.hash.TestFileHasher
 import org.gradle.internal.nativeplatform.filesystem.FileSystem
 import org.gradle.test.fixtures.file.CleanupTestDirectory
@@ -83,6 +84,28 @@ class TarTaskOutputPackerTest extends Specification {
         mode << [ "0644", "0755" ]
     }
 
+    def "uses file length recorded in output snapshot"() {
+        def sourceOutputFile = Spy(File, constructorArgs: [temporaryFolder.file("source.txt").absolutePath])
+        sourceOutputFile << "output"
+        def targetOutputFile = temporaryFolder.file("target.txt")
+        def snapshot = new FileHashSnapshot(Files.hash(sourceOutputFile, Hashing.md5()), sourceOutputFile.lastModified(), 6)
+        def output = new ByteArrayOutputStream()
+
+        when:
+        packer.pack([prop(FILE, sourceOutputFile).property] as SortedSet, [test: [(sourceOutputFile.absolutePath): snapshot]], output, writeOrigin)
+
+        then:
+        1 * fileSystem.getUnixMode(sourceOutputFile) >> 0644
+        0 * sourceOutputFile.length()
+
+        when:
+        unpack new ByteArrayInputStream(output.toByteArray()), prop(FILE, targetOutputFile)
+
+        then:
+        1 * fileSystem.chmod(targetOutputFile, 0644)
+        targetOutputFile.text == "output"
+    }
+
     def "can pack task output directory"() {
         def sourceOutputDir = temporaryFolder.file("source").createDir()
         def sourceSubDir = sourceOutputDir.file("subdir").createDir()
@@ -255,6 +278,82 @@ class TarTaskOutputPackerTest extends Specification {
         0 * _
     }
 
+    @Unroll
+    def "unpacking with #threads threads produces the same files and snapshots"() {
+        def sourceDir = temporaryFolder.file("source").createDir()
+        def random = new Random(1234L)
+        (1..20).each { dirIndex ->
+            def dir = sourceDir.file("dir-$dirIndex").createDir()
+            (1..50).each { fileIndex ->
+                def content = new byte[random.nextInt(1024)]
+                random.nextBytes(content)
+                dir.file("file-${fileIndex}.bin").bytes = content
+            }
+        }
+        def largeContent = new byte[1024 * 1024]
+        random.nextBytes(largeContent)
+        sourceDir.file("large.bin").bytes = largeContent
+        def output = new ByteArrayOutputStream()
+        _ * fileSystem.getUnixMode(_) >> 0644
+
+        pack output, prop(DIRECTORY, sourceDir)
+
+        def sequentialDir = temporaryFolder.file("sequential")
+        def parallelDir = temporaryFolder.file("parallel")
+        def unpackExecutor = new TaskOutputUnpackExecutor(new DefaultExecutorFactory(), threads)
+        def parallelPacker = new TarTaskOutputPacker(fileSystem, fileHasher, stringInterner, unpackExecutor)
+
+        when:
+        def sequentialResult = unpack new ByteArrayInputStream(output.toByteArray()), prop(DIRECTORY, sequentialDir)
+        def parallelResult = parallelPacker.unpack([prop(DIRECTORY, parallelDir).property] as SortedSet, new ByteArrayInputStream(output.toByteArray()), readOrigin)
+
+        then:
+        parallelResult.entries == sequentialResult.entries
+        snapshotsRelativeTo(parallelResult, parallelDir) == snapshotsRelativeTo(sequentialResult, sequentialDir)
+        filesRelativeTo(parallelDir) == filesRelativeTo(sequentialDir)
+        filesRelativeTo(parallelDir) == filesRelativeTo(sourceDir)
+
+        cleanup:
+        unpackExecutor.stop()
+
+        where:
+        threads << [2, 4]
+    }
+
+    def "fails to unpack a compressed entry with a corrupt trailer"() {
+        def sourceDir = temporaryFolder.file("source").createDir()
+        sourceDir.file("data.txt") << "output"
+        def sourceFile = temporaryFolder.file("source.txt") << "file"
+        def output = new ByteArrayOutputStream()
+        _ * fileSystem.getUnixMode(_) >> 0644
+        packer = new GZipTaskOutputPacker(packer)
+        pack output, prop("a", FILE, sourceFile), prop("b", DIRECTORY, sourceDir)
+        def entry = output.toByteArray()
+        // The gzip trailer ends with the CRC-32 and the size of the uncompressed data
+        entry[entry.length - 8] ^= 0xff
+
+        when:
+        unpack new ByteArrayInputStream(entry), prop("a", FILE, temporaryFolder.file("target.txt")), prop("b", DIRECTORY, temporaryFolder.file("target"))
+
+        then:
+        def e = thrown IOException
+        e.message == "Corrupt GZIP trailer"
+    }
+
+    private static List<List<Object>> snapshotsRelativeTo(TaskOutputPacker.UnpackResult result, File root) {
+        result.snapshots.values().collect { snapshot ->
+            [snapshot.path.substring(root.absolutePath.length()), snapshot.relativePath.pathString, snapshot.root, snapshot.content.contentMd5]
+        }
+    }
+
+    private static Map<String, String> filesRelativeTo(File root) {
+        def files = [:]
+        root.traverse(type: FileType.FILES) { File file ->
+            files[root.toURI().relativize(file.toURI()).toString()] = Files.hash(file, Hashing.md5()).toString()
+        }
+        return files
+    }
+
     def pack(OutputStream output, TaskOutputOriginWriter writeOrigin = this.writeOrigin, PropertyDefinition... propertyDefs) {
         def propertySpecs = propertyDefs*.property as SortedSet
         def outputSnapshots = propertyDefs.collectEntries { propertyDef ->
@@ -34,6 +34,7 @@ import org.gradle.api.internal.tasks.ResolvedTaskOutputFilePropertySpec
 import org.gradle.api.internal.tasks.execution.TaskOutputsGenerationListener
 import org.gradle.caching.internal.tasks.origin.TaskOutputOriginFactory
 import org.gradle.caching.internal.tasks.origin.TaskOutputOriginMetadata
+import org.gradle.caching.local.internal.ContentAddressedLocalBuildCache
 import org.gradle.internal.time.Timer
 import org.gradle.test.fixtures.file.CleanupTestDirectory
 import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
@@ -46,10 +47,11 @@ import static org.gradle.api.internal.tasks.CacheableTaskOutputFilePropertySpec.
 @CleanupTestDirectory
 class TaskOutputCacheCommandFactoryTest extends Specification {
     def packer = Mock(TaskOutputPacker)
+    def manifestPacker = Mock(ManifestTaskOutputPacker)
     def originFactory = Mock(TaskOutputOriginFactory)
     def fileSystemMirror = Mock(FileSystemMirror)
     def stringInterner = new StringInterner()
-    def commandFactory = new TaskOutputCacheCommandFactory(packer, originFactory, fileSystemMirror, stringInterner)
+    def commandFactory = new TaskOutputCacheCommandFactory(packer, manifestPacker, originFactory, fileSystemMirror, stringInterner)
 
     def key = Mock(TaskOutputCachingBuildCacheKey)
     def task = Mock(TaskInternal)
@@ -86,7 +88,7 @@ class TaskOutputCacheCommandFactoryTest extends Specification {
         def result = load.load(input)
 
         then:
-        1 * taskOutputsGenerationListener.beforeTaskOutputsGenerated()
+        1 * taskOutputsGenerationListener.beforeTaskOutputsGenerated(_)
         1 * originFactory.createReader(task)
 
         then:
@@ -122,7 +124,7 @@ class TaskOutputCacheCommandFactoryTest extends Specification {
         command.load(input)
 
         then:
-        1 * taskOutputsGenerationListener.beforeTaskOutputsGenerated()
+        1 * taskOutputsGenerationListener.beforeTaskOutputsGenerated(_)
         1 * originFactory.createReader(task)
 
         then:
@@ -151,7 +153,7 @@ class TaskOutputCacheCommandFactoryTest extends Specification {
         command.load(input)
 
         then:
-        1 * taskOutputsGenerationListener.beforeTaskOutputsGenerated()
+        1 * taskOutputsGenerationListener.beforeTaskOutputsGenerated(_)
         1 * originFactory.createReader(task)
 
         then:
@@ -188,6 +190,56 @@ class TaskOutputCacheCommandFactoryTest extends Specification {
         0 * _
     }
 
+    def "store manifest invokes manifest packer"() {
+        def manifest = Mock(OutputStream)
+        def blobs = Mock(ContentAddressedLocalBuildCache.BlobSink)
+        def outputProperties = props("output")
+        def outputSnapshots = Mock(Map)
+        def command = commandFactory.createStore(key, outputProperties, outputSnapshots, task, timer)
+
+        when:
+        def result = command.storeManifest(manifest, blobs)
+
+        then:
+        1 * originFactory.createWriter(task, _)
+
+        then:
+        1 * manifestPacker.pack(outputProperties, outputSnapshots, manifest, blobs, _) >> new TaskOutputPacker.PackResult(123)
+
+        then:
+        result.artifactEntryCount == 123
+        0 * _
+    }
+
+    def "load manifest invokes manifest packer"() {
+        def manifest = Mock(InputStream)
+        def blobs = Mock(ContentAddressedLocalBuildCache.BlobSource)
+        def outputFile = temporaryFolder.file("output.txt")
+        def outputProperties = props("output", FILE, outputFile)
+        def outputFileSnapshot = new RegularFileSnapshot(outputFile.path, RelativePath.EMPTY_ROOT, true, new FileHashSnapshot(HashCode.fromInt(234)))
+        def command = commandFactory.createLoad(key, outputProperties, task, taskOutputsGenerationListener, taskArtifactState, timer)
+
+        when:
+        def result = command.loadManifest(manifest, blobs)
+
+        then:
+        1 * taskOutputsGenerationListener.beforeTaskOutputsGenerated(_)
+        1 * originFactory.createReader(task)
+
+        then:
+        1 * manifestPacker.unpack(outputProperties, manifest, blobs, _) >> new TaskOutputPacker.UnpackResult(originMetadata, 2, ImmutableListMultimap.of("output", outputFileSnapshot))
+        0 * packer._
+
+        then:
+        1 * fileSystemMirror.putFile(outputFileSnapshot)
+        1 * taskArtifactState.snapshotAfterLoadedFromCache(_)
+
+        then:
+        result.artifactEntryCount == 2
+        result.metadata == originMetadata
+        0 * _
+    }
+
     def props(String name, OutputType outputType = FILE, File outputFile = null) {
         return [prop(name, outputType, outputFile)] as SortedSet
     }
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal
+
+import org.gradle.internal.resource.local.LocallyAvailableResource
+import org.gradle.internal.resource.local.PathKeyFileStore
+import org.gradle.test.fixtures.file.CleanupTestDirectory
+import org.gradle.test.fixtures.file.TestFile
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+@CleanupTestDirectory
+class BuildCacheAccessIndexTest extends Specification {
+    @Rule TestNameTestDirectoryProvider temporaryFolder = new TestNameTestDirectoryProvider()
+    def cacheDir = temporaryFolder.createDir("cache")
+    def fileStore = Stub(PathKeyFileStore) {
+        get(_ as String) >> { String key ->
+            def file = cacheDir.file(key)
+            return file.exists() ? Stub(LocallyAvailableResource) { getFile() >> file } : null
+        }
+    }
+    def index = createIndex()
+
+    def cleanup() {
+        index.close()
+    }
+
+    def "evicts least recently used entries when cache grows beyond target size"() {
+        store("a", 40)
+        store("b", 40)
+
+        when:
+        index.hit("a", 40)
+        store("c", 40)
+
+        then:
+        cacheDir.file("a").exists()
+        !cacheDir.file("b").exists()
+        cacheDir.file("c").exists()
+        index.totalSize == 80
+        index.evictedEntries == 1
+        index.evictedBytes == 40
+    }
+
+    def "never evicts the entry that was just stored"() {
+        when:
+        store("a", 40)
+        store("large", 200)
+
+        then:
+        !cacheDir.file("a").exists()
+        cacheDir.file("large").exists()
+        index.totalSize == 200
+    }
+
+    def "counts hits and misses"() {
+        store("a", 10)
+
+        when:
+        index.hit("a", 10)
+        index.hit("a", 10)
+        index.miss()
+
+        then:
+        index.hits == 2
+        index.misses == 1
+    }
+
+    def "reads access order from journal written by another instance"() {
+        store("a", 40)
+        store("b", 40)
+        index.hit("a", 40)
+        index.close()
+
+        when:
+        index = createIndex()
+        store("c", 40)
+
+        then:
+        cacheDir.file("a").exists()
+        !cacheDir.file("b").exists()
+        cacheDir.file("c").exists()
+    }
+
+    def "replays entries appended by another process before evicting"() {
+        def other = createIndex()
+        store("a", 40)
+        entry("b", 40)
+        other.stored("b", 40)
+        other.hit("a", 40)
+
+        when:
+        store("c", 40)
+
+        then:
+        cacheDir.file("a").exists()
+        !cacheDir.file("b").exists()
+        cacheDir.file("c").exists()
+
+        cleanup:
+        other.close()
+    }
+
+    def "builds index from cache directory when there is no journal"() {
+        entry("old", 40).lastModified = 1000
+        entry("new", 40).lastModified = 2000
+        cacheDir.file("cache.properties").text = "properties"
+        cacheDir.file("gc.properties").touch()
+
+        when:
+        store("c", 40)
+
+        then:
+        !cacheDir.file("old").exists()
+        cacheDir.file("new").exists()
+        cacheDir.file("c").exists()
+        cacheDir.file("cache.properties").exists()
+        cacheDir.file(BuildCacheAccessIndex.JOURNAL_FILE_NAME).exists()
+    }
+
+    def "rebuild drops entries removed by someone else"() {
+        store("a", 40)
+        store("b", 40)
+        cacheDir.file("a").delete()
+
+        when:
+        index.rebuild()
+
+        then:
+        index.totalSize == 40
+    }
+
+    def "compacts the journal"() {
+        store("a", 10)
+
+        when:
+        1500.times {
+            index.hit("a", 10)
+        }
+        store("b", 10)
+
+        then:
+        cacheDir.file(BuildCacheAccessIndex.JOURNAL_FILE_NAME).length() < 10000
+
+        when:
+        index.close()
+        index = createIndex()
+
+        then:
+        index.totalSize == 20
+    }
+
+    def "records hits in the journal that replaced the one it was appending to"() {
+        def other = createIndex()
+        store("a", 40)
+        store("b", 40)
+        index.hit("a", 40)
+        cacheDir.file("a").lastModified = 2000
+        cacheDir.file("b").lastModified = 1000
+        other.rebuild()
+
+        when:
+        index.hit("b", 40)
+        def reader = createIndex()
+        entry("c", 40)
+        reader.stored("c", 40)
+
+        then:
+        !cacheDir.file("a").exists()
+        cacheDir.file("b").exists()
+        cacheDir.file("c").exists()
+
+        cleanup:
+        other.close()
+        reader?.close()
+    }
+
+    private BuildCacheAccessIndex createIndex() {
+        new BuildCacheAccessIndex(cacheDir, fileStore, 100, ".part", ".failed")
+    }
+
+    private void store(String key, int size) {
+        entry(key, size)
+        index.stored(key, size)
+    }
+
+    private TestFile entry(String key, int size) {
+        def file = cacheDir.file(key)
+        file.bytes = new byte[size]
+        return file
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal
+
+import com.google.common.hash.HashCode
+import com.google.common.hash.Hashing
+import org.gradle.api.UncheckedIOException
+import org.gradle.cache.PersistentCache
+import org.gradle.caching.BuildCacheKey
+import org.gradle.caching.local.internal.ContentAddressedLocalBuildCache.BlobSink
+import org.gradle.caching.local.internal.ContentAddressedLocalBuildCache.BlobSource
+import org.gradle.caching.local.internal.ContentAddressedLocalBuildCache.BlobWriter
+import org.gradle.caching.local.internal.ContentAddressedLocalBuildCache.ManifestReader
+import org.gradle.caching.local.internal.ContentAddressedLocalBuildCache.ManifestWriter
+import org.gradle.internal.Factory
+import org.gradle.internal.resource.local.PathKeyFileStore
+import org.gradle.test.fixtures.file.CleanupTestDirectory
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.gradle.util.UsesNativeServices
+import org.junit.Rule
+import spock.lang.Specification
+
+@UsesNativeServices
+@CleanupTestDirectory
+class ContentAddressedBuildCacheServiceTest extends Specification {
+    @Rule TestNameTestDirectoryProvider temporaryFolder = new TestNameTestDirectoryProvider()
+    def cacheDir = temporaryFolder.createDir("cache")
+    def fileStore = Stub(PathKeyFileStore)
+    def persistentCache = Stub(PersistentCache) {
+        getBaseDir() >> cacheDir
+        withFileLock(_ as Factory) >> { Factory<?> action -> action.create() }
+        useCache(_ as Runnable) >> { Runnable action -> action.run() }
+    }
+    def tempFileStore = new DefaultBuildCacheTempFileStore(cacheDir, ".part")
+    def service = new ContentAddressedBuildCacheService(fileStore, persistentCache, tempFileStore, ".failed")
+    def key = cacheKey("1234abcd")
+
+    def "loads stored manifest and blobs"() {
+        when:
+        service.storeManifest(key, manifest("manifest", "first", "second"))
+
+        then:
+        cacheDir.file("1234abcd.manifest").exists()
+        cacheDir.file("${hash("first")}.blob").text == "first"
+        cacheDir.file("${hash("second")}.blob").text == "second"
+
+        when:
+        String manifestContent = null
+        List<String> blobContents = null
+        def loaded = service.loadManifest(key, new ManifestReader() {
+            @Override
+            void read(InputStream input, long size, BlobSource source) throws IOException {
+                manifestContent = new DataInputStream(input).readUTF()
+                blobContents = ["first", "second"].collect { source.getBlob(hash(it)).text }
+            }
+        })
+
+        then:
+        loaded
+        manifestContent == "manifest"
+        blobContents == ["first", "second"]
+    }
+
+    def "does not write blobs the cache already holds"() {
+        def writtenBlobs = []
+
+        when:
+        service.storeManifest(key, manifest("first", writtenBlobs, "shared", "first only"))
+        service.storeManifest(cacheKey("5678abcd"), manifest("second", writtenBlobs, "shared", "second only"))
+
+        then:
+        writtenBlobs == ["shared", "first only", "second only"]
+        cacheDir.listFiles().findAll { it.name.endsWith(".blob") }.size() == 3
+    }
+
+    def "writes a blob again when it is removed before the manifest is stored"() {
+        def writtenBlobs = []
+        service.storeManifest(cacheKey("5678abcd"), manifest("first", writtenBlobs, "shared"))
+
+        when:
+        service.storeManifest(key, new ManifestWriter() {
+            @Override
+            void write(OutputStream output, BlobSink blobs) throws IOException {
+                putBlob(blobs, "shared", writtenBlobs)
+                // Simulate cleanup removing the blob after it was found in the cache
+                cacheDir.file("${hash("shared")}.blob").delete()
+            }
+        })
+
+        then:
+        writtenBlobs == ["shared", "shared"]
+        cacheDir.file("${hash("shared")}.blob").text == "shared"
+        service.loadManifest(key, Mock(ManifestReader))
+    }
+
+    def "does not leave blobs behind when a store fails"() {
+        when:
+        service.storeManifest(key, new ManifestWriter() {
+            @Override
+            void write(OutputStream output, BlobSink blobs) throws IOException {
+                putBlob(blobs, "content")
+                throw new IOException("Simulated write error")
+            }
+        })
+
+        then:
+        thrown UncheckedIOException
+        cacheDir.listFiles() as List == []
+    }
+
+    def "treats manifest as missing when one of its blobs has been removed"() {
+        def reader = Mock(ManifestReader)
+        service.storeManifest(key, manifest("manifest", "first", "second"))
+        cacheDir.file("${hash("second")}.blob").delete()
+
+        when:
+        def loaded = service.loadManifest(key, reader)
+
+        then:
+        !loaded
+        0 * reader._
+        !cacheDir.file("1234abcd.manifest").exists()
+    }
+
+    def "does not hand out blobs that are not referenced by the manifest"() {
+        service.storeManifest(key, manifest("manifest", "first"))
+        service.storeManifest(cacheKey("5678abcd"), manifest("manifest", "second"))
+
+        when:
+        service.loadManifest(key, new ManifestReader() {
+            @Override
+            void read(InputStream input, long size, BlobSource source) throws IOException {
+                source.getBlob(hash("second"))
+            }
+        })
+
+        then:
+        def ex = thrown IllegalStateException
+        ex.message == "Blob ${hash("second")} is not referenced by the manifest"
+    }
+
+    def "moves manifest aside when it cannot be read"() {
+        service.storeManifest(key, manifest("manifest", "first"))
+
+        when:
+        service.loadManifest(key, new ManifestReader() {
+            @Override
+            void read(InputStream input, long size, BlobSource source) throws IOException {
+                throw new IOException("Simulated read error")
+            }
+        })
+
+        then:
+        thrown IOException
+        !cacheDir.file("1234abcd.manifest").exists()
+        cacheDir.file("1234abcd.manifest.failed").exists()
+        cacheDir.file("${hash("first")}.blob").exists()
+    }
+
+    private ManifestWriter manifest(String content, List<String> writtenBlobs = [], String... blobContents) {
+        new ManifestWriter() {
+            @Override
+            void write(OutputStream output, BlobSink blobs) throws IOException {
+                new DataOutputStream(output).writeUTF(content)
+                blobContents.each { putBlob(blobs, it, writtenBlobs) }
+            }
+        }
+    }
+
+    private static void putBlob(BlobSink blobs, String content, List<String> writtenBlobs = []) {
+        blobs.putBlob(hash(content), new BlobWriter() {
+            @Override
+            void writeTo(OutputStream output) throws IOException {
+                writtenBlobs << content
+                output.write(content.bytes)
+            }
+        })
+    }
+
+    private static HashCode hash(String content) {
+        Hashing.md5().hashBytes(content.bytes)
+    }
+
+    private BuildCacheKey cacheKey(String hashCode) {
+        Stub(BuildCacheKey) {
+            getHashCode() >> hashCode
+        }
+    }
+}
@@ -19,6 +19,8 @@ package org.gradle.caching.local.internal
 import org.gradle.cache.PersistentCache
 import org.gradle.caching.BuildCacheEntryWriter
 import org.gradle.caching.BuildCacheKey
+import org.gradle.internal.Factory
+import org.gradle.internal.resource.local.LocallyAvailableResource
 import org.gradle.internal.resource.local.PathKeyFileStore
 import org.gradle.test.fixtures.file.CleanupTestDirectory
 import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
@@ -68,4 +70,21 @@ class DirectoryBuildCacheServiceTest extends Specification {
         cacheDir.listFiles() as List == []
         1 * key.getHashCode() >> hashCode
     }
+
+    def "marks entries as recently used without reading them"() {
+        def file = temporaryFolder.createFile("entry")
+        file.lastModified = 0
+        def resource = Stub(LocallyAvailableResource) {
+            getFile() >> file
+        }
+
+        when:
+        service.markRecentlyUsed([key])
+
+        then:
+        1 * persistentCache.withFileLock(_) >> { Factory<?> action -> action.create() }
+        1 * key.getHashCode() >> "1234abcd"
+        1 * fileStore.get("1234abcd") >> resource
+        file.lastModified() > 0
+    }
 }
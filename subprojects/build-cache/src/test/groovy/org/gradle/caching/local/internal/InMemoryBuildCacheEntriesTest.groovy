@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal
+
+import org.gradle.caching.BuildCacheKey
+import spock.lang.Specification
+
+class InMemoryBuildCacheEntriesTest extends Specification {
+    def entries = new InMemoryBuildCacheEntries(800)
+    def cacheDir = new File("cache")
+
+    def "evicts least recently used entries when exceeding the maximum size"() {
+        when:
+        entries.put(cacheDir, key("a"), new byte[100])
+        entries.put(cacheDir, key("b"), new byte[100])
+        entries.get(cacheDir, key("a"))
+        (1..7).each { entries.put(cacheDir, key("entry-$it"), new byte[100]) }
+
+        then:
+        entries.get(cacheDir, key("a")) != null
+        entries.get(cacheDir, key("b")) == null
+        entries.statistics.size == 800
+        entries.statistics.entries == 8
+    }
+
+    def "does not keep entries larger than an eighth of the maximum size"() {
+        when:
+        entries.put(cacheDir, key("small"), new byte[100])
+        entries.put(cacheDir, key("large"), new byte[101])
+
+        then:
+        entries.get(cacheDir, key("small")) != null
+        entries.get(cacheDir, key("large")) == null
+    }
+
+    def "replaces existing entries"() {
+        when:
+        entries.put(cacheDir, key("a"), new byte[100])
+        entries.put(cacheDir, key("a"), new byte[50])
+
+        then:
+        entries.get(cacheDir, key("a")).length == 50
+        entries.statistics.size == 50
+    }
+
+    def "counts hits and misses"() {
+        given:
+        entries.put(cacheDir, key("a"), new byte[10])
+
+        when:
+        entries.get(cacheDir, key("a"))
+        entries.get(cacheDir, key("a"))
+        entries.get(cacheDir, key("b"))
+
+        then:
+        entries.statistics.hits == 2
+        entries.statistics.misses == 1
+    }
+
+    def "removes entries"() {
+        given:
+        entries.put(cacheDir, key("a"), new byte[10])
+
+        when:
+        entries.remove(cacheDir, key("a"))
+
+        then:
+        entries.get(cacheDir, key("a")) == null
+        entries.statistics.size == 0
+    }
+
+    def "keeps entries separately for each local cache"() {
+        def otherCacheDir = new File("other-cache")
+
+        when:
+        entries.put(cacheDir, key("a"), new byte[10])
+
+        then:
+        entries.get(cacheDir, key("a")) != null
+        entries.get(otherCacheDir, key("a")) == null
+    }
+
+    def "discards all entries when closed"() {
+        given:
+        entries.put(cacheDir, key("a"), new byte[10])
+
+        when:
+        entries.close()
+
+        then:
+        entries.get(cacheDir, key("a")) == null
+        entries.statistics.entries == 0
+        entries.statistics.size == 0
+    }
+
+    private BuildCacheKey key(String hashCode) {
+        Stub(BuildCacheKey) {
+            getHashCode() >> hashCode
+        }
+    }
+}
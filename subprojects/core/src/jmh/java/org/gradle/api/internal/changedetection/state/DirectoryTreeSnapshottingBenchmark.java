@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state;
+
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.internal.cache.StringInterner;
+import org.gradle.api.internal.file.collections.DefaultDirectoryFileTreeFactory;
+import org.gradle.internal.classpath.CachedJarFileStore;
+import org.gradle.internal.hash.DefaultFileContentHasherFactory;
+import org.gradle.internal.hash.DefaultFileHasher;
+import org.gradle.internal.hash.FileHasher;
+import org.gradle.internal.nativeintegration.filesystem.FileSystem;
+import org.gradle.internal.nativeintegration.services.FileSystems;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Compares snapshotting a directory tree with the sequential directory visitor (parallelism 1) and with the {@link ParallelDirectoryTreeWalker}.
+ */
+@State(Scope.Benchmark)
+public class DirectoryTreeSnapshottingBenchmark {
+    private static final int DIRECTORIES_PER_LEVEL = 20;
+
+    @Param({"1", "2", "4", "8"})
+    int parallelism;
+
+    @Param({"50"})
+    int filesPerDirectory;
+
+    @Param({"1024"})
+    int fileSize;
+
+    private final FileSystem fileSystem = FileSystems.getDefault();
+    private final FileHasher fileHasher = new DefaultFileHasher(new DefaultFileContentHasherFactory());
+    private final StringInterner stringInterner = new StringInterner();
+    private final DefaultDirectoryFileTreeFactory directoryFileTreeFactory = new DefaultDirectoryFileTreeFactory();
+    private ParallelDirectoryTreeWalker treeWalker;
+    private File root;
+
+    @Setup
+    public void setup() throws IOException {
+        root = File.createTempFile("snapshotting", "benchmark");
+        root.delete();
+        Random random = new Random(1234L);
+        byte[] content = new byte[fileSize];
+        // Two levels of directories, with files in each directory of the second level
+        for (int i = 0; i < DIRECTORIES_PER_LEVEL; i++) {
+            for (int j = 0; j < DIRECTORIES_PER_LEVEL; j++) {
+                File dir = new File(root, "dir" + i + "/dir" + j);
+                dir.mkdirs();
+                for (int k = 0; k < filesPerDirectory; k++) {
+                    random.nextBytes(content);
+                    FileOutputStream outputStream = new FileOutputStream(new File(dir, "file" + k + ".txt"));
+                    try {
+                        outputStream.write(content);
+                    } finally {
+                        outputStream.close();
+                    }
+                }
+            }
+        }
+        treeWalker = new ParallelDirectoryTreeWalker(fileSystem, parallelism);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        treeWalker.stop();
+        FileUtils.deleteDirectory(root);
+    }
+
+    @Benchmark
+    public FileTreeSnapshot snapshotDirectoryTree() {
+        // Use a new mirror for each snapshot, so the tree is walked every time
+        FileSystemMirror fileSystemMirror = new DefaultFileSystemMirror(Collections.<CachedJarFileStore>emptyList());
+        DefaultFileSystemSnapshotter snapshotter = new DefaultFileSystemSnapshotter(fileHasher, stringInterner, fileSystem, directoryFileTreeFactory, fileSystemMirror, treeWalker);
+        return snapshotter.snapshotDirectoryTree(root);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares the retained heap and access cost of file snapshots held in a {@link LinkedHashMap}, as they were before packing, and in a {@link PackedFileSnapshotMap}.
+ *
+ * <p>The retained heap of the generated fixture is printed during setup.</p>
+ */
+@State(Scope.Benchmark)
+public class FileCollectionSnapshotFootprintBenchmark {
+    @Param({"map", "packed"})
+    String format;
+
+    @Param({"100000", "1000000"})
+    int fileCount;
+
+    private Map<String, NormalizedFileSnapshot> snapshots;
+    private String[] paths;
+    private int next;
+
+    @Setup
+    public void setup() {
+        paths = new String[fileCount];
+        for (int i = 0; i < fileCount; i++) {
+            paths[i] = "/home/user/project/subproject" + (i % 50) + "/build/generated/sources/org/gradle/generated/pkg" + (i % 1000) + "/Generated" + i + ".java";
+        }
+        long before = usedHeap();
+        Map<String, NormalizedFileSnapshot> generated = new LinkedHashMap<String, NormalizedFileSnapshot>(fileCount);
+        for (int i = 0; i < fileCount; i++) {
+            String path = new String(paths[i]);
+            String normalizedPath = path.substring(path.indexOf("/org/") + 1);
+            generated.put(path, new DefaultNormalizedFileSnapshot(normalizedPath, new FileHashSnapshot(Hashing.md5().hashString(path, Charsets.UTF_8))));
+        }
+        snapshots = format.equals("packed") ? PackedFileSnapshotMap.pack(generated) : generated;
+        generated = null;
+        long retained = usedHeap() - before;
+        System.out.println(String.format("%n%s snapshot of %d files retains %d bytes (%d bytes per file)", format, fileCount, retained, retained / fileCount));
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    @Benchmark
+    public NormalizedFileSnapshot lookup() {
+        String path = paths[next];
+        next = (next + 7919) % fileCount;
+        return snapshots.get(path);
+    }
+
+    @Benchmark
+    public void iterate(Blackhole blackhole) {
+        for (Map.Entry<String, NormalizedFileSnapshot> entry : snapshots.entrySet()) {
+            blackhole.consume(entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state;
+
+import com.google.common.util.concurrent.Runnables;
+import org.gradle.api.Transformer;
+import org.gradle.cache.CrossProcessCacheAccess;
+import org.gradle.cache.FileLock;
+import org.gradle.cache.MultiProcessSafePersistentIndexedCache;
+import org.gradle.cache.internal.ConcurrentClockCache;
+import org.gradle.cache.internal.CrossProcessSynchronizingCache;
+import org.gradle.cache.internal.MultiProcessSafeAsyncPersistentIndexedCache;
+import org.gradle.internal.Factory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Compares reading values held in memory through the decorated caches by 1, 8 and 32 threads at once, while this process holds the file lock.
+ *
+ * <ul>
+ *     <li>{@code locked}: a {@link CrossProcessSynchronizingCache} read, which goes through the cross-process cache access for every read.</li>
+ *     <li>{@code unlocked}: an {@link InMemorySynchronizingCache} read, which returns in-memory hits without going through the cross-process cache access.</li>
+ * </ul>
+ *
+ * Both read the same {@link InMemoryDecoratedCache}. The cross-process cache access takes a shared lock before and after running each read,
+ * as the lock on demand cache access does.
+ */
+@State(Scope.Benchmark)
+public class InMemoryCacheContentionBenchmark {
+    private static final int ENTRIES = 10000;
+
+    private MultiProcessSafePersistentIndexedCache<String, String> lockedCache;
+    private MultiProcessSafePersistentIndexedCache<String, String> unlockedCache;
+    private String[] keys;
+
+    @State(Scope.Thread)
+    public static class Reader {
+        int next = new Random().nextInt(ENTRIES);
+
+        String nextKey(String[] keys) {
+            next = (next + 1) % keys.length;
+            return keys[next];
+        }
+    }
+
+    @Setup
+    public void setup() {
+        InMemoryDecoratedCache<String, String> inMemoryCache = new InMemoryDecoratedCache<String, String>(new BackingCache(), new ConcurrentClockCache<Object, Object>(ENTRIES * 2), "benchmark", new AtomicReference<FileLock.State>());
+        CrossProcessCacheAccess cacheAccess = new StateLockingCacheAccess();
+        lockedCache = new CrossProcessSynchronizingCache<String, String>(inMemoryCache, cacheAccess);
+        unlockedCache = new InMemorySynchronizingCache<String, String>(inMemoryCache, cacheAccess);
+        inMemoryCache.afterLockAcquire(new UnchangedState());
+        keys = new String[ENTRIES];
+        Random random = new Random(1234L);
+        for (int i = 0; i < ENTRIES; i++) {
+            keys[i] = "/some/path/" + random.nextInt();
+            inMemoryCache.putLater(keys[i], keys[i], Runnables.doNothing());
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object locked_1(Reader reader) {
+        return lockedCache.get(reader.nextKey(keys));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object locked_8(Reader reader) {
+        return lockedCache.get(reader.nextKey(keys));
+    }
+
+    @Benchmark
+    @Threads(32)
+    public Object locked_32(Reader reader) {
+        return lockedCache.get(reader.nextKey(keys));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object unlocked_1(Reader reader) {
+        return unlockedCache.get(reader.nextKey(keys));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object unlocked_8(Reader reader) {
+        return unlockedCache.get(reader.nextKey(keys));
+    }
+
+    @Benchmark
+    @Threads(32)
+    public Object unlocked_32(Reader reader) {
+        return unlockedCache.get(reader.nextKey(keys));
+    }
+
+    private static class StateLockingCacheAccess implements CrossProcessCacheAccess {
+        private final ReentrantLock stateLock = new ReentrantLock();
+        private int lockCount;
+
+        @Override
+        public <T> T withFileLock(Factory<T> factory) {
+            updateLockCount(1);
+            try {
+                return factory.create();
+            } finally {
+                updateLockCount(-1);
+            }
+        }
+
+        @Override
+        public Runnable acquireFileLock() {
+            updateLockCount(1);
+            return new Runnable() {
+                @Override
+                public void run() {
+                    updateLockCount(-1);
+                }
+            };
+        }
+
+        private void updateLockCount(int delta) {
+            stateLock.lock();
+            try {
+                lockCount += delta;
+            } finally {
+                stateLock.unlock();
+            }
+        }
+    }
+
+    private static class BackingCache implements MultiProcessSafeAsyncPersistentIndexedCache<String, String> {
+        @Override
+        public String get(String key) {
+            return null;
+        }
+
+        @Override
+        public String get(String key, Transformer<? extends String, ? super String> producer, Runnable completion) {
+            completion.run();
+            return producer.transform(key);
+        }
+
+        @Override
+        public void putLater(String key, String value, Runnable completion) {
+            completion.run();
+        }
+
+        @Override
+        public void removeLater(String key, Runnable completion) {
+            completion.run();
+        }
+
+        @Override
+        public void afterLockAcquire(FileLock.State currentCacheState) {
+        }
+
+        @Override
+        public void finishWork() {
+        }
+
+        @Override
+        public void beforeLockRelease(FileLock.State currentCacheState) {
+        }
+    }
+
+    private static class UnchangedState implements FileLock.State {
+        @Override
+        public boolean canDetectChanges() {
+            return true;
+        }
+
+        @Override
+        public boolean isInInitialState() {
+            return false;
+        }
+
+        @Override
+        public boolean hasBeenUpdatedSince(FileLock.State state) {
+            return false;
+        }
+    }
+}
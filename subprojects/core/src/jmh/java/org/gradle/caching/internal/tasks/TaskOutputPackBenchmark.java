@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.tasks;
+
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.io.ByteStreams;
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.internal.cache.StringInterner;
+import org.gradle.api.internal.changedetection.state.DirContentSnapshot;
+import org.gradle.api.internal.changedetection.state.FileContentSnapshot;
+import org.gradle.api.internal.changedetection.state.FileHashSnapshot;
+import org.gradle.api.internal.tasks.ResolvedTaskOutputFilePropertySpec;
+import org.gradle.caching.internal.tasks.origin.TaskOutputOriginWriter;
+import org.gradle.internal.hash.DefaultFileContentHasherFactory;
+import org.gradle.internal.hash.DefaultFileHasher;
+import org.gradle.internal.hash.FileHasher;
+import org.gradle.internal.nativeintegration.services.FileSystems;
+import org.gradle.internal.nativeintegration.services.NativeServices;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.gradle.api.internal.tasks.CacheableTaskOutputFilePropertySpec.OutputType.DIRECTORY;
+
+/**
+ * Measures packing a directory output of {@value #DIRECTORY_COUNT} x {@value #FILES_PER_DIRECTORY} small files
+ * without compression, with file lengths taken from the output snapshots and with lengths queried from the file system.
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TaskOutputPackBenchmark {
+    private static final int DIRECTORY_COUNT = 100;
+    private static final int FILES_PER_DIRECTORY = 500;
+
+    @Param({"true", "false"})
+    boolean lengthsInSnapshots;
+
+    private File tempDir;
+    private File sourceDir;
+    private Map<String, Map<String, FileContentSnapshot>> outputSnapshots;
+    private TarTaskOutputPacker packer;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        tempDir = File.createTempFile("pack", "benchmark");
+        FileUtils.forceDelete(tempDir);
+        FileUtils.forceMkdir(tempDir);
+        NativeServices.initialize(tempDir);
+        FileHasher fileHasher = new DefaultFileHasher(new DefaultFileContentHasherFactory());
+        packer = new TarTaskOutputPacker(FileSystems.getDefault(), fileHasher, new StringInterner());
+
+        sourceDir = new File(tempDir, "source");
+        outputSnapshots = new LinkedHashMap<String, Map<String, FileContentSnapshot>>();
+        outputSnapshots.put("classes", createSourceFiles(sourceDir, fileHasher, lengthsInSnapshots));
+    }
+
+    private static Map<String, FileContentSnapshot> createSourceFiles(File sourceDir, FileHasher fileHasher, boolean lengthsInSnapshots) throws IOException {
+        Random random = new Random(1234L);
+        Map<String, FileContentSnapshot> snapshots = new LinkedHashMap<String, FileContentSnapshot>();
+        snapshots.put(sourceDir.getAbsolutePath(), DirContentSnapshot.INSTANCE);
+        for (int dirIndex = 0; dirIndex < DIRECTORY_COUNT; dirIndex++) {
+            File dir = new File(sourceDir, "package" + dirIndex);
+            FileUtils.forceMkdir(dir);
+            snapshots.put(dir.getAbsolutePath(), DirContentSnapshot.INSTANCE);
+            for (int fileIndex = 0; fileIndex < FILES_PER_DIRECTORY; fileIndex++) {
+                File file = new File(dir, "Class" + fileIndex + ".class");
+                byte[] content = new byte[512 + random.nextInt(4096)];
+                random.nextBytes(content);
+                FileUtils.writeByteArrayToFile(file, content);
+                long length = lengthsInSnapshots ? file.length() : -1L;
+                snapshots.put(file.getAbsolutePath(), new FileHashSnapshot(fileHasher.hash(file), file.lastModified(), length));
+            }
+        }
+        return snapshots;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException {
+        FileUtils.forceDelete(tempDir);
+    }
+
+    @Benchmark
+    public TaskOutputPacker.PackResult pack() throws IOException {
+        SortedSet<ResolvedTaskOutputFilePropertySpec> propertySpecs = ImmutableSortedSet.of(new ResolvedTaskOutputFilePropertySpec("classes", DIRECTORY, sourceDir));
+        return packer.pack(propertySpecs, outputSnapshots, ByteStreams.nullOutputStream(), new TaskOutputOriginWriter() {
+            @Override
+            public void execute(OutputStream outputStream) {
+            }
+        });
+    }
+}
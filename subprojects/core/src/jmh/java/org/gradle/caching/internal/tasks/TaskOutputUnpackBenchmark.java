@@ -0,0 +1,163 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.tasks;
+
+import com.google.common.collect.ImmutableSortedSet;
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.internal.cache.StringInterner;
+import org.gradle.api.internal.changedetection.state.DirContentSnapshot;
+import org.gradle.api.internal.changedetection.state.FileContentSnapshot;
+import org.gradle.api.internal.changedetection.state.FileHashSnapshot;
+import org.gradle.api.internal.tasks.ResolvedTaskOutputFilePropertySpec;
+import org.gradle.caching.internal.tasks.origin.TaskOutputOriginMetadata;
+import org.gradle.caching.internal.tasks.origin.TaskOutputOriginReader;
+import org.gradle.caching.internal.tasks.origin.TaskOutputOriginWriter;
+import org.gradle.internal.concurrent.DefaultExecutorFactory;
+import org.gradle.internal.hash.DefaultFileContentHasherFactory;
+import org.gradle.internal.hash.DefaultFileHasher;
+import org.gradle.internal.hash.FileHasher;
+import org.gradle.internal.id.UniqueId;
+import org.gradle.internal.nativeintegration.services.FileSystems;
+import org.gradle.internal.nativeintegration.services.NativeServices;
+import org.gradle.internal.nativeplatform.filesystem.FileSystem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.gradle.api.internal.tasks.CacheableTaskOutputFilePropertySpec.OutputType.DIRECTORY;
+
+/**
+ * Measures unpacking a directory output of {@value #DIRECTORY_COUNT} x {@value #FILES_PER_DIRECTORY} small files,
+ * the shape of a large Java compile output, with the reading thread alone and with a pool of unpack workers.
+ *
+ * <p>Divide the number of files by the reported time to get files per second.</p>
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TaskOutputUnpackBenchmark {
+    private static final int DIRECTORY_COUNT = 100;
+    private static final int FILES_PER_DIRECTORY = 500;
+    private static final TaskOutputOriginMetadata ORIGIN_METADATA = new TaskOutputOriginMetadata(UniqueId.generate());
+
+    @Param({"1", "2", "4", "8"})
+    int threads;
+
+    private File tempDir;
+    private File targetDir;
+    private byte[] packedOutput;
+    private TaskOutputUnpackExecutor unpackExecutor;
+    private TarTaskOutputPacker packer;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        tempDir = File.createTempFile("unpack", "benchmark");
+        FileUtils.forceDelete(tempDir);
+        FileUtils.forceMkdir(tempDir);
+        NativeServices.initialize(tempDir);
+        FileSystem fileSystem = FileSystems.getDefault();
+        FileHasher fileHasher = new DefaultFileHasher(new DefaultFileContentHasherFactory());
+        unpackExecutor = new TaskOutputUnpackExecutor(new DefaultExecutorFactory(), threads);
+        packer = new TarTaskOutputPacker(fileSystem, fileHasher, new StringInterner(), unpackExecutor);
+
+        File sourceDir = new File(tempDir, "source");
+        Map<String, FileContentSnapshot> snapshots = createSourceFiles(sourceDir, fileHasher);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        packer.pack(propertySpecs(sourceDir), singletonMap(snapshots), output, new TaskOutputOriginWriter() {
+            @Override
+            public void execute(OutputStream outputStream) {
+            }
+        });
+        packedOutput = output.toByteArray();
+        targetDir = new File(tempDir, "target");
+    }
+
+    private static Map<String, FileContentSnapshot> createSourceFiles(File sourceDir, FileHasher fileHasher) throws IOException {
+        Random random = new Random(1234L);
+        Map<String, FileContentSnapshot> snapshots = new LinkedHashMap<String, FileContentSnapshot>();
+        snapshots.put(sourceDir.getAbsolutePath(), DirContentSnapshot.INSTANCE);
+        for (int dirIndex = 0; dirIndex < DIRECTORY_COUNT; dirIndex++) {
+            File dir = new File(sourceDir, "package" + dirIndex);
+            FileUtils.forceMkdir(dir);
+            snapshots.put(dir.getAbsolutePath(), DirContentSnapshot.INSTANCE);
+            for (int fileIndex = 0; fileIndex < FILES_PER_DIRECTORY; fileIndex++) {
+                File file = new File(dir, "Class" + fileIndex + ".class");
+                byte[] content = new byte[512 + random.nextInt(4096)];
+                random.nextBytes(content);
+                FileUtils.writeByteArrayToFile(file, content);
+                snapshots.put(file.getAbsolutePath(), new FileHashSnapshot(fileHasher.hash(file)));
+            }
+        }
+        return snapshots;
+    }
+
+    private static SortedSet<ResolvedTaskOutputFilePropertySpec> propertySpecs(File dir) {
+        return ImmutableSortedSet.of(new ResolvedTaskOutputFilePropertySpec("classes", DIRECTORY, dir));
+    }
+
+    private static Map<String, Map<String, FileContentSnapshot>> singletonMap(Map<String, FileContentSnapshot> snapshots) {
+        Map<String, Map<String, FileContentSnapshot>> result = new LinkedHashMap<String, Map<String, FileContentSnapshot>>();
+        result.put("classes", snapshots);
+        return result;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException {
+        unpackExecutor.stop();
+        FileUtils.forceDelete(tempDir);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() throws IOException {
+        FileUtils.deleteDirectory(targetDir);
+    }
+
+    @Benchmark
+    public TaskOutputPacker.UnpackResult unpack() throws IOException {
+        return packer.unpack(propertySpecs(targetDir), new ByteArrayInputStream(packedOutput), new TaskOutputOriginReader() {
+            @Override
+            public TaskOutputOriginMetadata execute(InputStream inputStream) {
+                return ORIGIN_METADATA;
+            }
+        });
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.taskgraph;
+
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.Action;
+import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.api.internal.GradleInternal;
+import org.gradle.api.internal.TaskInternal;
+import org.gradle.initialization.DefaultBuildCancellationToken;
+import org.gradle.initialization.DefaultParallelismConfigurationManager;
+import org.gradle.internal.concurrent.DefaultExecutorFactory;
+import org.gradle.internal.concurrent.DefaultParallelismConfiguration;
+import org.gradle.internal.event.DefaultListenerManager;
+import org.gradle.internal.resources.DefaultResourceLockCoordinationService;
+import org.gradle.internal.work.DefaultWorkerLeaseService;
+import org.gradle.internal.work.WorkerLeaseRegistry.WorkerLeaseCompletion;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Executes a graph of tasks that do nothing with 4 and 32 workers, so that the time taken is spent selecting tasks.
+ *
+ * <p>Besides the time taken to execute the graph, reports for each execution the number of times a worker took the state lock of the
+ * {@link DefaultTaskExecutionPlan} to select a task ({@code selectionAttempts}) and how long it held the lock while doing so
+ * ({@code selectionLockHeldNanos}).</p>
+ *
+ * <p>Each project has the tasks of the {@code task-scheduling} performance test template, where each task depends on the task
+ * 8 positions before it.</p>
+ */
+@State(Scope.Benchmark)
+public class TaskSelectionBenchmark {
+    @Param({"4", "32"})
+    int workers;
+
+    @Param({"32"})
+    int projects;
+
+    @Param({"500"})
+    int tasksPerProject;
+
+    private File projectDir;
+    private final List<Task> tasks = new ArrayList<Task>();
+    private DefaultExecutorFactory executorFactory;
+    private DefaultWorkerLeaseService workerLeaseService;
+    private DefaultTaskPlanExecutor taskPlanExecutor;
+    private DefaultTaskExecutionPlan executionPlan;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class SelectionCounters {
+        public long selectionAttempts;
+        public long selectionLockHeldNanos;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            selectionAttempts = 0;
+            selectionLockHeldNanos = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        projectDir = File.createTempFile("task-selection", "benchmark");
+        projectDir.delete();
+        projectDir.mkdirs();
+        Project root = ProjectBuilder.builder().withProjectDir(projectDir).build();
+        for (int i = 0; i < projects; i++) {
+            Project project = ProjectBuilder.builder().withParent(root).withName("project" + i).build();
+            for (int j = 0; j < tasksPerProject; j++) {
+                Task task = project.task("task" + j);
+                task.getOutputs().dir(project.file("build/task" + j));
+                if (j >= 8) {
+                    task.dependsOn("task" + (j - 8));
+                }
+                tasks.add(task);
+            }
+        }
+
+        DefaultParallelismConfigurationManager parallelismConfigurationManager = new DefaultParallelismConfigurationManager(new DefaultListenerManager());
+        parallelismConfigurationManager.setParallelismConfiguration(new DefaultParallelismConfiguration(true, workers));
+        DefaultResourceLockCoordinationService coordinationService = new DefaultResourceLockCoordinationService();
+        executorFactory = new DefaultExecutorFactory();
+        workerLeaseService = new DefaultWorkerLeaseService(coordinationService, parallelismConfigurationManager);
+        taskPlanExecutor = new DefaultTaskPlanExecutor(parallelismConfigurationManager.getParallelismConfiguration(), executorFactory, workerLeaseService);
+        executionPlan = new DefaultTaskExecutionPlan(new DefaultBuildCancellationToken(), coordinationService, workerLeaseService, (GradleInternal) root.getGradle());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        executorFactory.stop();
+        FileUtils.forceDelete(projectDir);
+    }
+
+    @Setup(Level.Invocation)
+    public void populatePlan() {
+        executionPlan.addToTaskGraph(tasks);
+        executionPlan.determineExecutionPlan();
+    }
+
+    @Benchmark
+    public void selectTasks(SelectionCounters counters) {
+        WorkerLeaseCompletion workerLease = workerLeaseService.getWorkerLease().startChild();
+        try {
+            taskPlanExecutor.process(executionPlan, new Action<TaskInternal>() {
+                @Override
+                public void execute(TaskInternal task) {
+                }
+            });
+        } finally {
+            workerLease.leaseFinish();
+        }
+        counters.selectionAttempts += executionPlan.getTaskSelections();
+        counters.selectionLockHeldNanos += executionPlan.getSelectionLockHeldNanos();
+        executionPlan.clear();
+    }
+}
@@ -87,6 +87,10 @@ abstract public class AbstractNamedFileSnapshotTaskStateChanges implements TaskS
                 String propertyName = entry.getKey();
                 FileCollectionSnapshot currentSnapshot = entry.getValue();
                 FileCollectionSnapshot previousSnapshot = getPrevious().get(propertyName);
+                // Only diff the files when the property has changed, which avoids loading the previous snapshot in the common case
+                if (currentSnapshot.getHash().equals(previousSnapshot.getHash())) {
+                    return Iterators.emptyIterator();
+                }
                 String propertyTitle = title + " property '" + propertyName + "'";
                 return currentSnapshot.iterateContentChangesSince(previousSnapshot, propertyTitle, includeAdded);
             }
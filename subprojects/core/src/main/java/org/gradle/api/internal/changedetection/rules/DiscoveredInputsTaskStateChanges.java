@@ -38,6 +38,10 @@ public class DiscoveredInputsTaskStateChanges implements TaskStateChanges {
         if (previousDiscoveredInputs == null) {
             return Iterators.<TaskStateChange>singletonIterator(new DescriptiveChange("Discovered input file history is not available."));
         }
-        return current.getDiscoveredInputFilesSnapshot().iterateContentChangesSince(previousDiscoveredInputs, "discovered input", true);
+        FileCollectionSnapshot currentDiscoveredInputs = current.getDiscoveredInputFilesSnapshot();
+        if (currentDiscoveredInputs.getHash().equals(previousDiscoveredInputs.getHash())) {
+            return Iterators.emptyIterator();
+        }
+        return currentDiscoveredInputs.iterateContentChangesSince(previousDiscoveredInputs, "discovered input", true);
     }
 }
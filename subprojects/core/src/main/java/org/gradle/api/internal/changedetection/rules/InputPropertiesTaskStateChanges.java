@@ -47,7 +47,8 @@ class InputPropertiesTaskStateChanges extends SimpleTaskStateChanges {
             if (previousSnapshot == null) {
                 added.add(propertyName);
             } else {
-                if (!currentSnapshot.equals(previousSnapshot)) {
+                // Unchanged values are snapshotted to the previous snapshot instance, so only changed values need to be compared in depth
+                if (currentSnapshot != previousSnapshot && !currentSnapshot.equals(previousSnapshot)) {
                     changed.add(propertyName);
                 }
             }
@@ -346,6 +346,10 @@ public class CacheBackedTaskHistoryRepository implements TaskHistoryRepository {
             String propertyName = entry.getKey();
             FileCollectionSnapshot beforeExecution = entry.getValue();
             FileCollectionSnapshot afterPreviousExecution = getSnapshotAfterPreviousExecution(previousExecution, propertyName);
+            // Nothing has changed since the previous execution, so there is no need to load the previous snapshot
+            if (afterPreviousExecution.getHash().equals(beforeExecution.getHash())) {
+                continue;
+            }
             OverlappingOutputs overlappingOutputs = OverlappingOutputs.detect(propertyName, afterPreviousExecution, beforeExecution);
             if (overlappingOutputs != null) {
                 return overlappingOutputs;
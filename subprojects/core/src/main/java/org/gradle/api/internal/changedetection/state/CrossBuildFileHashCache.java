@@ -32,6 +32,12 @@ import java.io.IOException;
 import static org.gradle.cache.internal.filelock.LockOptionsBuilder.mode;
 
 public class CrossBuildFileHashCache implements Closeable, TaskHistoryStore {
+
+    /**
+     * Reads the caches through a memory mapping when set to true. See {@link PersistentIndexedCacheParameters.StoreType#MEMORY_MAPPED_BTREE}.
+     */
+    public static final String MEMORY_MAPPED_PROPERTY = "org.gradle.fileHashes.memoryMapped";
+
     private final PersistentCache cache;
     private final InMemoryCacheDecoratorFactory inMemoryCacheDecoratorFactory;
 
@@ -46,7 +52,12 @@ public class CrossBuildFileHashCache implements Closeable, TaskHistoryStore {
 
     @Override
     public <K, V> PersistentIndexedCache<K, V> createCache(String cacheName, Class<K> keyType, Serializer<V> valueSerializer, int maxEntriesToKeepInMemory, boolean cacheInMemoryForShortLivedProcesses) {
+        // The hashes are looked up far more often than they change, which suits the mapping better
+        PersistentIndexedCacheParameters.StoreType storeType = Boolean.getBoolean(MEMORY_MAPPED_PROPERTY)
+                ? PersistentIndexedCacheParameters.StoreType.MEMORY_MAPPED_BTREE
+                : PersistentIndexedCacheParameters.StoreType.BTREE;
         PersistentIndexedCacheParameters<K, V> parameters = new PersistentIndexedCacheParameters<K, V>(cacheName, keyType, valueSerializer)
+                .storeType(storeType)
                 .cacheDecorator(inMemoryCacheDecoratorFactory.decorator(maxEntriesToKeepInMemory, cacheInMemoryForShortLivedProcesses));
         return cache.createCache(parameters);
     }
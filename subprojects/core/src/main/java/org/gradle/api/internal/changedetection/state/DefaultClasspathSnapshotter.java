@@ -21,12 +21,20 @@ import org.gradle.api.internal.cache.StringInterner;
 import org.gradle.api.internal.file.collections.DirectoryFileTreeFactory;
 import org.gradle.normalization.internal.InputNormalizationStrategy;
 
+import javax.annotation.Nullable;
+
 public class DefaultClasspathSnapshotter extends AbstractFileCollectionSnapshotter implements ClasspathSnapshotter {
     private final ResourceSnapshotterCacheService cacheService;
+    private final SharedClasspathSnapshots sharedSnapshots;
 
     public DefaultClasspathSnapshotter(ResourceSnapshotterCacheService cacheService, DirectoryFileTreeFactory directoryFileTreeFactory, FileSystemSnapshotter fileSystemSnapshotter, StringInterner stringInterner) {
+        this(cacheService, directoryFileTreeFactory, fileSystemSnapshotter, stringInterner, null);
+    }
+
+    public DefaultClasspathSnapshotter(ResourceSnapshotterCacheService cacheService, DirectoryFileTreeFactory directoryFileTreeFactory, FileSystemSnapshotter fileSystemSnapshotter, StringInterner stringInterner, @Nullable SharedClasspathSnapshots sharedSnapshots) {
         super(stringInterner, directoryFileTreeFactory, fileSystemSnapshotter);
         this.cacheService = cacheService;
+        this.sharedSnapshots = sharedSnapshots;
     }
 
     @Override
@@ -37,6 +45,7 @@ public class DefaultClasspathSnapshotter extends AbstractFileCollectionSnapshott
     @Override
     public FileCollectionSnapshot snapshot(FileCollection files, PathNormalizationStrategy pathNormalizationStrategy, InputNormalizationStrategy inputNormalizationStrategy) {
         ResourceHasher classpathResourceHasher = inputNormalizationStrategy.getRuntimeClasspathNormalizationStrategy().getRuntimeClasspathResourceHasher();
-        return super.snapshot(files, new RuntimeClasspathSnapshotBuilder(classpathResourceHasher, cacheService, getStringInterner()));
+        VisitingFileCollectionSnapshotBuilder builder = new RuntimeClasspathSnapshotBuilder(classpathResourceHasher, cacheService, getStringInterner());
+        return super.snapshot(files, sharedSnapshots == null ? builder : sharedSnapshots.share(builder, classpathResourceHasher));
     }
 }
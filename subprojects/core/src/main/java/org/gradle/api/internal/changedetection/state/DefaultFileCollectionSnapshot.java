@@ -20,9 +20,11 @@ import com.google.common.base.Function;
 import com.google.common.base.Objects;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
 import org.gradle.api.internal.cache.StringInterner;
 import org.gradle.api.internal.changedetection.rules.TaskStateChange;
 import org.gradle.caching.internal.BuildCacheHasher;
+import org.gradle.caching.internal.DefaultBuildCacheHasher;
 import org.gradle.internal.Factories;
 import org.gradle.internal.Factory;
 import org.gradle.internal.file.FileType;
@@ -51,6 +53,7 @@ public class DefaultFileCollectionSnapshot implements FileCollectionSnapshot {
             return doGetFiles();
         }
     });
+    private HashCode hash;
 
     public DefaultFileCollectionSnapshot(Map<String, NormalizedFileSnapshot> snapshots, TaskFilePropertyCompareStrategy compareStrategy, boolean pathIsAbsolute) {
         this.snapshots = snapshots;
@@ -87,6 +90,16 @@ public class DefaultFileCollectionSnapshot implements FileCollectionSnapshot {
         compareStrategy.appendToHasher(hasher, snapshots.values());
     }
 
+    @Override
+    public HashCode getHash() {
+        if (hash == null) {
+            DefaultBuildCacheHasher hasher = new DefaultBuildCacheHasher();
+            appendToHasher(hasher);
+            hash = hasher.hash();
+        }
+        return hash;
+    }
+
     @Override
     public List<File> getElements() {
         return cachedElementsFactory.create();
@@ -129,7 +142,8 @@ public class DefaultFileCollectionSnapshot implements FileCollectionSnapshot {
 
         public DefaultFileCollectionSnapshot read(Decoder decoder) throws Exception {
             TaskFilePropertyCompareStrategy compareStrategy = TaskFilePropertyCompareStrategy.values()[decoder.readSmallInt()];
-            Map<String, NormalizedFileSnapshot> snapshots = snapshotMapSerializer.read(decoder);
+            // Snapshots read from the history are retained for a long time, so keep them packed
+            Map<String, NormalizedFileSnapshot> snapshots = PackedFileSnapshotMap.pack(snapshotMapSerializer.read(decoder));
             boolean pathIsUnique = decoder.readBoolean();
             return new DefaultFileCollectionSnapshot(snapshots, compareStrategy, pathIsUnique);
         }
@@ -16,34 +16,91 @@
 
 package org.gradle.api.internal.changedetection.state;
 
+import com.google.common.collect.Iterables;
+import org.gradle.api.internal.TaskInternal;
+import org.gradle.api.internal.tasks.TaskDestroyablesInternal;
 import org.gradle.api.internal.tasks.execution.TaskOutputsGenerationListener;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.cache.internal.HeapProportionalCacheSizer;
 import org.gradle.initialization.RootBuildLifecycleListener;
 import org.gradle.internal.classpath.CachedJarFileStore;
 import org.gradle.internal.file.DefaultFileHierarchySet;
 import org.gradle.internal.file.FileHierarchySet;
+import org.gradle.internal.file.FileMetadataSnapshot;
+import org.gradle.internal.file.FileType;
+import org.gradle.internal.nativeintegration.filesystem.FileSystem;
 
 import javax.annotation.Nullable;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 /**
  * See {@link DefaultFileSystemSnapshotter} for some more details
+ *
+ * <p>By default, all state for files that do not live in an append-only cache is discarded whenever any task generates outputs and at the end of the build.
+ * When retaining state across builds, the state is instead invalidated for the declared outputs and destroyables of each task that generates outputs,
+ * and the remaining state is revalidated against the file system at the start of the next build.
+ * Like the file hashes, retained state is only trusted when its timestamps can detect a change, as decided by the {@link FileTimeStampInspector}.
+ * The retained state is bounded by a number of entries proportional to the heap, counting each file and each entry of a directory tree.
+ * At the end of a build, the state that was used the longest ago is discarded until the state fits.</p>
  */
 public class DefaultFileSystemMirror implements FileSystemMirror, TaskOutputsGenerationListener, RootBuildLifecycleListener {
+    private static final Logger LOGGER = Logging.getLogger(DefaultFileSystemMirror.class);
+    private static final int DEFAULT_MAX_RETAINED_ENTRIES = 200000;
+
     // Maps from interned absolute path for a file to known details for the file.
-    private final Map<String, FileSnapshot> files = new ConcurrentHashMap<String, FileSnapshot>();
+    private final ConcurrentMap<String, FileSnapshot> files;
     private final Map<String, FileSnapshot> cacheFiles = new ConcurrentHashMap<String, FileSnapshot>();
     // Maps from interned absolute path for a directory to known details for the directory.
-    private final Map<String, FileTreeSnapshot> trees = new ConcurrentHashMap<String, FileTreeSnapshot>();
+    private final ConcurrentMap<String, FileTreeSnapshot> trees;
     private final Map<String, FileTreeSnapshot> cacheTrees = new ConcurrentHashMap<String, FileTreeSnapshot>();
     // Maps from interned absolute path to a snapshot
-    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<String, Snapshot>();
+    private final ConcurrentMap<String, Snapshot> snapshots;
     private final Map<String, Snapshot> cacheSnapshots = new ConcurrentHashMap<String, Snapshot>();
+    // Maps from absolute path of a directory in a known tree to its last modified time, only used when retaining state across builds
+    private final ConcurrentMap<String, Long> directoryTimestamps;
+    // Absolute paths of retained files and trees that are known to be unchanged for as long as they are being watched
+    private final ConcurrentSkipListSet<String> watchedEntries = new ConcurrentSkipListSet<String>();
+    private volatile FileHierarchySet watchedHierarchies = DefaultFileHierarchySet.of();
+    // Maps from absolute path of a retained file, tree or snapshot to the last build that used it, only used when retaining state across builds
+    private final ConcurrentMap<String, Integer> lastUsed = new ConcurrentHashMap<String, Integer>();
+    private final int maxRetainedEntries;
+    private volatile int buildNumber;
     private final FileHierarchySet cachedDirectories;
+    private final FileSystem fileSystem;
+    private final FileTimeStampInspector timeStampInspector;
+    private final boolean retainAcrossBuilds;
 
     public DefaultFileSystemMirror(List<CachedJarFileStore> fileStores) {
+        this(fileStores, null, null, false);
+    }
+
+    /**
+     * @param fileSystem used to revalidate the retained state, may only be null when not retaining state across builds.
+     * @param timeStampInspector used to revalidate the retained state, may only be null when not retaining state across builds.
+     */
+    public DefaultFileSystemMirror(List<CachedJarFileStore> fileStores, @Nullable FileSystem fileSystem, @Nullable FileTimeStampInspector timeStampInspector, boolean retainAcrossBuilds) {
+        this(fileStores, fileSystem, timeStampInspector, retainAcrossBuilds, new HeapProportionalCacheSizer().scaleCacheSize(DEFAULT_MAX_RETAINED_ENTRIES));
+    }
+
+    DefaultFileSystemMirror(List<CachedJarFileStore> fileStores, @Nullable FileSystem fileSystem, @Nullable FileTimeStampInspector timeStampInspector, boolean retainAcrossBuilds, int maxRetainedEntries) {
+        if (retainAcrossBuilds && (fileSystem == null || timeStampInspector == null)) {
+            throw new IllegalArgumentException("A file system and a timestamp inspector are required to retain state across builds.");
+        }
         FileHierarchySet cachedDirectories = DefaultFileHierarchySet.of();
         for (CachedJarFileStore fileStore : fileStores) {
             for (File file : fileStore.getFileStoreRoots()) {
@@ -51,6 +108,15 @@ public class DefaultFileSystemMirror implements FileSystemMirror, TaskOutputsGen
             }
         }
         this.cachedDirectories = cachedDirectories;
+        this.fileSystem = fileSystem;
+        this.timeStampInspector = timeStampInspector;
+        this.retainAcrossBuilds = retainAcrossBuilds;
+        this.maxRetainedEntries = maxRetainedEntries;
+        // Sorted maps allow a path and all of its descendants to be invalidated without visiting every entry
+        this.files = retainAcrossBuilds ? new ConcurrentSkipListMap<String, FileSnapshot>() : new ConcurrentHashMap<String, FileSnapshot>();
+        this.trees = retainAcrossBuilds ? new ConcurrentSkipListMap<String, FileTreeSnapshot>() : new ConcurrentHashMap<String, FileTreeSnapshot>();
+        this.snapshots = retainAcrossBuilds ? new ConcurrentSkipListMap<String, Snapshot>() : new ConcurrentHashMap<String, Snapshot>();
+        this.directoryTimestamps = retainAcrossBuilds ? new ConcurrentSkipListMap<String, Long>() : new ConcurrentHashMap<String, Long>();
     }
 
     @Nullable
@@ -61,7 +127,7 @@ public class DefaultFileSystemMirror implements FileSystemMirror, TaskOutputsGen
         if (cachedDirectories.contains(path)) {
             return cacheFiles.get(path);
         } else {
-            return files.get(path);
+            return used(path, files.get(path));
         }
     }
 
@@ -71,6 +137,7 @@ public class DefaultFileSystemMirror implements FileSystemMirror, TaskOutputsGen
             cacheFiles.put(file.getPath(), file);
         } else {
             files.put(file.getPath(), file);
+            used(file.getPath(), file);
         }
     }
 
@@ -80,7 +147,7 @@ public class DefaultFileSystemMirror implements FileSystemMirror, TaskOutputsGen
         if (cachedDirectories.contains(path)) {
             return cacheSnapshots.get(path);
         } else {
-            return snapshots.get(path);
+            return used(path, snapshots.get(path));
         }
     }
 
@@ -90,6 +157,7 @@ public class DefaultFileSystemMirror implements FileSystemMirror, TaskOutputsGen
             cacheSnapshots.put(path, snapshot);
         } else {
             snapshots.put(path, snapshot);
+            used(path, snapshot);
         }
     }
 
@@ -101,7 +169,7 @@ public class DefaultFileSystemMirror implements FileSystemMirror, TaskOutputsGen
         if (cachedDirectories.contains(path)) {
             return cacheTrees.get(path);
         } else {
-            return trees.get(path);
+            return used(path, trees.get(path));
         }
     }
 
@@ -110,31 +178,316 @@ public class DefaultFileSystemMirror implements FileSystemMirror, TaskOutputsGen
         if (cachedDirectories.contains(directory.getPath())) {
             cacheTrees.put(directory.getPath(), directory);
         } else {
+            if (retainAcrossBuilds) {
+                recordDirectoryTimestamps(directory);
+            }
             trees.put(directory.getPath(), directory);
+            used(directory.getPath(), directory);
+        }
+    }
+
+    @Nullable
+    private <T> T used(String path, @Nullable T state) {
+        if (retainAcrossBuilds && state != null) {
+            Integer buildNumber = this.buildNumber;
+            if (!buildNumber.equals(lastUsed.get(path))) {
+                lastUsed.put(path, buildNumber);
+            }
+        }
+        return state;
+    }
+
+    private void recordDirectoryTimestamps(FileTreeSnapshot directory) {
+        directoryTimestamps.put(directory.getPath(), new File(directory.getPath()).lastModified());
+        for (FileSnapshot descendant : directory.getDescendants()) {
+            if (descendant.getType() == FileType.Directory) {
+                directoryTimestamps.put(descendant.getPath(), new File(descendant.getPath()).lastModified());
+            }
         }
     }
 
     @Override
-    public void beforeTaskOutputsGenerated() {
+    public void beforeTaskOutputsGenerated(TaskInternal task) {
+        if (retainAcrossBuilds) {
+            Iterable<File> outputs = task.getOutputs().getFiles();
+            Iterable<File> destroyables = ((TaskDestroyablesInternal) task.getDestroyables()).getFilesReadOnly();
+            // A task that declares nothing it writes to may write anywhere
+            if (task.getOutputs().getHasOutput() || destroyables.iterator().hasNext()) {
+                for (File output : outputs) {
+                    invalidate(output.getAbsolutePath());
+                }
+                for (File destroyable : destroyables) {
+                    invalidate(destroyable.getAbsolutePath());
+                }
+                return;
+            }
+        }
         // When the task outputs are generated, throw away all state for files that do not live in an append-only cache.
         // This is intentionally very simple, to be improved later
         files.clear();
         trees.clear();
         snapshots.clear();
+        directoryTimestamps.clear();
+        watchedEntries.clear();
+        lastUsed.clear();
+    }
+
+    /**
+     * Discards any retained state for the given path, its descendants and the ancestors whose state includes the path.
+     */
+    public void invalidate(String path) {
+        if (!retainAcrossBuilds || cachedDirectories.contains(path)) {
+            return;
+        }
+        invalidateHierarchy((ConcurrentNavigableMap<String, ?>) files, path);
+        invalidateHierarchy((ConcurrentNavigableMap<String, ?>) trees, path);
+        invalidateHierarchy((ConcurrentNavigableMap<String, ?>) snapshots, path);
+        invalidateHierarchy((ConcurrentNavigableMap<String, ?>) directoryTimestamps, path);
+        invalidateHierarchy(watchedEntries, path);
+        // Usage of discarded state is forgotten when the state is next bounded
+    }
+
+    /**
+     * Discards all retained state for files that do not live in an append-only cache.
+     */
+    public void invalidateAll() {
+        files.clear();
+        trees.clear();
+        snapshots.clear();
+        directoryTimestamps.clear();
+        watchedEntries.clear();
+        lastUsed.clear();
+    }
+
+    private static void invalidateHierarchy(ConcurrentNavigableMap<String, ?> state, String path) {
+        invalidateHierarchy(state.keySet(), path);
+    }
+
+    private static void invalidateHierarchy(NavigableSet<String> paths, String path) {
+        paths.remove(path);
+        paths.subSet(path + File.separatorChar, path + (char) (File.separatorChar + 1)).clear();
+        for (String parent = new File(path).getParent(); parent != null; parent = new File(parent).getParent()) {
+            paths.remove(parent);
+        }
+    }
+
+    /**
+     * Returns the paths of the retained files and trees that are not yet being watched for changes.
+     */
+    public Set<String> getUnwatchedPaths() {
+        Set<String> paths = new TreeSet<String>();
+        FileHierarchySet watchedHierarchies = this.watchedHierarchies;
+        for (String path : Iterables.concat(trees.keySet(), files.keySet())) {
+            if (!watchedHierarchies.contains(path)) {
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Notifies this mirror that any change to the given file or directory tree is reported via {@link #invalidate(String)} from now on.
+     * Retained state in the hierarchy no longer needs to be revalidated at the start of each build once it has been revalidated after this call.
+     */
+    public void startedWatching(String path) {
+        watchedHierarchies = watchedHierarchies.plus(new File(path));
+    }
+
+    /**
+     * Notifies this mirror that changes are no longer reported, so that all retained state is revalidated at the start of the next build.
+     */
+    public void stoppedWatching() {
+        watchedHierarchies = DefaultFileHierarchySet.of();
+        watchedEntries.clear();
     }
 
     @Override
     public void afterStart() {
+        if (!retainAcrossBuilds) {
+            return;
+        }
+        // Anything may have changed since the end of the previous build, so discard the state for any file that no longer matches the file system
+        // State that is watched has already been invalidated when it changed, so does not need to be checked
+        FileHierarchySet watchedHierarchies = this.watchedHierarchies;
+        int retainedFiles = 0;
+        int retainedTrees = 0;
+        int watchedFilesAndTrees = 0;
+        for (Iterator<FileSnapshot> iterator = files.values().iterator(); iterator.hasNext();) {
+            FileSnapshot file = iterator.next();
+            if (watchedEntries.contains(file.getPath())) {
+                watchedFilesAndTrees++;
+            } else if (isUpToDate(file)) {
+                if (file.getType() != FileType.Missing) {
+                    markWatched(watchedHierarchies, file.getPath());
+                }
+                retainedFiles++;
+            } else {
+                iterator.remove();
+            }
+        }
+        for (Iterator<FileTreeSnapshot> iterator = trees.values().iterator(); iterator.hasNext();) {
+            FileTreeSnapshot tree = iterator.next();
+            if (watchedEntries.contains(tree.getPath())) {
+                watchedFilesAndTrees++;
+            } else if (isUpToDate(tree)) {
+                if (new File(tree.getPath()).isDirectory()) {
+                    markWatched(watchedHierarchies, tree.getPath());
+                }
+                retainedTrees++;
+            } else {
+                iterator.remove();
+            }
+        }
+        // Content snapshots are only valid when everything they were calculated from is still valid
+        for (Iterator<String> iterator = snapshots.keySet().iterator(); iterator.hasNext();) {
+            String path = iterator.next();
+            FileSnapshot file = files.get(path);
+            if (file == null || (file.getType() == FileType.Directory && !trees.containsKey(path))) {
+                iterator.remove();
+            }
+        }
+        LOGGER.debug("Retained file system state for {} files and {} directory trees from the previous build, and for {} watched files and directory trees.", retainedFiles, retainedTrees, watchedFilesAndTrees);
+    }
+
+    private void markWatched(FileHierarchySet watchedHierarchies, String path) {
+        // Only state for existing files that was checked after the watch was registered can rely on the watch, as a missing directory cannot be watched
+        if (watchedHierarchies.contains(path)) {
+            watchedEntries.add(path);
+        }
+    }
+
+    private boolean isUpToDate(FileTreeSnapshot tree) {
+        if (!isDirectoryUpToDate(tree.getPath())) {
+            return false;
+        }
+        for (FileSnapshot descendant : tree.getDescendants()) {
+            if (descendant.getType() == FileType.Directory) {
+                if (!isDirectoryUpToDate(descendant.getPath())) {
+                    return false;
+                }
+            } else if (!isUpToDate(descendant)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isDirectoryUpToDate(String path) {
+        // A directory's timestamp changes when entries are added or removed
+        Long lastModified = directoryTimestamps.get(path);
+        return lastModified != null
+            && lastModified == new File(path).lastModified()
+            && timeStampInspector.timestampCanBeUsedToDetectFileChange(path, lastModified);
+    }
+
+    private boolean isUpToDate(FileSnapshot file) {
+        FileMetadataSnapshot metadata = fileSystem.stat(new File(file.getPath()));
+        if (metadata.getType() != file.getType()) {
+            return false;
+        }
+        if (file.getType() != FileType.RegularFile) {
+            return true;
+        }
+        FileContentSnapshot content = file.getContent();
+        if (!(content instanceof FileHashSnapshot)) {
+            return false;
+        }
+        FileHashSnapshot hashSnapshot = (FileHashSnapshot) content;
+        // A file changed right after it was snapshotted may keep its timestamp, so a timestamp from the end of the previous build is not trusted
+        return hashSnapshot.getLastModified() == metadata.getLastModified()
+            && hashSnapshot.getLength() == metadata.getLength()
+            && timeStampInspector.timestampCanBeUsedToDetectFileChange(file.getPath(), metadata.getLastModified());
     }
 
     @Override
     public void beforeComplete() {
-        // We throw away all state between builds
-        files.clear();
+        if (!retainAcrossBuilds) {
+            // We throw away all state between builds
+            files.clear();
+            trees.clear();
+            snapshots.clear();
+            directoryTimestamps.clear();
+        } else {
+            discardLeastRecentlyUsed();
+            buildNumber++;
+        }
+        // State for the caches is not retained, as the caches may be cleaned up between builds
         cacheFiles.clear();
-        trees.clear();
         cacheTrees.clear();
-        snapshots.clear();
         cacheSnapshots.clear();
     }
+
+    /**
+     * Discards the retained state that was used the longest ago, until the retained state fits within the maximum number of entries.
+     */
+    private void discardLeastRecentlyUsed() {
+        List<RetainedEntry> entries = new ArrayList<RetainedEntry>();
+        long retainedEntries = 0;
+        for (FileSnapshot file : files.values()) {
+            entries.add(new RetainedEntry(file.getPath(), 1, lastUsed(file.getPath())));
+            retainedEntries++;
+        }
+        for (FileTreeSnapshot tree : trees.values()) {
+            int size = 1 + tree.getDescendants().size();
+            entries.add(new RetainedEntry(tree.getPath(), size, lastUsed(tree.getPath())));
+            retainedEntries += size;
+        }
+        if (retainedEntries > maxRetainedEntries) {
+            Collections.sort(entries, RetainedEntry.LEAST_RECENTLY_USED_FIRST);
+            int discardedEntries = 0;
+            for (Iterator<RetainedEntry> iterator = entries.iterator(); iterator.hasNext() && retainedEntries > maxRetainedEntries;) {
+                RetainedEntry entry = iterator.next();
+                discard(entry.path);
+                retainedEntries -= entry.size;
+                discardedEntries += entry.size;
+            }
+            LOGGER.debug("Discarded retained file system state for {} entries that were not used recently, keeping {} entries.", discardedEntries, retainedEntries);
+        }
+        // Forget the usage of state that is no longer retained
+        for (Iterator<String> iterator = lastUsed.keySet().iterator(); iterator.hasNext();) {
+            String path = iterator.next();
+            if (!files.containsKey(path) && !trees.containsKey(path) && !snapshots.containsKey(path)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private int lastUsed(String path) {
+        Integer buildNumber = lastUsed.get(path);
+        return buildNumber == null ? -1 : buildNumber;
+    }
+
+    private void discard(String path) {
+        files.remove(path);
+        snapshots.remove(path);
+        watchedEntries.remove(path);
+        FileTreeSnapshot tree = trees.remove(path);
+        if (tree != null) {
+            directoryTimestamps.remove(path);
+            for (FileSnapshot descendant : tree.getDescendants()) {
+                if (descendant.getType() == FileType.Directory) {
+                    directoryTimestamps.remove(descendant.getPath());
+                }
+            }
+        }
+    }
+
+    private static class RetainedEntry {
+        private static final Comparator<RetainedEntry> LEAST_RECENTLY_USED_FIRST = new Comparator<RetainedEntry>() {
+            @Override
+            public int compare(RetainedEntry left, RetainedEntry right) {
+                return left.lastUsed < right.lastUsed ? -1 : (left.lastUsed == right.lastUsed ? 0 : 1);
+            }
+        };
+
+        private final String path;
+        private final int size;
+        private final int lastUsed;
+
+        RetainedEntry(String path, int size, int lastUsed) {
+            this.path = path;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
 }
@@ -37,6 +37,7 @@ import org.gradle.internal.hash.FileHasher;
 import org.gradle.internal.nativeintegration.filesystem.FileSystem;
 import org.gradle.normalization.internal.InputNormalizationStrategy;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.util.List;
 
@@ -61,13 +62,33 @@ public class DefaultFileSystemSnapshotter implements FileSystemSnapshotter {
     private final ProducerGuard<String> producingTrees = ProducerGuard.striped();
     private final ProducerGuard<String> producingAllSnapshots = ProducerGuard.striped();
     private final DefaultGenericFileCollectionSnapshotter snapshotter;
+    private final ParallelDirectoryTreeWalker parallelTreeWalker;
+    private final ParallelDirectoryTreeWalker.SnapshotFactory snapshotFactory = new ParallelDirectoryTreeWalker.SnapshotFactory() {
+        @Override
+        public FileSnapshot directory(FileVisitDetails dirDetails) {
+            return directorySnapshot(dirDetails);
+        }
+
+        @Override
+        public FileSnapshot file(FileVisitDetails fileDetails) {
+            return regularFileSnapshot(fileDetails);
+        }
+    };
 
     public DefaultFileSystemSnapshotter(FileHasher hasher, StringInterner stringInterner, FileSystem fileSystem, DirectoryFileTreeFactory directoryFileTreeFactory, FileSystemMirror fileSystemMirror) {
+        this(hasher, stringInterner, fileSystem, directoryFileTreeFactory, fileSystemMirror, null);
+    }
+
+    /**
+     * @param parallelTreeWalker used to snapshot complete directory trees when it walks in parallel.
+     */
+    public DefaultFileSystemSnapshotter(FileHasher hasher, StringInterner stringInterner, FileSystem fileSystem, DirectoryFileTreeFactory directoryFileTreeFactory, FileSystemMirror fileSystemMirror, @Nullable ParallelDirectoryTreeWalker parallelTreeWalker) {
         this.hasher = hasher;
         this.stringInterner = stringInterner;
         this.fileSystem = fileSystem;
         this.directoryFileTreeFactory = directoryFileTreeFactory;
         this.fileSystemMirror = fileSystemMirror;
+        this.parallelTreeWalker = parallelTreeWalker != null && parallelTreeWalker.isParallel() ? parallelTreeWalker : null;
         snapshotter = new DefaultGenericFileCollectionSnapshotter(stringInterner, directoryFileTreeFactory, this);
     }
 
@@ -133,9 +154,7 @@ public class DefaultFileSystemSnapshotter implements FileSystemSnapshotter {
         // Could potentially coordinate with a thread that is snapshotting an overlapping directory tree
         // Currently cache only those trees where we want everything from a directory
         if (!dirTree.getPatterns().isEmpty()) {
-            List<FileSnapshot> elements = Lists.newArrayList();
-            dirTree.visit(new FileVisitorImpl(elements));
-            return new DirectoryTreeDetails(dirTree.getDir().getAbsolutePath(), elements);
+            return new DirectoryTreeDetails(dirTree.getDir().getAbsolutePath(), walk(dirTree));
         }
 
         final String path = dirTree.getDir().getAbsolutePath();
@@ -162,9 +181,17 @@ public class DefaultFileSystemSnapshotter implements FileSystemSnapshotter {
 
     private FileTreeSnapshot doSnapshot(DirectoryFileTree directoryTree) {
         String path = getPath(directoryTree.getDir());
+        return new DirectoryTreeDetails(path, ImmutableList.copyOf(walk(directoryTree)));
+    }
+
+    private List<FileSnapshot> walk(DirectoryFileTree directoryTree) {
+        if (parallelTreeWalker != null && directoryTree.getDir().isDirectory()) {
+            // Includes the default excludes, as for the sequential visitor
+            return parallelTreeWalker.walk(directoryTree.getDir(), directoryTree.getPatterns().getAsSpec(), snapshotFactory);
+        }
         List<FileSnapshot> elements = Lists.newArrayList();
         directoryTree.visit(new FileVisitorImpl(elements));
-        return new DirectoryTreeDetails(path, ImmutableList.copyOf(elements));
+        return elements;
     }
 
     private String getPath(File file) {
@@ -186,12 +213,20 @@ public class DefaultFileSystemSnapshotter implements FileSystemSnapshotter {
         }
     }
 
+    private FileSnapshot directorySnapshot(FileVisitDetails dirDetails) {
+        return new DirectoryFileSnapshot(getPath(dirDetails.getFile()), dirDetails.getRelativePath(), false);
+    }
+
+    private FileSnapshot regularFileSnapshot(FileVisitDetails fileDetails) {
+        return new RegularFileSnapshot(getPath(fileDetails.getFile()), fileDetails.getRelativePath(), false, fileSnapshot(fileDetails));
+    }
+
     private FileHashSnapshot fileSnapshot(FileTreeElement fileDetails) {
-        return new FileHashSnapshot(hasher.hash(fileDetails), fileDetails.getLastModified());
+        return new FileHashSnapshot(hasher.hash(fileDetails), fileDetails.getLastModified(), fileDetails.getSize());
     }
 
     private FileHashSnapshot fileSnapshot(File file, FileMetadataSnapshot fileDetails) {
-        return new FileHashSnapshot(hasher.hash(file, fileDetails), fileDetails.getLastModified());
+        return new FileHashSnapshot(hasher.hash(file, fileDetails), fileDetails.getLastModified(), fileDetails.getLength());
     }
 
     private static class HashBackedSnapshot implements Snapshot {
@@ -216,12 +251,12 @@ public class DefaultFileSystemSnapshotter implements FileSystemSnapshotter {
 
         @Override
         public void visitDir(FileVisitDetails dirDetails) {
-            fileTreeElements.add(new DirectoryFileSnapshot(getPath(dirDetails.getFile()), dirDetails.getRelativePath(), false));
+            fileTreeElements.add(directorySnapshot(dirDetails));
         }
 
         @Override
         public void visitFile(FileVisitDetails fileDetails) {
-            fileTreeElements.add(new RegularFileSnapshot(getPath(fileDetails.getFile()), fileDetails.getRelativePath(), false, fileSnapshot(fileDetails)));
+            fileTreeElements.add(regularFileSnapshot(fileDetails));
         }
     }
 }
@@ -27,6 +27,11 @@ import java.io.IOException;
 
 public class DefaultTaskOutputFilesRepository implements TaskOutputFilesRepository, Closeable {
 
+    /**
+     * Stores the output files in an append-only log instead of a B-tree when set to true. See {@link PersistentIndexedCacheParameters.StoreType#LOG_STRUCTURED}.
+     */
+    public static final String LOG_STRUCTURED_PROPERTY = "org.gradle.outputFiles.logStructured";
+
     private final PersistentCache cacheAccess;
     private final FileSystemMirror fileSystemMirror;
     private final PersistentIndexedCache<String, Boolean> outputFiles; // The value is true if it is an output file, false if it is a parent of an output file
@@ -80,7 +85,12 @@ public class DefaultTaskOutputFilesRepository implements TaskOutputFilesReposito
     }
 
     private static PersistentIndexedCacheParameters<String, Boolean> cacheParameters(InMemoryCacheDecoratorFactory inMemoryCacheDecoratorFactory) {
+        // Every task execution records its outputs again, so most writes overwrite existing entries, which suits the log better
+        PersistentIndexedCacheParameters.StoreType storeType = Boolean.getBoolean(LOG_STRUCTURED_PROPERTY)
+            ? PersistentIndexedCacheParameters.StoreType.LOG_STRUCTURED
+            : PersistentIndexedCacheParameters.StoreType.BTREE;
         return new PersistentIndexedCacheParameters<String, Boolean>("outputFiles", String.class, Boolean.class)
+            .storeType(storeType)
             .cacheDecorator(inMemoryCacheDecoratorFactory.decorator(100000, true));
     }
 
@@ -16,6 +16,7 @@
 
 package org.gradle.api.internal.changedetection.state;
 
+import com.google.common.hash.HashCode;
 import org.gradle.api.internal.changedetection.rules.TaskStateChange;
 
 import java.io.File;
@@ -52,4 +53,10 @@ public interface FileCollectionSnapshot extends Snapshot {
     Map<String, NormalizedFileSnapshot> getSnapshots();
 
     Map<String, FileContentSnapshot> getContentSnapshots();
+
+    /**
+     * Returns the hash of the contents of this snapshot, as appended by {@link #appendToHasher(org.gradle.caching.internal.BuildCacheHasher)}.
+     * When the hashes of two snapshots are equal, there are no content changes between them.
+     */
+    HashCode getHash();
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state;
+
+import org.gradle.internal.operations.BuildOperationType;
+
+/**
+ * Reports how file system watching was used to invalidate the retained file system state during a build.
+ */
+public final class FileSystemWatchingBuildOperationType implements BuildOperationType<FileSystemWatchingBuildOperationType.Details, FileSystemWatchingBuildOperationType.Result> {
+
+    public interface Details {
+    }
+
+    public interface Result {
+
+        /**
+         * The number of files and directory trees being watched at the end of the build.
+         */
+        int getWatchedRootCount();
+
+        /**
+         * The number of paths invalidated because of a change since the end of the previous build.
+         */
+        long getInvalidatedPathCount();
+
+        /**
+         * The number of times events were lost for a watched root, causing all state in the root to be invalidated.
+         */
+        long getOverflowCount();
+    }
+
+    private FileSystemWatchingBuildOperationType() {
+    }
+}
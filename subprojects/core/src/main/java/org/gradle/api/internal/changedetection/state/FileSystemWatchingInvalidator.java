@@ -0,0 +1,230 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state;
+
+import com.google.common.io.Files;
+import org.gradle.api.Action;
+import org.gradle.api.internal.file.FileSystemSubset;
+import org.gradle.api.internal.file.TemporaryFileProvider;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.initialization.RootBuildLifecycleListener;
+import org.gradle.internal.concurrent.Stoppable;
+import org.gradle.internal.filewatch.FileWatcher;
+import org.gradle.internal.filewatch.FileWatcherEvent;
+import org.gradle.internal.filewatch.FileWatcherFactory;
+import org.gradle.internal.filewatch.FileWatcherListener;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches the files and directory trees retained by a {@link DefaultFileSystemMirror} between builds, and invalidates the state for them and the file hashes
+ * recorded in the {@link CrossBuildFileHashCache} as soon as they change. This allows the mirror to skip checking the watched state at the start of each build.
+ *
+ * <p>New files and trees are watched at the end of each build. When events are lost for a watched root, all state within that root is invalidated so that it is scanned again.
+ * When watching fails, all state is revalidated again at the start of the next build, and watching starts over at the end of that build.</p>
+ *
+ * <p>Events are delivered asynchronously, so at the start of each build a marker file is modified and the build waits for its event. Once that event
+ * arrives, the events for all changes made before the build started have been delivered. When it does not arrive in time, all retained state is discarded.</p>
+ */
+public class FileSystemWatchingInvalidator implements FileWatcherListener, RootBuildLifecycleListener, Stoppable {
+    private static final Logger LOGGER = Logging.getLogger(FileSystemWatchingInvalidator.class);
+    private static final long MARKER_EVENT_TIMEOUT_MILLIS = 2000;
+
+    private final FileWatcherFactory fileWatcherFactory;
+    private final TemporaryFileProvider temporaryFileProvider;
+    private final DefaultFileSystemMirror fileSystemMirror;
+    private final CachingFileHasher fileHasher;
+    private final Set<String> watchedRoots = new ConcurrentSkipListSet<String>();
+    private final AtomicLong invalidatedPathCount = new AtomicLong();
+    private final AtomicLong overflowCount = new AtomicLong();
+    private FileWatcher fileWatcher;
+    private volatile File markerFile;
+    private volatile CountDownLatch markerEventReceived;
+
+    public FileSystemWatchingInvalidator(FileWatcherFactory fileWatcherFactory, TemporaryFileProvider temporaryFileProvider, DefaultFileSystemMirror fileSystemMirror, CachingFileHasher fileHasher) {
+        this.fileWatcherFactory = fileWatcherFactory;
+        this.temporaryFileProvider = temporaryFileProvider;
+        this.fileSystemMirror = fileSystemMirror;
+        this.fileHasher = fileHasher;
+    }
+
+    /**
+     * Waits for the events for all changes made before the build started. This runs after the {@link DefaultFileSystemMirror} has discarded the retained state
+     * that is no longer up-to-date, and before any of the retained state is used.
+     */
+    @Override
+    public synchronized void afterStart() {
+        if (fileWatcher == null) {
+            return;
+        }
+        CountDownLatch received = new CountDownLatch(1);
+        markerEventReceived = received;
+        try {
+            Files.write(String.valueOf(System.nanoTime()).getBytes(), markerFile);
+            if (received.await(MARKER_EVENT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+            LOGGER.info("Did not receive file system events in time, discarding all file system state.");
+        } catch (IOException e) {
+            LOGGER.info("Could not modify {} to check for file system events.", markerFile, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            markerEventReceived = null;
+        }
+        stopWatching();
+        fileSystemMirror.invalidateAll();
+    }
+
+    @Override
+    public synchronized void beforeComplete() {
+        FileSystemSubset.Builder roots = FileSystemSubset.builder();
+        if (fileWatcher == null || !fileWatcher.isRunning()) {
+            fileWatcher = fileWatcherFactory.watch(new Action<Throwable>() {
+                @Override
+                public void execute(Throwable throwable) {
+                    LOGGER.info("Stopped watching the file system for changes.", throwable);
+                    stopWatching();
+                }
+            }, this);
+            if (markerFile == null) {
+                markerFile = new File(temporaryFileProvider.createTemporaryDirectory("file-watching", null), "marker");
+            }
+            roots.add(markerFile.getParentFile());
+        }
+        List<String> paths = new ArrayList<String>();
+        for (String path : fileSystemMirror.getUnwatchedPaths()) {
+            File root = new File(path);
+            if (root.exists()) {
+                paths.add(path);
+                roots.add(root);
+            }
+        }
+        try {
+            // Register all of the roots at once, as the watcher goes through everything it already watches for each call
+            fileWatcher.watch(roots.build());
+        } catch (IOException e) {
+            LOGGER.info("Could not watch {} files and directory trees for changes.", paths.size(), e);
+            stopWatching();
+            return;
+        }
+        for (String path : paths) {
+            watchedRoots.add(path);
+            fileSystemMirror.startedWatching(path);
+        }
+    }
+
+    @Override
+    public void onChange(FileWatcher watcher, FileWatcherEvent event) {
+        File file = event.getFile();
+        if (file != null && file.equals(markerFile)) {
+            CountDownLatch markerEventReceived = this.markerEventReceived;
+            if (markerEventReceived != null) {
+                markerEventReceived.countDown();
+            }
+            return;
+        }
+        if (event.getType() == FileWatcherEvent.Type.UNDEFINED) {
+            overflowCount.incrementAndGet();
+            String root = file == null ? null : findWatchedRoot(file);
+            if (root == null) {
+                LOGGER.debug("Lost file system events, invalidating all file system state.");
+                fileSystemMirror.invalidateAll();
+            } else {
+                LOGGER.debug("Lost file system events for {}, invalidating file system state for {}.", file, root);
+                fileSystemMirror.invalidate(root);
+            }
+            return;
+        }
+        String path = file.getAbsolutePath();
+        invalidatedPathCount.incrementAndGet();
+        fileSystemMirror.invalidate(path);
+        fileHasher.discard(path);
+    }
+
+    @Nullable
+    private String findWatchedRoot(File file) {
+        for (File candidate = file; candidate != null; candidate = candidate.getParentFile()) {
+            if (watchedRoots.contains(candidate.getAbsolutePath())) {
+                return candidate.getAbsolutePath();
+            }
+        }
+        return null;
+    }
+
+    private synchronized void stopWatching() {
+        if (fileWatcher != null) {
+            fileWatcher.stop();
+            fileWatcher = null;
+        }
+        watchedRoots.clear();
+        fileSystemMirror.stoppedWatching();
+    }
+
+    public synchronized boolean isWatching() {
+        return fileWatcher != null;
+    }
+
+    /**
+     * Returns the statistics for the watching since the previous call to this method.
+     */
+    public FileSystemWatchingBuildOperationType.Result takeStatistics() {
+        return new StatisticsImpl(watchedRoots.size(), invalidatedPathCount.getAndSet(0), overflowCount.getAndSet(0));
+    }
+
+    @Override
+    public void stop() {
+        stopWatching();
+    }
+
+    private static class StatisticsImpl implements FileSystemWatchingBuildOperationType.Result {
+        private final int watchedRootCount;
+        private final long invalidatedPathCount;
+        private final long overflowCount;
+
+        StatisticsImpl(int watchedRootCount, long invalidatedPathCount, long overflowCount) {
+            this.watchedRootCount = watchedRootCount;
+            this.invalidatedPathCount = invalidatedPathCount;
+            this.overflowCount = overflowCount;
+        }
+
+        @Override
+        public int getWatchedRootCount() {
+            return watchedRootCount;
+        }
+
+        @Override
+        public long getInvalidatedPathCount() {
+            return invalidatedPathCount;
+        }
+
+        @Override
+        public long getOverflowCount() {
+            return overflowCount;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state;
+
+import org.gradle.initialization.RootBuildLifecycleListener;
+import org.gradle.internal.operations.BuildOperationContext;
+import org.gradle.internal.operations.BuildOperationExecutor;
+import org.gradle.internal.operations.RunnableBuildOperation;
+import org.gradle.internal.progress.BuildOperationDescriptor;
+
+/**
+ * Exposes the statistics of a {@link FileSystemWatchingInvalidator} for each build as a build operation.
+ */
+public class FileSystemWatchingStatisticsReporter implements RootBuildLifecycleListener {
+    private static final String BUILD_OPERATION_NAME = "File system watching statistics";
+
+    private final FileSystemWatchingInvalidator invalidator;
+    private final BuildOperationExecutor buildOperationExecutor;
+
+    public FileSystemWatchingStatisticsReporter(FileSystemWatchingInvalidator invalidator, BuildOperationExecutor buildOperationExecutor) {
+        this.invalidator = invalidator;
+        this.buildOperationExecutor = buildOperationExecutor;
+    }
+
+    @Override
+    public void afterStart() {
+    }
+
+    @Override
+    public void beforeComplete() {
+        if (!invalidator.isWatching()) {
+            return;
+        }
+        buildOperationExecutor.run(new RunnableBuildOperation() {
+            @Override
+            public void run(BuildOperationContext context) {
+                context.setResult(invalidator.takeStatistics());
+            }
+
+            @Override
+            public BuildOperationDescriptor.Builder description() {
+                return BuildOperationDescriptor.displayName(BUILD_OPERATION_NAME).details(OperationDetailsImpl.INSTANCE);
+            }
+        });
+    }
+
+    private static class OperationDetailsImpl implements FileSystemWatchingBuildOperationType.Details {
+        private static final OperationDetailsImpl INSTANCE = new OperationDetailsImpl();
+    }
+}
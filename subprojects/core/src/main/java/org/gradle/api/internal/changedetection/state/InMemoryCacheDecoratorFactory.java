@@ -16,8 +16,6 @@
 
 package org.gradle.api.internal.changedetection.state;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import org.gradle.api.Transformer;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.logging.Logging;
@@ -27,6 +25,7 @@ import org.gradle.cache.CrossProcessCacheAccess;
 import org.gradle.cache.FileLock;
 import org.gradle.cache.MultiProcessSafePersistentIndexedCache;
 import org.gradle.cache.internal.AsyncCacheAccessDecoratedCache;
+import org.gradle.cache.internal.ConcurrentClockCache;
 import org.gradle.cache.internal.CrossBuildInMemoryCache;
 import org.gradle.cache.internal.CrossBuildInMemoryCacheFactory;
 import org.gradle.cache.internal.CrossProcessSynchronizingCache;
@@ -37,7 +36,8 @@ import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A {@link CacheDecorator} that wraps each cache with an in-memory cache that is used to short-circuit reads from the backing cache.
- * The in-memory cache is invalidated when the backing cache is changed by another process.
+ * The in-memory cache is invalidated when the backing cache is changed by another process. While this process holds the lock on the backing cache,
+ * values present in memory are read without taking any lock.
  *
  * Also decorates each cache so that updates to the backing cache are made asynchronously.
  */
@@ -56,22 +56,23 @@ public class InMemoryCacheDecoratorFactory {
         return new InMemoryCacheDecorator(maxEntriesToKeepInMemory, cacheInMemoryForShortLivedProcesses);
     }
 
-    private <K, V> MultiProcessSafeAsyncPersistentIndexedCache<K, V> applyInMemoryCaching(String cacheId, MultiProcessSafeAsyncPersistentIndexedCache<K, V> backingCache, int maxEntriesToKeepInMemory, boolean cacheInMemoryForShortLivedProcesses) {
+    private <K, V> MultiProcessSafePersistentIndexedCache<K, V> applyInMemoryCaching(String cacheId, MultiProcessSafeAsyncPersistentIndexedCache<K, V> backingCache, CrossProcessCacheAccess crossProcessCacheAccess, int maxEntriesToKeepInMemory, boolean cacheInMemoryForShortLivedProcesses) {
         if (!longLivingProcess && !cacheInMemoryForShortLivedProcesses) {
             // Short lived process, don't cache in memory
             LOG.debug("Creating cache {} without in-memory store.", cacheId);
-            return backingCache;
+            return new CrossProcessSynchronizingCache<K, V>(backingCache, crossProcessCacheAccess);
         }
         int targetSize = cacheSizer.scaleCacheSize(maxEntriesToKeepInMemory);
         CacheDetails cacheDetails = getCache(cacheId, targetSize);
-        return new InMemoryDecoratedCache<K, V>(backingCache, cacheDetails.entries, cacheId, cacheDetails.lockState);
+        InMemoryDecoratedCache<K, V> inMemoryCache = new InMemoryDecoratedCache<K, V>(backingCache, cacheDetails.entries, cacheId, cacheDetails.lockState);
+        return new InMemorySynchronizingCache<K, V>(inMemoryCache, crossProcessCacheAccess);
     }
 
     private CacheDetails getCache(final String cacheId, final int maxSize) {
         CacheDetails cacheDetails = caches.get(cacheId, new Transformer<CacheDetails, String>() {
             @Override
             public CacheDetails transform(String cacheId) {
-                Cache<Object, Object> entries = createInMemoryCache(cacheId, maxSize);
+                ConcurrentClockCache<Object, Object> entries = new ConcurrentClockCache<Object, Object>(maxSize, new LoggingEvictionListener(cacheId, maxSize));
                 CacheDetails cacheDetails = new CacheDetails(cacheId, maxSize, entries, new AtomicReference<FileLock.State>(null));
                 LOG.debug("Creating in-memory store for cache {} (max size: {})", cacheId, maxSize);
                 return cacheDetails;
@@ -83,14 +84,6 @@ public class InMemoryCacheDecoratorFactory {
         return cacheDetails;
     }
 
-    private Cache<Object, Object> createInMemoryCache(String cacheId, int maxSize) {
-        LoggingEvictionListener evictionListener = new LoggingEvictionListener(cacheId, maxSize);
-        final CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder().maximumSize(maxSize).recordStats().removalListener(evictionListener);
-        Cache<Object, Object> inMemoryCache = cacheBuilder.build();
-        evictionListener.setCache(inMemoryCache);
-        return inMemoryCache;
-    }
-
     private class InMemoryCacheDecorator implements CacheDecorator {
         private final int maxEntriesToKeepInMemory;
         private final boolean cacheInMemoryForShortLivedProcesses;
@@ -120,18 +113,17 @@ public class InMemoryCacheDecoratorFactory {
         @Override
         public <K, V> MultiProcessSafePersistentIndexedCache<K, V> decorate(String cacheId, String cacheName, MultiProcessSafePersistentIndexedCache<K, V> persistentCache, CrossProcessCacheAccess crossProcessCacheAccess, AsyncCacheAccess asyncCacheAccess) {
             MultiProcessSafeAsyncPersistentIndexedCache<K, V> asyncCache = new AsyncCacheAccessDecoratedCache<K, V>(asyncCacheAccess, persistentCache);
-            MultiProcessSafeAsyncPersistentIndexedCache<K, V> memCache = applyInMemoryCaching(cacheId, asyncCache, maxEntriesToKeepInMemory, cacheInMemoryForShortLivedProcesses);
-            return new CrossProcessSynchronizingCache<K, V>(memCache, crossProcessCacheAccess);
+            return applyInMemoryCaching(cacheId, asyncCache, crossProcessCacheAccess, maxEntriesToKeepInMemory, cacheInMemoryForShortLivedProcesses);
         }
     }
 
     private static class CacheDetails {
         private final String cacheId;
         private final int maxEntries;
-        private final Cache<Object, Object> entries;
+        private final ConcurrentClockCache<Object, Object> entries;
         private final AtomicReference<FileLock.State> lockState;
 
-        CacheDetails(String cacheId, int maxEntries, Cache<Object, Object> entries, AtomicReference<FileLock.State> lockState) {
+        CacheDetails(String cacheId, int maxEntries, ConcurrentClockCache<Object, Object> entries, AtomicReference<FileLock.State> lockState) {
             this.cacheId = cacheId;
             this.maxEntries = maxEntries;
             this.entries = entries;
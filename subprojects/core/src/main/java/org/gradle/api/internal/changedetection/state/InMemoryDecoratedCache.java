@@ -16,31 +16,33 @@
 
 package org.gradle.api.internal.changedetection.state;
 
-import com.google.common.cache.Cache;
 import com.google.common.hash.HashCode;
 import com.google.common.util.concurrent.Runnables;
-import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.gradle.api.Transformer;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.logging.Logging;
 import org.gradle.cache.FileLock;
+import org.gradle.cache.internal.ConcurrentClockCache;
 import org.gradle.cache.internal.MultiProcessSafeAsyncPersistentIndexedCache;
-import org.gradle.internal.UncheckedException;
+import org.gradle.cache.internal.ProducerGuard;
+import org.gradle.internal.Factory;
 
+import javax.annotation.Nullable;
 import java.io.File;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicReference;
 
 class InMemoryDecoratedCache<K, V> implements MultiProcessSafeAsyncPersistentIndexedCache<K, V> {
     private final static Logger LOG = Logging.getLogger(InMemoryDecoratedCache.class);
     private final static Object NULL = new Object();
     private final MultiProcessSafeAsyncPersistentIndexedCache<K, V> delegate;
-    private final Cache<Object, Object> inMemoryCache;
+    private final ConcurrentClockCache<Object, Object> inMemoryCache;
+    private final ProducerGuard<Object> producerGuard = ProducerGuard.adaptive();
     private final String cacheId;
     private final AtomicReference<FileLock.State> fileLockStateReference;
+    // True while this process holds the file lock and the in-memory entries are known to be up-to-date with the backing cache
+    private volatile boolean upToDate;
 
-    public InMemoryDecoratedCache(MultiProcessSafeAsyncPersistentIndexedCache<K, V> delegate, Cache<Object, Object> inMemoryCache, String cacheId, AtomicReference<FileLock.State> fileLockStateReference) {
+    public InMemoryDecoratedCache(MultiProcessSafeAsyncPersistentIndexedCache<K, V> delegate, ConcurrentClockCache<Object, Object> inMemoryCache, String cacheId, AtomicReference<FileLock.State> fileLockStateReference) {
         this.delegate = delegate;
         this.inMemoryCache = inMemoryCache;
         this.cacheId = cacheId;
@@ -52,28 +54,47 @@ class InMemoryDecoratedCache<K, V> implements MultiProcessSafeAsyncPersistentInd
         return "{in-memory-cache cache: " + delegate + "}";
     }
 
+    /**
+     * Returns the in-memory value for the given key, without taking any lock. Returns {@code null} when the value is not in memory or
+     * the in-memory entries may be out-of-date, in which case the caller needs to lock the cache and use {@link #get(Object)} instead.
+     *
+     * @return the value or {@link #NULL} when the entry is known to be absent, or {@code null} when the value is not known.
+     */
+    @Nullable
+    Object getIfUpToDate(K key) {
+        if (!upToDate) {
+            return null;
+        }
+        return inMemoryCache.get(key);
+    }
+
+    static <V> V unpack(Object value) {
+        if (value == NULL) {
+            return null;
+        } else {
+            return (V) value;
+        }
+    }
+
     @Override
     public V get(final K key) {
         assert key instanceof String || key instanceof Long || key instanceof File || key instanceof HashCode : "Unsupported key type: " + key;
-        Object value;
-        try {
-            value = inMemoryCache.get(key, new Callable<Object>() {
+        Object value = inMemoryCache.get(key);
+        if (value == null) {
+            value = producerGuard.guardByKey(key, new Factory<Object>() {
                 @Override
-                public Object call() throws Exception {
-                    Object out = delegate.get(key);
-                    return out == null ? NULL : out;
+                public Object create() {
+                    Object value = inMemoryCache.get(key);
+                    if (value == null) {
+                        Object out = delegate.get(key);
+                        value = out == null ? NULL : out;
+                        inMemoryCache.put(key, value);
+                    }
+                    return value;
                 }
             });
-        } catch (UncheckedExecutionException e) {
-            throw UncheckedException.throwAsUncheckedException(e.getCause());
-        } catch (ExecutionException e) {
-            throw UncheckedException.throwAsUncheckedException(e.getCause());
-        }
-        if (value == NULL) {
-            return null;
-        } else {
-            return (V) value;
         }
+        return unpack(value);
     }
 
     @Override
@@ -82,40 +103,35 @@ class InMemoryDecoratedCache<K, V> implements MultiProcessSafeAsyncPersistentInd
         final AtomicReference<Runnable> completionRef = new AtomicReference<Runnable>(completion);
         Object value;
         try {
-            value = inMemoryCache.getIfPresent(key);
-            final boolean wasNull = value == NULL;
-            if (wasNull) {
-                inMemoryCache.invalidate(key);
-            } else if (value != null) {
+            value = inMemoryCache.get(key);
+            if (value != null && value != NULL) {
                 return (V) value;
             }
-            value = inMemoryCache.get(key, new Callable<Object>() {
+            value = producerGuard.guardByKey(key, new Factory<Object>() {
                 @Override
-                public Object call() throws Exception {
-                    if (!wasNull) {
+                public Object create() {
+                    Object current = inMemoryCache.get(key);
+                    if (current != null && current != NULL) {
+                        return current;
+                    }
+                    if (current == null) {
                         Object out = delegate.get(key);
                         if (out != null) {
+                            inMemoryCache.put(key, out);
                             return out;
                         }
                     }
                     V value = producer.transform(key);
                     delegate.putLater(key, value, completion);
                     completionRef.set(Runnables.doNothing());
+                    inMemoryCache.put(key, value);
                     return value;
                 }
             });
-        } catch (UncheckedExecutionException e) {
-            throw UncheckedException.throwAsUncheckedException(e.getCause());
-        } catch (ExecutionException e) {
-            throw UncheckedException.throwAsUncheckedException(e.getCause());
         } finally {
             completionRef.get().run();
         }
-        if (value == NULL) {
-            return null;
-        } else {
-            return (V) value;
-        }
+        return unpack(value);
     }
 
     @Override
@@ -141,9 +157,10 @@ class InMemoryDecoratedCache<K, V> implements MultiProcessSafeAsyncPersistentInd
             outOfDate = true;
         }
         if (outOfDate) {
-            inMemoryCache.invalidateAll();
+            inMemoryCache.clear();
         }
         delegate.afterLockAcquire(currentCacheState);
+        upToDate = true;
     }
 
     @Override
@@ -153,6 +170,7 @@ class InMemoryDecoratedCache<K, V> implements MultiProcessSafeAsyncPersistentInd
 
     @Override
     public void beforeLockRelease(FileLock.State currentCacheState) {
+        upToDate = false;
         fileLockStateReference.set(currentCacheState);
         delegate.beforeLockRelease(currentCacheState);
     }
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state;
+
+import org.gradle.api.Transformer;
+import org.gradle.cache.CrossProcessCacheAccess;
+import org.gradle.cache.internal.CrossProcessSynchronizingCache;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link CrossProcessSynchronizingCache} that serves values from the in-memory cache without taking any lock, while this process holds the file lock.
+ * Falls back to locking the cache when the value is not in memory or the in-memory cache may be out-of-date.
+ */
+class InMemorySynchronizingCache<K, V> extends CrossProcessSynchronizingCache<K, V> {
+    private final InMemoryDecoratedCache<K, V> inMemoryCache;
+
+    InMemorySynchronizingCache(InMemoryDecoratedCache<K, V> inMemoryCache, CrossProcessCacheAccess cacheAccess) {
+        super(inMemoryCache, cacheAccess);
+        this.inMemoryCache = inMemoryCache;
+    }
+
+    @Nullable
+    @Override
+    public V get(K key) {
+        Object value = inMemoryCache.getIfUpToDate(key);
+        if (value != null) {
+            return InMemoryDecoratedCache.unpack(value);
+        }
+        return super.get(key);
+    }
+
+    @Override
+    public V get(K key, Transformer<? extends V, ? super K> producer) {
+        V value = InMemoryDecoratedCache.unpack(inMemoryCache.getIfUpToDate(key));
+        if (value != null) {
+            return value;
+        }
+        return super.get(key, producer);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state;
+
+import com.google.common.hash.HashCode;
+import org.gradle.api.internal.changedetection.rules.TaskStateChange;
+import org.gradle.caching.internal.BuildCacheHasher;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A file collection snapshot from the task history, which is only loaded from the {@link FileSnapshotRepository} when its contents are required.
+ * The hash of the snapshot is recorded in the task history, so it can be queried without loading the snapshot.
+ */
+class LazyFileCollectionSnapshot implements FileCollectionSnapshot {
+    private final FileSnapshotRepository snapshotRepository;
+    private final Long snapshotId;
+    private final HashCode hash;
+    private FileCollectionSnapshot snapshot;
+
+    LazyFileCollectionSnapshot(FileSnapshotRepository snapshotRepository, Long snapshotId, @Nullable HashCode hash) {
+        this.snapshotRepository = snapshotRepository;
+        this.snapshotId = snapshotId;
+        this.hash = hash;
+    }
+
+    private FileCollectionSnapshot getSnapshot() {
+        if (snapshot == null) {
+            snapshot = snapshotRepository.get(snapshotId);
+        }
+        return snapshot;
+    }
+
+    @Override
+    public HashCode getHash() {
+        return hash != null ? hash : getSnapshot().getHash();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return getSnapshot().isEmpty();
+    }
+
+    @Override
+    public Iterator<TaskStateChange> iterateContentChangesSince(FileCollectionSnapshot oldSnapshot, String title, boolean includeAdded) {
+        return getSnapshot().iterateContentChangesSince(oldSnapshot, title, includeAdded);
+    }
+
+    @Override
+    public Collection<File> getElements() {
+        return getSnapshot().getElements();
+    }
+
+    @Override
+    public Collection<File> getFiles() {
+        return getSnapshot().getFiles();
+    }
+
+    @Override
+    public Map<String, NormalizedFileSnapshot> getSnapshots() {
+        return getSnapshot().getSnapshots();
+    }
+
+    @Override
+    public Map<String, FileContentSnapshot> getContentSnapshots() {
+        return getSnapshot().getContentSnapshots();
+    }
+
+    @Override
+    public void appendToHasher(BuildCacheHasher hasher) {
+        getSnapshot().appendToHasher(hasher);
+    }
+
+    @Override
+    public String toString() {
+        return snapshot != null ? snapshot.toString() : "snapshot " + snapshotId + " with hash " + hash;
+    }
+}
@@ -20,6 +20,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
 import org.gradle.api.internal.OverlappingOutputs;
 import org.gradle.internal.id.UniqueId;
 
@@ -28,6 +29,8 @@ import java.util.Map;
 public class LazyTaskExecution extends TaskExecution {
     private ImmutableSortedMap<String, Long> inputFilesSnapshotIds;
     private ImmutableSortedMap<String, Long> outputFilesSnapshotIds;
+    private ImmutableSortedMap<String, HashCode> inputFilesHashes;
+    private ImmutableSortedMap<String, HashCode> outputFilesHashes;
     private Long discoveredFilesSnapshotId;
     private final FileSnapshotRepository snapshotRepository;
     private ImmutableSortedMap<String, FileCollectionSnapshot> inputFilesSnapshot;
@@ -47,8 +50,10 @@ public class LazyTaskExecution extends TaskExecution {
             null
         );
         this.inputFilesSnapshotIds = taskExecutionSnapshot.getInputFilesSnapshotIds();
+        this.inputFilesHashes = taskExecutionSnapshot.getInputFilesHashes();
         this.discoveredFilesSnapshotId = taskExecutionSnapshot.getDiscoveredFilesSnapshotId();
         this.outputFilesSnapshotIds = taskExecutionSnapshot.getOutputFilesSnapshotIds();
+        this.outputFilesHashes = taskExecutionSnapshot.getOutputFilesHashes();
     }
 
     public LazyTaskExecution(
@@ -107,7 +112,7 @@ public class LazyTaskExecution extends TaskExecution {
     @Override
     public ImmutableSortedMap<String, FileCollectionSnapshot> getInputFilesSnapshot() {
         if (inputFilesSnapshot == null) {
-            inputFilesSnapshot = loadSnapshot(inputFilesSnapshotIds);
+            inputFilesSnapshot = loadSnapshot(inputFilesSnapshotIds, inputFilesHashes);
         }
         return inputFilesSnapshot;
     }
@@ -129,18 +134,20 @@ public class LazyTaskExecution extends TaskExecution {
     @Override
     public ImmutableSortedMap<String, FileCollectionSnapshot> getOutputFilesSnapshot() {
         if (outputFilesSnapshot == null) {
-            outputFilesSnapshot = loadSnapshot(outputFilesSnapshotIds);
+            outputFilesSnapshot = loadSnapshot(outputFilesSnapshotIds, outputFilesHashes);
         }
         return outputFilesSnapshot;
     }
 
-    private ImmutableSortedMap<String, FileCollectionSnapshot> loadSnapshot(Map<String, Long> snapshotIds) {
+    /**
+     * Creates the snapshot of each property, which is only loaded from the repository when its contents are required.
+     */
+    private ImmutableSortedMap<String, FileCollectionSnapshot> loadSnapshot(Map<String, Long> snapshotIds, Map<String, HashCode> hashes) {
         ImmutableSortedMap.Builder<String, FileCollectionSnapshot> builder = ImmutableSortedMap.naturalOrder();
         for (Map.Entry<String, Long> entry : snapshotIds.entrySet()) {
             String propertyName = entry.getKey();
             Long snapshotId = entry.getValue();
-            FileCollectionSnapshot fileCollectionSnapshot = snapshotRepository.get(snapshotId);
-            builder.put(propertyName, fileCollectionSnapshot);
+            builder.put(propertyName, new LazyFileCollectionSnapshot(snapshotRepository, snapshotId, hashes.get(propertyName)));
         }
         return builder.build();
     }
@@ -149,6 +156,7 @@ public class LazyTaskExecution extends TaskExecution {
     public void setOutputFilesSnapshot(ImmutableSortedMap<String, FileCollectionSnapshot> outputFilesSnapshot) {
         this.outputFilesSnapshot = outputFilesSnapshot;
         this.outputFilesSnapshotIds = null;
+        this.outputFilesHashes = null;
     }
 
     public TaskExecutionSnapshot snapshot() {
@@ -161,17 +169,21 @@ public class LazyTaskExecution extends TaskExecution {
             getDeclaredOutputFilePaths(),
             getInputProperties(),
             inputFilesSnapshotIds,
+            inputFilesHashes,
             discoveredFilesSnapshotId,
-            outputFilesSnapshotIds
+            outputFilesSnapshotIds,
+            outputFilesHashes
         );
     }
 
     public void storeSnapshots() {
         if (inputFilesSnapshotIds == null && inputFilesSnapshot != null) {
             inputFilesSnapshotIds = storeSnapshot(inputFilesSnapshot);
+            inputFilesHashes = hashSnapshot(inputFilesSnapshot);
         }
         if (outputFilesSnapshotIds == null && outputFilesSnapshot != null) {
             outputFilesSnapshotIds = storeSnapshot(outputFilesSnapshot);
+            outputFilesHashes = hashSnapshot(outputFilesSnapshot);
         }
         if (discoveredFilesSnapshotId == null && discoveredFilesSnapshot != null) {
             discoveredFilesSnapshotId = snapshotRepository.add(discoveredFilesSnapshot);
@@ -189,6 +201,14 @@ public class LazyTaskExecution extends TaskExecution {
         return builder.build();
     }
 
+    private static ImmutableSortedMap<String, HashCode> hashSnapshot(Map<String, FileCollectionSnapshot> snapshot) {
+        ImmutableSortedMap.Builder<String, HashCode> builder = ImmutableSortedMap.naturalOrder();
+        for (Map.Entry<String, FileCollectionSnapshot> entry : snapshot.entrySet()) {
+            builder.put(entry.getKey(), entry.getValue().getHash());
+        }
+        return builder.build();
+    }
+
     public void removeUnnecessarySnapshots() {
         if (inputFilesSnapshotIds != null) {
             removeUnnecessarySnapshot(inputFilesSnapshotIds);
@@ -0,0 +1,387 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state;
+
+import com.google.common.hash.HashCode;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable map of file snapshots, packed into a single byte array to reduce the heap used by large snapshots retained in task history.
+ *
+ * <p>The array holds a table of fixed-width entries in iteration order, followed by a table of entry numbers sorted by absolute path and the path
+ * characters. Each entry holds the location of its absolute and normalized path, the kind of content and normalization, and a 16 byte content hash.
+ * Paths are stored with each character encoded separately in 1 to 3 bytes, so that they can be compared against a {@link String} without decoding.
+ * Normalized paths that are a suffix of the absolute path share its bytes.</p>
+ *
+ * <p>The {@link NormalizedFileSnapshot} values are created on access.</p>
+ */
+class PackedFileSnapshotMap extends AbstractMap<String, NormalizedFileSnapshot> {
+    private static final byte DIR_SNAPSHOT = 1;
+    private static final byte MISSING_FILE_SNAPSHOT = 2;
+    private static final byte REGULAR_FILE_SNAPSHOT = 3;
+
+    private static final byte NO_NORMALIZATION = 1;
+    private static final byte DEFAULT_NORMALIZATION = 2;
+    private static final byte INDEXED_NORMALIZATION = 3;
+    private static final byte IGNORED_PATH_NORMALIZATION = 4;
+
+    private static final int HASH_SIZE = 16;
+    private static final int PATH_OFFSET = 0;
+    private static final int PATH_LENGTH = 4;
+    private static final int NORMALIZED_OFFSET = 8;
+    private static final int NORMALIZED_LENGTH = 12;
+    private static final int CONTENT_KIND = 16;
+    private static final int NORMALIZATION_KIND = 17;
+    private static final int HASH = 18;
+    private static final int ENTRY_SIZE = HASH + HASH_SIZE;
+
+    private final byte[] data;
+    private final int size;
+    private final int sortedOffset;
+    private EntrySet entrySet;
+
+    private PackedFileSnapshotMap(byte[] data, int size) {
+        this.data = data;
+        this.size = size;
+        this.sortedOffset = size * ENTRY_SIZE;
+    }
+
+    /**
+     * Packs the given snapshots, or returns them unchanged when they contain snapshots that cannot be packed.
+     */
+    public static Map<String, NormalizedFileSnapshot> pack(Map<String, NormalizedFileSnapshot> snapshots) {
+        if (snapshots.isEmpty() || snapshots instanceof PackedFileSnapshotMap) {
+            return snapshots;
+        }
+        int size = snapshots.size();
+        String[] paths = new String[size];
+        NormalizedFileSnapshot[] values = new NormalizedFileSnapshot[size];
+        int pathBytes = 0;
+        int index = 0;
+        for (Entry<String, NormalizedFileSnapshot> entry : snapshots.entrySet()) {
+            String path = entry.getKey();
+            NormalizedFileSnapshot snapshot = entry.getValue();
+            if (contentKind(snapshot.getSnapshot()) == 0 || normalizationKind(path, snapshot) == 0) {
+                return snapshots;
+            }
+            paths[index] = path;
+            values[index] = snapshot;
+            pathBytes += encodedLength(path);
+            if (snapshot instanceof DefaultNormalizedFileSnapshot && !path.endsWith(snapshot.getNormalizedPath())) {
+                pathBytes += encodedLength(snapshot.getNormalizedPath());
+            }
+            index++;
+        }
+
+        byte[] data = new byte[size * ENTRY_SIZE + size * 4 + pathBytes];
+        int stringOffset = size * (ENTRY_SIZE + 4);
+        for (int i = 0; i < size; i++) {
+            String path = paths[i];
+            NormalizedFileSnapshot snapshot = values[i];
+            int entryOffset = i * ENTRY_SIZE;
+            int pathOffset = stringOffset;
+            stringOffset = encode(path, data, stringOffset);
+            writeInt(data, entryOffset + PATH_OFFSET, pathOffset);
+            writeInt(data, entryOffset + PATH_LENGTH, stringOffset - pathOffset);
+
+            byte normalizationKind = normalizationKind(path, snapshot);
+            data[entryOffset + NORMALIZATION_KIND] = normalizationKind;
+            if (normalizationKind == DEFAULT_NORMALIZATION) {
+                String normalizedPath = snapshot.getNormalizedPath();
+                int normalizedLength = encodedLength(normalizedPath);
+                int normalizedOffset;
+                if (path.endsWith(normalizedPath)) {
+                    normalizedOffset = stringOffset - normalizedLength;
+                } else {
+                    normalizedOffset = stringOffset;
+                    stringOffset = encode(normalizedPath, data, stringOffset);
+                }
+                writeInt(data, entryOffset + NORMALIZED_OFFSET, normalizedOffset);
+                writeInt(data, entryOffset + NORMALIZED_LENGTH, normalizedLength);
+            } else if (normalizationKind == INDEXED_NORMALIZATION) {
+                writeInt(data, entryOffset + NORMALIZED_OFFSET, ((IndexedNormalizedFileSnapshot) snapshot).getIndex());
+            }
+
+            FileContentSnapshot content = snapshot.getSnapshot();
+            byte contentKind = contentKind(content);
+            data[entryOffset + CONTENT_KIND] = contentKind;
+            if (contentKind == REGULAR_FILE_SNAPSHOT) {
+                content.getContentMd5().writeBytesTo(data, entryOffset + HASH, HASH_SIZE);
+            }
+        }
+
+        Integer[] sorted = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = i;
+        }
+        final String[] sortPaths = paths;
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return sortPaths[o1].compareTo(sortPaths[o2]);
+            }
+        });
+        int sortedOffset = size * ENTRY_SIZE;
+        for (int i = 0; i < size; i++) {
+            writeInt(data, sortedOffset + i * 4, sorted[i]);
+        }
+        return new PackedFileSnapshotMap(data, size);
+    }
+
+    private static byte contentKind(FileContentSnapshot snapshot) {
+        if (snapshot instanceof DirContentSnapshot) {
+            return DIR_SNAPSHOT;
+        }
+        if (snapshot instanceof MissingFileContentSnapshot) {
+            return MISSING_FILE_SNAPSHOT;
+        }
+        if (snapshot.getClass() == FileHashSnapshot.class && snapshot.getContentMd5().bits() == HASH_SIZE * 8) {
+            return REGULAR_FILE_SNAPSHOT;
+        }
+        return 0;
+    }
+
+    private static byte normalizationKind(String path, NormalizedFileSnapshot snapshot) {
+        Class<?> type = snapshot.getClass();
+        if (type == NonNormalizedFileSnapshot.class) {
+            return path.equals(snapshot.getNormalizedPath()) ? NO_NORMALIZATION : 0;
+        }
+        if (type == DefaultNormalizedFileSnapshot.class) {
+            return DEFAULT_NORMALIZATION;
+        }
+        if (type == IndexedNormalizedFileSnapshot.class) {
+            return path.equals(((IndexedNormalizedFileSnapshot) snapshot).getAbsolutePath()) ? INDEXED_NORMALIZATION : 0;
+        }
+        if (type == IgnoredPathFileSnapshot.class) {
+            return IGNORED_PATH_NORMALIZATION;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of bytes used by this map, not including the object headers.
+     */
+    public int getPackedSize() {
+        return data.length;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && find((String) key) >= 0;
+    }
+
+    @Override
+    public NormalizedFileSnapshot get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        String path = (String) key;
+        int entry = find(path);
+        return entry < 0 ? null : snapshot(entry, path);
+    }
+
+    @Override
+    public Set<Entry<String, NormalizedFileSnapshot>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    private int find(String path) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = readInt(data, sortedOffset + mid * 4);
+            int entryOffset = entry * ENTRY_SIZE;
+            int result = compare(readInt(data, entryOffset + PATH_OFFSET), readInt(data, entryOffset + PATH_LENGTH), path);
+            if (result < 0) {
+                low = mid + 1;
+            } else if (result > 0) {
+                high = mid - 1;
+            } else {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    private String path(int entry) {
+        int entryOffset = entry * ENTRY_SIZE;
+        return decode(readInt(data, entryOffset + PATH_OFFSET), readInt(data, entryOffset + PATH_LENGTH));
+    }
+
+    private NormalizedFileSnapshot snapshot(int entry, String path) {
+        int entryOffset = entry * ENTRY_SIZE;
+        FileContentSnapshot content;
+        switch (data[entryOffset + CONTENT_KIND]) {
+            case DIR_SNAPSHOT:
+                content = DirContentSnapshot.getInstance();
+                break;
+            case MISSING_FILE_SNAPSHOT:
+                content = MissingFileContentSnapshot.getInstance();
+                break;
+            default:
+                content = new FileHashSnapshot(HashCode.fromBytes(Arrays.copyOfRange(data, entryOffset + HASH, entryOffset + HASH + HASH_SIZE)));
+                break;
+        }
+        switch (data[entryOffset + NORMALIZATION_KIND]) {
+            case NO_NORMALIZATION:
+                return new NonNormalizedFileSnapshot(path, content);
+            case DEFAULT_NORMALIZATION:
+                String normalizedPath = decode(readInt(data, entryOffset + NORMALIZED_OFFSET), readInt(data, entryOffset + NORMALIZED_LENGTH));
+                return new DefaultNormalizedFileSnapshot(normalizedPath, content);
+            case INDEXED_NORMALIZATION:
+                return new IndexedNormalizedFileSnapshot(path, readInt(data, entryOffset + NORMALIZED_OFFSET), content);
+            default:
+                return new IgnoredPathFileSnapshot(content);
+        }
+    }
+
+    private static int encodedLength(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            length += ch < 0x80 ? 1 : ch < 0x800 ? 2 : 3;
+        }
+        return length;
+    }
+
+    private static int encode(String value, byte[] data, int offset) {
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch < 0x80) {
+                data[offset++] = (byte) ch;
+            } else if (ch < 0x800) {
+                data[offset++] = (byte) (0xc0 | ch >> 6);
+                data[offset++] = (byte) (0x80 | ch & 0x3f);
+            } else {
+                data[offset++] = (byte) (0xe0 | ch >> 12);
+                data[offset++] = (byte) (0x80 | ch >> 6 & 0x3f);
+                data[offset++] = (byte) (0x80 | ch & 0x3f);
+            }
+        }
+        return offset;
+    }
+
+    private String decode(int offset, int length) {
+        char[] chars = new char[length];
+        int count = 0;
+        int end = offset + length;
+        while (offset < end) {
+            int b = data[offset] & 0xff;
+            chars[count++] = decodeChar(offset, b);
+            offset += b < 0x80 ? 1 : b < 0xe0 ? 2 : 3;
+        }
+        return new String(chars, 0, count);
+    }
+
+    private char decodeChar(int offset, int first) {
+        if (first < 0x80) {
+            return (char) first;
+        }
+        if (first < 0xe0) {
+            return (char) ((first & 0x1f) << 6 | data[offset + 1] & 0x3f);
+        }
+        return (char) ((first & 0x0f) << 12 | (data[offset + 1] & 0x3f) << 6 | data[offset + 2] & 0x3f);
+    }
+
+    /**
+     * Compares the encoded path with the given path, in the order of {@link String#compareTo(String)}.
+     */
+    private int compare(int offset, int length, String path) {
+        int end = offset + length;
+        int index = 0;
+        while (offset < end && index < path.length()) {
+            int b = data[offset] & 0xff;
+            char ch = decodeChar(offset, b);
+            char other = path.charAt(index++);
+            if (ch != other) {
+                return ch - other;
+            }
+            offset += b < 0x80 ? 1 : b < 0xe0 ? 2 : 3;
+        }
+        if (offset < end) {
+            return 1;
+        }
+        return index < path.length() ? -1 : 0;
+    }
+
+    private static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xff) << 24 | (data[offset + 1] & 0xff) << 16 | (data[offset + 2] & 0xff) << 8 | data[offset + 3] & 0xff;
+    }
+
+    private class EntrySet extends AbstractSet<Entry<String, NormalizedFileSnapshot>> {
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<Entry<String, NormalizedFileSnapshot>> iterator() {
+            return new Iterator<Entry<String, NormalizedFileSnapshot>>() {
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return next < size;
+                }
+
+                @Override
+                public Entry<String, NormalizedFileSnapshot> next() {
+                    if (next >= size) {
+                        throw new NoSuchElementException();
+                    }
+                    int entry = next++;
+                    String path = path(entry);
+                    return new SimpleImmutableEntry<String, NormalizedFileSnapshot>(path, snapshot(entry, path));
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+}
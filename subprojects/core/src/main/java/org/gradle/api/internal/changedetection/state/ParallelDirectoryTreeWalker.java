@@ -0,0 +1,260 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state;
+
+import com.google.common.collect.ImmutableList;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.FileTreeElement;
+import org.gradle.api.file.FileVisitDetails;
+import org.gradle.api.file.RelativePath;
+import org.gradle.api.internal.file.DefaultFileVisitDetails;
+import org.gradle.api.specs.Spec;
+import org.gradle.internal.concurrent.Stoppable;
+import org.gradle.internal.nativeintegration.filesystem.FileSystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Walks a directory tree using a fork/join pool, splitting the work at each subdirectory and creating the snapshots for the files of a directory concurrently.
+ *
+ * <p>The snapshots are returned in the same order as the sequential {@link org.gradle.api.internal.file.collections.jdk7.Jdk7DirectoryWalker} visits them:
+ * each directory is followed by its contents, in the order in which the file system lists them. Symbolic links are followed.
+ * Files and directories that do not satisfy the spec of the tree are skipped, including the contents of such directories.</p>
+ */
+public class ParallelDirectoryTreeWalker implements Stoppable {
+    private static final int FILES_PER_TASK = 32;
+    private static final LinkOption[] NO_LINK_OPTIONS = new LinkOption[0];
+
+    private final FileSystem fileSystem;
+    private final int parallelism;
+    private ForkJoinPool pool;
+
+    public ParallelDirectoryTreeWalker(FileSystem fileSystem, int parallelism) {
+        this.fileSystem = fileSystem;
+        this.parallelism = parallelism;
+    }
+
+    public boolean isParallel() {
+        return parallelism > 1;
+    }
+
+    /**
+     * Creates the snapshots for the contents of the given directory that satisfy the given spec, not including the directory itself.
+     * The factory is called concurrently.
+     */
+    public List<FileSnapshot> walk(File rootDir, Spec<? super FileTreeElement> spec, SnapshotFactory factory) {
+        DirectoryTask task = new DirectoryTask(rootDir.toPath(), RelativePath.EMPTY_ROOT, spec, factory, ImmutableList.of(fileKey(rootDir.toPath())));
+        List<FileSnapshot> snapshots = new ArrayList<FileSnapshot>();
+        getPool().invoke(task).addTo(snapshots);
+        return snapshots;
+    }
+
+    private synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+
+    private static Object fileKey(Path path) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return attributes.fileKey() != null ? attributes.fileKey() : path.toAbsolutePath();
+        } catch (IOException e) {
+            throw new GradleException(String.format("Could not list contents of directory '%s'.", path), e);
+        }
+    }
+
+    /**
+     * Creates the snapshots for the elements of a directory tree.
+     */
+    public interface SnapshotFactory {
+        FileSnapshot directory(FileVisitDetails dirDetails);
+
+        FileSnapshot file(FileVisitDetails fileDetails);
+    }
+
+    /**
+     * The snapshots for the contents of a directory, in visiting order.
+     */
+    private static class DirectoryContents {
+        private final FileSnapshot[] children;
+        private final DirectoryContents[] subdirectories;
+
+        DirectoryContents(FileSnapshot[] children, DirectoryContents[] subdirectories) {
+            this.children = children;
+            this.subdirectories = subdirectories;
+        }
+
+        void addTo(List<FileSnapshot> snapshots) {
+            for (int i = 0; i < children.length; i++) {
+                snapshots.add(children[i]);
+                if (subdirectories[i] != null) {
+                    subdirectories[i].addTo(snapshots);
+                }
+            }
+        }
+    }
+
+    private class DirectoryTask extends RecursiveTask<DirectoryContents> {
+        private final Path dir;
+        private final RelativePath relativePath;
+        private final Spec<? super FileTreeElement> spec;
+        private final SnapshotFactory factory;
+        private final List<Object> ancestorKeys;
+
+        DirectoryTask(Path dir, RelativePath relativePath, Spec<? super FileTreeElement> spec, SnapshotFactory factory, List<Object> ancestorKeys) {
+            this.dir = dir;
+            this.relativePath = relativePath;
+            this.spec = spec;
+            this.factory = factory;
+            this.ancestorKeys = ancestorKeys;
+        }
+
+        @Override
+        protected DirectoryContents compute() {
+            List<FileVisitDetails> entries = new ArrayList<FileVisitDetails>();
+            List<Object> entryKeys = new ArrayList<Object>();
+            listEntries(entries, entryKeys);
+
+            int count = entries.size();
+            FileSnapshot[] children = new FileSnapshot[count];
+            DirectoryContents[] subdirectories = new DirectoryContents[count];
+            DirectoryTask[] subdirectoryTasks = new DirectoryTask[count];
+            for (int i = 0; i < count; i++) {
+                FileVisitDetails details = entries.get(i);
+                if (details.isDirectory()) {
+                    children[i] = factory.directory(details);
+                    List<Object> keys = ImmutableList.<Object>builder().addAll(ancestorKeys).add(entryKeys.get(i)).build();
+                    subdirectoryTasks[i] = new DirectoryTask(details.getFile().toPath(), details.getRelativePath(), spec, factory, keys);
+                    subdirectoryTasks[i].fork();
+                }
+            }
+            new FilesTask(entries, children, factory, 0, count).invoke();
+            for (int i = 0; i < count; i++) {
+                if (subdirectoryTasks[i] != null) {
+                    subdirectories[i] = subdirectoryTasks[i].join();
+                }
+            }
+            return new DirectoryContents(children, subdirectories);
+        }
+
+        private void listEntries(List<FileVisitDetails> entries, List<Object> entryKeys) {
+            AtomicBoolean stopFlag = new AtomicBoolean();
+            try {
+                DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+                try {
+                    for (Path child : stream) {
+                        BasicFileAttributes attributes = readAttributes(child);
+                        File file = child.toFile();
+                        RelativePath childPath = relativePath.append(!attributes.isDirectory(), file.getName());
+                        FileVisitDetails details = new DefaultFileVisitDetails(file, childPath, stopFlag, fileSystem, fileSystem, attributes.isDirectory(), attributes.lastModifiedTime().toMillis(), attributes.size());
+                        if (!spec.isSatisfiedBy(details)) {
+                            continue;
+                        }
+                        if (attributes.isSymbolicLink()) {
+                            // Only the attributes of the link itself are available when the link cannot be followed
+                            throw new GradleException(String.format("Could not list contents of '%s'. Couldn't follow symbolic link.", child));
+                        }
+                        if (attributes.isDirectory()) {
+                            Object key = attributes.fileKey() != null ? attributes.fileKey() : child.toAbsolutePath();
+                            if (ancestorKeys.contains(key)) {
+                                // Ignore cycles introduced by symbolic links, as the sequential walker does
+                                continue;
+                            }
+                            entryKeys.add(key);
+                        } else {
+                            entryKeys.add(null);
+                        }
+                        entries.add(details);
+                    }
+                } finally {
+                    stream.close();
+                }
+            } catch (IOException e) {
+                throw new GradleException(String.format("Could not read directory path '%s'.", dir), e);
+            }
+        }
+
+        private BasicFileAttributes readAttributes(Path child) {
+            try {
+                try {
+                    return Files.readAttributes(child, BasicFileAttributes.class, NO_LINK_OPTIONS);
+                } catch (IOException e) {
+                    if (Files.isSymbolicLink(child)) {
+                        // The link cannot be followed, which is only a failure when the link is not excluded
+                        return Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    }
+                    throw e;
+                }
+            } catch (IOException e) {
+                throw new GradleException(String.format("Could not read path '%s'.", child), e);
+            }
+        }
+    }
+
+    private static class FilesTask extends RecursiveAction {
+        private final List<FileVisitDetails> entries;
+        private final FileSnapshot[] children;
+        private final SnapshotFactory factory;
+        private final int start;
+        private final int end;
+
+        FilesTask(List<FileVisitDetails> entries, FileSnapshot[] children, SnapshotFactory factory, int start, int end) {
+            this.entries = entries;
+            this.children = children;
+            this.factory = factory;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > FILES_PER_TASK) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new FilesTask(entries, children, factory, start, middle), new FilesTask(entries, children, factory, middle, end));
+                return;
+            }
+            for (int i = start; i < end; i++) {
+                FileVisitDetails details = entries.get(i);
+                if (!details.isDirectory()) {
+                    children[i] = factory.file(details);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.HashCode;
+import org.gradle.cache.internal.HeapProportionalCacheSizer;
+import org.gradle.caching.internal.DefaultBuildCacheHasher;
+import org.gradle.initialization.RootBuildLifecycleListener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Shares the snapshots of classpaths with the same contents between the tasks of a build, so that a classpath used by many
+ * tasks is normalized once, and its hash for the build cache key is calculated once.
+ *
+ * <p>A snapshot is looked up by a hash of the path, type and content hash of every file visited for the classpath,
+ * together with the kind of classpath and the configuration of its normalizer. A key therefore always maps to the same
+ * snapshot, and entries never need to be invalidated when files change. Entries are discarded at the end of each build,
+ * and are bounded by the total number of files in the retained snapshots.</p>
+ */
+public class SharedClasspathSnapshots implements RootBuildLifecycleListener {
+    // Files across all retained classpath snapshots with the default daemon heap, each snapshot holding a normalized entry per classpath file. A larger heap retains proportionally more
+    private static final int REFERENCE_MAX_RETAINED_FILES = 100000;
+
+    private final Cache<HashCode, FileCollectionSnapshot> snapshots;
+
+    public SharedClasspathSnapshots(long maxRetainedFiles) {
+        this.snapshots = CacheBuilder.newBuilder()
+            .maximumWeight(maxRetainedFiles)
+            .weigher(new Weigher<HashCode, FileCollectionSnapshot>() {
+                @Override
+                public int weigh(HashCode key, FileCollectionSnapshot snapshot) {
+                    return 1 + snapshot.getSnapshots().size();
+                }
+            })
+            .build();
+    }
+
+    /**
+     * Creates shared snapshots retaining a number of files proportional to the heap available to the daemon.
+     */
+    public static SharedClasspathSnapshots sizedByHeap() {
+        return new SharedClasspathSnapshots(new HeapProportionalCacheSizer().scaleCacheSize(REFERENCE_MAX_RETAINED_FILES));
+    }
+
+    /**
+     * Returns a builder that produces the same snapshot as the given builder, reusing the snapshot of an earlier classpath
+     * with the same contents when there is one.
+     */
+    public VisitingFileCollectionSnapshotBuilder share(VisitingFileCollectionSnapshotBuilder builder, ConfigurableNormalizer normalizer) {
+        return new SharingSnapshotBuilder(builder, normalizer);
+    }
+
+    @Override
+    public void afterStart() {
+    }
+
+    @Override
+    public void beforeComplete() {
+        snapshots.invalidateAll();
+    }
+
+    private class SharingSnapshotBuilder implements VisitingFileCollectionSnapshotBuilder {
+        private final VisitingFileCollectionSnapshotBuilder delegate;
+        private final DefaultBuildCacheHasher hasher = new DefaultBuildCacheHasher();
+        private final List<Visit> visits = new ArrayList<Visit>();
+
+        SharingSnapshotBuilder(VisitingFileCollectionSnapshotBuilder delegate, ConfigurableNormalizer normalizer) {
+            this.delegate = delegate;
+            hasher.putString(delegate.getClass().getName());
+            normalizer.appendConfigurationToHasher(hasher);
+        }
+
+        @Override
+        public void visitFileTreeSnapshot(final Collection<FileSnapshot> descendants) {
+            hasher.putInt(descendants.size());
+            for (FileSnapshot descendant : descendants) {
+                hasher.putString(descendant.getRelativePath().getPathString());
+                appendToHasher(descendant);
+            }
+            visits.add(new Visit() {
+                @Override
+                public void replay(VisitingFileCollectionSnapshotBuilder builder) {
+                    builder.visitFileTreeSnapshot(descendants);
+                }
+            });
+        }
+
+        @Override
+        public void visitDirectorySnapshot(final DirectoryFileSnapshot directory) {
+            appendToHasher(directory);
+            visits.add(new Visit() {
+                @Override
+                public void replay(VisitingFileCollectionSnapshotBuilder builder) {
+                    builder.visitDirectorySnapshot(directory);
+                }
+            });
+        }
+
+        @Override
+        public void visitFileSnapshot(final RegularFileSnapshot file) {
+            appendToHasher(file);
+            visits.add(new Visit() {
+                @Override
+                public void replay(VisitingFileCollectionSnapshotBuilder builder) {
+                    builder.visitFileSnapshot(file);
+                }
+            });
+        }
+
+        @Override
+        public void visitMissingFileSnapshot(final MissingFileSnapshot missingFile) {
+            appendToHasher(missingFile);
+            visits.add(new Visit() {
+                @Override
+                public void replay(VisitingFileCollectionSnapshotBuilder builder) {
+                    builder.visitMissingFileSnapshot(missingFile);
+                }
+            });
+        }
+
+        private void appendToHasher(FileSnapshot file) {
+            hasher.putString(file.getPath());
+            hasher.putInt(file.getType().ordinal());
+            hasher.putHash(file.getContent().getContentMd5());
+        }
+
+        @Override
+        public FileCollectionSnapshot build() {
+            HashCode key = hasher.hash();
+            FileCollectionSnapshot snapshot = snapshots.getIfPresent(key);
+            if (snapshot == null) {
+                for (Visit visit : visits) {
+                    visit.replay(delegate);
+                }
+                snapshot = delegate.build();
+                snapshots.put(key, snapshot);
+            }
+            return snapshot;
+        }
+    }
+
+    private interface Visit {
+        void replay(VisitingFileCollectionSnapshotBuilder builder);
+    }
+}
@@ -20,6 +20,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
 import org.gradle.internal.id.UniqueId;
 
 /**
@@ -35,9 +36,11 @@ public class TaskExecutionSnapshot {
     private final ImmutableSet<String> declaredOutputFilePaths;
     private final ImmutableSortedMap<String, Long> inputFilesSnapshotIds;
     private final ImmutableSortedMap<String, Long> outputFilesSnapshotIds;
+    private final ImmutableSortedMap<String, HashCode> inputFilesHashes;
+    private final ImmutableSortedMap<String, HashCode> outputFilesHashes;
     private final Long discoveredFilesSnapshotId;
 
-    public TaskExecutionSnapshot(boolean successful, UniqueId buildInvocationId, ImplementationSnapshot taskImplementation, ImmutableList<ImplementationSnapshot> taskActionsImplementations, ImmutableSortedSet<String> cacheableOutputProperties, ImmutableSet<String> declaredOutputFilePaths, ImmutableSortedMap<String, ValueSnapshot> inputProperties, ImmutableSortedMap<String, Long> inputFilesSnapshotIds, Long discoveredFilesSnapshotId, ImmutableSortedMap<String, Long> outputFilesSnapshotIds) {
+    public TaskExecutionSnapshot(boolean successful, UniqueId buildInvocationId, ImplementationSnapshot taskImplementation, ImmutableList<ImplementationSnapshot> taskActionsImplementations, ImmutableSortedSet<String> cacheableOutputProperties, ImmutableSet<String> declaredOutputFilePaths, ImmutableSortedMap<String, ValueSnapshot> inputProperties, ImmutableSortedMap<String, Long> inputFilesSnapshotIds, ImmutableSortedMap<String, HashCode> inputFilesHashes, Long discoveredFilesSnapshotId, ImmutableSortedMap<String, Long> outputFilesSnapshotIds, ImmutableSortedMap<String, HashCode> outputFilesHashes) {
         this.successful = successful;
         this.buildInvocationId = buildInvocationId;
         this.taskImplementation = taskImplementation;
@@ -48,6 +51,8 @@ public class TaskExecutionSnapshot {
         this.inputFilesSnapshotIds = inputFilesSnapshotIds;
         this.discoveredFilesSnapshotId = discoveredFilesSnapshotId;
         this.outputFilesSnapshotIds = outputFilesSnapshotIds;
+        this.inputFilesHashes = inputFilesHashes;
+        this.outputFilesHashes = outputFilesHashes;
     }
 
     public boolean isSuccessful() {
@@ -82,6 +87,13 @@ public class TaskExecutionSnapshot {
         return inputFilesSnapshotIds;
     }
 
+    /**
+     * Returns the hash of the input file snapshot of each property. These can be compared without loading the snapshots.
+     */
+    public ImmutableSortedMap<String, HashCode> getInputFilesHashes() {
+        return inputFilesHashes;
+    }
+
     public ImmutableSortedMap<String, ValueSnapshot> getInputProperties() {
         return inputProperties;
     }
@@ -89,4 +101,11 @@ public class TaskExecutionSnapshot {
     public ImmutableSortedMap<String, Long> getOutputFilesSnapshotIds() {
         return outputFilesSnapshotIds;
     }
+
+    /**
+     * Returns the hash of the output file snapshot of each property. These can be compared without loading the snapshots.
+     */
+    public ImmutableSortedMap<String, HashCode> getOutputFilesHashes() {
+        return outputFilesHashes;
+    }
 }
@@ -26,12 +26,25 @@ import org.gradle.internal.id.UniqueId;
 import org.gradle.internal.serialize.AbstractSerializer;
 import org.gradle.internal.serialize.Decoder;
 import org.gradle.internal.serialize.Encoder;
+import org.gradle.internal.serialize.HashCodeSerializer;
 
 import java.io.IOException;
 import java.util.Map;
 
+/**
+ * Serializes the history of a task. The record starts with a format version, followed by the summary of the execution:
+ * the outcome, and the snapshot id and hash of each input and output file property. The file snapshots themselves are
+ * stored separately, and are only loaded when their contents are required. The implementation and input property
+ * details follow the summary.
+ *
+ * <p>Records with a different format version are read as {@code null}, and the task is treated as having no history.</p>
+ */
 public class TaskExecutionSnapshotSerializer extends AbstractSerializer<TaskExecutionSnapshot> {
+    // Records written before the format was versioned start with a boolean, so the version must not be 0 or 1
+    private static final byte FORMAT_VERSION = 2;
+
     private final InputPropertiesSerializer inputPropertiesSerializer;
+    private final HashCodeSerializer hashCodeSerializer = new HashCodeSerializer();
     private final StringInterner stringInterner;
 
     TaskExecutionSnapshotSerializer(StringInterner stringInterner) {
@@ -40,12 +53,20 @@ public class TaskExecutionSnapshotSerializer extends AbstractSerializer<TaskExec
     }
 
     public TaskExecutionSnapshot read(Decoder decoder) throws Exception {
+        if (decoder.readByte() != FORMAT_VERSION) {
+            return null;
+        }
+
         boolean successful = decoder.readBoolean();
 
         UniqueId buildId = UniqueId.from(decoder.readString());
 
-        ImmutableSortedMap<String, Long> inputFilesSnapshotIds = readSnapshotIds(decoder);
-        ImmutableSortedMap<String, Long> outputFilesSnapshotIds = readSnapshotIds(decoder);
+        ImmutableSortedMap.Builder<String, Long> inputFilesSnapshotIds = ImmutableSortedMap.naturalOrder();
+        ImmutableSortedMap.Builder<String, HashCode> inputFilesHashes = ImmutableSortedMap.naturalOrder();
+        readSnapshotIds(decoder, inputFilesSnapshotIds, inputFilesHashes);
+        ImmutableSortedMap.Builder<String, Long> outputFilesSnapshotIds = ImmutableSortedMap.naturalOrder();
+        ImmutableSortedMap.Builder<String, HashCode> outputFilesHashes = ImmutableSortedMap.naturalOrder();
+        readSnapshotIds(decoder, outputFilesSnapshotIds, outputFilesHashes);
         Long discoveredFilesSnapshotId = decoder.readLong();
 
         ImplementationSnapshot taskImplementation = readImplementation(decoder);
@@ -83,17 +104,20 @@ public class TaskExecutionSnapshotSerializer extends AbstractSerializer<TaskExec
             cacheableOutputProperties,
             declaredOutputFilePaths,
             inputProperties,
-            inputFilesSnapshotIds,
+            inputFilesSnapshotIds.build(),
+            inputFilesHashes.build(),
             discoveredFilesSnapshotId,
-            outputFilesSnapshotIds
+            outputFilesSnapshotIds.build(),
+            outputFilesHashes.build()
         );
     }
 
     public void write(Encoder encoder, TaskExecutionSnapshot execution) throws Exception {
+        encoder.writeByte(FORMAT_VERSION);
         encoder.writeBoolean(execution.isSuccessful());
         encoder.writeString(execution.getBuildInvocationId().asString());
-        writeSnapshotIds(encoder, execution.getInputFilesSnapshotIds());
-        writeSnapshotIds(encoder, execution.getOutputFilesSnapshotIds());
+        writeSnapshotIds(encoder, execution.getInputFilesSnapshotIds(), execution.getInputFilesHashes());
+        writeSnapshotIds(encoder, execution.getOutputFilesSnapshotIds(), execution.getOutputFilesHashes());
         encoder.writeLong(execution.getDiscoveredFilesSnapshotId());
         writeImplementation(encoder, execution.getTaskImplementation());
         encoder.writeSmallInt(execution.getTaskActionsImplementations().size());
@@ -127,22 +151,22 @@ public class TaskExecutionSnapshotSerializer extends AbstractSerializer<TaskExec
         }
     }
 
-    private static ImmutableSortedMap<String, Long> readSnapshotIds(Decoder decoder) throws IOException {
+    private void readSnapshotIds(Decoder decoder, ImmutableSortedMap.Builder<String, Long> ids, ImmutableSortedMap.Builder<String, HashCode> hashes) throws IOException {
         int count = decoder.readSmallInt();
-        ImmutableSortedMap.Builder<String, Long> builder = ImmutableSortedMap.naturalOrder();
         for (int snapshotIdx = 0; snapshotIdx < count; snapshotIdx++) {
             String property = decoder.readString();
             long id = decoder.readLong();
-            builder.put(property, id);
+            ids.put(property, id);
+            hashes.put(property, hashCodeSerializer.read(decoder));
         }
-        return builder.build();
     }
 
-    private static void writeSnapshotIds(Encoder encoder, Map<String, Long> ids) throws IOException {
+    private void writeSnapshotIds(Encoder encoder, Map<String, Long> ids, Map<String, HashCode> hashes) throws IOException {
         encoder.writeSmallInt(ids.size());
         for (Map.Entry<String, Long> entry : ids.entrySet()) {
             encoder.writeString(entry.getKey());
             encoder.writeLong(entry.getValue());
+            hashCodeSerializer.write(encoder, hashes.get(entry.getKey()));
         }
     }
 }
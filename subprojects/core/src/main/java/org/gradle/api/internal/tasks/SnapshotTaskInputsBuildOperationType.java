@@ -108,6 +108,15 @@ public final class SnapshotTaskInputsBuildOperationType implements BuildOperatio
         @Nullable
         List<String> getOutputPropertyNames();
 
+        /**
+         * The time spent calculating the build cache key from the snapshots of the inputs, in nanoseconds.
+         *
+         * Does not include the time spent snapshotting the inputs.
+         *
+         * @since 4.2
+         */
+        long getBuildCacheKeyCalculationTime();
+
     }
 
     private SnapshotTaskInputsBuildOperationType() {
@@ -81,8 +81,13 @@ public class ResolveBuildCacheKeyExecuter implements TaskExecuter {
         buildOperationExecutor.run(new RunnableBuildOperation() {
             @Override
             public void run(BuildOperationContext buildOperationContext) {
-                TaskOutputCachingBuildCacheKey cacheKey = doResolve(task, context);
-                buildOperationContext.setResult(new OperationResultImpl(cacheKey));
+                TaskArtifactState taskState = context.getTaskArtifactState();
+                // Snapshot the inputs first, so the reported key calculation time excludes snapshotting (the total is unchanged)
+                taskState.ensureSnapshotBeforeTask();
+                long startTime = System.nanoTime();
+                TaskOutputCachingBuildCacheKey cacheKey = doResolve(task, taskState);
+                long keyCalculationTime = System.nanoTime() - startTime;
+                buildOperationContext.setResult(new OperationResultImpl(cacheKey, keyCalculationTime));
                 context.setBuildCacheKey(cacheKey);
             }
 
@@ -95,8 +100,7 @@ public class ResolveBuildCacheKeyExecuter implements TaskExecuter {
         });
     }
 
-    private TaskOutputCachingBuildCacheKey doResolve(TaskInternal task, TaskExecutionContext context) {
-        TaskArtifactState taskState = context.getTaskArtifactState();
+    private TaskOutputCachingBuildCacheKey doResolve(TaskInternal task, TaskArtifactState taskState) {
         TaskOutputCachingBuildCacheKey cacheKey = taskState.calculateCacheKey();
         if (task.getOutputs().getHasOutput()) { // A task with no outputs an no cache key.
             if (cacheKey.isValid()) {
@@ -116,9 +120,11 @@ public class ResolveBuildCacheKeyExecuter implements TaskExecuter {
 
         @VisibleForTesting
         final TaskOutputCachingBuildCacheKey key;
+        private final long keyCalculationTime;
 
-        OperationResultImpl(TaskOutputCachingBuildCacheKey key) {
+        OperationResultImpl(TaskOutputCachingBuildCacheKey key, long keyCalculationTime) {
             this.key = key;
+            this.keyCalculationTime = keyCalculationTime;
         }
 
         @Nullable
@@ -188,6 +194,11 @@ public class ResolveBuildCacheKeyExecuter implements TaskExecuter {
         public String getBuildCacheKey() {
             return key.isValid() ? key.getHashCode() : null;
         }
+
+        @Override
+        public long getBuildCacheKeyCalculationTime() {
+            return keyCalculationTime;
+        }
     }
 
 }
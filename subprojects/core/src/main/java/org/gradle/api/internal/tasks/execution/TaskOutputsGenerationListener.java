@@ -16,10 +16,14 @@
 
 package org.gradle.api.internal.tasks.execution;
 
+import org.gradle.api.internal.TaskInternal;
+
 public interface TaskOutputsGenerationListener {
     /**
      * Invoked when the outputs for a task are about to be generated.
      * This is for example just before the task actions are executed or the outputs are loaded from the cache.
+     *
+     * @param task the task whose outputs are about to be generated. Note that a task may write to locations other than its declared outputs and destroyables.
      */
-    void beforeTaskOutputsGenerated();
+    void beforeTaskOutputsGenerated(TaskInternal task);
 }
@@ -17,6 +17,7 @@
 package org.gradle.cache.internal;
 
 import com.google.common.hash.HashCode;
+import org.gradle.api.internal.TaskInternal;
 import org.gradle.api.internal.changedetection.state.FileSnapshot;
 import org.gradle.api.internal.changedetection.state.FileSystemSnapshotter;
 import org.gradle.api.internal.changedetection.state.InMemoryCacheDecoratorFactory;
@@ -94,7 +95,7 @@ public class DefaultFileContentCacheFactory implements FileContentCacheFactory,
         }
 
         @Override
-        public void beforeTaskOutputsGenerated() {
+        public void beforeTaskOutputsGenerated(TaskInternal task) {
             // A very dumb strategy for invalidating cache
             cache.clear();
         }
@@ -30,7 +30,9 @@ import org.gradle.caching.internal.controller.BuildCacheControllerFactory;
 import org.gradle.caching.internal.controller.BuildCacheControllerFactory.BuildCacheMode;
 import org.gradle.caching.internal.controller.BuildCacheControllerFactory.RemoteAccessMode;
 import org.gradle.caching.internal.tasks.origin.TaskOutputOriginFactory;
+import org.gradle.caching.local.internal.InMemoryBuildCacheEntries;
 import org.gradle.internal.SystemProperties;
+import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.hash.FileHasher;
 import org.gradle.internal.nativeplatform.filesystem.FileSystem;
 import org.gradle.internal.operations.BuildOperationExecutor;
@@ -52,8 +54,21 @@ import static org.gradle.caching.internal.controller.BuildCacheControllerFactory
 
 public class BuildCacheTaskServices {
 
-    TaskOutputPacker createTaskResultPacker(FileSystem fileSystem, FileHasher fileHasher, StringInterner stringInterner) {
-        return new GZipTaskOutputPacker(new TarTaskOutputPacker(fileSystem, fileHasher, stringInterner));
+    /**
+     * The number of threads writing files when unpacking a build cache entry. Entries are unpacked by a single thread by default.
+     */
+    public static final String UNPACK_THREADS_PROPERTY = "org.gradle.caching.unpack.threads";
+
+    TaskOutputUnpackExecutor createTaskOutputUnpackExecutor(ExecutorFactory executorFactory) {
+        return new TaskOutputUnpackExecutor(executorFactory, Integer.getInteger(UNPACK_THREADS_PROPERTY, 1));
+    }
+
+    TaskOutputPacker createTaskResultPacker(FileSystem fileSystem, FileHasher fileHasher, StringInterner stringInterner, TaskOutputUnpackExecutor unpackExecutor) {
+        return new GZipTaskOutputPacker(new TarTaskOutputPacker(fileSystem, fileHasher, stringInterner, unpackExecutor));
+    }
+
+    ManifestTaskOutputPacker createManifestTaskOutputPacker(FileSystem fileSystem, FileHasher fileHasher, StringInterner stringInterner) {
+        return new ManifestTaskOutputPacker(fileSystem, fileHasher, stringInterner);
     }
 
     TaskOutputOriginFactory createTaskOutputOriginFactory(
@@ -68,11 +83,12 @@ public class BuildCacheTaskServices {
 
     TaskOutputCacheCommandFactory createTaskOutputCacheCommandFactory(
         TaskOutputPacker taskOutputPacker,
+        ManifestTaskOutputPacker manifestTaskOutputPacker,
         TaskOutputOriginFactory taskOutputOriginFactory,
         FileSystemMirror fileSystemMirror,
         StringInterner stringInterner
     ) {
-        return new TaskOutputCacheCommandFactory(taskOutputPacker, taskOutputOriginFactory, fileSystemMirror, stringInterner);
+        return new TaskOutputCacheCommandFactory(taskOutputPacker, manifestTaskOutputPacker, taskOutputOriginFactory, fileSystemMirror, stringInterner);
     }
 
     // TODO: Should live in BuildCacheServices
@@ -83,7 +99,9 @@ public class BuildCacheTaskServices {
         ServiceRegistry serviceRegistry,
         BuildCacheConfigurationInternal buildCacheConfiguration,
         BuildOperationExecutor buildOperationExecutor,
+        ExecutorFactory executorFactory,
         InstantiatorFactory instantiatorFactory,
+        InMemoryBuildCacheEntries inMemoryBuildCacheEntries,
         GradleInternal gradle
     ) {
         StartParameter startParameter = gradle.getStartParameter();
@@ -99,13 +117,16 @@ public class BuildCacheTaskServices {
 
         final BuildCacheController controller = BuildCacheControllerFactory.create(
             buildOperationExecutor,
+            gradle.getBuildOperation(),
+            executorFactory,
             buildIdentityPath,
             gradleUserHomeDir,
             buildCacheConfiguration,
             buildCacheMode,
             remoteAccessMode,
             logStackTraces,
-            instantiatorFactory.inject(serviceRegistry)
+            instantiatorFactory.inject(serviceRegistry),
+            inMemoryBuildCacheEntries
         );
 
         // Stop the controller early so that any logging emitted during stopping is visible.
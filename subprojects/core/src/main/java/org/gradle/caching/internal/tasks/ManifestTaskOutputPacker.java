@@ -0,0 +1,339 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.tasks;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.RelativePath;
+import org.gradle.api.internal.cache.StringInterner;
+import org.gradle.api.internal.changedetection.state.DirectoryFileSnapshot;
+import org.gradle.api.internal.changedetection.state.FileContentSnapshot;
+import org.gradle.api.internal.changedetection.state.FileHashSnapshot;
+import org.gradle.api.internal.changedetection.state.FileSnapshot;
+import org.gradle.api.internal.changedetection.state.RegularFileSnapshot;
+import org.gradle.api.internal.tasks.CacheableTaskOutputFilePropertySpec.OutputType;
+import org.gradle.api.internal.tasks.ResolvedTaskOutputFilePropertySpec;
+import org.gradle.api.internal.tasks.TaskFilePropertySpec;
+import org.gradle.caching.internal.tasks.TaskOutputPacker.PackResult;
+import org.gradle.caching.internal.tasks.TaskOutputPacker.UnpackResult;
+import org.gradle.caching.internal.tasks.origin.TaskOutputOriginMetadata;
+import org.gradle.caching.internal.tasks.origin.TaskOutputOriginReader;
+import org.gradle.caching.internal.tasks.origin.TaskOutputOriginWriter;
+import org.gradle.caching.local.internal.ContentAddressedLocalBuildCache.BlobSink;
+import org.gradle.caching.local.internal.ContentAddressedLocalBuildCache.BlobSource;
+import org.gradle.caching.local.internal.ContentAddressedLocalBuildCache.BlobWriter;
+import org.gradle.internal.hash.FileHasher;
+import org.gradle.internal.nativeplatform.filesystem.FileSystem;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.SortedSet;
+
+import static org.gradle.caching.internal.tasks.TaskOutputPackerUtils.ensureDirectoryForProperty;
+import static org.gradle.caching.internal.tasks.TaskOutputPackerUtils.makeDirectory;
+
+/**
+ * Packs task output as a manifest for a content-addressed local build cache. The manifest lists the files of each output property with
+ * their mode, length and content hash, and the contents of the files are handed to the cache as blobs.
+ *
+ * <p>Unpacking copies each file from its blob, and takes the snapshots of the restored outputs from the manifest, so no archive is decompressed
+ * and no file is hashed again. Files are copied rather than hard linked, as a task that changes one of its outputs in place would otherwise
+ * change the blob shared with other entries.</p>
+ */
+public class ManifestTaskOutputPacker {
+    private static final int MANIFEST_FORMAT = 1;
+    private static final byte MISSING_OUTPUT = 0;
+    private static final byte FILE_OUTPUT = 1;
+    private static final byte DIRECTORY_OUTPUT = 2;
+
+    private final FileSystem fileSystem;
+    private final FileHasher fileHasher;
+    private final StringInterner stringInterner;
+
+    public ManifestTaskOutputPacker(FileSystem fileSystem, FileHasher fileHasher, StringInterner stringInterner) {
+        this.fileSystem = fileSystem;
+        this.fileHasher = fileHasher;
+        this.stringInterner = stringInterner;
+    }
+
+    public PackResult pack(SortedSet<ResolvedTaskOutputFilePropertySpec> propertySpecs, Map<String, Map<String, FileContentSnapshot>> outputSnapshots, OutputStream manifest, BlobSink blobs, TaskOutputOriginWriter writeOrigin) throws IOException {
+        DataOutputStream output = new DataOutputStream(manifest);
+        output.writeInt(MANIFEST_FORMAT);
+
+        ByteArrayOutputStream origin = new ByteArrayOutputStream();
+        writeOrigin.execute(origin);
+        output.writeInt(origin.size());
+        origin.writeTo(output);
+
+        int propertyCount = 0;
+        for (ResolvedTaskOutputFilePropertySpec propertySpec : propertySpecs) {
+            if (propertySpec.getOutputFile() != null) {
+                propertyCount++;
+            }
+        }
+        output.writeInt(propertyCount);
+
+        long entries = 1;
+        for (ResolvedTaskOutputFilePropertySpec propertySpec : propertySpecs) {
+            String propertyName = propertySpec.getPropertyName();
+            if (propertySpec.getOutputFile() == null) {
+                continue;
+            }
+            try {
+                entries += packProperty(propertySpec, outputSnapshots.get(propertyName), output, blobs);
+            } catch (Exception ex) {
+                throw new GradleException(String.format("Could not pack property '%s': %s", propertyName, ex.getMessage()), ex);
+            }
+        }
+        output.flush();
+        return new PackResult(entries);
+    }
+
+    private long packProperty(ResolvedTaskOutputFilePropertySpec propertySpec, Map<String, FileContentSnapshot> outputSnapshots, DataOutputStream output, BlobSink blobs) throws IOException {
+        File root = propertySpec.getOutputFile();
+        output.writeUTF(propertySpec.getPropertyName());
+        if (outputSnapshots.isEmpty()) {
+            output.writeByte(MISSING_OUTPUT);
+            return 1;
+        }
+        switch (propertySpec.getOutputType()) {
+            case FILE:
+                if (!root.isFile()) {
+                    throw new IllegalArgumentException(String.format("Expected '%s' to be a file", root));
+                }
+                output.writeByte(FILE_OUTPUT);
+                packFile(root, outputSnapshots.get(root.getAbsolutePath()), output, blobs);
+                return 1;
+            case DIRECTORY:
+                if (!root.isDirectory()) {
+                    throw new IllegalArgumentException(String.format("Expected '%s' to be a directory", root));
+                }
+                output.writeByte(DIRECTORY_OUTPUT);
+                return packDirectory(root, outputSnapshots, output, blobs);
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    private long packDirectory(File root, Map<String, FileContentSnapshot> outputSnapshots, DataOutputStream output, BlobSink blobs) throws IOException {
+        String rootAbsolutePath = root.getAbsolutePath();
+        output.writeInt(fileSystem.getUnixMode(root));
+        int children = outputSnapshots.containsKey(rootAbsolutePath) ? outputSnapshots.size() - 1 : outputSnapshots.size();
+        output.writeInt(children);
+        for (Map.Entry<String, FileContentSnapshot> entry : outputSnapshots.entrySet()) {
+            String absolutePath = entry.getKey();
+            // The root was written above
+            if (absolutePath.equals(rootAbsolutePath)) {
+                continue;
+            }
+            FileContentSnapshot snapshot = entry.getValue();
+            File file = new File(absolutePath);
+            String relativePath = absolutePath.substring(rootAbsolutePath.length() + 1).replace(File.separatorChar, '/');
+            output.writeUTF(relativePath);
+            switch (snapshot.getType()) {
+                case RegularFile:
+                    output.writeByte(FILE_OUTPUT);
+                    packFile(file, snapshot, output, blobs);
+                    break;
+                case Directory:
+                    output.writeByte(DIRECTORY_OUTPUT);
+                    output.writeInt(fileSystem.getUnixMode(file));
+                    break;
+                case Missing:
+                    throw new IllegalStateException("File should not be missing: " + file);
+                default:
+                    throw new AssertionError();
+            }
+        }
+        return children + 1;
+    }
+
+    private void packFile(final File file, @Nullable FileContentSnapshot snapshot, DataOutputStream output, BlobSink blobs) throws IOException {
+        // The hash of the snapshot taken after the task executed is checked while the file is copied to a new blob
+        final HashCode hash = snapshot != null ? snapshot.getContentMd5() : fileHasher.hash(file);
+        long length = snapshot instanceof FileHashSnapshot && ((FileHashSnapshot) snapshot).getLength() >= 0
+            ? ((FileHashSnapshot) snapshot).getLength()
+            : file.length();
+        output.writeInt(fileSystem.getUnixMode(file));
+        output.writeLong(length);
+        writeHash(hash, output);
+        blobs.putBlob(hash, new BlobWriter() {
+            @Override
+            public void writeTo(OutputStream blob) throws IOException {
+                InputStream input = new FileInputStream(file);
+                try {
+                    HashCode actualHash = fileHasher.hashCopy(input, blob);
+                    if (!actualHash.equals(hash)) {
+                        throw new IllegalStateException(String.format("File '%s' has changed since the task was executed", file));
+                    }
+                } finally {
+                    IOUtils.closeQuietly(input);
+                }
+            }
+        });
+    }
+
+    public UnpackResult unpack(SortedSet<ResolvedTaskOutputFilePropertySpec> propertySpecs, InputStream manifest, BlobSource blobs, TaskOutputOriginReader readOrigin) throws IOException {
+        Map<String, ResolvedTaskOutputFilePropertySpec> propertySpecsMap = Maps.uniqueIndex(propertySpecs, new Function<TaskFilePropertySpec, String>() {
+            @Override
+            public String apply(TaskFilePropertySpec propertySpec) {
+                return propertySpec.getPropertyName();
+            }
+        });
+
+        DataInputStream input = new DataInputStream(manifest);
+        int format = input.readInt();
+        if (format != MANIFEST_FORMAT) {
+            throw new IllegalStateException("Cached result format error, unsupported manifest format: " + format);
+        }
+
+        byte[] origin = new byte[input.readInt()];
+        input.readFully(origin);
+        TaskOutputOriginMetadata originMetadata = readOrigin.execute(new ByteArrayInputStream(origin));
+
+        ImmutableListMultimap.Builder<String, FileSnapshot> snapshots = ImmutableListMultimap.builder();
+        long entries = 1;
+        int propertyCount = input.readInt();
+        for (int i = 0; i < propertyCount; i++) {
+            String propertyName = input.readUTF();
+            ResolvedTaskOutputFilePropertySpec propertySpec = propertySpecsMap.get(propertyName);
+            if (propertySpec == null) {
+                throw new IllegalStateException(String.format("No output property '%s' registered", propertyName));
+            }
+            File propertyRoot = propertySpec.getOutputFile();
+            if (propertyRoot == null) {
+                throw new IllegalStateException("Optional property should have a value: " + propertyName);
+            }
+            entries += unpackProperty(propertySpec, propertyRoot, input, blobs, snapshots);
+        }
+        return new UnpackResult(originMetadata, entries, snapshots.build());
+    }
+
+    private long unpackProperty(ResolvedTaskOutputFilePropertySpec propertySpec, File propertyRoot, DataInputStream input, BlobSource blobs, ImmutableListMultimap.Builder<String, FileSnapshot> snapshots) throws IOException {
+        String propertyName = propertySpec.getPropertyName();
+        OutputType outputType = propertySpec.getOutputType();
+        byte kind = input.readByte();
+        switch (kind) {
+            case MISSING_OUTPUT:
+                if (!makeDirectory(propertyRoot.getParentFile())) {
+                    // Make sure output is removed if it exists already
+                    if (propertyRoot.exists()) {
+                        FileUtils.forceDelete(propertyRoot);
+                    }
+                }
+                return 1;
+            case FILE_OUTPUT:
+                if (outputType == OutputType.DIRECTORY) {
+                    throw new IllegalStateException("Property should be an output file property: " + propertyName);
+                }
+                ensureDirectoryForProperty(outputType, propertyRoot);
+                snapshots.put(propertyName, unpackFile(propertyRoot, RelativePath.parse(true, propertyRoot.getName()), true, input, blobs));
+                return 1;
+            case DIRECTORY_OUTPUT:
+                if (outputType != OutputType.DIRECTORY) {
+                    throw new IllegalStateException("Property should be an output directory property: " + propertyName);
+                }
+                ensureDirectoryForProperty(outputType, propertyRoot);
+                fileSystem.chmod(propertyRoot, input.readInt());
+                snapshots.put(propertyName, new DirectoryFileSnapshot(internedAbsolutePath(propertyRoot), RelativePath.parse(false, propertyRoot.getName()), true));
+                int children = input.readInt();
+                for (int i = 0; i < children; i++) {
+                    String childPath = input.readUTF();
+                    File child = new File(propertyRoot, childPath);
+                    byte childKind = input.readByte();
+                    if (childKind == DIRECTORY_OUTPUT) {
+                        FileUtils.forceMkdir(child);
+                        fileSystem.chmod(child, input.readInt());
+                        snapshots.put(propertyName, new DirectoryFileSnapshot(internedAbsolutePath(child), RelativePath.parse(false, childPath), false));
+                    } else if (childKind == FILE_OUTPUT) {
+                        snapshots.put(propertyName, unpackFile(child, RelativePath.parse(true, childPath), false, input, blobs));
+                    } else {
+                        throw new IllegalStateException("Cached result format error, invalid entry type: " + childKind);
+                    }
+                }
+                return children + 1;
+            default:
+                throw new IllegalStateException("Cached result format error, invalid output type: " + kind);
+        }
+    }
+
+    private FileSnapshot unpackFile(File outputFile, RelativePath relativePath, boolean root, DataInputStream input, BlobSource blobs) throws IOException {
+        int mode = input.readInt();
+        long length = input.readLong();
+        HashCode hash = readHash(input);
+        File blob = blobs.getBlob(hash);
+        if (blob.length() != length) {
+            throw new IllegalStateException(String.format("Cached result format error, blob %s should have %d bytes, but has %d", hash, length, blob.length()));
+        }
+        copy(blob, outputFile);
+        fileSystem.chmod(outputFile, mode);
+        FileHashSnapshot contentSnapshot = new FileHashSnapshot(hash, outputFile.lastModified(), length);
+        return new RegularFileSnapshot(internedAbsolutePath(outputFile), relativePath, root, contentSnapshot);
+    }
+
+    private static void copy(File source, File target) throws IOException {
+        FileInputStream input = new FileInputStream(source);
+        try {
+            FileOutputStream output = new FileOutputStream(target);
+            try {
+                FileChannel sourceChannel = input.getChannel();
+                FileChannel targetChannel = output.getChannel();
+                long size = sourceChannel.size();
+                long position = 0;
+                while (position < size) {
+                    position += sourceChannel.transferTo(position, size - position, targetChannel);
+                }
+            } finally {
+                output.close();
+            }
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    private static void writeHash(HashCode hash, DataOutputStream output) throws IOException {
+        byte[] bytes = hash.asBytes();
+        output.writeByte(bytes.length);
+        output.write(bytes);
+    }
+
+    private static HashCode readHash(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readUnsignedByte()];
+        input.readFully(bytes);
+        return HashCode.fromBytes(bytes);
+    }
+
+    private String internedAbsolutePath(File file) {
+        return stringInterner.intern(file.getAbsolutePath());
+    }
+}
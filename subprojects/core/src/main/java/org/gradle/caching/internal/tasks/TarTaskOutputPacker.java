@@ -19,9 +19,10 @@ package org.gradle.caching.internal.tasks;
 import com.google.common.base.Function;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableListMultimap;
-import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
@@ -44,10 +45,14 @@ import org.gradle.api.internal.tasks.TaskFilePropertySpec;
 import org.gradle.caching.internal.tasks.origin.TaskOutputOriginMetadata;
 import org.gradle.caching.internal.tasks.origin.TaskOutputOriginReader;
 import org.gradle.caching.internal.tasks.origin.TaskOutputOriginWriter;
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.file.FileType;
 import org.gradle.internal.hash.FileHasher;
 import org.gradle.internal.nativeplatform.filesystem.FileSystem;
 
+import javax.annotation.Nullable;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -56,9 +61,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -81,14 +91,28 @@ public class TarTaskOutputPacker implements TaskOutputPacker {
         }
     };
 
+    // Files up to this size are buffered and handed to the unpack workers, larger ones are written by the reading thread
+    private static final int MAX_QUEUED_FILE_SIZE = 256 * 1024;
+    private static final int QUEUED_FILES_PER_THREAD = 16;
+
     private final FileSystem fileSystem;
     private final FileHasher fileHasher;
     private final StringInterner stringInterner;
+    private final TaskOutputUnpackExecutor unpackExecutor;
 
     public TarTaskOutputPacker(FileSystem fileSystem, FileHasher fileHasher, StringInterner stringInterner) {
+        this(fileSystem, fileHasher, stringInterner, null);
+    }
+
+    /**
+     * Creates a packer that unpacks entries with the threads of the given executor, when it has more than one. The reading thread only
+     * reads the archive, while writing and hashing the files is done by the executor.
+     */
+    public TarTaskOutputPacker(FileSystem fileSystem, FileHasher fileHasher, StringInterner stringInterner, @Nullable TaskOutputUnpackExecutor unpackExecutor) {
         this.fileSystem = fileSystem;
         this.fileHasher = fileHasher;
         this.stringInterner = stringInterner;
+        this.unpackExecutor = unpackExecutor;
     }
 
     @Override
@@ -149,7 +173,7 @@ public class TarTaskOutputPacker implements TaskOutputPacker {
             case DIRECTORY:
                 return storeDirectoryProperty(propertyPath, root, outputSnapshots, tarOutput);
             case FILE:
-                storeFileProperty(propertyPath, root, tarOutput);
+                storeFileProperty(propertyPath, root, outputSnapshots.get(root.getAbsolutePath()), tarOutput);
                 return 1;
             default:
                 throw new AssertionError();
@@ -171,19 +195,21 @@ public class TarTaskOutputPacker implements TaskOutputPacker {
         String rootAbsolutePath = directory.getAbsolutePath();
         URI rootUri = directory.toURI();
 
+        // The snapshots taken after the task executed already know the type and length of each file, so we only go to the file system for the file mode and contents
         for (Map.Entry<String, FileContentSnapshot> entry : outputSnapshots.entrySet()) {
             String absolutePath = entry.getKey();
             // We've already created the directory for the property
             if (absolutePath.equals(rootAbsolutePath)) {
                 continue;
             }
+            FileContentSnapshot snapshot = entry.getValue();
             File file = new File(absolutePath);
-            String relativePath = rootUri.relativize(file.toURI()).toString();
+            String relativePath = rootUri.relativize(toUri(absolutePath, snapshot.getType() == FileType.Directory)).toString();
             String targetPath = propertyRoot + relativePath;
             int mode = fileSystem.getUnixMode(file);
-            switch (entry.getValue().getType()) {
+            switch (snapshot.getType()) {
                 case RegularFile:
-                    storeFileEntry(file, targetPath, file.length(), mode, tarOutput);
+                    storeFileEntry(file, targetPath, getLength(file, snapshot), mode, tarOutput);
                     break;
                 case Directory:
                     storeDirectoryEntry(targetPath, mode, tarOutput);
@@ -198,11 +224,50 @@ public class TarTaskOutputPacker implements TaskOutputPacker {
         return entries;
     }
 
-    private void storeFileProperty(String propertyPath, File file, TarArchiveOutputStream tarOutput) throws IOException {
+    private void storeFileProperty(String propertyPath, File file, @Nullable FileContentSnapshot snapshot, TarArchiveOutputStream tarOutput) throws IOException {
         if (!file.isFile()) {
             throw new IllegalArgumentException(String.format("Expected '%s' to be a file", file));
         }
-        storeFileEntry(file, propertyPath, file.length(), fileSystem.getUnixMode(file), tarOutput);
+        storeFileEntry(file, propertyPath, getLength(file, snapshot), fileSystem.getUnixMode(file), tarOutput);
+    }
+
+    /**
+     * Returns the length recorded when the file was snapshotted, so we don't need to query the file system again.
+     * Packing fails when the file no longer has this length, as the contents would not match the snapshot either.
+     */
+    private static long getLength(File file, @Nullable FileContentSnapshot snapshot) {
+        if (snapshot instanceof FileHashSnapshot) {
+            long length = ((FileHashSnapshot) snapshot).getLength();
+            if (length >= 0) {
+                return length;
+            }
+        }
+        return file.length();
+    }
+
+    /**
+     * Does the same as {@link File#toURI()} for an absolute path, but takes whether the file is a directory
+     * from the snapshot instead of checking the file system.
+     */
+    private static URI toUri(String absolutePath, boolean directory) {
+        String path = absolutePath;
+        if (File.separatorChar != '/') {
+            path = path.replace(File.separatorChar, '/');
+        }
+        if (!path.startsWith("/")) {
+            path = "/" + path;
+        }
+        if (directory && !path.endsWith("/")) {
+            path = path + "/";
+        }
+        if (path.startsWith("//")) {
+            path = "//" + path;
+        }
+        try {
+            return new URI("file", null, path, null);
+        } catch (URISyntaxException e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
     }
 
     private void storeMissingProperty(String propertyPath, TarArchiveOutputStream tarOutput) throws IOException {
@@ -237,7 +302,10 @@ public class TarTaskOutputPacker implements TaskOutputPacker {
     public UnpackResult unpack(final SortedSet<ResolvedTaskOutputFilePropertySpec> propertySpecs, final InputStream input, final TaskOutputOriginReader readOrigin) throws IOException {
         TarArchiveInputStream tarInput = new TarArchiveInputStream(input);
         try {
-            return unpack(propertySpecs, tarInput, readOrigin);
+            UnpackResult result = unpack(propertySpecs, tarInput, readOrigin);
+            // Read the input to the end, so that the checksums in the trailer of a compressed entry are verified
+            ByteStreams.copy(input, ByteStreams.nullOutputStream());
+            return result;
         } finally {
             IOUtils.closeQuietly(tarInput);
         }
@@ -252,42 +320,48 @@ public class TarTaskOutputPacker implements TaskOutputPacker {
         });
         TarArchiveEntry tarEntry;
         TaskOutputOriginMetadata originMetadata = null;
-        ImmutableListMultimap.Builder<String, FileSnapshot> propertyFileSnapshots = ImmutableListMultimap.builder();
+        OutputWriter outputWriter = unpackExecutor != null && unpackExecutor.getThreads() > 1
+            ? new ParallelOutputWriter(unpackExecutor)
+            : new SequentialOutputWriter();
 
-        long entries = 0;
-        while ((tarEntry = tarInput.getNextTarEntry()) != null) {
-            ++entries;
-            String name = tarEntry.getName();
+        try {
+            long entries = 0;
+            while ((tarEntry = tarInput.getNextTarEntry()) != null) {
+                ++entries;
+                String name = tarEntry.getName();
+
+                if (name.equals(METADATA_PATH)) {
+                    // handle origin metadata
+                    originMetadata = readOriginAction.execute(new CloseShieldInputStream(tarInput));
+                } else {
+                    // handle output property
+                    Matcher matcher = PROPERTY_PATH.matcher(name);
+                    if (!matcher.matches()) {
+                        throw new IllegalStateException("Cached result format error, invalid contents: " + name);
+                    }
 
-            if (name.equals(METADATA_PATH)) {
-                // handle origin metadata
-                originMetadata = readOriginAction.execute(new CloseShieldInputStream(tarInput));
-            } else {
-                // handle output property
-                Matcher matcher = PROPERTY_PATH.matcher(name);
-                if (!matcher.matches()) {
-                    throw new IllegalStateException("Cached result format error, invalid contents: " + name);
-                }
+                    String propertyName = matcher.group(2);
+                    ResolvedTaskOutputFilePropertySpec propertySpec = propertySpecsMap.get(propertyName);
+                    if (propertySpec == null) {
+                        throw new IllegalStateException(String.format("No output property '%s' registered", propertyName));
+                    }
 
-                String propertyName = matcher.group(2);
-                ResolvedTaskOutputFilePropertySpec propertySpec = propertySpecsMap.get(propertyName);
-                if (propertySpec == null) {
-                    throw new IllegalStateException(String.format("No output property '%s' registered", propertyName));
+                    boolean outputMissing = matcher.group(1) != null;
+                    String childPath = matcher.group(3);
+                    unpackPropertyEntry(propertySpec, tarInput, tarEntry, childPath, outputMissing, outputWriter);
                 }
-
-                boolean outputMissing = matcher.group(1) != null;
-                String childPath = matcher.group(3);
-                unpackPropertyEntry(propertySpec, tarInput, tarEntry, childPath, outputMissing, propertyFileSnapshots);
             }
-        }
-        if (originMetadata == null) {
-            throw new IllegalStateException("Cached result format error, no origin metadata was found.");
-        }
+            if (originMetadata == null) {
+                throw new IllegalStateException("Cached result format error, no origin metadata was found.");
+            }
 
-        return new UnpackResult(originMetadata, entries, propertyFileSnapshots.build());
+            return new UnpackResult(originMetadata, entries, outputWriter.finish());
+        } finally {
+            outputWriter.stop();
+        }
     }
 
-    private void unpackPropertyEntry(ResolvedTaskOutputFilePropertySpec propertySpec, InputStream input, TarArchiveEntry entry, String childPath, boolean missing, ImmutableMultimap.Builder<String, FileSnapshot> fileSnapshots) throws IOException {
+    private void unpackPropertyEntry(ResolvedTaskOutputFilePropertySpec propertySpec, InputStream input, TarArchiveEntry entry, String childPath, boolean missing, OutputWriter outputWriter) throws IOException {
         File propertyRoot = propertySpec.getOutputFile();
         String propertyName = propertySpec.getPropertyName();
         if (propertyRoot == null) {
@@ -327,21 +401,175 @@ public class TarTaskOutputPacker implements TaskOutputPacker {
 
         String internedPath = stringInterner.intern(outputFile.getAbsolutePath());
         RelativePath relativePath = root ? RelativePath.parse(!isDirEntry, outputFile.getName()) : RelativePath.parse(!isDirEntry, childPath);
+        int mode = entry.getMode() & FILE_PERMISSION_MASK;
         if (isDirEntry) {
             FileUtils.forceMkdir(outputFile);
-            fileSnapshots.put(propertyName, new DirectoryFileSnapshot(internedPath, relativePath, root));
+            fileSystem.chmod(outputFile, mode);
+            outputWriter.directory(propertyName, new DirectoryFileSnapshot(internedPath, relativePath, root));
         } else {
-            OutputStream output = new FileOutputStream(outputFile);
-            HashCode hash;
+            outputWriter.file(new UnpackedFile(propertyName, outputFile, internedPath, relativePath, root, mode), input, entry.getSize());
+        }
+    }
+
+    private FileSnapshot writeFile(UnpackedFile file, InputStream input) throws IOException {
+        File outputFile = file.outputFile;
+        OutputStream output = new FileOutputStream(outputFile);
+        HashCode hash;
+        try {
+            hash = fileHasher.hashCopy(input, output);
+        } finally {
+            IOUtils.closeQuietly(output);
+        }
+        FileHashSnapshot contentSnapshot = new FileHashSnapshot(hash, outputFile.lastModified());
+        fileSystem.chmod(outputFile, file.mode);
+        return new RegularFileSnapshot(file.internedPath, file.relativePath, file.root, contentSnapshot);
+    }
+
+    private static class UnpackedFile {
+        private final String propertyName;
+        private final File outputFile;
+        private final String internedPath;
+        private final RelativePath relativePath;
+        private final boolean root;
+        private final int mode;
+        private FileSnapshot snapshot;
+
+        UnpackedFile(String propertyName, File outputFile, String internedPath, RelativePath relativePath, boolean root, int mode) {
+            this.propertyName = propertyName;
+            this.outputFile = outputFile;
+            this.internedPath = internedPath;
+            this.relativePath = relativePath;
+            this.root = root;
+            this.mode = mode;
+        }
+
+        UnpackedFile(String propertyName, FileSnapshot snapshot) {
+            this(propertyName, null, null, null, false, 0);
+            this.snapshot = snapshot;
+        }
+    }
+
+    /**
+     * Writes the unpacked files and collects their snapshots in the order of the archive.
+     */
+    private interface OutputWriter {
+        void directory(String propertyName, FileSnapshot snapshot);
+
+        void file(UnpackedFile file, InputStream input, long size) throws IOException;
+
+        ImmutableListMultimap<String, FileSnapshot> finish() throws IOException;
+
+        void stop();
+    }
+
+    private class SequentialOutputWriter implements OutputWriter {
+        private final ImmutableListMultimap.Builder<String, FileSnapshot> snapshots = ImmutableListMultimap.builder();
+
+        @Override
+        public void directory(String propertyName, FileSnapshot snapshot) {
+            snapshots.put(propertyName, snapshot);
+        }
+
+        @Override
+        public void file(UnpackedFile file, InputStream input, long size) throws IOException {
+            snapshots.put(file.propertyName, writeFile(file, input));
+        }
+
+        @Override
+        public ImmutableListMultimap<String, FileSnapshot> finish() {
+            return snapshots.build();
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+
+    /**
+     * Buffers small files and hands them to the shared unpack executor, so that reading the archive overlaps with writing
+     * and hashing the files. The number of buffered files is bounded, which slows the reading thread down to the rate the
+     * files are written at. Directories are still created by the reading thread, which sees them before any of their children.
+     */
+    private class ParallelOutputWriter implements OutputWriter {
+        private final List<UnpackedFile> unpackedFiles = Lists.newArrayList();
+        private final Executor executor;
+        private final int maxQueuedFiles;
+        private final Semaphore queuedFiles;
+        private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        private boolean stopped;
+
+        ParallelOutputWriter(TaskOutputUnpackExecutor unpackExecutor) {
+            this.executor = unpackExecutor.getExecutor();
+            this.maxQueuedFiles = unpackExecutor.getThreads() * QUEUED_FILES_PER_THREAD;
+            this.queuedFiles = new Semaphore(maxQueuedFiles);
+        }
+
+        @Override
+        public void directory(String propertyName, FileSnapshot snapshot) {
+            unpackedFiles.add(new UnpackedFile(propertyName, snapshot));
+        }
+
+        @Override
+        public void file(final UnpackedFile file, InputStream input, long size) throws IOException {
+            rethrowFailure();
+            unpackedFiles.add(file);
+            if (size > MAX_QUEUED_FILE_SIZE) {
+                file.snapshot = writeFile(file, input);
+                return;
+            }
+            final byte[] content = new byte[(int) size];
+            IOUtils.readFully(input, content);
             try {
-                hash = fileHasher.hashCopy(input, output);
-            } finally {
-                IOUtils.closeQuietly(output);
+                queuedFiles.acquire();
+            } catch (InterruptedException e) {
+                throw UncheckedException.throwAsUncheckedException(e);
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (failure.get() == null) {
+                            file.snapshot = writeFile(file, new ByteArrayInputStream(content));
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        queuedFiles.release();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public ImmutableListMultimap<String, FileSnapshot> finish() throws IOException {
+            stop();
+            rethrowFailure();
+            ImmutableListMultimap.Builder<String, FileSnapshot> snapshots = ImmutableListMultimap.builder();
+            for (UnpackedFile file : unpackedFiles) {
+                snapshots.put(file.propertyName, file.snapshot);
+            }
+            return snapshots.build();
+        }
+
+        @Override
+        public void stop() {
+            if (stopped) {
+                return;
             }
-            FileHashSnapshot contentSnapshot = new FileHashSnapshot(hash, outputFile.lastModified());
-            fileSnapshots.put(propertyName, new RegularFileSnapshot(internedPath, relativePath, root, contentSnapshot));
+            stopped = true;
+            // Waits for the queued files to be written, the snapshots are safe to read afterwards
+            queuedFiles.acquireUninterruptibly(maxQueuedFiles);
+            queuedFiles.release(maxQueuedFiles);
         }
 
-        fileSystem.chmod(outputFile, entry.getMode() & FILE_PERMISSION_MASK);
+        private void rethrowFailure() throws IOException {
+            Throwable throwable = failure.get();
+            if (throwable instanceof IOException) {
+                throw (IOException) throwable;
+            }
+            if (throwable != null) {
+                throw UncheckedException.throwAsUncheckedException(throwable);
+            }
+        }
     }
 }
@@ -43,8 +43,12 @@ import org.gradle.api.logging.Logging;
 import org.gradle.caching.BuildCacheKey;
 import org.gradle.caching.internal.controller.BuildCacheLoadCommand;
 import org.gradle.caching.internal.controller.BuildCacheStoreCommand;
+import org.gradle.caching.internal.controller.ContentAddressedBuildCacheLoadCommand;
+import org.gradle.caching.internal.controller.ContentAddressedBuildCacheStoreCommand;
 import org.gradle.caching.internal.tasks.origin.TaskOutputOriginFactory;
 import org.gradle.caching.internal.tasks.origin.TaskOutputOriginMetadata;
+import org.gradle.caching.local.internal.ContentAddressedLocalBuildCache.BlobSink;
+import org.gradle.caching.local.internal.ContentAddressedLocalBuildCache.BlobSource;
 import org.gradle.internal.file.FileType;
 import org.gradle.internal.time.Timer;
 
@@ -70,12 +74,14 @@ public class TaskOutputCacheCommandFactory {
     };
 
     private final TaskOutputPacker packer;
+    private final ManifestTaskOutputPacker manifestPacker;
     private final TaskOutputOriginFactory taskOutputOriginFactory;
     private final FileSystemMirror fileSystemMirror;
     private final StringInterner stringInterner;
 
-    public TaskOutputCacheCommandFactory(TaskOutputPacker packer, TaskOutputOriginFactory taskOutputOriginFactory, FileSystemMirror fileSystemMirror, StringInterner stringInterner) {
+    public TaskOutputCacheCommandFactory(TaskOutputPacker packer, ManifestTaskOutputPacker manifestPacker, TaskOutputOriginFactory taskOutputOriginFactory, FileSystemMirror fileSystemMirror, StringInterner stringInterner) {
         this.packer = packer;
+        this.manifestPacker = manifestPacker;
         this.taskOutputOriginFactory = taskOutputOriginFactory;
         this.fileSystemMirror = fileSystemMirror;
         this.stringInterner = stringInterner;
@@ -89,7 +95,11 @@ public class TaskOutputCacheCommandFactory {
         return new StoreCommand(cacheKey, outputProperties, outputSnapshots, task, clock);
     }
 
-    private class LoadCommand implements BuildCacheLoadCommand<TaskOutputOriginMetadata> {
+    private interface Unpacker {
+        TaskOutputPacker.UnpackResult unpack() throws IOException;
+    }
+
+    private class LoadCommand implements ContentAddressedBuildCacheLoadCommand<TaskOutputOriginMetadata> {
 
         private final TaskOutputCachingBuildCacheKey cacheKey;
         private final SortedSet<ResolvedTaskOutputFilePropertySpec> outputProperties;
@@ -113,11 +123,30 @@ public class TaskOutputCacheCommandFactory {
         }
 
         @Override
-        public BuildCacheLoadCommand.Result<TaskOutputOriginMetadata> load(InputStream input) throws IOException {
-            taskOutputsGenerationListener.beforeTaskOutputsGenerated();
+        public BuildCacheLoadCommand.Result<TaskOutputOriginMetadata> load(final InputStream input) throws IOException {
+            return load(new Unpacker() {
+                @Override
+                public TaskOutputPacker.UnpackResult unpack() throws IOException {
+                    return packer.unpack(outputProperties, input, taskOutputOriginFactory.createReader(task));
+                }
+            });
+        }
+
+        @Override
+        public BuildCacheLoadCommand.Result<TaskOutputOriginMetadata> loadManifest(final InputStream manifest, final BlobSource blobs) throws IOException {
+            return load(new Unpacker() {
+                @Override
+                public TaskOutputPacker.UnpackResult unpack() throws IOException {
+                    return manifestPacker.unpack(outputProperties, manifest, blobs, taskOutputOriginFactory.createReader(task));
+                }
+            });
+        }
+
+        private BuildCacheLoadCommand.Result<TaskOutputOriginMetadata> load(Unpacker unpacker) {
+            taskOutputsGenerationListener.beforeTaskOutputsGenerated(task);
             final TaskOutputPacker.UnpackResult unpackResult;
             try {
-                unpackResult = packer.unpack(outputProperties, input, taskOutputOriginFactory.createReader(task));
+                unpackResult = unpacker.unpack();
                 updateSnapshots(unpackResult.getSnapshots());
             } catch (Exception e) {
                 LOGGER.warn("Cleaning outputs for {} after failed load from cache.", task);
@@ -207,7 +236,7 @@ public class TaskOutputCacheCommandFactory {
         return stringInterner.intern(outputFile.getAbsolutePath());
     }
 
-    private class StoreCommand implements BuildCacheStoreCommand {
+    private class StoreCommand implements ContentAddressedBuildCacheStoreCommand {
 
         private final TaskOutputCachingBuildCacheKey cacheKey;
         private final SortedSet<ResolvedTaskOutputFilePropertySpec> outputProperties;
@@ -232,6 +261,17 @@ public class TaskOutputCacheCommandFactory {
         public BuildCacheStoreCommand.Result store(OutputStream output) throws IOException {
             LOGGER.info("Packing {}", task);
             final TaskOutputPacker.PackResult packResult = packer.pack(outputProperties, outputSnapshots, output, taskOutputOriginFactory.createWriter(task, clock.getElapsedMillis()));
+            return toResult(packResult);
+        }
+
+        @Override
+        public BuildCacheStoreCommand.Result storeManifest(OutputStream manifest, BlobSink blobs) throws IOException {
+            LOGGER.info("Packing {}", task);
+            final TaskOutputPacker.PackResult packResult = manifestPacker.pack(outputProperties, outputSnapshots, manifest, blobs, taskOutputOriginFactory.createWriter(task, clock.getElapsedMillis()));
+            return toResult(packResult);
+        }
+
+        private BuildCacheStoreCommand.Result toResult(final TaskOutputPacker.PackResult packResult) {
             return new BuildCacheStoreCommand.Result() {
                 @Override
                 public long getArtifactEntryCount() {
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.tasks;
+
+import org.gradle.internal.concurrent.ExecutorFactory;
+import org.gradle.internal.concurrent.ManagedExecutor;
+import org.gradle.internal.concurrent.Stoppable;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The threads that write the files of unpacked build cache entries. They are shared by all entries unpacked during a build,
+ * and are only started once an entry is unpacked.
+ */
+public class TaskOutputUnpackExecutor implements Stoppable {
+    private final ExecutorFactory executorFactory;
+    private final int threads;
+    private ManagedExecutor executor;
+
+    public TaskOutputUnpackExecutor(ExecutorFactory executorFactory, int threads) {
+        this.executorFactory = executorFactory;
+        this.threads = threads;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public synchronized Executor getExecutor() {
+        if (executor == null) {
+            executor = executorFactory.create("Unpack build cache entries", threads);
+        }
+        return executor;
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.stop();
+            executor = null;
+        }
+    }
+}
@@ -18,12 +18,12 @@ package org.gradle.execution.taskgraph;
 
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
-import com.google.common.base.StandardSystemProperty;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.primitives.Longs;
 import org.gradle.api.Action;
 import org.gradle.api.BuildCancelledException;
 import org.gradle.api.CircularReferenceException;
@@ -37,6 +37,9 @@ import org.gradle.api.internal.project.ProjectInternal;
 import org.gradle.api.internal.tasks.CachingTaskDependencyResolveContext;
 import org.gradle.api.internal.tasks.TaskContainerInternal;
 import org.gradle.api.internal.tasks.TaskDestroyablesInternal;
+import org.gradle.api.internal.tasks.TaskExecutionOutcome;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
 import org.gradle.api.specs.Spec;
 import org.gradle.api.specs.Specs;
 import org.gradle.execution.MultipleBuildFailures;
@@ -44,6 +47,7 @@ import org.gradle.execution.TaskFailureHandler;
 import org.gradle.initialization.BuildCancellationToken;
 import org.gradle.internal.Pair;
 import org.gradle.internal.UncheckedException;
+import org.gradle.internal.file.FileHierarchyIndex;
 import org.gradle.internal.graph.CachingDirectedGraphWalker;
 import org.gradle.internal.graph.DirectedGraph;
 import org.gradle.internal.graph.DirectedGraphRenderer;
@@ -53,11 +57,12 @@ import org.gradle.internal.resources.ResourceDeadlockException;
 import org.gradle.internal.resources.ResourceLock;
 import org.gradle.internal.resources.ResourceLockCoordinationService;
 import org.gradle.internal.resources.ResourceLockState;
+import org.gradle.internal.time.Timer;
+import org.gradle.internal.time.Timers;
 import org.gradle.internal.work.WorkerLeaseRegistry.WorkerLease;
 import org.gradle.internal.work.WorkerLeaseService;
 import org.gradle.util.CollectionUtils;
 import org.gradle.util.Path;
-import org.gradle.util.TextUtil;
 
 import javax.annotation.Nullable;
 import java.io.File;
@@ -67,6 +72,7 @@ import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -78,35 +84,62 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.gradle.internal.resources.DefaultResourceLockCoordinationService.unlock;
 import static org.gradle.internal.resources.ResourceLockState.Disposition.*;
+import static org.gradle.internal.time.DefaultEventTimer.prettyTime;
 
 /**
  * A reusable implementation of TaskExecutionPlan. The {@link #addToTaskGraph(java.util.Collection)} and {@link #clear()} methods are NOT threadsafe, and callers must synchronize access to these
  * methods.
  */
 public class DefaultTaskExecutionPlan implements TaskExecutionPlan {
+    private static final Logger LOGGER = Logging.getLogger(DefaultTaskExecutionPlan.class);
+
     private final Set<TaskInfo> tasksInUnknownState = new LinkedHashSet<TaskInfo>();
     private final Set<TaskInfo> entryTasks = new LinkedHashSet<TaskInfo>();
     private final TaskInfoFactory nodeFactory = new TaskInfoFactory();
     private final LinkedHashMap<Task, TaskInfo> executionPlan = new LinkedHashMap<Task, TaskInfo>();
-    private final List<TaskInfo> executionQueue = new LinkedList<TaskInfo>();
+    private final Set<TaskInfo> executionQueue = new LinkedHashSet<TaskInfo>();
+    private final Map<TaskInfo, Integer> executionOrder = Maps.newIdentityHashMap();
+    private final Map<TaskInfo, Long> criticalPathWeights = Maps.newIdentityHashMap();
+    private final TreeSet<TaskInfo> readyQueue = new TreeSet<TaskInfo>(new Comparator<TaskInfo>() {
+        @Override
+        public int compare(TaskInfo first, TaskInfo second) {
+            if (durationHistory != null) {
+                int byWeight = Longs.compare(criticalPathWeights.get(second), criticalPathWeights.get(first));
+                if (byWeight != 0) {
+                    return byWeight;
+                }
+            }
+            return executionOrder.get(first) - executionOrder.get(second);
+        }
+    });
+    private final Map<TaskInfo, Timer> runningTaskTimers = Maps.newIdentityHashMap();
+    private final Map<TaskInfo, Long> taskDurations = Maps.newIdentityHashMap();
     private final Map<Project, ResourceLock> projectLocks = Maps.newHashMap();
     private final List<Throwable> failures = new ArrayList<Throwable>();
     private Spec<? super Task> filter = Specs.satisfyAll();
 
     private TaskFailureHandler failureHandler = new RethrowingFailureHandler();
+    private TaskDurationHistory durationHistory;
 
     private final BuildCancellationToken cancellationToken;
     private final Set<TaskInfo> runningTasks = Sets.newIdentityHashSet();
     private final Set<Task> filteredTasks = Sets.newIdentityHashSet();
     private final Map<TaskInfo, TaskMutationInfo> taskMutations = Maps.newIdentityHashMap();
+    private final FileHierarchyIndex<TaskInfo> runningTaskMutations = new FileHierarchyIndex<TaskInfo>();
+    private final FileHierarchyIndex<TaskInfo> consumedTaskOutputs = new FileHierarchyIndex<TaskInfo>();
     private final Map<File, String> canonicalizedFileCache = Maps.newIdentityHashMap();
+    // Statistics about task selection, guarded by the state lock
+    private long taskSelections;
+    private long candidateTasksExamined;
+    private long selectionLockHeldNanos;
+    private long maxSelectionLockHeldNanos;
     private final Map<Pair<TaskInfo, TaskInfo>, Boolean> reachableCache = Maps.newHashMap();
-    private final Set<TaskInfo> dependenciesCompleteCache = Sets.newHashSet();
     private final ResourceLockCoordinationService coordinationService;
     private final WorkerLeaseService workerLeaseService;
     private final GradleInternal gradle;
@@ -355,7 +388,104 @@ public class DefaultTaskExecutionPlan implements TaskExecutionPlan {
         }
         executionQueue.clear();
         executionQueue.addAll(executionPlan.values());
+        executionOrder.clear();
+        for (TaskInfo taskInfo : executionQueue) {
+            executionOrder.put(taskInfo, executionOrder.size());
+        }
+        if (durationHistory != null) {
+            calculateCriticalPathWeights();
+        }
+        rebuildReadyQueue();
+    }
+
+    /**
+     * Weights each task by the longest chain of previous task durations from the task to the end of the graph. Dependents come after their dependencies
+     * in the execution plan, so walking the plan backwards visits every dependent of a task before the task itself.
+     */
+    private void calculateCriticalPathWeights() {
+        criticalPathWeights.clear();
+        List<TaskInfo> tasks = Lists.newArrayList(executionPlan.values());
+        for (TaskInfo taskInfo : Lists.reverse(tasks)) {
+            long longestDependentPath = 0;
+            for (TaskInfo dependent : Iterables.concat(taskInfo.getDependencyPredecessors(), taskInfo.getMustPredecessors())) {
+                Long dependentWeight = criticalPathWeights.get(dependent);
+                if (dependentWeight != null) {
+                    longestDependentPath = Math.max(longestDependentPath, dependentWeight);
+                }
+            }
+            Long previousDuration = durationHistory.getPreviousDuration(taskInfo.getTask());
+            criticalPathWeights.put(taskInfo, longestDependentPath + (previousDuration == null ? 0 : previousDuration));
+        }
+    }
+
+    /**
+     * Logs the critical path predicted from the previous task durations and the critical path of the tasks that have been executed.
+     */
+    public void reportCriticalPath() {
+        if (durationHistory == null || executionPlan.isEmpty()) {
+            return;
+        }
+        long predicted = 0;
+        for (Long weight : criticalPathWeights.values()) {
+            predicted = Math.max(predicted, weight);
+        }
+
+        Map<TaskInfo, Long> actualPaths = Maps.newIdentityHashMap();
+        Map<TaskInfo, TaskInfo> actualPathPredecessors = Maps.newIdentityHashMap();
+        TaskInfo actualPathEnd = null;
+        long actual = -1;
+        for (TaskInfo taskInfo : executionPlan.values()) {
+            long longestDependencyPath = 0;
+            for (TaskInfo dependency : Iterables.concat(taskInfo.getDependencySuccessors(), taskInfo.getMustSuccessors())) {
+                Long dependencyPath = actualPaths.get(dependency);
+                if (dependencyPath != null && dependencyPath > longestDependencyPath) {
+                    longestDependencyPath = dependencyPath;
+                    actualPathPredecessors.put(taskInfo, dependency);
+                }
+            }
+            Long duration = taskDurations.get(taskInfo);
+            long path = longestDependencyPath + (duration == null ? 0 : duration);
+            actualPaths.put(taskInfo, path);
+            if (path > actual) {
+                actual = path;
+                actualPathEnd = taskInfo;
+            }
+        }
+
+        LOGGER.lifecycle("Critical path: predicted {}, actual {}", prettyTime(predicted), prettyTime(actual));
+        if (LOGGER.isInfoEnabled()) {
+            LinkedList<Task> actualPath = new LinkedList<Task>();
+            for (TaskInfo taskInfo = actualPathEnd; taskInfo != null; taskInfo = actualPathPredecessors.get(taskInfo)) {
+                actualPath.addFirst(taskInfo.getTask());
+            }
+            LOGGER.info("Actual critical path: {}", actualPath);
+        }
+    }
+
+    /**
+     * Recomputes the set of ready tasks from scratch. Only required when the states of many tasks change at once, tasks becoming ready as their dependencies
+     * complete are picked up by {@link #enqueueReadyDependents(TaskInfo)}.
+     */
+    private void rebuildReadyQueue() {
+        readyQueue.clear();
+        for (TaskInfo taskInfo : executionQueue) {
+            maybeEnqueueReady(taskInfo);
+        }
+    }
 
+    private void enqueueReadyDependents(TaskInfo taskInfo) {
+        for (TaskInfo dependent : taskInfo.getDependencyPredecessors()) {
+            maybeEnqueueReady(dependent);
+        }
+        for (TaskInfo dependent : taskInfo.getMustPredecessors()) {
+            maybeEnqueueReady(dependent);
+        }
+    }
+
+    private void maybeEnqueueReady(TaskInfo taskInfo) {
+        if (executionQueue.contains(taskInfo) && taskInfo.isReady() && taskInfo.allDependenciesComplete()) {
+            readyQueue.add(taskInfo);
+        }
     }
 
     private TaskMutationInfo getOrCreateMutationsOf(TaskInfo taskInfo) {
@@ -512,10 +642,17 @@ public class DefaultTaskExecutionPlan implements TaskExecutionPlan {
                 projectLocks.clear();
                 failures.clear();
                 taskMutations.clear();
+                runningTaskMutations.clear();
+                consumedTaskOutputs.clear();
                 canonicalizedFileCache.clear();
                 reachableCache.clear();
-                dependenciesCompleteCache.clear();
+                executionOrder.clear();
+                criticalPathWeights.clear();
+                readyQueue.clear();
+                runningTaskTimers.clear();
+                taskDurations.clear();
                 runningTasks.clear();
+                reportSelectionStatistics();
                 return FINISHED;
             }
         });
@@ -538,6 +675,14 @@ public class DefaultTaskExecutionPlan implements TaskExecutionPlan {
         this.failureHandler = handler;
     }
 
+    /**
+     * Prioritizes ready tasks by the longest chain of dependent tasks, using the durations of previous executions. Durations of executed tasks are recorded
+     * to the given history.
+     */
+    public void useCriticalPathPrioritization(TaskDurationHistory durationHistory) {
+        this.durationHistory = durationHistory;
+    }
+
     @Override
     public boolean executeWithTask(final WorkerLease workerLease, final Action<TaskInfo> taskExecution) {
         final AtomicReference<TaskInfo> selected = new AtomicReference<TaskInfo>();
@@ -545,32 +690,11 @@ public class DefaultTaskExecutionPlan implements TaskExecutionPlan {
         coordinationService.withStateLock(new Transformer<ResourceLockState.Disposition, ResourceLockState>() {
             @Override
             public ResourceLockState.Disposition transform(ResourceLockState resourceLockState) {
-                if (cancellationToken.isCancellationRequested()) {
-                    if (abortExecution()) {
-                        tasksCancelled = true;
-                    }
-                }
-
-                workRemaining.set(workRemaining());
-                if (!workRemaining.get()) {
-                    return FINISHED;
-                }
-
-                if (allProjectsLocked()) {
-                    return RETRY;
-                }
-
+                long start = System.nanoTime();
                 try {
-                    selected.set(selectNextTask(workerLease));
-                } catch (Throwable t) {
-                    abortAllAndFail(t);
-                    workRemaining.set(false);
-                }
-
-                if (selected.get() == null && workRemaining.get()) {
-                    return RETRY;
-                } else {
-                    return FINISHED;
+                    return selectTaskWithStateLock(workerLease, selected, workRemaining);
+                } finally {
+                    recordSelectionLockHeld(System.nanoTime() - start);
                 }
             }
         });
@@ -581,12 +705,85 @@ public class DefaultTaskExecutionPlan implements TaskExecutionPlan {
         return workRemaining.get();
     }
 
+    private ResourceLockState.Disposition selectTaskWithStateLock(WorkerLease workerLease, AtomicReference<TaskInfo> selected, AtomicBoolean workRemaining) {
+        if (cancellationToken.isCancellationRequested()) {
+            if (abortExecution()) {
+                tasksCancelled = true;
+            }
+        }
+
+        workRemaining.set(workRemaining());
+        if (!workRemaining.get()) {
+            return FINISHED;
+        }
+
+        if (allProjectsLocked()) {
+            return RETRY;
+        }
+
+        try {
+            selected.set(selectNextTask(workerLease));
+        } catch (Throwable t) {
+            abortAllAndFail(t);
+            workRemaining.set(false);
+        }
+
+        if (selected.get() == null && workRemaining.get()) {
+            return RETRY;
+        } else {
+            return FINISHED;
+        }
+    }
+
+    private void recordSelectionLockHeld(long nanos) {
+        taskSelections++;
+        selectionLockHeldNanos += nanos;
+        maxSelectionLockHeldNanos = Math.max(maxSelectionLockHeldNanos, nanos);
+    }
+
+    private void reportSelectionStatistics() {
+        if (taskSelections > 0) {
+            LOGGER.info("Task selection held the execution plan state lock for {} in {} attempts (longest {}), examining {} candidate tasks.",
+                prettyTime(TimeUnit.NANOSECONDS.toMillis(selectionLockHeldNanos)), taskSelections, prettyTime(TimeUnit.NANOSECONDS.toMillis(maxSelectionLockHeldNanos)), candidateTasksExamined);
+        }
+        taskSelections = 0;
+        candidateTasksExamined = 0;
+        selectionLockHeldNanos = 0;
+        maxSelectionLockHeldNanos = 0;
+    }
+
+    /**
+     * The number of tasks looked at while selecting tasks to execute, since this plan was last cleared.
+     */
+    long getCandidateTasksExamined() {
+        return candidateTasksExamined;
+    }
+
+    /**
+     * The number of times a worker has taken the state lock to select a task to execute, since this plan was last cleared.
+     */
+    long getTaskSelections() {
+        return taskSelections;
+    }
+
+    /**
+     * The total time the state lock was held while selecting tasks to execute, since this plan was last cleared.
+     */
+    long getSelectionLockHeldNanos() {
+        return selectionLockHeldNanos;
+    }
+
     private TaskInfo selectNextTask(final WorkerLease workerLease) {
         final AtomicReference<TaskInfo> selected = new AtomicReference<TaskInfo>();
-        final Iterator<TaskInfo> iterator = executionQueue.iterator();
+        final Iterator<TaskInfo> iterator = readyQueue.iterator();
         while (iterator.hasNext()) {
             final TaskInfo taskInfo = iterator.next();
-            if (taskInfo.isReady() && allDependenciesComplete(taskInfo)) {
+            candidateTasksExamined++;
+            if (!taskInfo.isReady() || !taskInfo.allDependenciesComplete()) {
+                // The task has been skipped or a finalizer has enforced one of its dependencies since it was queued.
+                // It is queued again once its dependencies complete.
+                iterator.remove();
+            } else {
                 coordinationService.withStateLock(new Transformer<ResourceLockState.Disposition, ResourceLockState>() {
                     @Override
                     public ResourceLockState.Disposition transform(ResourceLockState resourceLockState) {
@@ -604,6 +801,7 @@ public class DefaultTaskExecutionPlan implements TaskExecutionPlan {
                             taskInfo.skipExecution();
                         }
                         iterator.remove();
+                        executionQueue.remove(taskInfo);
                         return FINISHED;
                     }
                 });
@@ -613,7 +811,12 @@ public class DefaultTaskExecutionPlan implements TaskExecutionPlan {
                 }
             }
         }
-        return selected.get();
+
+        TaskInfo selectedTask = selected.get();
+        if (selectedTask != null && selectedTask.isComplete()) {
+            enqueueReadyDependents(selectedTask);
+        }
+        return selectedTask;
     }
 
     private void execute(TaskInfo selectedTask, WorkerLease workerLease, Action<TaskInfo> taskExecution) {
@@ -629,19 +832,6 @@ public class DefaultTaskExecutionPlan implements TaskExecutionPlan {
         }
     }
 
-    private boolean allDependenciesComplete(TaskInfo taskInfo) {
-        if (dependenciesCompleteCache.contains(taskInfo)) {
-            return true;
-        }
-
-        boolean dependenciesComplete = taskInfo.allDependenciesComplete();
-        if (dependenciesComplete) {
-            dependenciesCompleteCache.add(taskInfo);
-        }
-
-        return dependenciesComplete;
-    }
-
     private boolean allProjectsLocked() {
         for (ResourceLock lock : projectLocks.values()) {
             if (!lock.isLocked()) {
@@ -711,34 +901,22 @@ public class DefaultTaskExecutionPlan implements TaskExecutionPlan {
 
     @Nullable
     private Pair<TaskInfo, String> firstRunningTaskWithOverlappingMutations(Set<String> candidateTaskMutations) {
-        if (!candidateTaskMutations.isEmpty()) {
-            for (TaskInfo runningTask : runningTasks) {
-                TaskMutationInfo taskMutationInfo = taskMutations.get(runningTask);
-                Iterable<String> runningTaskMutations = Iterables.concat(taskMutationInfo.outputPaths, taskMutationInfo.destroyablePaths);
-                String firstOverlap = findFirstOverlap(candidateTaskMutations, runningTaskMutations);
-                if (firstOverlap != null) {
-                    return Pair.of(runningTask, firstOverlap);
-                }
+        for (String candidateTaskMutation : candidateTaskMutations) {
+            TaskInfo runningTask = runningTaskMutations.findFirstOverlapping(candidateTaskMutation);
+            if (runningTask != null) {
+                return Pair.of(runningTask, candidateTaskMutation);
             }
         }
-
         return null;
     }
 
     @Nullable
     private Pair<TaskInfo, String> firstTaskWithDestroyedIntermediateInput(final TaskInfo taskInfo, Set<String> destroyablePaths) {
-        if (!destroyablePaths.isEmpty()) {
-            Iterator<TaskMutationInfo> iterator = taskMutations.values().iterator();
-            while (iterator.hasNext()) {
-                TaskMutationInfo taskMutationInfo = iterator.next();
-                if (taskMutationInfo.task.isComplete() && !taskMutationInfo.consumingTasks.isEmpty()) {
-                    String firstOverlap = findFirstOverlap(destroyablePaths, taskMutationInfo.outputPaths);
-                    if (firstOverlap != null) {
-                        for (TaskInfo consumingTask : taskMutationInfo.consumingTasks) {
-                            if (consumingTask != taskInfo && !isReachableFrom(consumingTask, taskInfo)) {
-                                return Pair.of(consumingTask, firstOverlap);
-                            }
-                        }
+        for (String destroyablePath : destroyablePaths) {
+            for (TaskInfo producerTask : consumedTaskOutputs.getOverlapping(destroyablePath)) {
+                for (TaskInfo consumingTask : taskMutations.get(producerTask).consumingTasks) {
+                    if (consumingTask != taskInfo && !isReachableFrom(consumingTask, taskInfo)) {
+                        return Pair.of(consumingTask, destroyablePath);
                     }
                 }
             }
@@ -768,18 +946,6 @@ public class DefaultTaskExecutionPlan implements TaskExecutionPlan {
         return reachable;
     }
 
-    private String findFirstOverlap(Iterable<String> paths1, Iterable<String> paths2) {
-        for (String path1 : paths1) {
-            for (String path2 : paths2) {
-                if (pathsOverlap(path1, path2)) {
-                    return TextUtil.shorterOf(path1, path2);
-                }
-            }
-        }
-
-        return null;
-    }
-
     private Set<String> getOutputPaths(TaskInfo task) {
         try {
             return canonicalizedPaths(canonicalizedFileCache, task.getTask().getOutputs().getFiles());
@@ -792,42 +958,46 @@ public class DefaultTaskExecutionPlan implements TaskExecutionPlan {
         return canonicalizedPaths(canonicalizedFileCache, ((TaskDestroyablesInternal)task.getTask().getDestroyables()).getFilesReadOnly());
     }
 
-    private boolean pathsOverlap(String firstPath, String secondPath) {
-        if (firstPath.equals(secondPath)) {
-            return true;
-        }
-
-        String shorter;
-        String longer;
-        if (firstPath.length() > secondPath.length()) {
-            shorter = secondPath;
-            longer = firstPath;
-        } else {
-            shorter = firstPath;
-            longer = secondPath;
-        }
-        return longer.startsWith(shorter + StandardSystemProperty.FILE_SEPARATOR.value());
-    }
-
     private void recordTaskStarted(TaskInfo taskInfo) {
         runningTasks.add(taskInfo);
+        if (durationHistory != null) {
+            runningTaskTimers.put(taskInfo, Timers.startTimer());
+        }
         TaskMutationInfo taskMutationInfo = taskMutations.get(taskInfo);
         taskMutationInfo.outputPaths.addAll(getOutputPaths(taskInfo));
         taskMutationInfo.destroyablePaths.addAll(getDestroyablePaths(taskInfo));
+        for (String path : Iterables.concat(taskMutationInfo.outputPaths, taskMutationInfo.destroyablePaths)) {
+            runningTaskMutations.put(path, taskInfo);
+        }
     }
 
     private void recordTaskCompleted(TaskInfo taskInfo) {
         runningTasks.remove(taskInfo);
         TaskMutationInfo taskMutationInfo = taskMutations.get(taskInfo);
+        for (String path : Iterables.concat(taskMutationInfo.outputPaths, taskMutationInfo.destroyablePaths)) {
+            runningTaskMutations.remove(path, taskInfo);
+        }
         for (TaskInfo producerTask : taskMutationInfo.consumesOutputOf) {
             TaskMutationInfo producerTaskMutationInfo = taskMutations.get(producerTask);
             if (producerTaskMutationInfo.consumingTasks.remove(taskInfo) && canRemoveTaskMutation(producerTaskMutationInfo)) {
-                taskMutations.remove(producerTask);
+                removeTaskMutation(producerTaskMutationInfo);
             }
         }
 
         if (canRemoveTaskMutation(taskMutationInfo)) {
-            taskMutations.remove(taskInfo);
+            removeTaskMutation(taskMutationInfo);
+        } else {
+            // The outputs of the task are now intermediate inputs of the tasks consuming them
+            for (String path : taskMutationInfo.outputPaths) {
+                consumedTaskOutputs.put(path, taskInfo);
+            }
+        }
+    }
+
+    private void removeTaskMutation(TaskMutationInfo taskMutationInfo) {
+        taskMutations.remove(taskMutationInfo.task);
+        for (String path : taskMutationInfo.outputPaths) {
+            consumedTaskOutputs.remove(path, taskMutationInfo.task);
         }
     }
 
@@ -836,6 +1006,7 @@ public class DefaultTaskExecutionPlan implements TaskExecutionPlan {
     }
 
     public void taskComplete(final TaskInfo taskInfo) {
+        final AtomicReference<Long> duration = new AtomicReference<Long>();
         coordinationService.withStateLock(new Transformer<ResourceLockState.Disposition, ResourceLockState>() {
             @Override
             public ResourceLockState.Disposition transform(ResourceLockState resourceLockState) {
@@ -846,9 +1017,27 @@ public class DefaultTaskExecutionPlan implements TaskExecutionPlan {
 
                 taskInfo.finishExecution();
                 recordTaskCompleted(taskInfo);
+                enqueueReadyDependents(taskInfo);
+                duration.set(recordTaskDuration(taskInfo));
                 return FINISHED;
             }
         });
+
+        // Only the durations of actual executions are useful to predict the critical path of future builds
+        if (duration.get() != null && taskInfo.getTask().getState().getOutcome() == TaskExecutionOutcome.EXECUTED) {
+            durationHistory.recordDuration(taskInfo.getTask(), duration.get());
+        }
+    }
+
+    @Nullable
+    private Long recordTaskDuration(TaskInfo taskInfo) {
+        Timer timer = runningTaskTimers.remove(taskInfo);
+        if (timer == null) {
+            return null;
+        }
+        long duration = timer.getElapsedMillis();
+        taskDurations.put(taskInfo, duration);
+        return duration;
     }
 
     private void enforceFinalizerTasks(TaskInfo taskInfo) {
@@ -872,6 +1061,7 @@ public class DefaultTaskExecutionPlan implements TaskExecutionPlan {
 
                 if (node.isMustNotRun() || node.isRequired()) {
                     node.enforceRun();
+                    maybeEnqueueReady(node);
                 }
             }
         }
@@ -921,6 +1111,9 @@ public class DefaultTaskExecutionPlan implements TaskExecutionPlan {
                 aborted = true;
             }
         }
+        if (aborted) {
+            rebuildReadyQueue();
+        }
         return aborted;
     }
 
@@ -91,6 +91,10 @@ public class DefaultTaskGraphExecuter implements TaskGraphExecuter {
         taskExecutionPlan.useFailureHandler(handler);
     }
 
+    public void useCriticalPathPrioritization(TaskDurationHistory durationHistory) {
+        taskExecutionPlan.useCriticalPathPrioritization(durationHistory);
+    }
+
     public void useFilter(Spec<? super Task> filter) {
         this.filter = (Spec<? super Task>) (filter != null ? filter : Specs.SATISFIES_ALL);
         taskExecutionPlan.useFilter(this.filter);
@@ -128,6 +132,7 @@ public class DefaultTaskGraphExecuter implements TaskGraphExecuter {
             taskPlanExecutor.process(taskExecutionPlan, new EventFiringTaskWorker(taskExecuter.create(), buildOperationExecutor.getCurrentOperation()));
             LOGGER.debug("Timing: Executing the DAG took " + clock.getElapsed());
         } finally {
+            taskExecutionPlan.reportCriticalPath();
             taskExecutionPlan.clear();
         }
     }
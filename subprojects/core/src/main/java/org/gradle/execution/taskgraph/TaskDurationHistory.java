@@ -0,0 +1,37 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.taskgraph;
+
+import org.gradle.api.Task;
+
+import javax.annotation.Nullable;
+
+/**
+ * Provides the durations of previous executions of tasks, used to prioritize tasks on the critical path of the task graph.
+ */
+public interface TaskDurationHistory {
+    /**
+     * Returns the duration in milliseconds of the last execution of the given task, or {@code null} when the task has not been executed before.
+     */
+    @Nullable
+    Long getPreviousDuration(Task task);
+
+    /**
+     * Records the duration of an execution of the given task.
+     */
+    void recordDuration(Task task, long durationMillis);
+}
@@ -40,7 +40,10 @@ public class FileWatcherEvent {
         return type;
     }
 
-    @Nullable // null if type == UNDEFINED
+    /**
+     * The file that changed. For {@link Type#UNDEFINED} events this is the directory in which events were lost, if known.
+     */
+    @Nullable // null if type == UNDEFINED and the affected directory is not known
     public File getFile() {
         return file;
     }
@@ -66,4 +69,8 @@ public class FileWatcherEvent {
         return new FileWatcherEvent(Type.UNDEFINED, null);
     }
 
+    public static FileWatcherEvent undefined(File dir) {
+        return new FileWatcherEvent(Type.UNDEFINED, dir);
+    }
+
 }
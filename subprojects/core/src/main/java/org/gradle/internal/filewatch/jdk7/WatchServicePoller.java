@@ -61,7 +61,7 @@ class WatchServicePoller {
                     WatchEvent<Path> ev = Cast.uncheckedCast(event);
                     file = watchedPath.resolve(ev.context()).toFile();
                 }
-                return toEvent(kind, file);
+                return toEvent(kind, file, watchedPath);
             }
         };
 
@@ -74,7 +74,7 @@ class WatchServicePoller {
         }
     }
 
-    private FileWatcherEvent toEvent(WatchEvent.Kind kind, File file) {
+    private FileWatcherEvent toEvent(WatchEvent.Kind kind, File file, Path watchedPath) {
         if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
             return FileWatcherEvent.create(file);
         } else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
@@ -82,7 +82,8 @@ class WatchServicePoller {
         } else if (kind == StandardWatchEventKinds.ENTRY_MODIFY) {
             return FileWatcherEvent.modify(file);
         } else if (kind == StandardWatchEventKinds.OVERFLOW) {
-            return FileWatcherEvent.undefined();
+            // Events for the watched directory have been lost
+            return FileWatcherEvent.undefined(watchedPath.toFile());
         } else {
             throw new IllegalStateException("Unknown watch kind " + kind);
         }
@@ -33,9 +33,13 @@ import org.gradle.api.internal.changedetection.state.DefaultFileSystemSnapshotte
 import org.gradle.api.internal.changedetection.state.DefaultGenericFileCollectionSnapshotter;
 import org.gradle.api.internal.changedetection.state.FileSystemMirror;
 import org.gradle.api.internal.changedetection.state.FileSystemSnapshotter;
+import org.gradle.api.internal.changedetection.state.FileSystemWatchingInvalidator;
+import org.gradle.api.internal.changedetection.state.FileSystemWatchingStatisticsReporter;
 import org.gradle.api.internal.changedetection.state.GenericFileCollectionSnapshotter;
 import org.gradle.api.internal.changedetection.state.InMemoryCacheDecoratorFactory;
+import org.gradle.api.internal.changedetection.state.ParallelDirectoryTreeWalker;
 import org.gradle.api.internal.changedetection.state.ResourceSnapshotterCacheService;
+import org.gradle.api.internal.changedetection.state.SharedClasspathSnapshots;
 import org.gradle.api.internal.changedetection.state.TaskHistoryStore;
 import org.gradle.api.internal.file.collections.DirectoryFileTreeFactory;
 import org.gradle.api.internal.project.BuildOperationCrossProjectConfigurator;
@@ -195,8 +199,16 @@ public class BuildSessionScopeServices extends DefaultServiceRegistry {
         return new DefaultScriptSourceHasher(fileHasher, contentHasherFactory);
     }
 
-    FileSystemSnapshotter createFileSystemSnapshotter(FileHasher hasher, StringInterner stringInterner, FileSystem fileSystem, DirectoryFileTreeFactory directoryFileTreeFactory, FileSystemMirror fileSystemMirror) {
-        return new DefaultFileSystemSnapshotter(hasher, stringInterner, fileSystem, directoryFileTreeFactory, fileSystemMirror);
+    FileSystemWatchingStatisticsReporter createFileSystemWatchingStatisticsReporter(FileSystemWatchingInvalidator invalidator, BuildOperationExecutor buildOperationExecutor, ListenerManager listenerManager) {
+        FileSystemWatchingStatisticsReporter reporter = new FileSystemWatchingStatisticsReporter(invalidator, buildOperationExecutor);
+        listenerManager.addListener(reporter);
+        return reporter;
+    }
+
+    FileSystemSnapshotter createFileSystemSnapshotter(FileHasher hasher, StringInterner stringInterner, FileSystem fileSystem, DirectoryFileTreeFactory directoryFileTreeFactory, FileSystemMirror fileSystemMirror, ParallelDirectoryTreeWalker parallelTreeWalker,
+                                                      @SuppressWarnings("unused") FileSystemWatchingStatisticsReporter fileSystemWatchingStatisticsReporter // required in order to init this
+    ) {
+        return new DefaultFileSystemSnapshotter(hasher, stringInterner, fileSystem, directoryFileTreeFactory, fileSystemMirror, parallelTreeWalker);
     }
 
     GenericFileCollectionSnapshotter createGenericFileCollectionSnapshotter(StringInterner stringInterner, DirectoryFileTreeFactory directoryFileTreeFactory, FileSystemSnapshotter fileSystemSnapshotter) {
@@ -208,12 +220,18 @@ public class BuildSessionScopeServices extends DefaultServiceRegistry {
         return new ResourceSnapshotterCacheService(resourceHashesCache);
     }
 
-    CompileClasspathSnapshotter createCompileClasspathSnapshotter(ResourceSnapshotterCacheService resourceSnapshotterCacheService, FileSystemSnapshotter fileSystemSnapshotter, DirectoryFileTreeFactory directoryFileTreeFactory, StringInterner stringInterner) {
-        return new DefaultCompileClasspathSnapshotter(resourceSnapshotterCacheService, directoryFileTreeFactory, fileSystemSnapshotter, stringInterner);
+    SharedClasspathSnapshots createSharedClasspathSnapshots(ListenerManager listenerManager) {
+        SharedClasspathSnapshots sharedSnapshots = SharedClasspathSnapshots.sizedByHeap();
+        listenerManager.addListener(sharedSnapshots);
+        return sharedSnapshots;
+    }
+
+    CompileClasspathSnapshotter createCompileClasspathSnapshotter(ResourceSnapshotterCacheService resourceSnapshotterCacheService, FileSystemSnapshotter fileSystemSnapshotter, DirectoryFileTreeFactory directoryFileTreeFactory, StringInterner stringInterner, SharedClasspathSnapshots sharedSnapshots) {
+        return new DefaultCompileClasspathSnapshotter(resourceSnapshotterCacheService, directoryFileTreeFactory, fileSystemSnapshotter, stringInterner, sharedSnapshots);
     }
 
-    protected ClasspathSnapshotter createClasspathSnapshotter(ResourceSnapshotterCacheService resourceSnapshotterCacheService, FileSystemSnapshotter fileSystemSnapshotter, DirectoryFileTreeFactory directoryFileTreeFactory, StringInterner stringInterner) {
-        return new DefaultClasspathSnapshotter(resourceSnapshotterCacheService, directoryFileTreeFactory, fileSystemSnapshotter, stringInterner);
+    protected ClasspathSnapshotter createClasspathSnapshotter(ResourceSnapshotterCacheService resourceSnapshotterCacheService, FileSystemSnapshotter fileSystemSnapshotter, DirectoryFileTreeFactory directoryFileTreeFactory, StringInterner stringInterner, SharedClasspathSnapshots sharedSnapshots) {
+        return new DefaultClasspathSnapshotter(resourceSnapshotterCacheService, directoryFileTreeFactory, fileSystemSnapshotter, stringInterner, sharedSnapshots);
     }
 
     ImmutableAttributesFactory createImmutableAttributesFactory() {
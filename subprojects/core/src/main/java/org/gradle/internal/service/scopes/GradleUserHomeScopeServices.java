@@ -30,9 +30,11 @@ import org.gradle.api.internal.changedetection.state.DefaultFileSystemSnapshotte
 import org.gradle.api.internal.changedetection.state.DefaultGenericFileCollectionSnapshotter;
 import org.gradle.api.internal.changedetection.state.FileSystemMirror;
 import org.gradle.api.internal.changedetection.state.FileSystemSnapshotter;
+import org.gradle.api.internal.changedetection.state.FileSystemWatchingInvalidator;
 import org.gradle.api.internal.changedetection.state.GenericFileCollectionSnapshotter;
 import org.gradle.api.internal.changedetection.state.GlobalScopeFileTimeStampInspector;
 import org.gradle.api.internal.changedetection.state.InMemoryCacheDecoratorFactory;
+import org.gradle.api.internal.changedetection.state.ParallelDirectoryTreeWalker;
 import org.gradle.api.internal.changedetection.state.ResourceSnapshotterCacheService;
 import org.gradle.api.internal.changedetection.state.TaskHistoryStore;
 import org.gradle.api.internal.changedetection.state.ValueSnapshotter;
@@ -63,6 +65,7 @@ import org.gradle.internal.classpath.CachedJarFileStore;
 import org.gradle.internal.classpath.DefaultCachedClasspathTransformer;
 import org.gradle.internal.event.ListenerManager;
 import org.gradle.internal.file.JarCache;
+import org.gradle.internal.filewatch.FileWatcherFactory;
 import org.gradle.internal.hash.DefaultFileHasher;
 import org.gradle.internal.hash.FileContentHasherFactory;
 import org.gradle.internal.hash.FileHasher;
@@ -71,6 +74,7 @@ import org.gradle.internal.jvm.inspection.JvmVersionDetector;
 import org.gradle.internal.logging.LoggingManagerInternal;
 import org.gradle.internal.logging.events.OutputEventListener;
 import org.gradle.internal.nativeintegration.filesystem.FileSystem;
+import org.gradle.internal.os.OperatingSystem;
 import org.gradle.internal.remote.MessagingServer;
 import org.gradle.internal.serialize.HashCodeSerializer;
 import org.gradle.internal.service.ServiceRegistration;
@@ -114,7 +118,7 @@ public class GradleUserHomeScopeServices {
         return timeStampInspector;
     }
 
-    FileHasher createCachingFileHasher(StringInterner stringInterner, CrossBuildFileHashCache fileStore, FileSystem fileSystem, GlobalScopeFileTimeStampInspector fileTimeStampInspector, FileContentHasherFactory hasherFactory) {
+    CachingFileHasher createCachingFileHasher(StringInterner stringInterner, CrossBuildFileHashCache fileStore, FileSystem fileSystem, GlobalScopeFileTimeStampInspector fileTimeStampInspector, FileContentHasherFactory hasherFactory) {
         CachingFileHasher fileHasher = new CachingFileHasher(new DefaultFileHasher(hasherFactory), fileStore, stringInterner, fileTimeStampInspector, "fileHashes", fileSystem);
         fileTimeStampInspector.attach(fileHasher);
         return fileHasher;
@@ -136,14 +140,33 @@ public class GradleUserHomeScopeServices {
         return new RegistryAwareClassLoaderHierarchyHasher(registry, classLoaderHasher);
     }
 
-    FileSystemMirror createFileSystemMirror(ListenerManager listenerManager, List<CachedJarFileStore> fileStores) {
-        DefaultFileSystemMirror fileSystemMirror = new DefaultFileSystemMirror(fileStores);
+    DefaultFileSystemMirror createFileSystemMirror(ListenerManager listenerManager, List<CachedJarFileStore> fileStores, FileSystem fileSystem, GlobalScopeFileTimeStampInspector fileTimeStampInspector) {
+        boolean retainAcrossBuilds = Boolean.getBoolean("org.gradle.filesystem.retain") || isFileSystemWatchingEnabled();
+        DefaultFileSystemMirror fileSystemMirror = new DefaultFileSystemMirror(fileStores, fileSystem, fileTimeStampInspector, retainAcrossBuilds);
         listenerManager.addListener(fileSystemMirror);
         return fileSystemMirror;
     }
 
-    FileSystemSnapshotter createFileSystemSnapshotter(FileHasher hasher, StringInterner stringInterner, FileSystem fileSystem, DirectoryFileTreeFactory directoryFileTreeFactory, FileSystemMirror fileSystemMirror) {
-        return new DefaultFileSystemSnapshotter(hasher, stringInterner, fileSystem, directoryFileTreeFactory, fileSystemMirror);
+    FileSystemWatchingInvalidator createFileSystemWatchingInvalidator(ListenerManager listenerManager, FileWatcherFactory fileWatcherFactory, TemporaryFileProvider temporaryFileProvider, DefaultFileSystemMirror fileSystemMirror, CachingFileHasher fileHasher) {
+        FileSystemWatchingInvalidator invalidator = new FileSystemWatchingInvalidator(fileWatcherFactory, temporaryFileProvider, fileSystemMirror, fileHasher);
+        if (isFileSystemWatchingEnabled()) {
+            listenerManager.addListener(invalidator);
+        }
+        return invalidator;
+    }
+
+    private static boolean isFileSystemWatchingEnabled() {
+        // Only Linux provides file system events for a directory without polling
+        return Boolean.getBoolean("org.gradle.filesystem.watch") && OperatingSystem.current().isLinux();
+    }
+
+    ParallelDirectoryTreeWalker createParallelDirectoryTreeWalker(FileSystem fileSystem) {
+        int parallelism = Boolean.getBoolean("org.gradle.snapshotting.parallel") ? Runtime.getRuntime().availableProcessors() : 1;
+        return new ParallelDirectoryTreeWalker(fileSystem, parallelism);
+    }
+
+    FileSystemSnapshotter createFileSystemSnapshotter(FileHasher hasher, StringInterner stringInterner, FileSystem fileSystem, DirectoryFileTreeFactory directoryFileTreeFactory, FileSystemMirror fileSystemMirror, ParallelDirectoryTreeWalker parallelTreeWalker) {
+        return new DefaultFileSystemSnapshotter(hasher, stringInterner, fileSystem, directoryFileTreeFactory, fileSystemMirror, parallelTreeWalker);
     }
 
     GenericFileCollectionSnapshotter createGenericFileCollectionSnapshotter(StringInterner stringInterner, DirectoryFileTreeFactory directoryFileTreeFactory, FileSystemSnapshotter fileSystemSnapshotter) {
@@ -377,7 +377,7 @@ class DefaultTaskArtifactStateRepositoryTest extends AbstractProjectBuilderSpec
         when:
         TaskArtifactState state = repository.getStateFor(task1)
         state.isUpToDate([])
-        fileSystemMirror.beforeTaskOutputsGenerated()
+        fileSystemMirror.beforeTaskOutputsGenerated(Stub(TaskInternal))
         outputDirFile.createFile()
         state.snapshotAfterTaskExecution(null)
 
@@ -385,7 +385,7 @@ class DefaultTaskArtifactStateRepositoryTest extends AbstractProjectBuilderSpec
         !state.upToDate
 
         when:
-        fileSystemMirror.beforeTaskOutputsGenerated()
+        fileSystemMirror.beforeTaskOutputsGenerated(Stub(TaskInternal))
         outputDir.deleteDir()
 
         and:
@@ -396,7 +396,7 @@ class DefaultTaskArtifactStateRepositoryTest extends AbstractProjectBuilderSpec
         !state.isUpToDate([])
 
         when:
-        fileSystemMirror.beforeTaskOutputsGenerated()
+        fileSystemMirror.beforeTaskOutputsGenerated(Stub(TaskInternal))
         outputDirFile2.createFile()
         state.snapshotAfterTaskExecution(null)
 
@@ -510,7 +510,7 @@ class DefaultTaskArtifactStateRepositoryTest extends AbstractProjectBuilderSpec
 
         when:
         task.execute()
-        fileSystemMirror.beforeTaskOutputsGenerated()
+        fileSystemMirror.beforeTaskOutputsGenerated(Stub(TaskInternal))
         otherFile.write("new content")
         state.snapshotAfterTaskExecution(null)
         otherFile.delete()
@@ -548,7 +548,7 @@ class DefaultTaskArtifactStateRepositoryTest extends AbstractProjectBuilderSpec
         upToDate noInputsTask
 
         when:
-        fileSystemMirror.beforeTaskOutputsGenerated()
+        fileSystemMirror.beforeTaskOutputsGenerated(Stub(TaskInternal))
         outputDirFile.delete()
 
         then:
@@ -654,12 +654,12 @@ class DefaultTaskArtifactStateRepositoryTest extends AbstractProjectBuilderSpec
             TaskArtifactState state = repository.getStateFor(task)
             state.isUpToDate([])
             // reset state
-            fileSystemMirror.beforeTaskOutputsGenerated()
+            fileSystemMirror.beforeTaskOutputsGenerated(Stub(TaskInternal))
             task.execute()
             state.snapshotAfterTaskExecution(null)
         }
         // reset state
-        fileSystemMirror.beforeTaskOutputsGenerated()
+        fileSystemMirror.beforeTaskOutputsGenerated(Stub(TaskInternal))
     }
 
     private static class ChangedFiles {
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.rules
+
+import com.google.common.collect.ImmutableSortedMap
+import com.google.common.hash.HashCode
+import org.gradle.api.internal.TaskInternal
+import org.gradle.api.internal.changedetection.state.FileCollectionSnapshot
+import org.gradle.api.internal.changedetection.state.TaskExecution
+import spock.lang.Specification
+
+class InputFilesTaskStateChangesTest extends Specification {
+    def task = Stub(TaskInternal)
+    def previousSnapshot = Mock(FileCollectionSnapshot)
+    def currentSnapshot = Mock(FileCollectionSnapshot)
+    def previous = Stub(TaskExecution) {
+        getInputFilesSnapshot() >> ImmutableSortedMap.of("input", previousSnapshot)
+    }
+    def current = Stub(TaskExecution) {
+        getInputFilesSnapshot() >> ImmutableSortedMap.of("input", currentSnapshot)
+    }
+
+    def "does not compare files of property with unchanged hash"() {
+        when:
+        def changes = new InputFilesTaskStateChanges(previous, current, task).iterator().toList()
+
+        then:
+        changes.empty
+        1 * currentSnapshot.getHash() >> HashCode.fromInt(1)
+        1 * previousSnapshot.getHash() >> HashCode.fromInt(1)
+        0 * _
+    }
+
+    def "compares files of property with changed hash"() {
+        def change = Stub(TaskStateChange)
+
+        when:
+        def changes = new InputFilesTaskStateChanges(previous, current, task).iterator().toList()
+
+        then:
+        changes == [change]
+        1 * currentSnapshot.getHash() >> HashCode.fromInt(1)
+        1 * previousSnapshot.getHash() >> HashCode.fromInt(2)
+        1 * currentSnapshot.iterateContentChangesSince(previousSnapshot, "Input property 'input'", true) >> [change].iterator()
+        0 * _
+    }
+}
@@ -16,8 +16,15 @@
 
 package org.gradle.api.internal.changedetection.state
 
+import com.google.common.hash.HashCode
 import org.gradle.BuildResult
+import org.gradle.api.file.RelativePath
 import org.gradle.api.internal.GradleInternal
+import org.gradle.api.internal.TaskInternal
+import org.gradle.api.internal.TaskOutputsInternal
+import org.gradle.api.internal.file.TestFiles
+import org.gradle.api.internal.file.collections.SimpleFileCollection
+import org.gradle.api.internal.tasks.TaskDestroyablesInternal
 import org.gradle.internal.classpath.CachedJarFileStore
 import org.gradle.test.fixtures.file.TestFile
 import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
@@ -28,6 +35,9 @@ class DefaultFileSystemMirrorTest extends Specification {
     @Rule
     TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
 
+    def timeStampInspector = Stub(FileTimeStampInspector) {
+        timestampCanBeUsedToDetectFileChange(_, _) >> true
+    }
     DefaultFileSystemMirror mirror
     TestFile cacheDir
 
@@ -61,7 +71,7 @@ class DefaultFileSystemMirrorTest extends Specification {
         mirror.getDirectoryTree(file.path) == fileTreeSnapshot
         mirror.getContent(file.path) == snapshot
 
-        mirror.beforeTaskOutputsGenerated()
+        mirror.beforeTaskOutputsGenerated(Stub(TaskInternal))
 
         mirror.getFile(file.path) == null
         mirror.getDirectoryTree(file.path) == null
@@ -129,7 +139,7 @@ class DefaultFileSystemMirrorTest extends Specification {
         mirror.getDirectoryTree(file.path) == fileTreeSnapshot
         mirror.getContent(file.path) == snapshot
 
-        mirror.beforeTaskOutputsGenerated()
+        mirror.beforeTaskOutputsGenerated(Stub(TaskInternal))
 
         mirror.getFile(file.path) == fileSnapshot
         mirror.getDirectoryTree(file.path) == fileTreeSnapshot
@@ -141,4 +151,198 @@ class DefaultFileSystemMirrorTest extends Specification {
         mirror.getDirectoryTree(file.path) == null
         mirror.getContent(file.path) == null
     }
+
+    def "retains state about unchanged files across builds"() {
+        def retainingMirror = new DefaultFileSystemMirror([], TestFiles.fileSystem(), timeStampInspector, true)
+        def file = tmpDir.createFile("a")
+        def dir = tmpDir.createDir("dir")
+        def child = dir.createFile("child")
+        def fileSnapshot = regularFile(file)
+        def treeSnapshot = new DirectoryTreeDetails(dir.path, [regularFile(child)])
+        def snapshot = Stub(Snapshot)
+
+        given:
+        retainingMirror.putFile(fileSnapshot)
+        retainingMirror.putDirectory(treeSnapshot)
+        retainingMirror.putContent(file.path, snapshot)
+
+        when:
+        retainingMirror.beforeComplete()
+        retainingMirror.afterStart()
+
+        then:
+        retainingMirror.getFile(file.path) == fileSnapshot
+        retainingMirror.getDirectoryTree(dir.path) == treeSnapshot
+        retainingMirror.getContent(file.path) == snapshot
+    }
+
+    def "discards retained state about files that changed between builds"() {
+        def retainingMirror = new DefaultFileSystemMirror([], TestFiles.fileSystem(), timeStampInspector, true)
+        def file = tmpDir.createFile("a")
+        def dir = tmpDir.createDir("dir")
+        def child = dir.createFile("child")
+        def otherDir = tmpDir.createDir("other")
+
+        given:
+        retainingMirror.putFile(regularFile(file))
+        retainingMirror.putContent(file.path, Stub(Snapshot))
+        retainingMirror.putDirectory(new DirectoryTreeDetails(dir.path, [regularFile(child)]))
+        retainingMirror.putDirectory(new DirectoryTreeDetails(otherDir.path, []))
+        retainingMirror.beforeComplete()
+
+        when:
+        file << "changed"
+        child.delete()
+        otherDir.createFile("added")
+        otherDir.setLastModified(otherDir.lastModified() - 2000)
+        retainingMirror.afterStart()
+
+        then:
+        retainingMirror.getFile(file.path) == null
+        retainingMirror.getContent(file.path) == null
+        retainingMirror.getDirectoryTree(dir.path) == null
+        retainingMirror.getDirectoryTree(otherDir.path) == null
+    }
+
+    def "discards retained state whose timestamps cannot be used to detect changes"() {
+        def untrustedInspector = Stub(FileTimeStampInspector) {
+            timestampCanBeUsedToDetectFileChange(_, _) >> false
+        }
+        def retainingMirror = new DefaultFileSystemMirror([], TestFiles.fileSystem(), untrustedInspector, true)
+        def file = tmpDir.createFile("a")
+        def dir = tmpDir.createDir("dir")
+
+        given:
+        retainingMirror.putFile(regularFile(file))
+        retainingMirror.putDirectory(new DirectoryTreeDetails(dir.path, []))
+        retainingMirror.beforeComplete()
+
+        when:
+        retainingMirror.afterStart()
+
+        then:
+        retainingMirror.getFile(file.path) == null
+        retainingMirror.getDirectoryTree(dir.path) == null
+    }
+
+    def "invalidates retained state for the declared outputs of a task only"() {
+        def retainingMirror = new DefaultFileSystemMirror([], TestFiles.fileSystem(), timeStampInspector, true)
+        def outputDir = tmpDir.createDir("build/output")
+        def outputFile = outputDir.createFile("some/file")
+        def sourceFile = tmpDir.createFile("src/source")
+        def task = taskWithOutputs(outputDir)
+
+        given:
+        retainingMirror.putFile(regularFile(outputFile))
+        retainingMirror.putFile(regularFile(sourceFile))
+        retainingMirror.putDirectory(new DirectoryTreeDetails(outputDir.path, []))
+        retainingMirror.putDirectory(new DirectoryTreeDetails(outputDir.parentFile.path, []))
+
+        when:
+        retainingMirror.beforeTaskOutputsGenerated(task)
+
+        then:
+        retainingMirror.getFile(outputFile.path) == null
+        retainingMirror.getDirectoryTree(outputDir.path) == null
+        retainingMirror.getDirectoryTree(outputDir.parentFile.path) == null
+        retainingMirror.getFile(sourceFile.path) != null
+    }
+
+    def "discards all retained state when a task does not declare any outputs"() {
+        def retainingMirror = new DefaultFileSystemMirror([], TestFiles.fileSystem(), timeStampInspector, true)
+        def sourceFile = tmpDir.createFile("src/source")
+
+        given:
+        retainingMirror.putFile(regularFile(sourceFile))
+
+        when:
+        retainingMirror.beforeTaskOutputsGenerated(taskWithOutputs())
+
+        then:
+        retainingMirror.getFile(sourceFile.path) == null
+    }
+
+    def "relies on watching for retained state that was checked after watching started"() {
+        def retainingMirror = new DefaultFileSystemMirror([], TestFiles.fileSystem(), timeStampInspector, true)
+        def file = tmpDir.createFile("a")
+        def fileSnapshot = regularFile(file)
+
+        given:
+        retainingMirror.putFile(fileSnapshot)
+        retainingMirror.startedWatching(file.path)
+        retainingMirror.afterStart()
+
+        when:
+        file << "changed without an event"
+        retainingMirror.afterStart()
+
+        then:
+        retainingMirror.getFile(file.path) == fileSnapshot
+
+        when:
+        retainingMirror.invalidate(file.path)
+
+        then:
+        retainingMirror.getFile(file.path) == null
+    }
+
+    def "checks all retained state again once watching stopped"() {
+        def retainingMirror = new DefaultFileSystemMirror([], TestFiles.fileSystem(), timeStampInspector, true)
+        def file = tmpDir.createFile("a")
+
+        given:
+        retainingMirror.putFile(regularFile(file))
+        retainingMirror.startedWatching(file.path)
+        retainingMirror.afterStart()
+
+        when:
+        file << "changed"
+        retainingMirror.stoppedWatching()
+        retainingMirror.afterStart()
+
+        then:
+        retainingMirror.getFile(file.path) == null
+        retainingMirror.unwatchedPaths.empty
+    }
+
+    def "discards the retained state that was used the longest ago when there is too much state"() {
+        def retainingMirror = new DefaultFileSystemMirror([], TestFiles.fileSystem(), timeStampInspector, true, 3)
+        def usedFile = tmpDir.createFile("used")
+        def unusedFile = tmpDir.createFile("unused")
+        def dir = tmpDir.createDir("dir")
+        def child = dir.createFile("child")
+
+        given:
+        retainingMirror.putFile(regularFile(unusedFile))
+        retainingMirror.putFile(regularFile(usedFile))
+        retainingMirror.beforeComplete()
+        retainingMirror.afterStart()
+
+        when:
+        retainingMirror.getFile(usedFile.path)
+        retainingMirror.putDirectory(new DirectoryTreeDetails(dir.path, [regularFile(child)]))
+        retainingMirror.beforeComplete()
+        retainingMirror.afterStart()
+
+        then:
+        retainingMirror.getFile(unusedFile.path) == null
+        retainingMirror.getFile(usedFile.path) != null
+        retainingMirror.getDirectoryTree(dir.path) != null
+    }
+
+    private static FileSnapshot regularFile(File file) {
+        new RegularFileSnapshot(file.path, new RelativePath(true, file.name), true, new FileHashSnapshot(HashCode.fromInt(1), file.lastModified(), file.length()))
+    }
+
+    private TaskInternal taskWithOutputs(File... outputs) {
+        def taskOutputs = Stub(TaskOutputsInternal)
+        taskOutputs.files >> new SimpleFileCollection(outputs)
+        taskOutputs.hasOutput >> (outputs.length > 0)
+        def destroyables = Stub(TaskDestroyablesInternal)
+        destroyables.filesReadOnly >> []
+        def task = Stub(TaskInternal)
+        task.outputs >> taskOutputs
+        task.destroyables >> destroyables
+        return task
+    }
 }
@@ -16,8 +16,10 @@
 
 package org.gradle.api.internal.changedetection.state
 
+import org.gradle.api.internal.TaskInternal
 import org.gradle.api.internal.cache.StringInterner
 import org.gradle.api.internal.file.TestFiles
+import org.gradle.api.tasks.util.PatternSet
 import org.gradle.internal.hash.TestFileHasher
 import org.gradle.caching.internal.DefaultBuildCacheHasher
 import org.gradle.internal.file.FileType
@@ -161,7 +163,7 @@ class DefaultFileSystemSnapshotterTest extends Specification {
         def snapshot = snapshotter.snapshotAll(f)
         snapshotter.snapshotAll(f).is(snapshot)
 
-        fileSystemMirror.beforeTaskOutputsGenerated()
+        fileSystemMirror.beforeTaskOutputsGenerated(Stub(TaskInternal))
         f << "some other content"
 
         def snapshot2 = snapshotter.snapshotAll(f)
@@ -175,7 +177,7 @@ class DefaultFileSystemSnapshotterTest extends Specification {
         def snapshot = snapshotter.snapshotAll(f)
         snapshotter.snapshotAll(f).is(snapshot)
 
-        fileSystemMirror.beforeTaskOutputsGenerated()
+        fileSystemMirror.beforeTaskOutputsGenerated(Stub(TaskInternal))
         f.createDir()
 
         def snapshot2 = snapshotter.snapshotAll(f)
@@ -191,13 +193,80 @@ class DefaultFileSystemSnapshotterTest extends Specification {
         def snapshot = snapshotter.snapshotAll(f)
         snapshotter.snapshotAll(f).is(snapshot)
 
-        fileSystemMirror.beforeTaskOutputsGenerated()
+        fileSystemMirror.beforeTaskOutputsGenerated(Stub(TaskInternal))
         f.createFile("newFile")
 
         def snapshot2 = snapshotter.snapshotAll(f)
         hash(snapshot) != hash(snapshot2)
     }
 
+    def "snapshots a directory tree in parallel in the same order as sequentially"() {
+        def treeWalker = new ParallelDirectoryTreeWalker(TestFiles.fileSystem(), 4)
+        def parallelSnapshotter = new DefaultFileSystemSnapshotter(fileHasher, new StringInterner(), TestFiles.fileSystem(), TestFiles.directoryFileTreeFactory(), new DefaultFileSystemMirror([]), treeWalker)
+        def d = tmpDir.createDir("d")
+        (1..5).each { i ->
+            d.createFile("f$i")
+            (1..50).each { j ->
+                d.createFile("child$i/f$j")
+            }
+            d.createFile("child$i/nested/f")
+            d.createDir("child$i/empty")
+        }
+
+        when:
+        def expected = snapshotter.snapshotDirectoryTree(d).descendants
+        def actual = parallelSnapshotter.snapshotDirectoryTree(d).descendants
+
+        then:
+        actual*.path == expected*.path
+        actual*.relativePath == expected*.relativePath
+        actual*.type == expected*.type
+        actual*.content == expected*.content
+
+        cleanup:
+        treeWalker.stop()
+    }
+
+    def "applies patterns and default excludes when snapshotting a directory tree in parallel"() {
+        def treeWalker = new ParallelDirectoryTreeWalker(TestFiles.fileSystem(), 4)
+        def parallelSnapshotter = new DefaultFileSystemSnapshotter(fileHasher, new StringInterner(), TestFiles.fileSystem(), TestFiles.directoryFileTreeFactory(), new DefaultFileSystemMirror([]), treeWalker)
+        def d = tmpDir.createDir("d")
+        d.createFile(".gitignore")
+        d.createFile(".git/HEAD")
+        d.createFile("foo~")
+        d.createFile("foo.txt")
+        d.createFile("sub/bar.txt")
+        d.createFile("sub/bar.class")
+        d.createFile("sub/excluded/baz.txt")
+        def patterns = new PatternSet().include("**/*.txt").exclude("sub/excluded/**")
+
+        when:
+        def expected = snapshotter.snapshotDirectoryTree(TestFiles.directoryFileTreeFactory().create(d)).descendants
+        def actual = parallelSnapshotter.snapshotDirectoryTree(TestFiles.directoryFileTreeFactory().create(d)).descendants
+        def expectedFiltered = snapshotter.snapshotDirectoryTree(TestFiles.directoryFileTreeFactory().create(d, patterns)).descendants
+        def actualFiltered = parallelSnapshotter.snapshotDirectoryTree(TestFiles.directoryFileTreeFactory().create(d, patterns)).descendants
+
+        then:
+        files(expected) == ["foo.txt", "sub/bar.txt", "sub/bar.class", "sub/excluded/baz.txt"] as Set
+        actual*.path == expected*.path
+        actual*.relativePath == expected*.relativePath
+        actual*.type == expected*.type
+        actual*.content == expected*.content
+
+        files(expectedFiltered) == ["foo.txt", "sub/bar.txt"] as Set
+        actualFiltered*.path == expectedFiltered*.path
+        actualFiltered*.relativePath == expectedFiltered*.relativePath
+        actualFiltered*.type == expectedFiltered*.type
+        actualFiltered*.content == expectedFiltered*.content
+
+        cleanup:
+        treeWalker.stop()
+    }
+
+    private static Set<String> files(Collection<FileSnapshot> snapshots) {
+        snapshots.findAll { it.type == FileType.RegularFile }*.relativePath*.pathString as Set
+    }
+
     def hash(Snapshot snapshot) {
         def builder = new DefaultBuildCacheHasher()
         snapshot.appendToHasher(builder)
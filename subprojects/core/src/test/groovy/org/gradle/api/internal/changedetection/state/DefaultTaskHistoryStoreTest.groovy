@@ -20,9 +20,11 @@ import org.gradle.cache.CacheBuilder
 import org.gradle.cache.CacheRepository
 import org.gradle.cache.FileLockManager
 import org.gradle.cache.PersistentCache
+import org.gradle.cache.PersistentIndexedCacheParameters
 import org.gradle.cache.internal.CrossBuildInMemoryCacheFactory
 import org.gradle.cache.internal.filelock.LockOptionsBuilder
 import org.gradle.internal.event.DefaultListenerManager
+import org.gradle.internal.serialize.Serializer
 import spock.lang.Specification
 
 class DefaultTaskHistoryStoreTest extends Specification {
@@ -43,4 +45,20 @@ class DefaultTaskHistoryStoreTest extends Specification {
         1 * cacheBuilder.open() >> backingCache
         0 * _._
     }
+
+    def "caches of the store write their updates from one queue"() {
+        CacheBuilder cacheBuilder = Mock()
+        PersistentCache backingCache = Mock()
+        _ * cacheRepository.cache(gradle, "taskHistory") >> cacheBuilder
+        _ * cacheBuilder.open() >> backingCache
+        _ * cacheBuilder._ >> cacheBuilder
+        def store = new DefaultTaskHistoryStore(gradle, cacheRepository, new InMemoryCacheDecoratorFactory(false, new CrossBuildInMemoryCacheFactory(new DefaultListenerManager())))
+
+        when:
+        store.createCache("taskHistory", String, Stub(Serializer), 10, false)
+        store.createCache("fileSnapshots", Long, Stub(Serializer), 10, false)
+
+        then:
+        2 * backingCache.createCache({ PersistentIndexedCacheParameters parameters -> parameters.updateQueueName == "taskHistory" })
+    }
 }
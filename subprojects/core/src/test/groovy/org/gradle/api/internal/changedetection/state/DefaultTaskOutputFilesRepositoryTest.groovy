@@ -18,10 +18,12 @@ package org.gradle.api.internal.changedetection.state
 
 import org.gradle.cache.CacheDecorator
 import org.gradle.cache.PersistentCache
+import org.gradle.cache.PersistentIndexedCacheParameters
 import org.gradle.internal.serialize.BaseSerializerFactory
 import org.gradle.test.fixtures.file.CleanupTestDirectory
 import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
 import org.gradle.testfixtures.internal.InMemoryIndexedCache
+import org.gradle.util.SetSystemProperties
 import org.gradle.util.UsesNativeServices
 import org.junit.Rule
 import spock.lang.Specification
@@ -32,6 +34,8 @@ class DefaultTaskOutputFilesRepositoryTest extends Specification {
 
     @Rule
     public final TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+    @Rule
+    SetSystemProperties systemProperties = new SetSystemProperties()
 
     def outputFiles = new InMemoryIndexedCache<String, Boolean>(BaseSerializerFactory.BOOLEAN_SERIALIZER)
     def cacheAccess = Stub(PersistentCache) {
@@ -66,6 +70,25 @@ class DefaultTaskOutputFilesRepositoryTest extends Specification {
         !repository.isGeneratedByGradle(file('build/not-existing'))
     }
 
+    def "stores output files in a B-tree unless the log is enabled"() {
+        def cacheAccess = Mock(PersistentCache)
+        if (logStructured != null) {
+            System.setProperty(DefaultTaskOutputFilesRepository.LOG_STRUCTURED_PROPERTY, logStructured)
+        }
+
+        when:
+        new DefaultTaskOutputFilesRepository(cacheAccess, fileSystemMirror, inMemoryCacheDecoratorFactory)
+
+        then:
+        1 * cacheAccess.createCache({ it.storeType == storeType }) >> outputFiles
+
+        where:
+        logStructured | storeType
+        null          | PersistentIndexedCacheParameters.StoreType.BTREE
+        "false"       | PersistentIndexedCacheParameters.StoreType.BTREE
+        "true"        | PersistentIndexedCacheParameters.StoreType.LOG_STRUCTURED
+    }
+
     private File file(String path) {
         tmpDir.file(path).absoluteFile
     }
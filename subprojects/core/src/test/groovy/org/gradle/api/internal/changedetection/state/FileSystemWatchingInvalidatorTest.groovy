@@ -0,0 +1,186 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state
+
+import com.google.common.hash.HashCode
+import org.gradle.api.file.RelativePath
+import org.gradle.api.internal.file.FileSystemSubset
+import org.gradle.api.internal.file.TemporaryFileProvider
+import org.gradle.api.internal.file.TestFiles
+import org.gradle.internal.filewatch.FileWatcher
+import org.gradle.internal.filewatch.FileWatcherEvent
+import org.gradle.internal.filewatch.FileWatcherFactory
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+class FileSystemWatchingInvalidatorTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+
+    def fileWatcher = Mock(FileWatcher)
+    def fileWatcherFactory = Stub(FileWatcherFactory) {
+        watch(_, _) >> fileWatcher
+    }
+    def markerDir = tmpDir.createDir("marker")
+    def markerFile = markerDir.file("marker")
+    def temporaryFileProvider = Stub(TemporaryFileProvider) {
+        createTemporaryDirectory(*_) >> markerDir
+    }
+    def timeStampInspector = Stub(FileTimeStampInspector) {
+        timestampCanBeUsedToDetectFileChange(_, _) >> true
+    }
+    def mirror = new DefaultFileSystemMirror([], TestFiles.fileSystem(), timeStampInspector, true)
+    def fileHasher = Mock(CachingFileHasher)
+    def invalidator = new FileSystemWatchingInvalidator(fileWatcherFactory, temporaryFileProvider, mirror, fileHasher)
+
+    def "watches retained state at the end of the build"() {
+        def dir = tmpDir.createDir("dir")
+        def file = tmpDir.createFile("file")
+
+        given:
+        mirror.putDirectory(new DirectoryTreeDetails(dir.path, []))
+        mirror.putFile(regularFile(file))
+
+        when:
+        invalidator.beforeComplete()
+
+        then:
+        1 * fileWatcher.watch(_) >> { FileSystemSubset roots ->
+            assert roots.roots as Set == [markerDir, dir, file] as Set
+        }
+        mirror.unwatchedPaths.empty
+        invalidator.takeStatistics().watchedRootCount == 2
+    }
+
+    def "invalidates state when a watched file changes"() {
+        def dir = tmpDir.createDir("dir")
+        def child = dir.createFile("child")
+        def tree = new DirectoryTreeDetails(dir.path, [regularFile(child)])
+
+        given:
+        mirror.putDirectory(tree)
+        invalidator.beforeComplete()
+
+        when:
+        invalidator.onChange(fileWatcher, FileWatcherEvent.modify(child))
+
+        then:
+        1 * fileHasher.discard(child.path)
+        mirror.getDirectoryTree(dir.path) == null
+        invalidator.takeStatistics().invalidatedPathCount == 1
+    }
+
+    def "invalidates the affected root when events are lost"() {
+        def dir = tmpDir.createDir("dir")
+        def subDir = dir.createDir("sub")
+        def otherDir = tmpDir.createDir("other")
+
+        given:
+        mirror.putDirectory(new DirectoryTreeDetails(dir.path, []))
+        mirror.putDirectory(new DirectoryTreeDetails(otherDir.path, []))
+        invalidator.beforeComplete()
+
+        when:
+        invalidator.onChange(fileWatcher, FileWatcherEvent.undefined(subDir))
+
+        then:
+        mirror.getDirectoryTree(dir.path) == null
+        mirror.getDirectoryTree(otherDir.path) != null
+        invalidator.takeStatistics().overflowCount == 1
+    }
+
+    def "invalidates all state when events are lost for an unknown location"() {
+        def dir = tmpDir.createDir("dir")
+
+        given:
+        mirror.putDirectory(new DirectoryTreeDetails(dir.path, []))
+        invalidator.beforeComplete()
+
+        when:
+        invalidator.onChange(fileWatcher, FileWatcherEvent.undefined())
+
+        then:
+        mirror.getDirectoryTree(dir.path) == null
+    }
+
+    def "stops relying on watched state when watching fails"() {
+        def dir = tmpDir.createDir("dir")
+
+        given:
+        mirror.putDirectory(new DirectoryTreeDetails(dir.path, []))
+
+        when:
+        invalidator.beforeComplete()
+
+        then:
+        1 * fileWatcher.watch(_) >> { throw new IOException("broken") }
+        1 * fileWatcher.stop()
+        !invalidator.watching
+        mirror.unwatchedPaths == [dir.path] as Set
+    }
+
+    def "keeps watched state when the events for earlier changes have been delivered at the start of the build"() {
+        def dir = tmpDir.createDir("dir")
+
+        given:
+        mirror.putDirectory(new DirectoryTreeDetails(dir.path, []))
+        invalidator.beforeComplete()
+
+        when:
+        def delivery = deliverMarkerEvent()
+        invalidator.afterStart()
+        delivery.join()
+
+        then:
+        0 * fileWatcher.stop()
+        invalidator.watching
+        mirror.getDirectoryTree(dir.path) != null
+        0 * fileHasher.discard(_)
+    }
+
+    def "discards all state when the events for earlier changes are not delivered at the start of the build"() {
+        def dir = tmpDir.createDir("dir")
+
+        given:
+        mirror.putDirectory(new DirectoryTreeDetails(dir.path, []))
+        invalidator.beforeComplete()
+
+        when:
+        invalidator.afterStart()
+
+        then:
+        1 * fileWatcher.stop()
+        !invalidator.watching
+        mirror.getDirectoryTree(dir.path) == null
+    }
+
+    private Thread deliverMarkerEvent() {
+        def delivery = new Thread({
+            while (!markerFile.exists()) {
+                Thread.sleep(10)
+            }
+            invalidator.onChange(fileWatcher, FileWatcherEvent.modify(markerFile))
+        })
+        delivery.start()
+        return delivery
+    }
+
+    private static FileSnapshot regularFile(File file) {
+        new RegularFileSnapshot(file.path, new RelativePath(true, file.name), true, new FileHashSnapshot(HashCode.fromInt(1), file.lastModified(), file.length()))
+    }
+}
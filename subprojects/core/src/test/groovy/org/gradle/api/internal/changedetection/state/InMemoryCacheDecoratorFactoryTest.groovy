@@ -18,6 +18,7 @@ package org.gradle.api.internal.changedetection.state
 
 import org.gradle.cache.AsyncCacheAccess
 import org.gradle.cache.CrossProcessCacheAccess
+import org.gradle.cache.FileLock
 import org.gradle.cache.MultiProcessSafePersistentIndexedCache
 import org.gradle.cache.internal.CrossBuildInMemoryCacheFactory
 import org.gradle.internal.Factory
@@ -202,4 +203,46 @@ class InMemoryCacheDecoratorFactoryTest extends Specification {
         0 * target._
     }
 
+    def "reads values held in memory without locking while the file lock is held"() {
+        def lockState = Stub(FileLock.State)
+
+        given:
+        def cache = cacheFactory.decorator(100, true).decorate("path/fileSnapshots.bin", "fileSnapshots", target, crossProcessCacheAccess, asyncCacheAccess)
+        cache.afterLockAcquire(lockState)
+
+        when:
+        def result = cache.get("key")
+
+        then:
+        result == "result"
+
+        and:
+        1 * crossProcessCacheAccess.withFileLock(_) >> { Factory task -> task.create() }
+        1 * asyncCacheAccess.read(_) >> { Factory task -> task.create() }
+        1 * target.get("key") >> "result"
+        0 * _._
+
+        when:
+        result = cache.get("key")
+        def produced = cache.get("key", { throw new UnsupportedOperationException() })
+
+        then:
+        result == "result"
+        produced == "result"
+
+        and:
+        0 * _._
+
+        when:
+        cache.beforeLockRelease(lockState)
+        result = cache.get("key")
+
+        then:
+        result == "result"
+
+        and:
+        1 * target.beforeLockRelease(lockState)
+        1 * crossProcessCacheAccess.withFileLock(_) >> { Factory task -> task.create() }
+        0 * target._
+    }
 }
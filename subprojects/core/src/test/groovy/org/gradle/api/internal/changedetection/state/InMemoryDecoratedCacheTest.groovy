@@ -16,9 +16,9 @@
 
 package org.gradle.api.internal.changedetection.state
 
-import com.google.common.cache.CacheBuilder
 import org.gradle.api.Transformer
 import org.gradle.cache.FileLock
+import org.gradle.cache.internal.ConcurrentClockCache
 import org.gradle.cache.internal.MultiProcessSafeAsyncPersistentIndexedCache
 import org.gradle.test.fixtures.concurrent.ConcurrentSpec
 
@@ -26,7 +26,7 @@ import java.util.concurrent.atomic.AtomicReference
 
 class InMemoryDecoratedCacheTest extends ConcurrentSpec {
     def target = Mock(MultiProcessSafeAsyncPersistentIndexedCache)
-    def cache = new InMemoryDecoratedCache(target, CacheBuilder.newBuilder().build(), "id", new AtomicReference<FileLock.State>())
+    def cache = new InMemoryDecoratedCache(target, new ConcurrentClockCache(100), "id", new AtomicReference<FileLock.State>())
 
     def "does not produce value when present in memory and marks completed"() {
         def producer = Mock(Transformer)
@@ -193,4 +193,32 @@ class InMemoryDecoratedCacheTest extends ConcurrentSpec {
         instant.one_done > instant.two
         instant.two_done > instant.one
     }
+
+    def "in-memory values are only up-to-date while the file lock is held"() {
+        def lockState = Stub(FileLock.State)
+
+        given:
+        cache.putLater("key", "value", Stub(Runnable))
+        cache.removeLater("removed", Stub(Runnable))
+
+        expect:
+        cache.getIfUpToDate("key") == null
+
+        when:
+        cache.afterLockAcquire(lockState)
+        cache.putLater("key", "value", Stub(Runnable))
+        cache.removeLater("removed", Stub(Runnable))
+
+        then:
+        cache.getIfUpToDate("key") == "value"
+        InMemoryDecoratedCache.unpack(cache.getIfUpToDate("removed")) == null
+        cache.getIfUpToDate("removed") != null
+        cache.getIfUpToDate("unknown") == null
+
+        when:
+        cache.beforeLockRelease(lockState)
+
+        then:
+        cache.getIfUpToDate("key") == null
+    }
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state
+
+import com.google.common.collect.ImmutableList
+import com.google.common.collect.ImmutableSet
+import com.google.common.collect.ImmutableSortedMap
+import com.google.common.collect.ImmutableSortedSet
+import com.google.common.hash.HashCode
+import org.gradle.internal.id.UniqueId
+import spock.lang.Specification
+
+class LazyTaskExecutionTest extends Specification {
+    def snapshotRepository = Mock(FileSnapshotRepository)
+
+    def "file snapshot hashes of previous execution are available without loading the snapshots"() {
+        def fileSnapshot = Mock(FileCollectionSnapshot)
+        def execution = new LazyTaskExecution(snapshotRepository, new TaskExecutionSnapshot(
+            true,
+            UniqueId.generate(),
+            new ImplementationSnapshot("org.gradle.Task", null),
+            ImmutableList.of(),
+            ImmutableSortedSet.of(),
+            ImmutableSet.of(),
+            ImmutableSortedMap.of(),
+            ImmutableSortedMap.of("in", 1L),
+            ImmutableSortedMap.of("in", HashCode.fromInt(1)),
+            3L,
+            ImmutableSortedMap.of("out", 2L),
+            ImmutableSortedMap.of("out", HashCode.fromInt(2))
+        ))
+
+        when:
+        def inputHash = execution.inputFilesSnapshot["in"].hash
+        def outputHash = execution.outputFilesSnapshot["out"].hash
+
+        then:
+        inputHash == HashCode.fromInt(1)
+        outputHash == HashCode.fromInt(2)
+        0 * snapshotRepository._
+
+        when:
+        def elements = execution.outputFilesSnapshot["out"].elements
+
+        then:
+        elements == [new File("out")]
+        1 * snapshotRepository.get(2L) >> fileSnapshot
+        1 * fileSnapshot.elements >> [new File("out")]
+        0 * _
+    }
+
+    def "stores hash of file snapshots of current execution"() {
+        def inputSnapshot = new DefaultFileCollectionSnapshot(["/in": new NonNormalizedFileSnapshot("/in", DirContentSnapshot.getInstance())], TaskFilePropertyCompareStrategy.UNORDERED, true)
+        def outputSnapshot = new DefaultFileCollectionSnapshot(["/out": new NonNormalizedFileSnapshot("/out", MissingFileContentSnapshot.getInstance())], TaskFilePropertyCompareStrategy.UNORDERED, true)
+        def execution = new LazyTaskExecution(
+            snapshotRepository,
+            UniqueId.generate(),
+            new ImplementationSnapshot("org.gradle.Task", null),
+            ImmutableList.of(),
+            ImmutableSortedMap.of(),
+            ImmutableSortedSet.of(),
+            ImmutableSet.of(),
+            ImmutableSortedMap.of("in", inputSnapshot),
+            FileCollectionSnapshot.EMPTY,
+            ImmutableSortedMap.of("out", outputSnapshot),
+            null
+        )
+
+        when:
+        execution.storeSnapshots()
+        def snapshot = execution.snapshot()
+
+        then:
+        snapshot.inputFilesSnapshotIds == ["in": 1L]
+        snapshot.inputFilesHashes == ["in": inputSnapshot.hash]
+        snapshot.outputFilesSnapshotIds == ["out": 2L]
+        snapshot.outputFilesHashes == ["out": outputSnapshot.hash]
+        inputSnapshot.hash != outputSnapshot.hash
+        1 * snapshotRepository.add(inputSnapshot) >> 1L
+        1 * snapshotRepository.add(outputSnapshot) >> 2L
+        1 * snapshotRepository.add(FileCollectionSnapshot.EMPTY) >> 3L
+    }
+}
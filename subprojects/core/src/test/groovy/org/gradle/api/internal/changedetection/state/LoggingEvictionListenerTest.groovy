@@ -16,8 +16,8 @@
 
 package org.gradle.api.internal.changedetection.state
 
-import com.google.common.cache.CacheBuilder
 import org.gradle.api.logging.Logger
+import org.gradle.cache.internal.ConcurrentClockCache
 import spock.lang.Specification
 
 class LoggingEvictionListenerTest extends Specification {
@@ -29,8 +29,7 @@ class LoggingEvictionListenerTest extends Specification {
         if (replaceLogger) {
             evictionListener.logger = logger
         }
-        def cache = CacheBuilder.newBuilder().maximumSize(1000).removalListener(evictionListener).build()
-        evictionListener.setCache(cache)
+        def cache = new ConcurrentClockCache(1000, evictionListener)
 
         when:
         2001.times { cache.put(it, it) }
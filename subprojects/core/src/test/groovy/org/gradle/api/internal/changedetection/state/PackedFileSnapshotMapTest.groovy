@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state
+
+import com.google.common.base.Charsets
+import com.google.common.hash.HashCode
+import com.google.common.hash.Hashing
+import spock.lang.Specification
+
+class PackedFileSnapshotMapTest extends Specification {
+    def hash1 = Hashing.md5().hashString("1", Charsets.UTF_8)
+    def hash2 = Hashing.md5().hashString("2", Charsets.UTF_8)
+
+    def "packed map has same entries and order as original"() {
+        def original = new LinkedHashMap<String, NormalizedFileSnapshot>()
+        original["/z/b.txt"] = new DefaultNormalizedFileSnapshot("b.txt", new FileHashSnapshot(hash1))
+        original["/a/dir"] = new DefaultNormalizedFileSnapshot("somewhere/else", DirContentSnapshot.getInstance())
+        original["/m/missing"] = new NonNormalizedFileSnapshot("/m/missing", MissingFileContentSnapshot.getInstance())
+        original["/c/d/e.txt"] = new IndexedNormalizedFileSnapshot("/c/d/e.txt", 3, new FileHashSnapshot(hash2))
+        original["/c/ignored"] = new IgnoredPathFileSnapshot(new FileHashSnapshot(hash2))
+
+        when:
+        def packed = PackedFileSnapshotMap.pack(original)
+
+        then:
+        packed instanceof PackedFileSnapshotMap
+        packed == original
+        packed.keySet() as List == original.keySet() as List
+        packed.values() as List == original.values() as List
+        packed["/c/d/e.txt"].normalizedPath == "d/e.txt"
+        packed["/z/b.txt"].snapshot.contentMd5 == hash1
+        packed["/a/dir"].normalizedPath == "somewhere/else"
+    }
+
+    def "looks up entries by path"() {
+        def original = new LinkedHashMap<String, NormalizedFileSnapshot>()
+        def paths = (0..<500).collect { "/root/dir${it % 7}/file${it}.txt".toString() }.reverse()
+        paths.each { original[it] = new NonNormalizedFileSnapshot(it, new FileHashSnapshot(Hashing.md5().hashString(it, Charsets.UTF_8))) }
+
+        when:
+        def packed = PackedFileSnapshotMap.pack(original)
+
+        then:
+        paths.every { packed[it] == original[it] && packed.containsKey(it) }
+        packed["/root/dir1/file1.txt.other"] == null
+        packed["/root"] == null
+        packed["/zzz"] == null
+        packed[""] == null
+        !packed.containsKey(12)
+        packed.size() == 500
+    }
+
+    def "packs paths with non-ascii characters"() {
+        def original = new LinkedHashMap<String, NormalizedFileSnapshot>()
+        ["/été/café", "/中文/文件", "/emoji/😀", "/unpaired/\ud800x", "/ascii"].each {
+            original[it] = new DefaultNormalizedFileSnapshot(it.substring(it.lastIndexOf('/') + 1), new FileHashSnapshot(hash1))
+        }
+
+        when:
+        def packed = PackedFileSnapshotMap.pack(original)
+
+        then:
+        packed == original
+        packed.keySet() as List == original.keySet() as List
+        original.keySet().every { packed.containsKey(it) }
+        !packed.containsKey("/été/cafe")
+    }
+
+    def "returns original map when snapshots cannot be packed"() {
+        def original = ["/a": new DefaultNormalizedFileSnapshot("a", new FileHashSnapshot(HashCode.fromInt(12)))]
+
+        expect:
+        PackedFileSnapshotMap.pack(original).is(original)
+        PackedFileSnapshotMap.pack([:]).isEmpty()
+    }
+
+    def "packed map is smaller than the original data"() {
+        def original = new LinkedHashMap<String, NormalizedFileSnapshot>()
+        1000.times {
+            def path = "/some/long/path/to/the/project/build/classes/java/main/org/gradle/Class${it}.class".toString()
+            original[path] = new DefaultNormalizedFileSnapshot("org/gradle/Class${it}.class", new FileHashSnapshot(Hashing.md5().hashString(path, Charsets.UTF_8)))
+        }
+
+        expect:
+        // Normalized paths share the bytes of the absolute path, so each entry is the path plus the entry and sort tables
+        PackedFileSnapshotMap.pack(original).packedSize == original.keySet().sum { it.length() } + 1000 * (34 + 4)
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state
+
+import com.google.common.hash.HashCode
+import org.gradle.api.internal.TaskInternal
+import org.gradle.api.internal.cache.StringInterner
+import org.gradle.api.internal.file.TestFiles
+import org.gradle.api.internal.file.collections.SimpleFileCollection
+import org.gradle.internal.hash.TestFileHasher
+import org.gradle.internal.serialize.HashCodeSerializer
+import org.gradle.normalization.internal.InputNormalizationStrategy
+import org.gradle.test.fixtures.file.CleanupTestDirectory
+import org.gradle.test.fixtures.file.TestFile
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.gradle.testfixtures.internal.InMemoryIndexedCache
+import org.gradle.util.UsesNativeServices
+import org.junit.Rule
+import spock.lang.Specification
+
+@CleanupTestDirectory(fieldName = "tmpDir")
+@UsesNativeServices
+class SharedClasspathSnapshotsTest extends Specification {
+    @Rule
+    public final TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+
+    def stringInterner = Stub(StringInterner) {
+        intern(_) >> { String s -> s }
+    }
+    def directoryFileTreeFactory = TestFiles.directoryFileTreeFactory()
+    def fileSystemMirror = new DefaultFileSystemMirror([])
+    def fileSystemSnapshotter = new DefaultFileSystemSnapshotter(new TestFileHasher(), stringInterner, TestFiles.fileSystem(), directoryFileTreeFactory, fileSystemMirror)
+    def cacheService = new ResourceSnapshotterCacheService(new InMemoryIndexedCache<HashCode, HashCode>(new HashCodeSerializer()))
+    def sharedSnapshots = new SharedClasspathSnapshots(1000)
+    def classpathSnapshotter = new DefaultClasspathSnapshotter(cacheService, directoryFileTreeFactory, fileSystemSnapshotter, stringInterner, sharedSnapshots)
+    def compileClasspathSnapshotter = new DefaultCompileClasspathSnapshotter(cacheService, directoryFileTreeFactory, fileSystemSnapshotter, stringInterner, sharedSnapshots)
+
+    def "reuses the snapshot of a classpath with the same contents"() {
+        def jar = file("library.jar") << "jar"
+        def classes = file("classes").create {
+            file("Thing.class") << "class"
+        }
+
+        when:
+        def first = snapshot(classpathSnapshotter, jar, classes)
+        def second = snapshot(classpathSnapshotter, jar, classes)
+
+        then:
+        second.is(first)
+    }
+
+    def "does not reuse the snapshot of a classpath whose contents have changed"() {
+        def jar = file("library.jar") << "jar"
+        def classes = file("classes").create {
+            file("Thing.class") << "class"
+        }
+        def first = snapshot(classpathSnapshotter, jar, classes)
+
+        when:
+        classes.file("Thing.class") << "changed"
+        def second = snapshot(classpathSnapshotter, jar, classes)
+
+        then:
+        !second.is(first)
+        second.hash != first.hash
+    }
+
+    def "does not reuse the snapshot of a classpath in a different order"() {
+        def jar = file("library.jar") << "jar"
+        def other = file("other.jar") << "other"
+        def first = snapshot(classpathSnapshotter, jar, other)
+
+        when:
+        def second = snapshot(classpathSnapshotter, other, jar)
+
+        then:
+        !second.is(first)
+    }
+
+    def "does not share snapshots between runtime and compile classpaths"() {
+        def classes = file("classes").create {
+            file("Thing.class") << "class"
+        }
+        def runtime = snapshot(classpathSnapshotter, classes)
+
+        when:
+        def compile = snapshot(compileClasspathSnapshotter, classes)
+
+        then:
+        !compile.is(runtime)
+    }
+
+    def "discards snapshots at the end of the build"() {
+        def jar = file("library.jar") << "jar"
+        def first = snapshot(classpathSnapshotter, jar)
+
+        when:
+        sharedSnapshots.beforeComplete()
+        def second = snapshot(classpathSnapshotter, jar)
+
+        then:
+        !second.is(first)
+        second.hash == first.hash
+    }
+
+    def snapshot(FileCollectionSnapshotter snapshotter, TestFile... classpath) {
+        fileSystemMirror.beforeTaskOutputsGenerated(Stub(TaskInternal))
+        return snapshotter.snapshot(new SimpleFileCollection(classpath), null, InputNormalizationStrategy.NOT_CONFIGURED)
+    }
+
+    def file(Object... path) {
+        tmpDir.file(path)
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state
+
+import com.google.common.collect.ImmutableList
+import com.google.common.collect.ImmutableSet
+import com.google.common.collect.ImmutableSortedMap
+import com.google.common.collect.ImmutableSortedSet
+import com.google.common.hash.HashCode
+import org.gradle.api.internal.cache.StringInterner
+import org.gradle.internal.id.UniqueId
+import org.gradle.internal.serialize.SerializerSpec
+
+class TaskExecutionSnapshotSerializerTest extends SerializerSpec {
+    def serializer = new TaskExecutionSnapshotSerializer(new StringInterner())
+
+    def "reads and writes the execution summary and details"() {
+        def buildId = UniqueId.generate()
+        def implementation = new ImplementationSnapshot("org.gradle.Task", HashCode.fromInt(123))
+        def execution = new TaskExecutionSnapshot(
+            true,
+            buildId,
+            implementation,
+            ImmutableList.of(implementation),
+            ImmutableSortedSet.of("out"),
+            ImmutableSet.of("/out"),
+            ImmutableSortedMap.<String, ValueSnapshot>of("prop", new StringValueSnapshot("value")),
+            ImmutableSortedMap.of("in", 1L),
+            ImmutableSortedMap.of("in", HashCode.fromInt(1)),
+            3L,
+            ImmutableSortedMap.of("out", 2L),
+            ImmutableSortedMap.of("out", HashCode.fromInt(2))
+        )
+
+        when:
+        def out = serialize(execution, serializer)
+
+        then:
+        out.successful
+        out.buildInvocationId == buildId
+        out.taskImplementation == implementation
+        out.taskActionsImplementations == [implementation]
+        out.cacheableOutputProperties as List == ["out"]
+        out.declaredOutputFilePaths as List == ["/out"]
+        out.inputProperties == ImmutableSortedMap.of("prop", new StringValueSnapshot("value"))
+        out.inputFilesSnapshotIds == ["in": 1L]
+        out.inputFilesHashes == ["in": HashCode.fromInt(1)]
+        out.discoveredFilesSnapshotId == 3L
+        out.outputFilesSnapshotIds == [out: 2L]
+        out.outputFilesHashes == [out: HashCode.fromInt(2)]
+    }
+
+    def "reads record in a different format as missing history"() {
+        def bytes = toBytes(new TaskExecutionSnapshot(
+            false,
+            UniqueId.generate(),
+            new ImplementationSnapshot("org.gradle.Task", null),
+            ImmutableList.of(),
+            ImmutableSortedSet.of(),
+            ImmutableSet.of(),
+            ImmutableSortedMap.of(),
+            ImmutableSortedMap.of(),
+            ImmutableSortedMap.of(),
+            3L,
+            ImmutableSortedMap.of(),
+            ImmutableSortedMap.of()
+        ), serializer)
+
+        when:
+        // Records written before the format was versioned start with the outcome of the execution
+        bytes[0] = 1
+
+        then:
+        fromBytes(bytes, serializer) == null
+    }
+}
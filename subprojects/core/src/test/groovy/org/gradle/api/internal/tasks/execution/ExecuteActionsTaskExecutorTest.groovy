@@ -107,7 +107,7 @@ class ExecuteActionsTaskExecutorTest extends Specification {
         then:
         1 * publicListener.beforeActions(task)
         then:
-        1 * internalListener.beforeTaskOutputsGenerated()
+        1 * internalListener.beforeTaskOutputsGenerated(_)
         then:
         1 * standardOutputCapture.start()
         then:
@@ -164,7 +164,7 @@ class ExecuteActionsTaskExecutorTest extends Specification {
         then:
         1 * publicListener.beforeActions(task)
         then:
-        1 * internalListener.beforeTaskOutputsGenerated()
+        1 * internalListener.beforeTaskOutputsGenerated(_)
         then:
         1 * standardOutputCapture.start()
 
@@ -203,7 +203,7 @@ class ExecuteActionsTaskExecutorTest extends Specification {
         then:
         1 * publicListener.beforeActions(task)
         then:
-        1 * internalListener.beforeTaskOutputsGenerated()
+        1 * internalListener.beforeTaskOutputsGenerated(_)
         then:
         1 * standardOutputCapture.start()
         then:
@@ -243,7 +243,7 @@ class ExecuteActionsTaskExecutorTest extends Specification {
         then:
         1 * publicListener.beforeActions(task)
         then:
-        1 * internalListener.beforeTaskOutputsGenerated()
+        1 * internalListener.beforeTaskOutputsGenerated(_)
         then:
         1 * standardOutputCapture.start()
         then:
@@ -281,7 +281,7 @@ class ExecuteActionsTaskExecutorTest extends Specification {
         then:
         1 * publicListener.beforeActions(task)
         then:
-        1 * internalListener.beforeTaskOutputsGenerated()
+        1 * internalListener.beforeTaskOutputsGenerated(_)
         then:
         1 * standardOutputCapture.start()
         then:
@@ -336,7 +336,7 @@ class ExecuteActionsTaskExecutorTest extends Specification {
         then:
         1 * publicListener.beforeActions(task)
         then:
-        1 * internalListener.beforeTaskOutputsGenerated()
+        1 * internalListener.beforeTaskOutputsGenerated(_)
         then:
         1 * standardOutputCapture.start()
         then:
@@ -383,7 +383,7 @@ class ExecuteActionsTaskExecutorTest extends Specification {
         then:
         1 * publicListener.beforeActions(task)
         then:
-        1 * internalListener.beforeTaskOutputsGenerated()
+        1 * internalListener.beforeTaskOutputsGenerated(_)
         then:
         1 * standardOutputCapture.start()
         then:
@@ -429,7 +429,7 @@ class ExecuteActionsTaskExecutorTest extends Specification {
         then:
         1 * publicListener.beforeActions(task)
         then:
-        1 * internalListener.beforeTaskOutputsGenerated()
+        1 * internalListener.beforeTaskOutputsGenerated(_)
         then:
         1 * standardOutputCapture.start()
         then:
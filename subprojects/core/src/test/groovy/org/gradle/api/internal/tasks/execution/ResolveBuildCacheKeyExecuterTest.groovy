@@ -52,11 +52,15 @@ class ResolveBuildCacheKeyExecuterTest extends Specification {
         then:
         with(buildOpResult(), ResolveBuildCacheKeyExecuter.OperationResultImpl) {
             key == cacheKey
+            buildCacheKeyCalculationTime >= 0
         }
 
         then:
         1 * task.getIdentityPath() >> Path.path(":foo")
         1 * taskContext.getTaskArtifactState() >> taskArtifactState
+        1 * taskArtifactState.ensureSnapshotBeforeTask()
+
+        then:
         1 * taskArtifactState.calculateCacheKey() >> cacheKey
 
         then:
@@ -82,6 +86,9 @@ class ResolveBuildCacheKeyExecuterTest extends Specification {
         then:
         1 * task.getIdentityPath() >> Path.path(":foo")
         1 * taskContext.getTaskArtifactState() >> taskArtifactState
+        1 * taskArtifactState.ensureSnapshotBeforeTask()
+
+        then:
         1 * taskArtifactState.calculateCacheKey() >> {
             throw failure
         }
@@ -100,6 +107,9 @@ class ResolveBuildCacheKeyExecuterTest extends Specification {
         then:
         1 * task.getIdentityPath() >> Path.path(":foo")
         1 * taskContext.getTaskArtifactState() >> taskArtifactState
+        1 * taskArtifactState.ensureSnapshotBeforeTask()
+
+        then:
         1 * taskArtifactState.calculateCacheKey() >> noCacheKey
 
         then:
@@ -125,7 +135,7 @@ class ResolveBuildCacheKeyExecuterTest extends Specification {
         def key = Mock(TaskOutputCachingBuildCacheKey) {
             getInputs() >> inputs
         }
-        def adapter = new ResolveBuildCacheKeyExecuter.OperationResultImpl(key)
+        def adapter = new ResolveBuildCacheKeyExecuter.OperationResultImpl(key, 1234)
 
         when:
         inputs.inputHashes >> ImmutableSortedMap.copyOf(b: HashCode.fromString("bb"), a: HashCode.fromString("aa"))
@@ -163,6 +173,7 @@ class ResolveBuildCacheKeyExecuterTest extends Specification {
 
         then:
         adapter.buildCacheKey == "ff"
+        adapter.buildCacheKeyCalculationTime == 1234
     }
 
     private SnapshotTaskInputsBuildOperationType.Result buildOpResult() {
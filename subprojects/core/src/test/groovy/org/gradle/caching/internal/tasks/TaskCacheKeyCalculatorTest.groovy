@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.tasks
+
+import com.google.common.collect.ImmutableList
+import com.google.common.collect.ImmutableSortedMap
+import com.google.common.collect.ImmutableSortedSet
+import com.google.common.hash.HashCode
+import org.gradle.api.internal.TaskInternal
+import org.gradle.api.internal.changedetection.state.FileCollectionSnapshot
+import org.gradle.api.internal.changedetection.state.ImplementationSnapshot
+import org.gradle.api.internal.changedetection.state.TaskExecution
+import org.gradle.api.internal.changedetection.state.ValueSnapshot
+import org.gradle.caching.internal.BuildCacheHasher
+import org.gradle.util.Path
+import spock.lang.Specification
+
+class TaskCacheKeyCalculatorTest extends Specification {
+    def implementation = new ImplementationSnapshot("org.gradle.Task", HashCode.fromInt(1))
+    def valueSnapshot = Mock(ValueSnapshot)
+    def fileSnapshot = Mock(FileCollectionSnapshot)
+
+    def "uses the hash of input file snapshots"() {
+        def execution = execution([value: valueSnapshot], [files: fileSnapshot])
+
+        when:
+        def key = TaskCacheKeyCalculator.calculate(task(":task"), execution)
+
+        then:
+        1 * valueSnapshot.appendToHasher(_) >> { BuildCacheHasher hasher -> hasher.putString("value") }
+        1 * fileSnapshot.getHash() >> HashCode.fromInt(2)
+        0 * fileSnapshot.appendToHasher(_)
+
+        and:
+        key.inputs.inputHashes.files == HashCode.fromInt(2)
+    }
+
+    def "same inputs produce the same key"() {
+        valueSnapshot.appendToHasher(_) >> { BuildCacheHasher hasher -> hasher.putString("value") }
+        fileSnapshot.getHash() >> HashCode.fromInt(2)
+
+        expect:
+        TaskCacheKeyCalculator.calculate(task(":task"), execution([value: valueSnapshot], [files: fileSnapshot])).hashCode == TaskCacheKeyCalculator.calculate(task(":task"), execution([value: valueSnapshot], [files: fileSnapshot])).hashCode
+    }
+
+    private TaskInternal task(String path) {
+        Stub(TaskInternal) {
+            getIdentityPath() >> Path.path(path)
+        }
+    }
+
+    private TaskExecution execution(Map<String, ValueSnapshot> inputProperties, Map<String, FileCollectionSnapshot> inputFiles) {
+        Stub(TaskExecution) {
+            getTaskImplementation() >> implementation
+            getTaskActionImplementations() >> ImmutableList.of(implementation)
+            getInputProperties() >> ImmutableSortedMap.copyOf(inputProperties)
+            getInputFilesSnapshot() >> ImmutableSortedMap.copyOf(inputFiles)
+            getOutputPropertyNamesForCacheKey() >> ImmutableSortedSet.of("output")
+        }
+    }
+}
@@ -752,6 +752,79 @@ class DefaultTaskExecutionPlanTest extends AbstractProjectBuilderSpec {
         e == failure
     }
 
+    def "executes tasks in plan order once their dependencies have completed"() {
+        given:
+        Task a = task("a")
+        Task b = task("b", dependsOn: [a])
+        Task c = task("c")
+        Task d = task("d", dependsOn: [b, c])
+        Task e = task("e", mustRunAfter: [d])
+
+        when:
+        addToGraphAndPopulate([e, d])
+
+        then:
+        executedTasks == [a, b, c, d, e]
+    }
+
+    def "does not examine blocked tasks when selecting the next task to execute"() {
+        given:
+        def chain = []
+        (1..100).each { i ->
+            chain << task(String.format("a%03d", i), dependsOn: chain.empty ? [] : [chain.last()])
+        }
+        def independent = (1..100).collect { i -> task(String.format("b%03d", i)) }
+
+        when:
+        addToGraphAndPopulate([chain.last()] + independent)
+        def started = []
+        101.times {
+            executionPlan.executeWithTask(workerLease, new Action<TaskInfo>() {
+                @Override
+                void execute(TaskInfo taskInfo) {
+                    started << taskInfo.task
+                }
+            })
+        }
+
+        then:
+        started == [chain.first()] + independent
+        // Each selection looks at the running head of the chain at most once, never at the tasks waiting on it
+        executionPlan.candidateTasksExamined <= 2 * started.size()
+    }
+
+    def "executes enforced dependencies of a finalizer before the finalizer"() {
+        given:
+        Task finalizerDependency = task("finalizerDependency")
+        Task finalizer = task("finalizer", dependsOn: [finalizerDependency])
+        Task finalized = task("finalized", finalizedBy: [finalizer])
+
+        when:
+        addToGraphAndPopulate([finalized])
+
+        then:
+        executedTasks == [finalized, finalizerDependency, finalizer]
+    }
+
+    def "executes tasks on the critical path first when prioritizing by previous durations"() {
+        given:
+        def durationHistory = Mock(TaskDurationHistory)
+        Task a = task("a")
+        Task b = task("b")
+        Task c = task("c", dependsOn: [b])
+        durationHistory.getPreviousDuration(a) >> 10
+        durationHistory.getPreviousDuration(b) >> 100
+        durationHistory.getPreviousDuration(c) >> 10
+
+        when:
+        executionPlan.useCriticalPathPrioritization(durationHistory)
+        addToGraphAndPopulate([a, c])
+
+        then:
+        executes(a, b, c)
+        executedTasks == [b, a, c]
+    }
+
     def "clear removes all tasks"() {
         given:
         _ * coordinationService.withStateLock(_) >> { args ->
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.btree;
+
+import org.gradle.internal.serialize.BaseSerializerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares looking up entries in a B-tree cache whose file is read through a {@link java.io.RandomAccessFile} with one that is read through a memory mapping.
+ */
+@State(Scope.Benchmark)
+public class MemoryMappedBlockStoreBenchmark {
+    private static final int ENTRIES = 10000;
+
+    @Param({"false", "true"})
+    boolean memoryMapped;
+
+    @Param({"64", "4096"})
+    int valueSize;
+
+    private File cacheFile;
+    private BTreePersistentIndexedCache<String, byte[]> cache;
+    private String[] keys;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        cacheFile = File.createTempFile("cache", ".bin");
+        cacheFile.delete();
+        Random random = new Random(1234L);
+        byte[] value = new byte[valueSize];
+        random.nextBytes(value);
+        cache = new BTreePersistentIndexedCache<String, byte[]>(cacheFile, BaseSerializerFactory.STRING_SERIALIZER, BaseSerializerFactory.BYTE_ARRAY_SERIALIZER, memoryMapped);
+        keys = new String[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+            keys[i] = "key-" + random.nextInt();
+            cache.put(keys[i], value);
+        }
+        // Reopen the cache, so the lookups don't benefit from blocks cached while the entries were added
+        cache.close();
+        cache = new BTreePersistentIndexedCache<String, byte[]>(cacheFile, BaseSerializerFactory.STRING_SERIALIZER, BaseSerializerFactory.BYTE_ARRAY_SERIALIZER, memoryMapped);
+    }
+
+    @TearDown
+    public void tearDown() {
+        cache.close();
+        cacheFile.delete();
+    }
+
+    @Benchmark
+    public byte[] get() {
+        return cache.get(keys[next++ % ENTRIES]);
+    }
+
+    @Benchmark
+    public byte[] getMissing() {
+        return cache.get("missing-" + (next++ % ENTRIES));
+    }
+}
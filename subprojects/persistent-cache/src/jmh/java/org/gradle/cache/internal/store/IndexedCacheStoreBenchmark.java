@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.store;
+
+import org.gradle.cache.PersistentIndexedCacheParameters.StoreType;
+import org.gradle.cache.internal.btree.BTreePersistentIndexedCache;
+import org.gradle.internal.serialize.BaseSerializerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares the throughput of the indexed cache stores when repeatedly updating and reading a fixed set of entries.
+ *
+ * <p>The size of the file after the updates is printed when a trial ends, once before and once after closing the store,
+ * as the stores may buffer writes until they are closed. The log structured store compacts its file as it goes, so its size also
+ * shows how much space the overwritten records take up between compactions.</p>
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class IndexedCacheStoreBenchmark {
+    private static final int ENTRIES = 10000;
+
+    @Param({"BTREE", "LOG_STRUCTURED"})
+    StoreType storeType;
+
+    @Param({"64", "4096"})
+    int valueSize;
+
+    private File cacheFile;
+    private IndexedCacheStore<String, byte[]> store;
+    private String[] keys;
+    private byte[][] values;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        cacheFile = File.createTempFile("cache", storeType.getFileExtension());
+        cacheFile.delete();
+        store = createStore();
+        Random random = new Random(1234L);
+        keys = new String[ENTRIES];
+        values = new byte[16][];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new byte[valueSize];
+            random.nextBytes(values[i]);
+        }
+        for (int i = 0; i < ENTRIES; i++) {
+            keys[i] = "key-" + random.nextInt();
+            store.put(keys[i], values[i % values.length]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println();
+        System.out.println(storeType + " file size before close: " + cacheFile.length());
+        store.close();
+        System.out.println(storeType + " file size after close: " + cacheFile.length());
+        cacheFile.delete();
+    }
+
+    private IndexedCacheStore<String, byte[]> createStore() {
+        switch (storeType) {
+            case BTREE:
+                return new BTreePersistentIndexedCache<String, byte[]>(cacheFile, BaseSerializerFactory.STRING_SERIALIZER, BaseSerializerFactory.BYTE_ARRAY_SERIALIZER);
+            case LOG_STRUCTURED:
+                return new LogStructuredIndexedCacheStore<String, byte[]>(cacheFile, BaseSerializerFactory.STRING_SERIALIZER, BaseSerializerFactory.BYTE_ARRAY_SERIALIZER);
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    @Benchmark
+    public void put() {
+        int index = next++;
+        store.put(keys[index % ENTRIES], values[index % values.length]);
+    }
+
+    @Benchmark
+    public byte[] get() {
+        return store.get(keys[next++ % ENTRIES]);
+    }
+}
@@ -26,6 +26,8 @@ public class PersistentIndexedCacheParameters<K, V> {
     private final Serializer<K> keySerializer;
     private final Serializer<V> valueSerializer;
     private CacheDecorator cacheDecorator;
+    private StoreType storeType = StoreType.BTREE;
+    private String updateQueueName;
 
     public PersistentIndexedCacheParameters(String cacheName, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
         this.cacheName = cacheName;
@@ -67,4 +69,60 @@ public class PersistentIndexedCacheParameters<K, V> {
         this.cacheDecorator = cacheDecorator;
         return this;
     }
+
+    public StoreType getStoreType() {
+        return storeType;
+    }
+
+    public PersistentIndexedCacheParameters<K, V> storeType(StoreType storeType) {
+        assert storeType != null;
+        this.storeType = storeType;
+        return this;
+    }
+
+    /**
+     * Returns the name of the queue that the updates of the cache are written from. Defaults to the name of the cache.
+     */
+    public String getUpdateQueueName() {
+        return updateQueueName == null ? cacheName : updateQueueName;
+    }
+
+    /**
+     * Writes the updates of the cache from the given queue. The updates of caches that share a queue are written in the order they were made,
+     * while the updates of caches with different queues may be written in any order. Caches whose entries refer to the entries of another cache
+     * should share a queue with it, so that an entry is never written before the entries it refers to.
+     */
+    public PersistentIndexedCacheParameters<K, V> updateQueue(String updateQueueName) {
+        assert updateQueueName != null;
+        this.updateQueueName = updateQueueName;
+        return this;
+    }
+
+    /**
+     * How the entries of the cache are stored on disk.
+     */
+    public enum StoreType {
+        /**
+         * Updates the entries in place in a B-tree, reusing the space of removed entries.
+         */
+        BTREE(".bin"),
+        /**
+         * Uses the same file as {@link #BTREE}, but reads it through a memory mapping. Better suited for caches that are mostly read.
+         */
+        MEMORY_MAPPED_BTREE(".bin"),
+        /**
+         * Appends every update to a log and keeps an in-memory index of the latest entries. Better suited for caches with many updates.
+         */
+        LOG_STRUCTURED(".log");
+
+        private final String fileExtension;
+
+        StoreType(String fileExtension) {
+            this.fileExtension = fileExtension;
+        }
+
+        public String getFileExtension() {
+            return fileExtension;
+        }
+    }
 }
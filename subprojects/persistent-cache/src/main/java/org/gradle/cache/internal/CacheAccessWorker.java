@@ -24,25 +24,56 @@ import org.gradle.internal.concurrent.ExecutorPolicy;
 import org.gradle.internal.concurrent.Stoppable;
 import org.gradle.internal.time.CountdownTimer;
 import org.gradle.internal.time.Timers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Runs the asynchronous cache operations of a {@link CacheAccess} on a single thread, in batches under the cache lock.
+ *
+ * <p>Each indexed cache has its own queue, unless it shares the queue of another cache, see {@link #forCache(String)}. Operations on one queue
+ * run in the order they were submitted, but a read or flush on one queue only waits for the operations of that queue, not for those of the other queues.
+ * Operations of different queues may therefore be written in any order, so caches whose entries refer to the entries of another cache share its queue,
+ * see {@link org.gradle.cache.PersistentIndexedCacheParameters#updateQueue(String)}.</p>
+ *
+ * <p>When a thread waits for a read or flush, its queue is run next: the worker stops running the current queue after the operation in progress,
+ * and continues with it later in the same batch.</p>
+ *
+ * <p>The queues share one capacity, so the number of pending operations is bounded as it was with a single queue. A producer is blocked
+ * when the operations pending for all queues together use up the capacity.</p>
+ */
 class CacheAccessWorker implements Runnable, Stoppable, AsyncCacheAccess {
-    private final BlockingQueue<Runnable> workQueue;
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheAccessWorker.class);
+
     private final String displayName;
     private final CacheAccess cacheAccess;
     private final long batchWindowMillis;
     private final long maximumLockingTimeMillis;
-    private boolean closed;
-    private boolean workerCompleted;
+    // Shared by all queues, one permit for each pending operation
+    private final Semaphore queueCapacity;
+    private final CacheQueue defaultQueue;
+    private final Map<String, CacheQueue> cacheQueues = new ConcurrentHashMap<String, CacheQueue>();
+    // Queues that may have work, each queue appears at most once unless a read or flush moved it to the front
+    private final BlockingDeque<CacheQueue> readyQueues = new LinkedBlockingDeque<CacheQueue>();
+    private final CacheQueue shutdownMarker;
+    private volatile boolean closed;
+    private volatile boolean workerCompleted;
     private boolean stopSeen;
     private final CountDownLatch doneSignal = new CountDownLatch(1);
     private final ExecutorPolicy.CatchAndRecordFailures failureHandler = new ExecutorPolicy.CatchAndRecordFailures();
@@ -53,53 +84,61 @@ class CacheAccessWorker implements Runnable, Stoppable, AsyncCacheAccess {
         this.batchWindowMillis = 200;
         this.maximumLockingTimeMillis = 5000;
         HeapProportionalCacheSizer heapProportionalCacheSizer = new HeapProportionalCacheSizer();
-        int queueCapacity = Math.min(4000, heapProportionalCacheSizer.scaleCacheSize(40000));
-        workQueue = new ArrayBlockingQueue<Runnable>(queueCapacity, true);
+        queueCapacity = new Semaphore(Math.min(4000, heapProportionalCacheSizer.scaleCacheSize(40000)), true);
+        defaultQueue = new CacheQueue(displayName);
+        shutdownMarker = new CacheQueue("shutdown");
     }
 
-    @Override
-    public void enqueue(Runnable task) {
-        addToQueue(task);
+    /**
+     * Returns an {@link AsyncCacheAccess} whose operations are queued separately from those of the other queues. Caches that use the same queue name share the queue.
+     */
+    public AsyncCacheAccess forCache(String queueName) {
+        CacheQueue queue = cacheQueues.get(queueName);
+        if (queue == null) {
+            synchronized (cacheQueues) {
+                queue = cacheQueues.get(queueName);
+                if (queue == null) {
+                    queue = new CacheQueue(displayName + " " + queueName);
+                    cacheQueues.put(queueName, queue);
+                }
+            }
+        }
+        return queue;
     }
 
-    private void addToQueue(Runnable task) {
-        if (closed) {
-            throw new IllegalStateException("The worker has already been closed. Cannot add more work to queue.");
-        }
-        try {
-            workQueue.put(task);
-        } catch (InterruptedException e) {
-            throw UncheckedException.throwAsUncheckedException(e);
-        }
+    @Override
+    public void enqueue(Runnable task) {
+        defaultQueue.enqueue(task);
     }
 
     public <T> T read(final Factory<T> task) {
-        FutureTask<T> futureTask = new FutureTask<T>(new Callable<T>() {
-            @Override
-            public T call() throws Exception {
-                return task.create();
-            }
-        });
-        addToQueue(futureTask);
-        try {
-            return futureTask.get();
-        } catch (ExecutionException e) {
-            throw UncheckedException.throwAsUncheckedException(e.getCause());
-        } catch (InterruptedException e) {
-            throw UncheckedException.throwAsUncheckedException(e);
-        }
+        return defaultQueue.read(task);
     }
 
+    /**
+     * Blocks until the operations submitted to all queues have completed.
+     */
     @Override
-    public synchronized void flush() {
-        if (!workerCompleted && !closed) {
-            FlushOperationsCommand flushOperationsCommand = new FlushOperationsCommand();
-            addToQueue(flushOperationsCommand);
-            flushOperationsCommand.await();
+    public void flush() {
+        List<FlushOperationsCommand> flushes = new ArrayList<FlushOperationsCommand>();
+        for (CacheQueue queue : allQueues()) {
+            FlushOperationsCommand flush = queue.startFlush();
+            if (flush != null) {
+                flushes.add(flush);
+            }
+        }
+        for (FlushOperationsCommand flush : flushes) {
+            flush.await();
         }
         rethrowFailure();
     }
 
+    private List<CacheQueue> allQueues() {
+        List<CacheQueue> queues = new ArrayList<CacheQueue>(cacheQueues.values());
+        queues.add(defaultQueue);
+        return queues;
+    }
+
     private void rethrowFailure() {
         failureHandler.onStop();
     }
@@ -129,19 +168,23 @@ class CacheAccessWorker implements Runnable, Stoppable, AsyncCacheAccess {
         try {
             while (!Thread.currentThread().isInterrupted() && !stopSeen) {
                 try {
-                    Runnable runnable = takeFromQueue();
-                    Class<? extends Runnable> runnableClass = runnable.getClass();
-                    if (runnableClass == ShutdownOperationsCommand.class) {
-                        // not holding the cache lock, can stop now
-                        stopSeen = true;
-                        break;
-                    } else if (runnableClass == FlushOperationsCommand.class) {
-                        // not holding the cache lock, flush is done so notify flush thread and continue
-                        FlushOperationsCommand flushOperationsCommand = (FlushOperationsCommand) runnable;
-                        flushOperationsCommand.completed();
+                    CacheQueue queue = readyQueues.take();
+                    if (queue == shutdownMarker) {
+                        if (!hasQueuedOperations()) {
+                            // not holding the cache lock, can stop now
+                            stopSeen = true;
+                            break;
+                        }
+                        // Run whatever is left before stopping
+                        flushOperations(queue);
                     } else {
-                        // need to run operation under cache lock
-                        flushOperations(runnable);
+                        queue.unschedule();
+                        // not holding the cache lock, flushes at the head of the queue are done so notify flush threads and continue
+                        queue.completeLeadingFlushes();
+                        if (queue.hasOperations()) {
+                            // need to run operations under cache lock
+                            flushOperations(queue);
+                        }
                     }
                 } catch (InterruptedException e) {
                     throw UncheckedException.throwAsUncheckedException(e);
@@ -151,49 +194,45 @@ class CacheAccessWorker implements Runnable, Stoppable, AsyncCacheAccess {
             failureHandler.onFailure("Failed to execute cache operations on " + displayName, t);
         } finally {
             // Notify any waiting flush threads that the worker is done, possibly with a failure
-            List<Runnable> runnables = new ArrayList<Runnable>();
-            workQueue.drainTo(runnables);
-            for (Runnable runnable : runnables) {
-                if (runnable instanceof FlushOperationsCommand) {
-                    FlushOperationsCommand flushOperationsCommand = (FlushOperationsCommand) runnable;
-                    flushOperationsCommand.completed();
-                }
-            }
             workerCompleted = true;
+            for (CacheQueue queue : allQueues()) {
+                queue.discard();
+            }
             doneSignal.countDown();
         }
     }
 
-    private Runnable takeFromQueue() throws InterruptedException {
-        return workQueue.take();
+    private boolean hasQueuedOperations() {
+        for (CacheQueue queue : allQueues()) {
+            if (queue.hasOperations()) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private void flushOperations(final Runnable updateOperation) {
+    private void flushOperations(final CacheQueue firstQueue) {
         final List<FlushOperationsCommand> flushOperations = new ArrayList<FlushOperationsCommand>();
         try {
             cacheAccess.useCache(new Runnable() {
                 @Override
                 public void run() {
                     CountdownTimer timer = Timers.startTimer(maximumLockingTimeMillis, TimeUnit.MILLISECONDS);
-                    if (updateOperation != null) {
-                        failureHandler.onExecute(updateOperation);
-                    }
-                    Runnable otherOperation;
+                    CacheQueue queue = firstQueue;
                     try {
-                        while ((otherOperation = workQueue.poll(batchWindowMillis, TimeUnit.MILLISECONDS)) != null) {
-                            failureHandler.onExecute(otherOperation);
-                            final Class<? extends Runnable> runnableClass = otherOperation.getClass();
-                            if (runnableClass == FlushOperationsCommand.class) {
-                                flushOperations.add((FlushOperationsCommand) otherOperation);
-                            }
-                            if (runnableClass == ShutdownOperationsCommand.class) {
+                        while (queue != null) {
+                            if (queue == shutdownMarker) {
                                 stopSeen = true;
+                                for (CacheQueue remaining : allQueues()) {
+                                    remaining.runOperations(flushOperations, null);
+                                }
+                                break;
                             }
-                            if (runnableClass == ShutdownOperationsCommand.class
-                                    || runnableClass == FlushOperationsCommand.class
-                                    || timer.hasExpired()) {
+                            queue.unschedule();
+                            if (!queue.runOperations(flushOperations, timer) || timer.hasExpired()) {
                                 break;
                             }
+                            queue = readyQueues.poll(batchWindowMillis, TimeUnit.MILLISECONDS);
                         }
                     } catch (InterruptedException e) {
                         throw UncheckedException.throwAsUncheckedException(e);
@@ -210,24 +249,215 @@ class CacheAccessWorker implements Runnable, Stoppable, AsyncCacheAccess {
     public synchronized void stop() {
         if (!closed && !workerCompleted) {
             closed = true;
-            try {
-                workQueue.put(new ShutdownOperationsCommand());
-            } catch (InterruptedException e) {
-                // ignore
-            }
+            readyQueues.offerLast(shutdownMarker);
             try {
                 doneSignal.await();
             } catch (InterruptedException e) {
                 // ignore
             }
+            for (CacheQueue queue : allQueues()) {
+                queue.logStatistics();
+            }
         }
         rethrowFailure();
     }
 
-    private static class ShutdownOperationsCommand implements Runnable {
+    /**
+     * The operations of one cache, with statistics about how long the operations and the threads submitting them had to wait.
+     */
+    private class CacheQueue implements AsyncCacheAccess {
+        private final String displayName;
+        private final BlockingQueue<QueuedOperation> operations;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // Set while a thread waits for a read or flush of this queue
+        private volatile boolean urgent;
+        private final AtomicLong operationCount = new AtomicLong();
+        private final AtomicLong maxDepth = new AtomicLong();
+        private final AtomicLong blockedNanos = new AtomicLong();
+        private final AtomicLong waitNanos = new AtomicLong();
+
+        CacheQueue(String displayName) {
+            this.displayName = displayName;
+            this.operations = new LinkedBlockingQueue<QueuedOperation>();
+        }
+
         @Override
-        public void run() {
-            // do nothing
+        public void enqueue(Runnable task) {
+            add(task);
+            schedule(false);
+        }
+
+        @Override
+        public <T> T read(final Factory<T> task) {
+            FutureTask<T> futureTask = new FutureTask<T>(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return task.create();
+                }
+            });
+            add(futureTask);
+            schedule(true);
+            try {
+                return futureTask.get();
+            } catch (ExecutionException e) {
+                throw UncheckedException.throwAsUncheckedException(e.getCause());
+            } catch (InterruptedException e) {
+                throw UncheckedException.throwAsUncheckedException(e);
+            }
+        }
+
+        /**
+         * Blocks until the operations submitted to this queue have completed.
+         */
+        @Override
+        public void flush() {
+            FlushOperationsCommand flush = startFlush();
+            if (flush != null) {
+                flush.await();
+            }
+            rethrowFailure();
+        }
+
+        private synchronized FlushOperationsCommand startFlush() {
+            if (workerCompleted || closed) {
+                return null;
+            }
+            FlushOperationsCommand flushOperationsCommand = new FlushOperationsCommand();
+            add(flushOperationsCommand);
+            schedule(true);
+            return flushOperationsCommand;
+        }
+
+        private void add(Runnable task) {
+            if (closed) {
+                throw new IllegalStateException("The worker has already been closed. Cannot add more work to queue.");
+            }
+            if (!queueCapacity.tryAcquire()) {
+                long start = System.nanoTime();
+                try {
+                    queueCapacity.acquire();
+                } catch (InterruptedException e) {
+                    throw UncheckedException.throwAsUncheckedException(e);
+                }
+                blockedNanos.addAndGet(System.nanoTime() - start);
+            }
+            operations.add(new QueuedOperation(task));
+            operationCount.incrementAndGet();
+            long depth = operations.size();
+            long max;
+            while ((max = maxDepth.get()) < depth && !maxDepth.compareAndSet(max, depth)) {
+                // retry
+            }
+        }
+
+        /**
+         * Makes this queue known to the worker. A read or flush puts the queue at the front, as a thread is waiting for it.
+         */
+        private void schedule(boolean urgent) {
+            if (urgent) {
+                this.urgent = true;
+                scheduled.set(true);
+                readyQueues.offerFirst(this);
+            } else if (scheduled.compareAndSet(false, true)) {
+                readyQueues.offerLast(this);
+            }
+        }
+
+        /**
+         * Called by the worker before taking operations from this queue, so operations added from now on schedule the queue again.
+         */
+        void unschedule() {
+            urgent = false;
+            scheduled.set(false);
+        }
+
+        boolean hasOperations() {
+            return !operations.isEmpty();
+        }
+
+        void completeLeadingFlushes() {
+            QueuedOperation operation;
+            while ((operation = operations.peek()) != null && operation.task.getClass() == FlushOperationsCommand.class) {
+                poll();
+                ((FlushOperationsCommand) operation.task).completed();
+            }
+        }
+
+        /**
+         * Runs the queued operations until the queue is empty, a flush is seen, the timer expires or another queue is waited for.
+         *
+         * @return false when the batch should end.
+         */
+        boolean runOperations(List<FlushOperationsCommand> flushOperations, CountdownTimer timer) {
+            QueuedOperation operation;
+            while ((operation = poll()) != null) {
+                waitNanos.addAndGet(System.nanoTime() - operation.queuedAt);
+                failureHandler.onExecute(operation.task);
+                if (operation.task.getClass() == FlushOperationsCommand.class) {
+                    flushOperations.add((FlushOperationsCommand) operation.task);
+                    if (timer != null) {
+                        schedule(false);
+                        return false;
+                    }
+                }
+                if (timer != null && timer.hasExpired()) {
+                    schedule(false);
+                    return false;
+                }
+                if (timer != null && isAnotherQueueWaitedFor()) {
+                    // Continue with this queue once the other queue has run
+                    schedule(false);
+                    return true;
+                }
+            }
+            return true;
+        }
+
+        private boolean isAnotherQueueWaitedFor() {
+            CacheQueue next = readyQueues.peekFirst();
+            return next != null && next != this && next.urgent;
+        }
+
+        void discard() {
+            QueuedOperation operation;
+            while ((operation = poll()) != null) {
+                if (operation.task instanceof FlushOperationsCommand) {
+                    ((FlushOperationsCommand) operation.task).completed();
+                }
+            }
+        }
+
+        /**
+         * Takes the next operation, returning its share of the capacity.
+         */
+        private QueuedOperation poll() {
+            QueuedOperation operation = operations.poll();
+            if (operation != null) {
+                queueCapacity.release();
+            }
+            return operation;
+        }
+
+        void logStatistics() {
+            long count = operationCount.get();
+            if (count > 0 && LOGGER.isDebugEnabled()) {
+                LOGGER.debug("{}: {} operations, max queue depth {}, average wait {}ms, submitting threads blocked for {}ms",
+                    displayName, count, maxDepth.get(), TimeUnit.NANOSECONDS.toMillis(waitNanos.get()) / count, TimeUnit.NANOSECONDS.toMillis(blockedNanos.get()));
+            }
+        }
+
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+
+    private static class QueuedOperation {
+        private final Runnable task;
+        private final long queuedAt = System.nanoTime();
+
+        QueuedOperation(Runnable task) {
+            this.task = task;
         }
     }
 }
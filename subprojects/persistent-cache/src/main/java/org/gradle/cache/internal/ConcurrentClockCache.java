@@ -0,0 +1,233 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded in-memory cache whose reads do not take any lock.
+ *
+ * <p>Entries are kept in an open-addressing table with linear probing. Reads only ever see immutable entries, so they never block.
+ * Writes are serialized on the cache. When the cache is full, an entry is evicted using the clock algorithm: each read marks its entry as referenced,
+ * and the eviction hand clears these marks until it finds an entry that has not been read since the hand last passed it.</p>
+ *
+ * <p>Removed and evicted entries leave a tombstone behind, so a slot that is in use never becomes empty again. Instead, the table is rebuilt when tombstones
+ * take up too much space. This means that a read probing the table can never miss an entry that is present.</p>
+ *
+ * <p>Keys and values must not be null.</p>
+ */
+public class ConcurrentClockCache<K, V> {
+    private static final Entry<?, ?> TOMBSTONE = new Entry<Object, Object>(null, 0, null);
+
+    private final int maxEntries;
+    private final EvictionListener evictionListener;
+    private volatile AtomicReferenceArray<Entry<K, V>> table;
+    private volatile int size;
+    private volatile long evictionCount;
+    // Number of slots that are either live entries or tombstones, guarded by this
+    private int usedSlots;
+    private int hand;
+
+    public ConcurrentClockCache(int maxEntries) {
+        this(maxEntries, null);
+    }
+
+    public ConcurrentClockCache(int maxEntries, @Nullable EvictionListener evictionListener) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Maximum number of entries must be positive.");
+        }
+        this.maxEntries = maxEntries;
+        this.evictionListener = evictionListener;
+        this.table = new AtomicReferenceArray<Entry<K, V>>(tableSize(maxEntries));
+    }
+
+    private static int tableSize(int maxEntries) {
+        // Keep the table at most half full with live entries
+        return Integer.highestOneBit(Math.max(maxEntries * 2 - 1, 1)) << 1;
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the value for the given key, or null when not present. Never blocks.
+     */
+    @Nullable
+    public V get(Object key) {
+        int hash = hash(key);
+        AtomicReferenceArray<Entry<K, V>> table = this.table;
+        int mask = table.length() - 1;
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            Entry<K, V> entry = table.get(i);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.hash == hash && entry != TOMBSTONE && key.equals(entry.key)) {
+                if (!entry.referenced) {
+                    entry.referenced = true;
+                }
+                return entry.value;
+            }
+        }
+    }
+
+    public synchronized void put(K key, V value) {
+        int hash = hash(key);
+        AtomicReferenceArray<Entry<K, V>> table = this.table;
+        int mask = table.length() - 1;
+        int free = -1;
+        int i = hash & mask;
+        for (;; i = (i + 1) & mask) {
+            Entry<K, V> entry = table.get(i);
+            if (entry == null) {
+                break;
+            }
+            if (entry == TOMBSTONE) {
+                if (free < 0) {
+                    free = i;
+                }
+            } else if (entry.hash == hash && key.equals(entry.key)) {
+                Entry<K, V> replacement = new Entry<K, V>(key, hash, value);
+                replacement.referenced = entry.referenced;
+                table.set(i, replacement);
+                return;
+            }
+        }
+        if (size >= maxEntries) {
+            evict(table);
+        }
+        if (free < 0) {
+            free = i;
+            usedSlots++;
+        }
+        table.set(free, new Entry<K, V>(key, hash, value));
+        size++;
+        if (usedSlots > table.length() / 4 * 3) {
+            rebuild();
+        }
+    }
+
+    public synchronized void remove(Object key) {
+        int hash = hash(key);
+        AtomicReferenceArray<Entry<K, V>> table = this.table;
+        int mask = table.length() - 1;
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            Entry<K, V> entry = table.get(i);
+            if (entry == null) {
+                return;
+            }
+            if (entry.hash == hash && entry != TOMBSTONE && key.equals(entry.key)) {
+                table.set(i, tombstone());
+                size--;
+                return;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        table = new AtomicReferenceArray<Entry<K, V>>(table.length());
+        size = 0;
+        usedSlots = 0;
+        hand = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    private void evict(AtomicReferenceArray<Entry<K, V>> table) {
+        int mask = table.length() - 1;
+        while (true) {
+            int i = hand;
+            hand = (i + 1) & mask;
+            Entry<K, V> entry = table.get(i);
+            if (entry == null || entry == TOMBSTONE) {
+                continue;
+            }
+            if (entry.referenced) {
+                entry.referenced = false;
+            } else {
+                table.set(i, tombstone());
+                size--;
+                evictionCount++;
+                if (evictionListener != null) {
+                    evictionListener.entryEvicted(this);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Copies the live entries to a new table, dropping the tombstones. Reads still using the old table are not affected, as it is not changed anymore.
+     */
+    private void rebuild() {
+        AtomicReferenceArray<Entry<K, V>> oldTable = table;
+        AtomicReferenceArray<Entry<K, V>> newTable = new AtomicReferenceArray<Entry<K, V>>(oldTable.length());
+        int mask = newTable.length() - 1;
+        for (int i = 0; i < oldTable.length(); i++) {
+            Entry<K, V> entry = oldTable.get(i);
+            if (entry == null || entry == TOMBSTONE) {
+                continue;
+            }
+            int j = entry.hash & mask;
+            while (newTable.get(j) != null) {
+                j = (j + 1) & mask;
+            }
+            newTable.set(j, entry);
+        }
+        usedSlots = size;
+        hand = 0;
+        table = newTable;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Entry<K, V> tombstone() {
+        return (Entry<K, V>) TOMBSTONE;
+    }
+
+    /**
+     * Notified while the cache is being updated, so should not call back into the cache other than to query its size.
+     */
+    public interface EvictionListener {
+        void entryEvicted(ConcurrentClockCache<?, ?> cache);
+    }
+
+    private static class Entry<K, V> {
+        final K key;
+        final int hash;
+        final V value;
+        volatile boolean referenced;
+
+        Entry(K key, int hash, V value) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+        }
+    }
+}
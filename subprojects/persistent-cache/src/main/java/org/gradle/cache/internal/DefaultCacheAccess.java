@@ -19,7 +19,6 @@ import com.google.common.base.Objects;
 import net.jcip.annotations.ThreadSafe;
 import org.gradle.api.Action;
 import org.gradle.api.GradleException;
-import org.gradle.cache.AsyncCacheAccess;
 import org.gradle.cache.CacheDecorator;
 import org.gradle.cache.FileAccess;
 import org.gradle.cache.FileLock;
@@ -29,6 +28,8 @@ import org.gradle.cache.LockTimeoutException;
 import org.gradle.cache.MultiProcessSafePersistentIndexedCache;
 import org.gradle.cache.PersistentIndexedCacheParameters;
 import org.gradle.cache.internal.btree.BTreePersistentIndexedCache;
+import org.gradle.cache.internal.store.IndexedCacheStore;
+import org.gradle.cache.internal.store.LogStructuredIndexedCacheStore;
 import org.gradle.cache.internal.cacheops.CacheAccessOperationsStack;
 import org.gradle.internal.Cast;
 import org.gradle.internal.Factories;
@@ -48,6 +49,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -74,6 +76,7 @@ public class DefaultCacheAccess implements CacheCoordinator {
     private final CacheAccessOperationsStack operations;
 
     private ManagedExecutor cacheUpdateExecutor;
+    private ManagedExecutor compactionExecutor;
     private CacheAccessWorker cacheAccessWorker;
     private final Lock stateLock = new ReentrantLock(); // protects the following state
     private final Condition condition = stateLock.newCondition();
@@ -120,7 +123,7 @@ public class DefaultCacheAccess implements CacheCoordinator {
         }
     }
 
-    private synchronized AsyncCacheAccess getCacheAccessWorker() {
+    private synchronized CacheAccessWorker getCacheAccessWorker() {
         if (cacheAccessWorker == null) {
             cacheAccessWorker = new CacheAccessWorker(cacheDisplayName, this);
             cacheUpdateExecutor = executorFactory.create("Cache worker for " + cacheDisplayName);
@@ -129,6 +132,13 @@ public class DefaultCacheAccess implements CacheCoordinator {
         return cacheAccessWorker;
     }
 
+    private synchronized Executor getCompactionExecutor() {
+        if (compactionExecutor == null) {
+            compactionExecutor = executorFactory.create("Cache compaction for " + cacheDisplayName);
+        }
+        return compactionExecutor;
+    }
+
     @Override
     public void open() {
         stateLock.lock();
@@ -161,6 +171,10 @@ public class DefaultCacheAccess implements CacheCoordinator {
             cacheUpdateExecutor.stop();
             cacheUpdateExecutor = null;
         }
+        if (compactionExecutor != null) {
+            compactionExecutor.stop();
+            compactionExecutor = null;
+        }
         stateLock.lock();
         try {
             // Take ownership
@@ -277,18 +291,29 @@ public class DefaultCacheAccess implements CacheCoordinator {
         IndexedCacheEntry<K, V> entry = Cast.uncheckedCast(caches.get(parameters.getCacheName()));
         try {
             if (entry == null) {
-                final File cacheFile = new File(baseDir, parameters.getCacheName() + ".bin");
+                final File cacheFile = new File(baseDir, parameters.getCacheName() + parameters.getStoreType().getFileExtension());
                 LOG.info("Creating new cache for {}, path {}, access {}", parameters.getCacheName(), cacheFile, this);
-                Factory<BTreePersistentIndexedCache<K, V>> indexedCacheFactory = new Factory<BTreePersistentIndexedCache<K, V>>() {
-                    public BTreePersistentIndexedCache<K, V> create() {
-                        return doCreateCache(cacheFile, parameters.getKeySerializer(), parameters.getValueSerializer());
+                Factory<IndexedCacheStore<K, V>> indexedCacheFactory = new Factory<IndexedCacheStore<K, V>>() {
+                    // Keeps its index when closed, so it is opened again rather than recreated
+                    private LogStructuredIndexedCacheStore<K, V> logStructuredStore;
+
+                    public IndexedCacheStore<K, V> create() {
+                        if (logStructuredStore != null) {
+                            logStructuredStore.reopen();
+                            return logStructuredStore;
+                        }
+                        IndexedCacheStore<K, V> store = doCreateCache(cacheFile, parameters);
+                        if (store instanceof LogStructuredIndexedCacheStore) {
+                            logStructuredStore = Cast.uncheckedCast(store);
+                        }
+                        return store;
                     }
                 };
 
                 MultiProcessSafePersistentIndexedCache<K, V> indexedCache = new DefaultMultiProcessSafePersistentIndexedCache<K, V>(indexedCacheFactory, fileAccess);
                 CacheDecorator decorator = parameters.getCacheDecorator();
                 if (decorator != null) {
-                    indexedCache = decorator.decorate(cacheFile.getAbsolutePath(), parameters.getCacheName(), indexedCache, crossProcessCacheAccess, getCacheAccessWorker());
+                    indexedCache = decorator.decorate(cacheFile.getAbsolutePath(), parameters.getCacheName(), indexedCache, crossProcessCacheAccess, getCacheAccessWorker().forCache(parameters.getUpdateQueueName()));
                     if (fileLock == null) {
                         useCache(NO_OP);
                     }
@@ -307,8 +332,17 @@ public class DefaultCacheAccess implements CacheCoordinator {
         }
     }
 
-    <K, V> BTreePersistentIndexedCache<K, V> doCreateCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
-        return new BTreePersistentIndexedCache<K, V>(cacheFile, keySerializer, valueSerializer);
+    <K, V> IndexedCacheStore<K, V> doCreateCache(File cacheFile, PersistentIndexedCacheParameters<K, V> parameters) {
+        switch (parameters.getStoreType()) {
+            case BTREE:
+                return new BTreePersistentIndexedCache<K, V>(cacheFile, parameters.getKeySerializer(), parameters.getValueSerializer());
+            case MEMORY_MAPPED_BTREE:
+                return new BTreePersistentIndexedCache<K, V>(cacheFile, parameters.getKeySerializer(), parameters.getValueSerializer(), true);
+            case LOG_STRUCTURED:
+                return new LogStructuredIndexedCacheStore<K, V>(cacheFile, parameters.getKeySerializer(), parameters.getValueSerializer(), getCompactionExecutor());
+            default:
+                throw new AssertionError();
+        }
     }
 
     /**
@@ -439,6 +473,7 @@ public class DefaultCacheAccess implements CacheCoordinator {
             checkCompatibleKeySerializer(faultMessages, parameters.getKeySerializer());
             checkCompatibleValueSerializer(faultMessages, parameters.getValueSerializer());
             checkCompatibleCacheDecorator(faultMessages, parameters.getCacheDecorator());
+            checkCompatibleStoreType(faultMessages, parameters.getStoreType());
 
             if (!faultMessages.isEmpty()) {
                 String lineSeparator = SystemProperties.getInstance().getLineSeparator();
@@ -481,6 +516,14 @@ public class DefaultCacheAccess implements CacheCoordinator {
                         cacheDecorator, parameters.getCacheDecorator()));
             }
         }
+
+        private void checkCompatibleStoreType(Collection<String> faultMessages, PersistentIndexedCacheParameters.StoreType storeType) {
+            if (storeType != parameters.getStoreType()) {
+                faultMessages.add(
+                    String.format(" * Requested store type (%s) doesn't match current store type (%s)",
+                        storeType, parameters.getStoreType()));
+            }
+        }
     }
 
     private static class InvalidCacheReuseException extends GradleException {
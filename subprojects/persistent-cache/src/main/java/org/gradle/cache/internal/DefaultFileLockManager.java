@@ -36,6 +36,7 @@ import org.gradle.internal.concurrent.Stoppable;
 import org.gradle.internal.id.IdGenerator;
 import org.gradle.internal.id.RandomLongIdGenerator;
 import org.gradle.internal.time.CountdownTimer;
+import org.gradle.internal.time.Timer;
 import org.gradle.internal.time.Timers;
 import org.gradle.util.GFileUtils;
 import org.slf4j.Logger;
@@ -43,6 +44,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.LinkedHashSet;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
@@ -55,6 +57,8 @@ import static org.gradle.internal.UncheckedException.throwAsUncheckedException;
 public class DefaultFileLockManager implements FileLockManager {
     private static final Logger LOGGER = LoggerFactory.getLogger(DefaultFileLockManager.class);
     public static final int DEFAULT_LOCK_TIMEOUT = 60000;
+    // Waits for a lock held by another process at least this long are logged at info level
+    private static final long SLOW_LOCK_WAIT_MS = 1000;
 
     private final Set<File> lockedFiles = new CopyOnWriteArraySet<File>();
     private final ProcessMetaDataProvider metaDataProvider;
@@ -115,6 +119,7 @@ public class DefaultFileLockManager implements FileLockManager {
         private LockState lockState;
         private int port;
         private final long lockId;
+        private volatile Timer releaseRequestedTimer;
 
         public DefaultFileLock(File target, LockOptions options, String displayName, String operationDisplayName, int port, Runnable whenContended) throws Throwable {
             this.port = port;
@@ -145,7 +150,7 @@ public class DefaultFileLockManager implements FileLockManager {
             lockFileAccess = new LockFileAccess(lockFile, new LockStateAccess(stateProtocol));
             try {
                 if (whenContended != null) {
-                    fileLockContentionHandler.start(lockId, whenContended);
+                    fileLockContentionHandler.start(lockId, recordReleaseRequest(whenContended));
                 }
                 lockState = lock(options.getMode());
             } catch (Throwable t) {
@@ -157,6 +162,18 @@ public class DefaultFileLockManager implements FileLockManager {
             this.mode = lock.isShared() ? LockMode.Shared : LockMode.Exclusive;
         }
 
+        private Runnable recordReleaseRequest(final Runnable whenContended) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    if (releaseRequestedTimer == null) {
+                        releaseRequestedTimer = Timers.startTimer();
+                    }
+                    whenContended.run();
+                }
+            };
+        }
+
         public boolean isLockFile(File file) {
             return file.equals(lockFile);
         }
@@ -230,7 +247,12 @@ public class DefaultFileLockManager implements FileLockManager {
                         return;
                     }
                     try {
-                        LOGGER.debug("Releasing lock on {}.", displayName);
+                        Timer releaseRequested = releaseRequestedTimer;
+                        if (releaseRequested != null) {
+                            LOGGER.debug("Releasing lock on {}, {} after another process requested it.", displayName, releaseRequested.getElapsed());
+                        } else {
+                            LOGGER.debug("Releasing lock on {}.", displayName);
+                        }
                         try {
                             if (lock != null && !lock.isShared()) {
                                 // Discard information region
@@ -274,9 +296,11 @@ public class DefaultFileLockManager implements FileLockManager {
             LOGGER.debug("Waiting to acquire {} lock on {}.", lockMode.toString().toLowerCase(), displayName);
 
             // Lock the state region, with the requested mode
-            java.nio.channels.FileLock stateRegionLock = lockStateRegion(lockMode);
+            LockWait lockWait = new LockWait();
+            java.nio.channels.FileLock stateRegionLock = lockStateRegion(lockMode, lockWait);
             if (stateRegionLock == null) {
                 LockInfo lockInfo = readInformationRegion(new ExponentialBackoff(shortTimeoutMs));
+                lockWait.timedOut(displayName);
                 throw new LockTimeoutException(displayName, lockInfo.pid, metaDataProvider.getProcessIdentifier(), lockInfo.operation, operationDisplayName, lockFile);
             }
 
@@ -304,6 +328,7 @@ public class DefaultFileLockManager implements FileLockManager {
                     lockState = lockFileAccess.readLockState();
                 }
                 LOGGER.debug("Lock acquired on {}.", displayName);
+                lockWait.acquired(displayName);
                 lock = stateRegionLock;
                 return lockState;
             } catch (Throwable t) {
@@ -328,7 +353,7 @@ public class DefaultFileLockManager implements FileLockManager {
             return out;
         }
 
-        private java.nio.channels.FileLock lockStateRegion(final LockMode lockMode) throws IOException, InterruptedException {
+        private java.nio.channels.FileLock lockStateRegion(final LockMode lockMode, final LockWait lockWait) throws IOException, InterruptedException {
             final ExponentialBackoff backoff = new ExponentialBackoff(lockTimeoutMs);
             return backoff.retryUntil(new IOQuery<java.nio.channels.FileLock>() {
                 private long lastPingTime;
@@ -342,6 +367,7 @@ public class DefaultFileLockManager implements FileLockManager {
                     }
                     if (port != -1) { //we don't like the assumption about the port very much
                         LockInfo lockInfo = readInformationRegion(backoff);
+                        lockWait.heldBy(lockInfo.pid);
                         if (lockInfo.port != -1) {
                             if (lockInfo.port != lastLockHolderPort) {
                                 backoff.restartTimer();
@@ -350,6 +376,7 @@ public class DefaultFileLockManager implements FileLockManager {
                             }
                             if (fileLockContentionHandler.maybePingOwner(lockInfo.port, lockInfo.lockId, displayName, backoff.timer.getElapsedMillis() - lastPingTime)) {
                                 lastPingTime = backoff.timer.getElapsedMillis();
+                                lockWait.releaseRequested();
                                 LOGGER.debug("The file lock is held by a different Gradle process (pid: {}, lockId: {}). Pinged owner at port {}", lockInfo.pid, lockInfo.lockId, lockInfo.port);
                             }
                         } else {
@@ -371,6 +398,40 @@ public class DefaultFileLockManager implements FileLockManager {
         }
     }
 
+    /**
+     * Records how long this process waited for a lock held by other processes, which processes held it and how often they were asked to release it.
+     */
+    private static class LockWait {
+        private final Timer timer = Timers.startTimer();
+        private final Set<String> holders = new LinkedHashSet<String>();
+        private int releaseRequests;
+
+        void heldBy(String pid) {
+            holders.add(pid);
+        }
+
+        void releaseRequested() {
+            releaseRequests++;
+        }
+
+        void acquired(String displayName) {
+            if (holders.isEmpty()) {
+                return;
+            }
+            long waitMillis = timer.getElapsedMillis();
+            String message = "Waited {}ms for lock on {} held by Gradle process(es) with pid {}. Sent {} release request(s).";
+            if (waitMillis >= SLOW_LOCK_WAIT_MS) {
+                LOGGER.info(message, waitMillis, displayName, holders, releaseRequests);
+            } else {
+                LOGGER.debug(message, waitMillis, displayName, holders, releaseRequests);
+            }
+        }
+
+        void timedOut(String displayName) {
+            LOGGER.info("Timed out after {}ms waiting for lock on {} held by Gradle process(es) with pid {}. Sent {} release request(s).", timer.getElapsedMillis(), displayName, holders, releaseRequests);
+        }
+    }
+
     private interface IOQuery<T> {
         T run() throws IOException, InterruptedException;
     }
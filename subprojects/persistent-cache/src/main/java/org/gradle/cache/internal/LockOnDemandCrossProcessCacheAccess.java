@@ -22,19 +22,28 @@ import org.gradle.cache.FileLockManager;
 import org.gradle.cache.LockOptions;
 import org.gradle.internal.Factory;
 import org.gradle.internal.UncheckedException;
+import org.gradle.internal.time.Timer;
+import org.gradle.internal.time.Timers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 
 class LockOnDemandCrossProcessCacheAccess extends AbstractCrossProcessCacheAccess {
     private static final Logger LOGGER = LoggerFactory.getLogger(LockOnDemandCrossProcessCacheAccess.class);
+    // When the lock is needed again this soon after handing it to another process, the processes are taking turns on the lock
+    private static final long PING_PONG_INTERVAL_MILLIS = 1000;
+    // How long to keep working with the lock after another process asks for it, when the processes are taking turns on the lock
+    private static final long HANDOVER_BATCH_WINDOW_MILLIS = 200;
     private final String cacheDisplayName;
     private final File lockTarget;
     private final LockOptions lockOptions;
     private final FileLockManager lockManager;
     private final Lock stateLock;
+    private final Condition handoverBatchWindow;
     private final Action<FileLock> onOpen;
     private final Action<FileLock> onClose;
     private final Runnable unlocker;
@@ -43,6 +52,13 @@ class LockOnDemandCrossProcessCacheAccess extends AbstractCrossProcessCacheAcces
     private FileLock fileLock;
     private CacheInitializationAction initAction;
     private boolean contended;
+    private boolean takingTurns;
+    private Timer contendedReleaseTimer;
+    // Statistics for this cache, guarded by the state lock
+    private int contendedReleaseCount;
+    private int releaseRequestsWhileInUseCount;
+    private int reacquiredAfterContendedReleaseCount;
+    private int batchedHandoverCount;
 
     /**
      * Actions are notified when lock is opened or closed. Actions are called while holding state lock, so that no other threads are working with cache while these are running.
@@ -57,6 +73,7 @@ class LockOnDemandCrossProcessCacheAccess extends AbstractCrossProcessCacheAcces
         this.lockOptions = lockOptions;
         this.lockManager = lockManager;
         this.stateLock = stateLock;
+        this.handoverBatchWindow = stateLock.newCondition();
         this.initAction = initAction;
         this.onOpen = onOpen;
         this.onClose = onClose;
@@ -77,6 +94,10 @@ class LockOnDemandCrossProcessCacheAccess extends AbstractCrossProcessCacheAcces
                 throw new IllegalStateException(String.format("Cannot close cache access for %s as it is currently in use for %s operations.", cacheDisplayName, lockCount));
             }
             releaseLockIfHeld();
+            if (contendedReleaseCount > 0 && LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Lock on {} was released {} times on request of another process ({} times while in use, {} times after batching updates), and reacquired soon after {} times.",
+                    cacheDisplayName, contendedReleaseCount, releaseRequestsWhileInUseCount, batchedHandoverCount, reacquiredAfterContendedReleaseCount);
+            }
         } finally {
             stateLock.unlock();
         }
@@ -103,6 +124,7 @@ class LockOnDemandCrossProcessCacheAccess extends AbstractCrossProcessCacheAcces
                     LOGGER.debug("Acquiring file lock for {}", cacheDisplayName);
                 }
                 fileLock = lockManager.lock(lockTarget, lockOptions, cacheDisplayName, "", whenContended);
+                checkReacquiredAfterContendedRelease();
                 try {
                     if (initAction.requiresInitialization(fileLock)) {
                         fileLock.writeFile(new Runnable() {
@@ -140,6 +162,36 @@ class LockOnDemandCrossProcessCacheAccess extends AbstractCrossProcessCacheAcces
         }
     }
 
+    /**
+     * Detects when this process asks for the lock again soon after handing it to another process, that is, when the processes are taking turns on the lock.
+     */
+    private void checkReacquiredAfterContendedRelease() {
+        takingTurns = contendedReleaseTimer != null && contendedReleaseTimer.getElapsedMillis() < PING_PONG_INTERVAL_MILLIS;
+        if (takingTurns) {
+            reacquiredAfterContendedReleaseCount++;
+            LOGGER.debug("Lock on {} was reacquired shortly after being released to another process.", cacheDisplayName);
+        }
+        contendedReleaseTimer = null;
+    }
+
+    /**
+     * Keeps working with the lock for a little longer before handing it over, so that the updates this process makes in the meantime are written
+     * under this lock, in one batch, rather than each asking for the lock again. Must be called while holding the state lock, which is released while waiting.
+     */
+    private void waitForHandoverBatch() {
+        LOGGER.debug("Lock on {} requested by another process while the processes are taking turns - holding lock for another {}ms.", cacheDisplayName, HANDOVER_BATCH_WINDOW_MILLIS);
+        batchedHandoverCount++;
+        long remainingNanos = TimeUnit.MILLISECONDS.toNanos(HANDOVER_BATCH_WINDOW_MILLIS);
+        try {
+            while (remainingNanos > 0) {
+                remainingNanos = handoverBatchWindow.awaitNanos(remainingNanos);
+            }
+        } catch (InterruptedException e) {
+            // Hand over the lock straight away
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private void releaseLockIfHeld() {
         if (fileLock == null) {
             return;
@@ -152,6 +204,11 @@ class LockOnDemandCrossProcessCacheAccess extends AbstractCrossProcessCacheAcces
         } finally {
             fileLock.close();
             fileLock = null;
+            takingTurns = false;
+            if (contended) {
+                contendedReleaseCount++;
+                contendedReleaseTimer = Timers.startTimer();
+            }
             contended = false;
         }
     }
@@ -162,18 +219,70 @@ class LockOnDemandCrossProcessCacheAccess extends AbstractCrossProcessCacheAcces
         return unlocker;
     }
 
+    int getContendedReleaseCount() {
+        stateLock.lock();
+        try {
+            return contendedReleaseCount;
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    int getReleaseRequestsWhileInUseCount() {
+        stateLock.lock();
+        try {
+            return releaseRequestsWhileInUseCount;
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    int getBatchedHandoverCount() {
+        stateLock.lock();
+        try {
+            return batchedHandoverCount;
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    int getReacquiredAfterContendedReleaseCount() {
+        stateLock.lock();
+        try {
+            return reacquiredAfterContendedReleaseCount;
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
     private class ContendedAction implements Runnable {
         @Override
         public void run() {
             stateLock.lock();
             try {
+                if (fileLock == null) {
+                    // Not locked, nothing to do
+                    return;
+                }
+                if (takingTurns && !contended) {
+                    FileLock contendedLock = fileLock;
+                    waitForHandoverBatch();
+                    if (fileLock != contendedLock) {
+                        // Already released
+                        return;
+                    }
+                }
+                boolean alreadyRequested = contended;
+                contended = true;
                 if (lockCount == 0) {
                     LOGGER.debug("Lock on {} requested by another process - releasing lock.", cacheDisplayName);
                     releaseLockIfHeld();
                 } else {
-                    // Lock is in use - mark as contended
+                    // Operations are running or updates are queued, which all hold the lock - release it once they have completed
+                    if (!alreadyRequested) {
+                        releaseRequestsWhileInUseCount++;
+                    }
                     LOGGER.debug("Lock on {} requested by another process - lock is in use and will be released when operation completed.", cacheDisplayName);
-                    contended = true;
                 }
             } finally {
                 stateLock.unlock();
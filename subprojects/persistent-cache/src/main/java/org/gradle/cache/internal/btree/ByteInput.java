@@ -62,6 +62,18 @@ class ByteInput {
         countingInputStream = null;
     }
 
+    /**
+     * Called after the file has grown, and before it is truncated.
+     */
+    public void lengthChanged(long length) throws IOException {
+    }
+
+    /**
+     * Called before the file is closed.
+     */
+    public void close() {
+    }
+
     private static class ResettableBufferedInputStream extends BufferedInputStream {
         ResettableBufferedInputStream(InputStream input) {
             super(input);
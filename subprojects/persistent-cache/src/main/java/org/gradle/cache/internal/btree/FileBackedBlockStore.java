@@ -25,6 +25,7 @@ import java.io.RandomAccessFile;
 
 public class FileBackedBlockStore implements BlockStore {
     private final File cacheFile;
+    private final boolean memoryMapped;
     private RandomAccessFile file;
     private ByteOutput output;
     private ByteInput input;
@@ -33,7 +34,16 @@ public class FileBackedBlockStore implements BlockStore {
     private long currentFileSize;
 
     public FileBackedBlockStore(File cacheFile) {
+        this(cacheFile, false);
+    }
+
+    /**
+     * @param memoryMapped whether to read blocks through a memory mapping of the file. Blocks are always written through the file.
+     * Ignored when this JVM cannot release a mapping before the file is truncated.
+     */
+    public FileBackedBlockStore(File cacheFile, boolean memoryMapped) {
         this.cacheFile = cacheFile;
+        this.memoryMapped = memoryMapped && MappedByteInput.isSupported();
     }
 
     @Override
@@ -47,7 +57,7 @@ public class FileBackedBlockStore implements BlockStore {
             cacheFile.getParentFile().mkdirs();
             file = new RandomAccessFile(cacheFile, "rw");
             output = new ByteOutput(file);
-            input = new ByteInput(file);
+            input = memoryMapped ? new MappedByteInput(file) : new ByteInput(file);
             currentFileSize = file.length();
             nextBlock = currentFileSize;
             if (currentFileSize == 0) {
@@ -60,6 +70,7 @@ public class FileBackedBlockStore implements BlockStore {
 
     public void close() {
         try {
+            input.close();
             file.close();
         } catch (IOException e) {
             throw new UncheckedIOException(e);
@@ -68,6 +79,7 @@ public class FileBackedBlockStore implements BlockStore {
 
     public void clear() {
         try {
+            input.lengthChanged(0);
             file.setLength(0);
             currentFileSize = 0;
         } catch (IOException e) {
@@ -203,6 +215,7 @@ public class FileBackedBlockStore implements BlockStore {
             if (currentFileSize < finalSize) {
                 file.setLength(finalSize);
                 currentFileSize = finalSize;
+                input.lengthChanged(finalSize);
             }
         }
 
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.btree;
+
+import com.google.common.io.CountingInputStream;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads from a memory mapping of the file, so that reading a block does not need any system calls. Data beyond the mapped
+ * part of the file is read from the file, until the file has grown enough for the mapping to be extended.
+ *
+ * <p>Writes to the file are made through the file rather than the mapping, and are visible through the mapping.</p>
+ *
+ * <p>The file can only be truncated when the mapping can be released straight away, see {@link #isSupported()}.</p>
+ */
+class MappedByteInput extends ByteInput {
+    private static final long MIN_REMAP_GROWTH = 64 * 1024;
+    private static final Unmapper UNMAPPER = createUnmapper();
+
+    private final RandomAccessFile file;
+    private MappedByteBuffer mapping;
+    private long mappedLength;
+    private long fileLength;
+    private CountingInputStream countingInputStream;
+
+    public MappedByteInput(RandomAccessFile file) throws IOException {
+        super(file);
+        this.file = file;
+        lengthChanged(file.length());
+    }
+
+    @Override
+    public DataInputStream start(long offset) throws IOException {
+        if (offset >= mappedLength && fileLength - mappedLength >= Math.max(MIN_REMAP_GROWTH, mappedLength / 4)) {
+            map(fileLength);
+        }
+        InputStream inputStream;
+        if (offset < mappedLength) {
+            ByteBuffer view = mapping.duplicate();
+            view.position((int) offset);
+            inputStream = new SequenceInputStream(new ByteBufferInputStream(view), new UnmappedInputStream());
+        } else {
+            inputStream = super.start(offset);
+        }
+        countingInputStream = new CountingInputStream(inputStream);
+        return new DataInputStream(countingInputStream);
+    }
+
+    @Override
+    public long getBytesRead() {
+        return countingInputStream.getCount();
+    }
+
+    @Override
+    public void done() {
+        countingInputStream = null;
+        super.done();
+    }
+
+    @Override
+    public void lengthChanged(long length) throws IOException {
+        fileLength = length;
+        if (length < mappedLength) {
+            // The file was truncated, which on some platforms is not possible while it is mapped
+            unmap();
+        }
+        if (mappedLength == 0 && length > 0) {
+            map(length);
+        }
+    }
+
+    @Override
+    public void close() {
+        unmap();
+    }
+
+    private void map(long length) throws IOException {
+        unmap();
+        mappedLength = Math.min(length, Integer.MAX_VALUE);
+        mapping = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mappedLength);
+    }
+
+    private void unmap() {
+        if (mapping == null) {
+            return;
+        }
+        MappedByteBuffer mapping = this.mapping;
+        this.mapping = null;
+        mappedLength = 0;
+        if (UNMAPPER == null) {
+            return;
+        }
+        try {
+            UNMAPPER.unmap(mapping);
+        } catch (Exception e) {
+            // The mapping is released when the buffer is garbage collected
+        }
+    }
+
+    /**
+     * Returns true when this JVM allows a mapping to be released straight away, rather than when the buffer is garbage collected.
+     * A file that is still mapped cannot be truncated on some platforms, so the file should not be mapped otherwise.
+     */
+    static boolean isSupported() {
+        return UNMAPPER != null;
+    }
+
+    private static Unmapper createUnmapper() {
+        Unmapper unmapper = createJava9Unmapper();
+        return unmapper != null ? unmapper : createJava8Unmapper();
+    }
+
+    private static Unmapper createJava9Unmapper() {
+        try {
+            // sun.misc.Unsafe is still exported, so no access checks are suppressed for non-exported packages
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            final Object unsafe = theUnsafe.get(null);
+            return new Unmapper() {
+                @Override
+                public void unmap(MappedByteBuffer buffer) throws Exception {
+                    invokeCleaner.invoke(unsafe, buffer);
+                }
+            };
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static Unmapper createJava8Unmapper() {
+        try {
+            // Both the buffer interface and the cleaner are public up to Java 8, so the methods can be invoked as they are
+            final Method cleanerMethod = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            if (!cleanerMethod.getReturnType().getName().equals("sun.misc.Cleaner")) {
+                return null;
+            }
+            final Method cleanMethod = cleanerMethod.getReturnType().getMethod("clean");
+            return new Unmapper() {
+                @Override
+                public void unmap(MappedByteBuffer buffer) throws Exception {
+                    Object cleaner = cleanerMethod.invoke(buffer);
+                    if (cleaner != null) {
+                        cleanMethod.invoke(cleaner);
+                    }
+                }
+            };
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private interface Unmapper {
+        void unmap(MappedByteBuffer buffer) throws Exception;
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            return buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.min(n, buffer.remaining());
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+    }
+
+    /**
+     * Continues reading from the file after the end of the mapping. Only goes to the file when a block extends beyond the mapping.
+     */
+    private class UnmappedInputStream extends InputStream {
+        private InputStream fileInput;
+
+        @Override
+        public int read() throws IOException {
+            return getFileInput().read();
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            return getFileInput().read(bytes, offset, length);
+        }
+
+        private InputStream getFileInput() throws IOException {
+            if (fileInput == null) {
+                fileInput = MappedByteInput.super.start(mappedLength);
+            }
+            return fileInput;
+        }
+    }
+}
@@ -25,7 +25,9 @@ import org.slf4j.LoggerFactory;
 
 import java.net.DatagramPacket;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -116,6 +118,7 @@ public class DefaultFileLockContentionHandler implements FileLockContentionHandl
                     if (contendedAction == null) {
                         acceptConfirmationAsLockRequester(lockId, packet.getPort());
                     } else {
+                        contendedAction.releaseRequested(packet.getPort());
                         if (!contendedAction.running) {
                             startLockReleaseAsLockHolder(contendedAction);
                         }
@@ -191,7 +194,10 @@ public class DefaultFileLockContentionHandler implements FileLockContentionHandl
     public void stop(long lockId) {
         lock.lock();
         try {
-            contendedActions.remove(lockId);
+            ContendedAction contendedAction = contendedActions.remove(lockId);
+            if (contendedAction != null && contendedAction.releaseRequests > 0) {
+                LOGGER.debug("Stopped handling lock with id {} after {} release request(s) from Gradle processes at port(s) {}.", lockId, contendedAction.releaseRequests, contendedAction.requesterPorts);
+            }
         } finally {
             lock.unlock();
         }
@@ -236,9 +242,16 @@ public class DefaultFileLockContentionHandler implements FileLockContentionHandl
     private static class ContendedAction {
         private final Runnable action;
         private boolean running;
+        private int releaseRequests;
+        private final Set<Integer> requesterPorts = new HashSet<Integer>();
 
         private ContendedAction(Runnable action) {
             this.action = action;
         }
+
+        private void releaseRequested(int port) {
+            releaseRequests++;
+            requesterPorts.add(port);
+        }
     }
 }
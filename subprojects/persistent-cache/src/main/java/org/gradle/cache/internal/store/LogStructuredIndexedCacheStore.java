@@ -0,0 +1,606 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.store;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.internal.io.RandomAccessFileInputStream;
+import org.gradle.internal.io.RandomAccessFileOutputStream;
+import org.gradle.internal.serialize.Serializer;
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+/**
+ * An indexed cache that only ever appends to its file. Each put or remove appends a record with the hash of the key,
+ * the serialized value and a checksum, and an in-memory index maps the key hashes to the latest record for each key.
+ *
+ * <p>The index is built by reading the file when it is first opened, and kept when the store is closed. The file header
+ * holds a generation, which changes whenever the file is compacted or recreated. When the store is opened again and the
+ * generation is unchanged, only the records that other processes appended in the meantime are read. A record that was
+ * not completely written, for example because the process was killed, ends the file: it and anything after it is discarded.</p>
+ *
+ * <p>Once more than two thirds of the file are taken up by records that were overwritten or removed, the live records are
+ * copied to a new file, which replaces the old one. This keeps the file at most about three times the size of the live
+ * records, while each record written is copied at most once on average. When an executor is given, the live records are
+ * read in the background. Only writing the new file, including the records appended since, happens while the cache is in use.
+ * When the new file can't replace the old one, for example on Windows while another process has the old file open, the old file
+ * is kept and compaction is tried again once another 64kB have been appended.</p>
+ *
+ * <p>Like {@link org.gradle.cache.internal.btree.BTreePersistentIndexedCache}, keys are identified by the 64 bit hash of their serialized form.</p>
+ */
+public class LogStructuredIndexedCacheStore<K, V> implements IndexedCacheStore<K, V> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogStructuredIndexedCacheStore.class);
+    private static final int MAGIC = 0x474c4f47;
+    private static final int VERSION = 2;
+    // Magic number, version and generation
+    private static final int FILE_HEADER_SIZE = 16;
+    // Key hash and value length
+    private static final int RECORD_HEADER_SIZE = 12;
+    private static final int CHECKSUM_SIZE = 4;
+    private static final int REMOVED = -1;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final long MIN_COMPACTION_GARBAGE = 64 * 1024;
+    // Live records are collected in memory when compacting in the background, larger stores are compacted in place
+    private static final long MAX_BACKGROUND_COMPACTION_SIZE = 32 * 1024 * 1024;
+    private static final Random GENERATIONS = new Random();
+
+    private final File cacheFile;
+    private final KeyHasher<K> keyHasher;
+    private final Serializer<V> serializer;
+    private final Executor compactionExecutor;
+    private final Map<Long, Record> index = new HashMap<Long, Record>();
+    private final CRC32 checksum = new CRC32();
+    private final byte[] recordHeader = new byte[RECORD_HEADER_SIZE];
+    private final ValueBuffer valueBuffer = new ValueBuffer();
+    private final KryoBackedEncoder valueEncoder = new KryoBackedEncoder(valueBuffer);
+    private final ByteArrayOutputStream pendingWrites = new ByteArrayOutputStream(WRITE_BUFFER_SIZE);
+    // Null while the store is closed
+    private RandomAccessFile file;
+    // The generation of the file the index was read from
+    private long generation;
+    // The number of bytes in the file, without the pending writes
+    private long fileLength;
+    // The number of bytes taken up by the records in the index
+    private long liveBytes;
+    private Compaction compaction;
+    // Compaction is not tried again before the file has reached this length, after the compacted file could not replace it
+    private long retryCompactionLength;
+
+    public LogStructuredIndexedCacheStore(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        this(cacheFile, keySerializer, valueSerializer, null);
+    }
+
+    /**
+     * @param compactionExecutor executor to read the live records on when compacting, or {@code null} to compact in place.
+     */
+    public LogStructuredIndexedCacheStore(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer, @Nullable Executor compactionExecutor) {
+        this.cacheFile = cacheFile;
+        this.keyHasher = new KeyHasher<K>(keySerializer);
+        this.serializer = valueSerializer;
+        this.compactionExecutor = compactionExecutor;
+        reopen();
+    }
+
+    @Override
+    public String toString() {
+        return "cache " + cacheFile.getName() + " (" + cacheFile + ")";
+    }
+
+    /**
+     * Opens the file again after the store was closed. Only reads the records appended since it was closed, unless the file was replaced.
+     */
+    public void reopen() {
+        try {
+            open();
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not open %s.", this), e);
+        }
+    }
+
+    private void open() throws IOException {
+        LOGGER.debug("Opening {}", this);
+        file = new RandomAccessFile(cacheFile, "rw");
+        long length = file.length();
+        if (length < FILE_HEADER_SIZE || file.readInt() != MAGIC || file.readInt() != VERSION) {
+            if (length > 0) {
+                LOGGER.warn("{} is corrupt. Discarding.", this);
+            }
+            clearIndex();
+            generation = GENERATIONS.nextLong();
+            file.setLength(0);
+            file.writeInt(MAGIC);
+            file.writeInt(VERSION);
+            file.writeLong(generation);
+            fileLength = FILE_HEADER_SIZE;
+            return;
+        }
+        long fileGeneration = file.readLong();
+        if (fileLength >= FILE_HEADER_SIZE && fileGeneration == generation && length >= fileLength) {
+            // Same file as when the index was last updated, read what other processes appended since
+            readRecords(fileLength);
+        } else {
+            clearIndex();
+            generation = fileGeneration;
+            readRecords(FILE_HEADER_SIZE);
+        }
+    }
+
+    private void clearIndex() {
+        index.clear();
+        liveBytes = 0;
+        // The positions of a running compaction no longer match the index
+        compaction = null;
+        retryCompactionLength = 0;
+    }
+
+    private void readRecords(long start) throws IOException {
+        long length = file.length();
+        long position = start;
+        file.seek(position);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new RandomAccessFileInputStream(file), WRITE_BUFFER_SIZE));
+        byte[] value = new byte[0];
+        try {
+            while (position + RECORD_HEADER_SIZE + CHECKSUM_SIZE <= length) {
+                input.readFully(recordHeader);
+                ByteBuffer header = ByteBuffer.wrap(recordHeader);
+                long keyHash = header.getLong();
+                int valueLength = header.getInt();
+                long recordLength = RECORD_HEADER_SIZE + Math.max(valueLength, 0) + CHECKSUM_SIZE;
+                if (valueLength < REMOVED || position + recordLength > length) {
+                    break;
+                }
+                if (valueLength > value.length) {
+                    value = new byte[valueLength];
+                }
+                input.readFully(value, 0, Math.max(valueLength, 0));
+                if (input.readInt() != checksumOf(value, valueLength)) {
+                    break;
+                }
+                if (valueLength == REMOVED) {
+                    removeFromIndex(keyHash);
+                } else {
+                    addToIndex(keyHash, new Record(position, valueLength));
+                }
+                position += recordLength;
+            }
+        } catch (EOFException e) {
+            // Treat as a partially written record
+        }
+        if (position < length) {
+            LOGGER.warn("{} contains a partially written entry. Discarding {} bytes.", this, length - position);
+            file.setLength(position);
+        }
+        fileLength = position;
+    }
+
+    @Override
+    public V get(K key) {
+        try {
+            Record record = index.get(keyHasher.getHashCode(key));
+            if (record == null) {
+                return null;
+            }
+            if (record.position >= fileLength) {
+                flushPendingWrites();
+            }
+            byte[] value = new byte[record.valueLength];
+            file.seek(record.position + RECORD_HEADER_SIZE);
+            file.readFully(value);
+            return serializer.read(new KryoBackedDecoder(new ByteArrayInputStream(value)));
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not read entry '%s' from %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public void put(K key, V value) {
+        try {
+            long keyHash = keyHasher.getHashCode(key);
+            valueBuffer.reset();
+            serializer.write(valueEncoder, value);
+            valueEncoder.flush();
+            long position = append(keyHash, valueBuffer.getBuffer(), valueBuffer.size());
+            addToIndex(keyHash, new Record(position, valueBuffer.size()));
+            compactIfRequired();
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not add entry '%s' to %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public void remove(K key) {
+        try {
+            long keyHash = keyHasher.getHashCode(key);
+            if (removeFromIndex(keyHash)) {
+                append(keyHash, null, REMOVED);
+                compactIfRequired();
+            }
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not remove entry '%s' from %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        LOGGER.debug("Closing {}", this);
+        try {
+            try {
+                flushPendingWrites();
+                if (compaction != null && compaction.done) {
+                    finishCompaction();
+                }
+            } finally {
+                // Keep the index, so only new records have to be read when the store is opened again
+                file.close();
+                file = null;
+            }
+        } catch (Exception e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The number of bytes in the file, including writes that have not been flushed yet.
+     */
+    public long getFileLength() {
+        return fileLength + pendingWrites.size();
+    }
+
+    /**
+     * The number of bytes in the file taken up by records that were overwritten or removed.
+     */
+    public long getGarbageLength() {
+        return getFileLength() - FILE_HEADER_SIZE - liveBytes;
+    }
+
+    private void compactIfRequired() throws IOException {
+        if (compaction != null) {
+            if (compaction.done) {
+                finishCompaction();
+            }
+            return;
+        }
+        long garbage = getGarbageLength();
+        if (garbage >= MIN_COMPACTION_GARBAGE && garbage > 2 * liveBytes && getFileLength() >= retryCompactionLength) {
+            if (compactionExecutor != null && liveBytes <= MAX_BACKGROUND_COMPACTION_SIZE) {
+                startCompaction();
+            } else {
+                compact();
+            }
+        }
+    }
+
+    private void addToIndex(long keyHash, Record record) {
+        Record previous = index.put(keyHash, record);
+        if (previous != null) {
+            liveBytes -= previous.getLength();
+        }
+        liveBytes += record.getLength();
+    }
+
+    private boolean removeFromIndex(long keyHash) {
+        Record previous = index.remove(keyHash);
+        if (previous == null) {
+            return false;
+        }
+        liveBytes -= previous.getLength();
+        return true;
+    }
+
+    private long append(long keyHash, byte[] value, int valueLength) throws IOException {
+        long position = getFileLength();
+        ByteBuffer.wrap(recordHeader).putLong(keyHash).putInt(valueLength);
+        pendingWrites.write(recordHeader);
+        if (valueLength > 0) {
+            pendingWrites.write(value, 0, valueLength);
+        }
+        int checksum = checksumOf(value, valueLength);
+        pendingWrites.write(checksum >>> 24);
+        pendingWrites.write(checksum >>> 16);
+        pendingWrites.write(checksum >>> 8);
+        pendingWrites.write(checksum);
+        if (pendingWrites.size() >= WRITE_BUFFER_SIZE) {
+            flushPendingWrites();
+        }
+        return position;
+    }
+
+    private int checksumOf(byte[] value, int valueLength) {
+        checksum.reset();
+        checksum.update(recordHeader);
+        if (valueLength > 0) {
+            checksum.update(value, 0, valueLength);
+        }
+        return (int) checksum.getValue();
+    }
+
+    private void flushPendingWrites() throws IOException {
+        if (pendingWrites.size() == 0) {
+            return;
+        }
+        file.seek(fileLength);
+        pendingWrites.writeTo(new RandomAccessFileOutputStream(file));
+        fileLength += pendingWrites.size();
+        pendingWrites.reset();
+    }
+
+    private List<Record> liveRecordsInFileOrder() {
+        List<Record> records = Lists.newArrayList(index.values());
+        Collections.sort(records, new Comparator<Record>() {
+            @Override
+            public int compare(Record left, Record right) {
+                return Longs.compare(left.position, right.position);
+            }
+        });
+        return records;
+    }
+
+    /**
+     * Copies the live records to a new file, in the order they appear in the current file, and replaces the current file with it.
+     */
+    private void compact() throws IOException {
+        LOGGER.debug("Compacting {}, {} of {} bytes are no longer used", this, getGarbageLength(), getFileLength());
+        flushPendingWrites();
+        List<Record> records = liveRecordsInFileOrder();
+        File compactedFile = compactedFile();
+        long newGeneration = GENERATIONS.nextLong();
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compactedFile), WRITE_BUFFER_SIZE));
+        long[] newPositions = new long[records.size()];
+        long position = FILE_HEADER_SIZE;
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(newGeneration);
+            byte[] buffer = new byte[0];
+            for (int i = 0; i < records.size(); i++) {
+                Record record = records.get(i);
+                int length = (int) record.getLength();
+                if (length > buffer.length) {
+                    buffer = new byte[length];
+                }
+                file.seek(record.position);
+                file.readFully(buffer, 0, length);
+                output.write(buffer, 0, length);
+                newPositions[i] = position;
+                position += length;
+            }
+        } finally {
+            output.close();
+        }
+        if (!replaceFile(compactedFile, newGeneration, position)) {
+            return;
+        }
+        for (int i = 0; i < records.size(); i++) {
+            records.get(i).position = newPositions[i];
+        }
+    }
+
+    /**
+     * Starts reading the live records in the background. The new file is written by {@link #finishCompaction()} once they have been read.
+     */
+    private void startCompaction() throws IOException {
+        LOGGER.debug("Compacting {} in the background, {} of {} bytes are no longer used", this, getGarbageLength(), getFileLength());
+        // The records must be in the file to be read in the background
+        flushPendingWrites();
+        List<Record> records = liveRecordsInFileOrder();
+        long[] positions = new long[records.size()];
+        int[] lengths = new int[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            positions[i] = records.get(i).position;
+            lengths[i] = (int) records.get(i).getLength();
+        }
+        compaction = new Compaction(cacheFile, generation, fileLength, positions, lengths);
+        compactionExecutor.execute(compaction);
+    }
+
+    /**
+     * Writes the live records read in the background followed by the records appended since to a new file, and replaces the current file with it.
+     */
+    private void finishCompaction() throws IOException {
+        Compaction compaction = this.compaction;
+        this.compaction = null;
+        if (compaction.failure != null) {
+            LOGGER.debug("Could not compact {}.", this, compaction.failure);
+            return;
+        }
+        flushPendingWrites();
+        File compactedFile = compactedFile();
+        long newGeneration = GENERATIONS.nextLong();
+        long compactedLength = FILE_HEADER_SIZE + compaction.liveRecords.length;
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compactedFile), WRITE_BUFFER_SIZE));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(newGeneration);
+            output.write(compaction.liveRecords);
+            byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+            file.seek(compaction.fileLength);
+            for (long remaining = fileLength - compaction.fileLength; remaining > 0;) {
+                int length = (int) Math.min(remaining, buffer.length);
+                file.readFully(buffer, 0, length);
+                output.write(buffer, 0, length);
+                remaining -= length;
+            }
+        } finally {
+            output.close();
+        }
+        if (!replaceFile(compactedFile, newGeneration, compactedLength + fileLength - compaction.fileLength)) {
+            return;
+        }
+
+        Map<Long, Long> newPositions = new HashMap<Long, Long>(compaction.positions.length);
+        long position = FILE_HEADER_SIZE;
+        for (int i = 0; i < compaction.positions.length; i++) {
+            newPositions.put(compaction.positions[i], position);
+            position += compaction.lengths[i];
+        }
+        for (Record record : index.values()) {
+            if (record.position < compaction.fileLength) {
+                // Was live when the compaction started, so it was copied
+                record.position = newPositions.get(record.position);
+            } else {
+                record.position += compactedLength - compaction.fileLength;
+            }
+        }
+    }
+
+    private File compactedFile() {
+        return new File(cacheFile.getParentFile(), cacheFile.getName() + ".compact");
+    }
+
+    /**
+     * Replaces the current file with the compacted file. When it can't be replaced, keeps using the current file and returns {@code false}.
+     */
+    private boolean replaceFile(File compactedFile, long newGeneration, long newLength) throws IOException {
+        file.close();
+        try {
+            moveCompactedFile(compactedFile, cacheFile);
+        } catch (IOException e) {
+            LOGGER.debug("Could not replace {} with the compacted file. Will try again later.", this, e);
+            //noinspection ResultOfMethodCallIgnored
+            compactedFile.delete();
+            file = new RandomAccessFile(cacheFile, "rw");
+            retryCompactionLength = fileLength + MIN_COMPACTION_GARBAGE;
+            return false;
+        }
+        file = new RandomAccessFile(cacheFile, "rw");
+        generation = newGeneration;
+        fileLength = newLength;
+        return true;
+    }
+
+    @VisibleForTesting
+    void moveCompactedFile(File compactedFile, File cacheFile) throws IOException {
+        Files.move(compactedFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads the live records of a compaction from the file, without holding the lock of the cache. Records are only ever appended,
+     * so the ones that were live when the compaction started don't change. Other processes can only replace the file while this
+     * process doesn't use the cache, and then the compaction is discarded when the store is opened again.
+     */
+    private static class Compaction implements Runnable {
+        private final File cacheFile;
+        private final long generation;
+        private final long fileLength;
+        private final long[] positions;
+        private final int[] lengths;
+        private byte[] liveRecords;
+        private Exception failure;
+        private volatile boolean done;
+
+        Compaction(File cacheFile, long generation, long fileLength, long[] positions, int[] lengths) {
+            this.cacheFile = cacheFile;
+            this.generation = generation;
+            this.fileLength = fileLength;
+            this.positions = positions;
+            this.lengths = lengths;
+        }
+
+        @Override
+        public void run() {
+            try {
+                FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ);
+                try {
+                    ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+                    readFully(channel, header, 0);
+                    header.flip();
+                    if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getLong() != generation) {
+                        throw new IOException("The file was replaced.");
+                    }
+                    int size = 0;
+                    for (int length : lengths) {
+                        size += length;
+                    }
+                    ByteBuffer records = ByteBuffer.allocate(size);
+                    for (int i = 0; i < positions.length; i++) {
+                        records.limit(records.position() + lengths[i]);
+                        readFully(channel, records, positions[i]);
+                    }
+                    liveRecords = records.array();
+                } finally {
+                    channel.close();
+                }
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                done = true;
+            }
+        }
+
+        private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            long offset = position;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, offset);
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                offset += read;
+            }
+        }
+    }
+
+    private static class Record {
+        private long position;
+        private final int valueLength;
+
+        Record(long position, int valueLength) {
+            this.position = position;
+            this.valueLength = valueLength;
+        }
+
+        long getLength() {
+            return RECORD_HEADER_SIZE + valueLength + CHECKSUM_SIZE;
+        }
+    }
+
+    private static class ValueBuffer extends ByteArrayOutputStream {
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+}
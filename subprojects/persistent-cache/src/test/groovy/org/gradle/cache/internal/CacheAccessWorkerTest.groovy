@@ -198,4 +198,125 @@ class CacheAccessWorkerTest extends ConcurrentSpec {
         def e = thrown(RuntimeException)
         e == failure
     }
+
+    def "read on a cache runs after writes queued for that cache are processed"() {
+        given:
+        def counter1 = 0
+        def counter2 = 0
+        def cache1 = cacheAccessWorker.forCache("cache1")
+        def cache2 = cacheAccessWorker.forCache("cache2")
+        start(cacheAccessWorker)
+
+        when:
+        cache1.enqueue { ++counter1 }
+        cache2.enqueue { ++counter2 }
+        cache1.enqueue { ++counter1 }
+        def result = cache1.read { counter1 }
+
+        then:
+        result == 2
+
+        cleanup:
+        cacheAccessWorker?.stop()
+    }
+
+    def "read on a cache runs before the remaining writes of another cache that is being processed"() {
+        given:
+        def writes = []
+        def cache1 = cacheAccessWorker.forCache("cache1")
+        def cache2 = cacheAccessWorker.forCache("cache2")
+        cache1.enqueue {
+            instant.writing
+            thread.block()
+            writes << 1
+        }
+        cache1.enqueue { writes << 2 }
+        def result = null
+
+        when:
+        start(cacheAccessWorker)
+        async {
+            start {
+                thread.blockUntil.writing
+                result = cache2.read { writes.clone() }
+            }
+        }
+        cacheAccessWorker.flush()
+
+        then:
+        result == [1]
+        writes == [1, 2]
+
+        cleanup:
+        cacheAccessWorker?.stop()
+    }
+
+    def "flush on a cache waits for queued actions of that cache to complete"() {
+        given:
+        def counter = 0
+        def cache = cacheAccessWorker.forCache("cache")
+        def action = {
+            thread.block()
+            counter++
+        }
+        cache.enqueue(action)
+        cache.enqueue(action)
+
+        when:
+        start(cacheAccessWorker)
+        cache.flush()
+
+        then:
+        counter == 2
+
+        cleanup:
+        cacheAccessWorker?.stop()
+    }
+
+    def "flush waits for queued actions of all caches to complete"() {
+        given:
+        def counter = 0
+        def action = {
+            thread.block()
+            counter++
+        }
+        cacheAccessWorker.forCache("cache1").enqueue(action)
+        cacheAccessWorker.forCache("cache2").enqueue(action)
+        cacheAccessWorker.enqueue(action)
+
+        when:
+        start(cacheAccessWorker)
+        cacheAccessWorker.flush()
+
+        then:
+        counter == 3
+
+        cleanup:
+        cacheAccessWorker?.stop()
+    }
+
+    def "stop waits for queued actions of all caches to complete"() {
+        given:
+        def counter = 0
+        def action = {
+            thread.block()
+            counter++
+        }
+        cacheAccessWorker.forCache("cache1").enqueue(action)
+        cacheAccessWorker.forCache("cache2").enqueue(action)
+        cacheAccessWorker.forCache("cache1").enqueue(action)
+
+        when:
+        start(cacheAccessWorker)
+        cacheAccessWorker.stop()
+
+        then:
+        counter == 3
+    }
+
+    def "returns the same queue for a cache"() {
+        expect:
+        cacheAccessWorker.forCache("cache").is(cacheAccessWorker.forCache("cache"))
+        !cacheAccessWorker.forCache("cache").is(cacheAccessWorker.forCache("other"))
+    }
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal
+
+import org.gradle.test.fixtures.concurrent.ConcurrentSpec
+
+class ConcurrentClockCacheTest extends ConcurrentSpec {
+    def cache = new ConcurrentClockCache<String, String>(10)
+
+    def "can get, put and remove entries"() {
+        expect:
+        cache.get("a") == null
+
+        when:
+        cache.put("a", "1")
+        cache.put("b", "2")
+
+        then:
+        cache.get("a") == "1"
+        cache.get("b") == "2"
+        cache.size() == 2
+
+        when:
+        cache.put("a", "3")
+        cache.remove("b")
+
+        then:
+        cache.get("a") == "3"
+        cache.get("b") == null
+        cache.size() == 1
+
+        when:
+        cache.clear()
+
+        then:
+        cache.get("a") == null
+        cache.size() == 0
+    }
+
+    def "evicts entries that have not been read when full"() {
+        def listener = Mock(ConcurrentClockCache.EvictionListener)
+        def cache = new ConcurrentClockCache<Integer, Integer>(10, listener)
+
+        given:
+        10.times { cache.put(it, it) }
+        (0..4).each { cache.get(it) }
+
+        when:
+        5.times { cache.put(100 + it, it) }
+
+        then:
+        5 * listener.entryEvicted(cache)
+        cache.size() == 10
+        cache.evictionCount == 5
+        (0..4).every { cache.get(it) == it }
+        (5..9).every { cache.get(it) == null }
+        (100..104).every { cache.get(it) != null }
+    }
+
+    def "keeps frequently read entries while many other entries come and go"() {
+        def cache = new ConcurrentClockCache<Integer, Integer>(100)
+
+        when:
+        10000.times { n ->
+            10.times { k ->
+                if (cache.get(k) == null) {
+                    cache.put(k, k)
+                }
+            }
+            cache.put(1000 + n, n)
+        }
+
+        then:
+        cache.size() == 100
+        (0..9).every { cache.get(it) == it }
+    }
+
+    def "finds entries after many removals"() {
+        def cache = new ConcurrentClockCache<Integer, Integer>(100)
+
+        when:
+        1000.times { n ->
+            cache.put(n, n)
+            if (n % 2 == 0) {
+                cache.remove(n)
+            }
+        }
+
+        then:
+        cache.size() == 100
+        (0..999).every { cache.get(it) == null || (it % 2 == 1 && cache.get(it) == it) }
+        cache.get(999) == 999
+    }
+
+    def "readers see consistent values while entries are updated concurrently"() {
+        def cache = new ConcurrentClockCache<Integer, Integer>(500)
+
+        when:
+        async {
+            4.times { t ->
+                start {
+                    def random = new Random(t)
+                    20000.times {
+                        def key = random.nextInt(2000)
+                        def value = cache.get(key)
+                        assert value == null || value == key * 2
+                        if (value == null) {
+                            cache.put(key, key * 2)
+                        } else if (it % 100 == 0) {
+                            cache.remove(key)
+                        }
+                    }
+                }
+            }
+        }
+
+        then:
+        cache.size() <= 500
+    }
+}
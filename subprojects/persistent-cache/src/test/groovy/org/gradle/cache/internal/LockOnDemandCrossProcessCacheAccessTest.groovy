@@ -778,4 +778,132 @@ class LockOnDemandCrossProcessCacheAccessTest extends ConcurrentSpec {
         1 * lock.close()
         0 * _
     }
+
+    def "releases lock straight away on contention when not in use"() {
+        def action = Mock(Factory)
+        def lock = Mock(FileLock)
+        def contendedAction
+
+        given:
+        1 * lockManager.lock(file, _, _, _, _) >> {
+            File target, LockOptions options, String targetDisplayName, String operationDisplayName, Runnable whenContended -> contendedAction = whenContended
+                return lock
+        }
+
+        when:
+        cacheAccess.withFileLock(action)
+        contendedAction.run()
+
+        then:
+        1 * lock.close()
+
+        and:
+        cacheAccess.contendedReleaseCount == 1
+        cacheAccess.batchedHandoverCount == 0
+        cacheAccess.reacquiredAfterContendedReleaseCount == 0
+    }
+
+    def "holds lock for a while on contention when it is reacquired soon after being released"() {
+        def action = Mock(Factory)
+        def locks = [Mock(FileLock), Mock(FileLock)]
+        def acquired = 0
+        def contendedAction
+
+        given:
+        _ * lockManager.lock(file, _, _, _, _) >> {
+            File target, LockOptions options, String targetDisplayName, String operationDisplayName, Runnable whenContended -> contendedAction = whenContended
+                return locks[acquired++]
+        }
+
+        when:
+        cacheAccess.withFileLock(action)
+        contendedAction.run()
+
+        then:
+        1 * locks[0].close()
+
+        when:
+        cacheAccess.withFileLock(action)
+        def start = System.nanoTime()
+        contendedAction.run()
+        def heldMillis = (System.nanoTime() - start) / 1000000
+
+        then:
+        1 * locks[1].close()
+        heldMillis >= 200
+
+        and:
+        cacheAccess.contendedReleaseCount == 2
+        cacheAccess.reacquiredAfterContendedReleaseCount == 1
+        cacheAccess.batchedHandoverCount == 1
+        cacheAccess.releaseRequestsWhileInUseCount == 0
+    }
+
+    def "runs actions started while holding lock on contention under the same lock and releases it once they have completed"() {
+        def action = Mock(Factory)
+        def locks = [Mock(FileLock), Mock(FileLock)]
+        def acquired = 0
+        def contendedAction
+
+        given:
+        _ * lockManager.lock(file, _, _, _, _) >> {
+            File target, LockOptions options, String targetDisplayName, String operationDisplayName, Runnable whenContended -> contendedAction = whenContended
+                return locks[acquired++]
+        }
+        cacheAccess.withFileLock(action)
+        contendedAction.run()
+        cacheAccess.withFileLock(action)
+
+        when:
+        async {
+            start {
+                contendedAction.run()
+            }
+            start {
+                cacheAccess.withFileLock {
+                    thread.block()
+                    instant.updated
+                }
+            }
+        }
+
+        then:
+        1 * locks[1].close() >> { instant.released }
+        acquired == 2
+        instant.released > instant.updated
+
+        and:
+        cacheAccess.contendedReleaseCount == 2
+        cacheAccess.batchedHandoverCount == 1
+    }
+
+    def "counts release requests while lock is in use"() {
+        def lock = Mock(FileLock)
+        def contendedAction
+
+        given:
+        1 * lockManager.lock(file, _, _, _, _) >> {
+            File target, LockOptions options, String targetDisplayName, String operationDisplayName, Runnable whenContended -> contendedAction = whenContended
+                return lock
+        }
+
+        when:
+        def release = cacheAccess.acquireFileLock()
+        contendedAction.run()
+        contendedAction.run()
+
+        then:
+        0 * lock.close()
+
+        when:
+        release.run()
+
+        then:
+        1 * lock.close()
+
+        and:
+        cacheAccess.contendedReleaseCount == 1
+        cacheAccess.releaseRequestsWhileInUseCount == 1
+        cacheAccess.reacquiredAfterContendedReleaseCount == 0
+    }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.btree
+
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+class MappedByteInputTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+    RandomAccessFile file
+    MappedByteInput input
+
+    def setup() {
+        file = new RandomAccessFile(tmpDir.file("test.bin"), "rw")
+        file.writeInt(123)
+        file.writeInt(321)
+        input = new MappedByteInput(file)
+    }
+
+    def cleanup() {
+        input.close()
+        file.close()
+    }
+
+    def "can reuse to read from multiple locations in file"() {
+        expect:
+        def stream = input.start(0)
+        stream.readInt() == 123
+        stream.readInt() == 321
+        input.getBytesRead() == 8
+        input.done()
+
+        def stream2 = input.start(4)
+        stream2.readInt() == 321
+        input.getBytesRead() == 4
+        input.done()
+    }
+
+    def "sees data written to the file"() {
+        when:
+        file.seek(0)
+        file.writeInt(456)
+
+        then:
+        input.start(0).readInt() == 456
+    }
+
+    def "reads data written after the end of the mapping"() {
+        when:
+        file.seek(8)
+        file.writeInt(456)
+        file.writeInt(654)
+        input.lengthChanged(16)
+
+        then:
+        def stream = input.start(4)
+        stream.readInt() == 321
+        stream.readInt() == 456
+        stream.readInt() == 654
+        input.getBytesRead() == 12
+        input.done()
+
+        def stream2 = input.start(12)
+        stream2.readInt() == 654
+        input.done()
+    }
+
+    def "extends the mapping when the file has grown"() {
+        def length = 1024 * 1024
+
+        when:
+        file.seek(length - 4)
+        file.writeInt(456)
+        input.lengthChanged(length)
+
+        then:
+        input.start(length - 4).readInt() == 456
+        input.start(0).readInt() == 123
+    }
+
+    def "can read after the file has been truncated"() {
+        when:
+        input.lengthChanged(0)
+        file.setLength(0)
+        file.writeInt(456)
+        input.lengthChanged(4)
+
+        then:
+        input.start(0).readInt() == 456
+    }
+
+    def "cannot read beyond end of file"() {
+        when:
+        input.start(123).readInt()
+
+        then:
+        EOFException e = thrown()
+    }
+
+    def "cannot read beyond end of mapping and file"() {
+        when:
+        def stream = input.start(4)
+        stream.readInt()
+        stream.readInt()
+
+        then:
+        EOFException e = thrown()
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.store
+
+import org.gradle.internal.serialize.BaseSerializerFactory
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+import java.nio.file.AccessDeniedException
+import java.util.concurrent.Executor
+
+class LogStructuredIndexedCacheStoreTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+    def cacheFile = tmpDir.file("cache.log")
+    LogStructuredIndexedCacheStore<String, Integer> cache
+    boolean replaceable = true
+
+    def setup() {
+        open()
+    }
+
+    def cleanup() {
+        cache.close()
+    }
+
+    def "returns null for unknown entry"() {
+        expect:
+        cache.get("unknown") == null
+    }
+
+    def "can read added, updated and removed entries"() {
+        when:
+        cache.put("a", 1)
+        cache.put("b", 2)
+        cache.put("c", 3)
+        cache.put("b", 22)
+        cache.remove("c")
+
+        then:
+        cache.get("a") == 1
+        cache.get("b") == 22
+        cache.get("c") == null
+    }
+
+    def "persists entries"() {
+        cache.put("a", 1)
+        cache.put("b", 2)
+        cache.put("a", 11)
+        cache.remove("b")
+
+        when:
+        reopen()
+
+        then:
+        cache.get("a") == 11
+        cache.get("b") == null
+    }
+
+    def "only appends to the file"() {
+        cache.put("a", 1)
+        cache.close()
+        def original = cacheFile.bytes
+
+        when:
+        open()
+        cache.put("a", 2)
+        cache.remove("a")
+        cache.close()
+
+        then:
+        cacheFile.bytes.length > original.length
+        cacheFile.bytes[0..<original.length] == original as List
+
+        cleanup:
+        open()
+    }
+
+    def "compacts the file once most of it is no longer used"() {
+        when:
+        (1..100).each { round ->
+            (1..100).each { cache.put("key-$it", round) }
+        }
+
+        then:
+        // Each record takes 20 bytes, so without compaction the file would be 200kB
+        cacheFile.length() < 100 * 100 * 20 / 2
+        cache.garbageLength < 64 * 1024
+
+        when:
+        reopen()
+
+        then:
+        (1..100).every { cache.get("key-$it") == 100 }
+        cache.fileLength < 100 * 100 * 20 / 2
+    }
+
+    def "keeps the file when it cannot be replaced by the compacted file and compacts it later"() {
+        given:
+        cache.close()
+        cache = new LogStructuredIndexedCacheStore<String, Integer>(cacheFile, BaseSerializerFactory.STRING_SERIALIZER, BaseSerializerFactory.INTEGER_SERIALIZER) {
+            @Override
+            void moveCompactedFile(File compactedFile, File cacheFile) throws IOException {
+                if (!replaceable) {
+                    throw new AccessDeniedException(cacheFile.path)
+                }
+                super.moveCompactedFile(compactedFile, cacheFile)
+            }
+        }
+        replaceable = false
+
+        when:
+        (1..40).each { round ->
+            (1..100).each { cache.put("key-$it", round) }
+        }
+
+        then:
+        // Compaction was tried once the file reached 64kB
+        cache.fileLength == 16 + 40 * 100 * 20
+        (1..100).every { cache.get("key-$it") == 40 }
+        !tmpDir.file("cache.log.compact").exists()
+
+        when:
+        replaceable = true
+        (41..80).each { round ->
+            (1..100).each { cache.put("key-$it", round) }
+        }
+
+        then:
+        cache.fileLength < 40 * 100 * 20
+        (1..100).every { cache.get("key-$it") == 80 }
+
+        when:
+        reopen()
+
+        then:
+        (1..100).every { cache.get("key-$it") == 80 }
+    }
+
+    def "does not compact the file when most of it is used"() {
+        (1..1000).each { cache.put("key-$it", it) }
+        cache.put("key-1", 0)
+
+        when:
+        def length = cache.fileLength
+        reopen()
+
+        then:
+        cacheFile.length() == length
+        cache.garbageLength == 20
+    }
+
+    def "discards partially written entry at the end of the file"() {
+        cache.put("a", 1)
+        cache.put("b", 2)
+        cache.close()
+
+        when:
+        def file = new RandomAccessFile(cacheFile, "rw")
+        try {
+            file.setLength(file.length() - 1)
+        } finally {
+            file.close()
+        }
+        open()
+
+        then:
+        cache.get("a") == 1
+        cache.get("b") == null
+
+        when:
+        cache.put("b", 3)
+        reopen()
+
+        then:
+        cache.get("a") == 1
+        cache.get("b") == 3
+    }
+
+    def "discards file with unexpected contents"() {
+        cache.close()
+        cacheFile.text = "some garbage"
+
+        when:
+        open()
+        cache.put("a", 1)
+        reopen()
+
+        then:
+        cache.get("a") == 1
+    }
+
+    def "keeps the index when closed and only reads appended records when opened again"() {
+        cache.put("a", 1)
+        cache.put("b", 2)
+        cache.close()
+
+        when:
+        def other = newStore()
+        other.put("c", 3)
+        other.close()
+        // Damage the checksum of the first record, which is only noticed when reading the whole file
+        def file = new RandomAccessFile(cacheFile, "rw")
+        try {
+            file.seek(16 + 16)
+            file.write(~file.read())
+        } finally {
+            file.close()
+        }
+        def length = cacheFile.length()
+        cache.reopen()
+
+        then:
+        cacheFile.length() == length
+        cache.get("b") == 2
+        cache.get("c") == 3
+    }
+
+    def "reads the whole file when opened again after another process compacted it"() {
+        (1..100).each { cache.put("key-$it", 0) }
+        cache.close()
+
+        when:
+        def other = newStore()
+        (1..100).each { round ->
+            (1..100).each { other.put("key-$it", round) }
+        }
+        other.put("new", 1)
+        other.close()
+        cache.reopen()
+
+        then:
+        (1..100).every { cache.get("key-$it") == 100 }
+        cache.get("new") == 1
+        cache.fileLength == cacheFile.length()
+    }
+
+    def "reads the live records in the background when compacting"() {
+        def tasks = []
+        cache.close()
+        cache = newStore({ Runnable task -> tasks << task } as Executor)
+
+        when:
+        (1..40).each { round ->
+            (1..100).each { cache.put("key-$it", round) }
+        }
+
+        then:
+        // Started once 64kB are no longer used, the file is not replaced until the live records have been read
+        tasks.size() == 1
+        cache.fileLength == 16 + 40 * 100 * 20
+
+        when:
+        tasks[0].run()
+        cache.put("key-1", 41)
+        cache.put("new", 1)
+
+        then:
+        // The live records followed by those written since the compaction started
+        cache.fileLength < 16 + 10 * 100 * 20
+        cache.get("key-1") == 41
+        cache.get("key-2") == 40
+        cache.get("new") == 1
+
+        when:
+        reopen()
+
+        then:
+        cache.get("key-1") == 41
+        (2..100).every { cache.get("key-$it") == 40 }
+        cache.get("new") == 1
+    }
+
+    private void open() {
+        cache = newStore()
+    }
+
+    private LogStructuredIndexedCacheStore<String, Integer> newStore(Executor compactionExecutor = null) {
+        new LogStructuredIndexedCacheStore<String, Integer>(cacheFile, BaseSerializerFactory.STRING_SERIALIZER, BaseSerializerFactory.INTEGER_SERIALIZER, compactionExecutor)
+    }
+
+    private void reopen() {
+        cache.close()
+        open()
+    }
+}